@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feilong.servlet.http.entity.DownloadConfig;
+
+/**
+ * 基于 Servlet 3.1 {@link WriteListener} 的非阻塞下载.
+ *
+ * <p>
+ * 开启 {@link AsyncContext} 之后,容器线程立即返回;只有在 {@link ServletOutputStream#isReady()} 为 true 的时候,才读取下一块数据写出,<br>
+ * 慢速客户端不会一直占用容器的工作线程.
+ * </p>
+ *
+ * <p>
+ * 限速时不在容器线程上等待: 写出一块数据之后向 {@link DownloadThrottle} 预约令牌,如果需要等待,本次回调直接返回,
+ * 由调度线程在等待时间之后通过 {@link AsyncContext#start(Runnable)} 在容器线程上继续输出.
+ * </p>
+ *
+ * <p>
+ * 完成, 超时, 客户端中断以及异常均通过 {@link DownloadLog} 记录,和同步下载的日志保持一致;数据源在任何情况下都只会关闭一次,准入许可也只会归还一次.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see javax.servlet.WriteListener
+ * @see javax.servlet.AsyncListener
+ * @since 2.1.0
+ */
+final class AsyncDownloadListener implements WriteListener,AsyncListener{
+
+    /** The Constant LOGGER. */
+    private static final Logger                   LOGGER           = LoggerFactory.getLogger(AsyncDownloadListener.class);
+
+    /** 限速等待之后恢复输出的调度器. */
+    private static final ScheduledExecutorService RESUME_SCHEDULER = DaemonThreadFactory.newSingleThreadScheduler("feilong-download-resume");
+
+    //---------------------------------------------------------------
+
+    /** The async context. */
+    private final AsyncContext                    asyncContext;
+
+    /** The output stream. */
+    private final ServletOutputStream             outputStream;
+
+    /** 响应体数据. */
+    private final InputStream                     body;
+
+    /** The download resource. */
+    private final DownloadResource                downloadResource;
+
+    /** The download log. */
+    private final DownloadLog                     downloadLog;
+
+    /** The request. */
+    private final HttpServletRequest              request;
+
+    /** 限速器,不限速时是 null. */
+    private final DownloadThrottle                downloadThrottle;
+
+    /** 准入许可. */
+    private final DownloadAdmission.Permit        permit;
+
+    /** 是否已经结束. */
+    private final AtomicBoolean                   finished         = new AtomicBoolean(false);
+
+    /** 是否正在限速等待,等待期间容器的 onWritePossible 回调交给调度线程恢复输出. */
+    private final AtomicBoolean                   resumeScheduled  = new AtomicBoolean(false);
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param asyncContext
+     *            the async context
+     * @param outputStream
+     *            the output stream
+     * @param body
+     *            响应体数据
+     * @param downloadResource
+     *            the download resource
+     * @param downloadLog
+     *            the download log
+     * @param request
+     *            the request
+     * @param downloadThrottle
+     *            限速器
+     * @param permit
+     *            准入许可
+     */
+    private AsyncDownloadListener(AsyncContext asyncContext, ServletOutputStream outputStream, InputStream body,
+                    DownloadResource downloadResource, DownloadLog downloadLog, HttpServletRequest request,
+                    DownloadThrottle downloadThrottle, DownloadAdmission.Permit permit){
+        this.asyncContext = asyncContext;
+        this.outputStream = outputStream;
+        this.body = body;
+        this.downloadResource = downloadResource;
+        this.downloadLog = downloadLog;
+        this.request = request;
+        this.downloadThrottle = downloadThrottle;
+        this.permit = permit;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 开启异步下载.
+     *
+     * <p>
+     * 调用之前, response header 需要已经设置好.
+     * </p>
+     *
+     * @param downloadResource
+     *            the download resource
+     * @param contentLength
+     *            本次输出的长度
+     * @param partialContent
+     *            需要输出的区间,如果是 null 表示输出完整内容
+     * @param downloadConfig
+     *            the download config
+     * @param permit
+     *            准入许可,输出结束之后归还
+     * @param request
+     *            the request,需要 {@link HttpServletRequest#isAsyncSupported()}
+     * @param response
+     *            the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static void start(
+                    DownloadResource downloadResource,
+                    Number contentLength,
+                    PartialContent partialContent,
+                    DownloadConfig downloadConfig,
+                    DownloadAdmission.Permit permit,
+                    HttpServletRequest request,
+                    HttpServletResponse response) throws IOException{
+        DownloadLog downloadLog = DownloadLog.begin(downloadResource.getSaveFileName(), contentLength, null != partialContent);
+        try{
+            InputStream inputStream = downloadResource.getInputStream(downloadConfig.getReadAhead());
+            InputStream body = null == partialContent ? inputStream : partialContent.toInputStream(inputStream);
+
+            AsyncContext asyncContext = request.startAsync(request, response);
+            asyncContext.setTimeout(downloadConfig.getAsyncTimeout());
+
+            ServletOutputStream outputStream = response.getOutputStream();
+            AsyncDownloadListener asyncDownloadListener = new AsyncDownloadListener(
+                            asyncContext,
+                            outputStream,
+                            body,
+                            downloadResource,
+                            downloadLog,
+                            request,
+                            DownloadThrottle.of(downloadConfig),
+                            permit);
+            asyncContext.addListener(asyncDownloadListener);
+
+            //容器会在可写的时候回调 onWritePossible
+            outputStream.setWriteListener(asyncDownloadListener);
+        }catch (IOException | RuntimeException e){
+            //还没有交给容器回调, 在这里记录
+            downloadLog.error(e, request);
+            throw e;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.WriteListener#onWritePossible()
+     */
+    @Override
+    public synchronized void onWritePossible() throws IOException{
+        if (finished.get() || resumeScheduled.get()){
+            return;
+        }
+        //缓冲区只在本次回调内使用, 超时等其他线程的回调结束下载时不会和它冲突
+        byte[] buffer = BufferPool.acquire();
+        try{
+            while (outputStream.isReady()){
+                int read = body.read(buffer);
+                if (read < 0){
+                    finish(null);
+                    asyncContext.complete();
+                    return;
+                }
+                outputStream.write(buffer, 0, read);
+                downloadLog.addBytes(read);
+
+                long waitNanos = downloadThrottle.reserve(read);
+                if (waitNanos > 0){
+                    //不占用容器线程等待, 到时间之后再继续
+                    scheduleResume(waitNanos);
+                    return;
+                }
+            }
+            //isReady() 返回 false 之后, 容器会在再次可写的时候回调 onWritePossible
+        }finally{
+            BufferPool.release(buffer);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.WriteListener#onError(java.lang.Throwable)
+     */
+    @Override
+    public void onError(Throwable throwable){
+        finish(throwable);
+        asyncContext.complete();
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.AsyncListener#onTimeout(javax.servlet.AsyncEvent)
+     */
+    @Override
+    public void onTimeout(AsyncEvent event){
+        finish(new TimeoutException("async download timeout:" + asyncContext.getTimeout() + "ms"));
+        event.getAsyncContext().complete();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.AsyncListener#onError(javax.servlet.AsyncEvent)
+     */
+    @Override
+    public void onError(AsyncEvent event){
+        finish(event.getThrowable());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.AsyncListener#onComplete(javax.servlet.AsyncEvent)
+     */
+    @Override
+    public void onComplete(AsyncEvent event){
+        //正常情况下已经结束; 如果容器提前结束了异步请求, 需要关闭数据源
+        finish(new IOException("async download completed by container before all data was written"));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.AsyncListener#onStartAsync(javax.servlet.AsyncEvent)
+     */
+    @Override
+    public void onStartAsync(AsyncEvent event){
+        //nothing to do
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 在 <code>waitNanos</code> 纳秒之后,回到容器线程继续输出.
+     *
+     * @param waitNanos
+     *            需要等待的纳秒数
+     */
+    private void scheduleResume(long waitNanos){
+        resumeScheduled.set(true);
+        RESUME_SCHEDULER.schedule(new Runnable(){
+
+            @Override
+            public void run(){
+                resume();
+            }
+        }, waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 限速等待结束,如果下载还没有结束(比如已经超时),在容器线程上继续输出.
+     */
+    private void resume(){
+        if (finished.get()){
+            return;
+        }
+        try{
+            asyncContext.start(new Runnable(){
+
+                @Override
+                public void run(){
+                    resumeScheduled.set(false);
+                    try{
+                        onWritePossible();
+                    }catch (IOException e){
+                        onError(e);
+                    }
+                }
+            });
+        }catch (IllegalStateException e){
+            //异步请求已经被容器结束
+            LOGGER.debug("async request is already completed,resume download ignored", e);
+            finish(e);
+        }
+    }
+
+    /**
+     * 结束下载,关闭数据源并记录日志,只会执行一次.
+     * 
+     * <p>
+     * 和 {@link #onWritePossible()} 使用同一把锁: 超时以及容器的错误回调在其他线程上执行,如果容器线程正在 <code>body.read</code>
+     * (比如很慢的挂载盘),需要等它返回之后再关闭数据源,否则 {@link ReadAheadInputStream} 的缓冲区会在读取的同时被归还给 {@link BufferPool}.
+     * </p>
+     *
+     * @param throwable
+     *            如果是 null 表示正常结束
+     */
+    private synchronized void finish(Throwable throwable){
+        if (!finished.compareAndSet(false, true)){
+            return;
+        }
+        //body 只是数据源(或者它的区间视图), 由 downloadResource 关闭
+        downloadResource.close();
+        permit.release();
+
+        if (null == throwable){
+            downloadLog.end();
+        }else{
+            downloadLog.error(throwable, request);
+        }
+    }
+}
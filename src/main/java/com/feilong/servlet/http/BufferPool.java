@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * 下载以及输出时使用的复制缓冲区池.
+ * 
+ * <p>
+ * 每次复制都 <code>new byte[8192]</code> 在下载量大的时候会产生大量短命的垃圾;这里把用完的缓冲区缓存起来重复使用.
+ * </p>
+ * 
+ * <h3>实现:</h3>
+ * 
+ * <blockquote>
+ * <ol>
+ * <li>两种规格: 普通缓冲区 {@link #getBufferSize()} 以及大文件模式使用的大缓冲区 {@link #getLargeBufferSize()};</li>
+ * <li>分段(striped): 按照线程 id 分到 {@link #getStripeCount()} 个分段,每个分段一把锁,避免所有下载线程竞争同一把锁;</li>
+ * <li>有界: 每个分段每种规格最多缓存 {@link #getMaxBuffersPerStripe()} 个,超过的直接丢弃交给 GC;池中没有时直接分配.</li>
+ * </ol>
+ * </blockquote>
+ * 
+ * <p>
+ * 大小均可以在运行时调整,调整之后旧规格的缓冲区归还时会被丢弃.
+ * </p>
+ *
+ * <h3>示例:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * BufferPool.setBufferSize(16 * 1024);
+ * BufferPool.setMaxBuffersPerStripe(16);
+ * 
+ * LOGGER.info("pooled:[{}],reused:[{}],allocated:[{}]", BufferPool.getPooledCount(), BufferPool.getReuseCount(), BufferPool.getAllocateCount());
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+public final class BufferPool{
+
+    /** 默认的普通缓冲区大小 <code>{@value}</code>. */
+    public static final int         DEFAULT_BUFFER_SIZE            = 8192;
+
+    /** 默认的大缓冲区大小 <code>{@value}</code>,即 64KB. */
+    public static final int         DEFAULT_LARGE_BUFFER_SIZE      = 64 * 1024;
+
+    /** 缓冲区的最小大小 <code>{@value}</code>,保证一次至少能编码一个字符. */
+    public static final int         MIN_BUFFER_SIZE                = 1024;
+
+    /** 默认的每个分段每种规格最多缓存的数量 <code>{@value}</code>. */
+    public static final int         DEFAULT_MAX_BUFFERS_PER_STRIPE = 8;
+
+    /** 分段数量,不小于 cpu 数量两倍的 2 的幂,最多 64. */
+    private static final int        STRIPE_COUNT                   = toStripeCount(Runtime.getRuntime().availableProcessors());
+
+    /** 分段. */
+    private static final Stripe[]   STRIPES                        = newStripes();
+
+    //---------------------------------------------------------------
+
+    /** 普通缓冲区大小. */
+    private static volatile int     bufferSize                     = DEFAULT_BUFFER_SIZE;
+
+    /** 大缓冲区大小. */
+    private static volatile int     largeBufferSize                = DEFAULT_LARGE_BUFFER_SIZE;
+
+    /** 每个分段每种规格最多缓存的数量. */
+    private static volatile int     maxBuffersPerStripe            = DEFAULT_MAX_BUFFERS_PER_STRIPE;
+
+    /** 从池中获得的次数. */
+    private static final AtomicLong REUSE_COUNT                    = new AtomicLong();
+
+    /** 新分配的次数. */
+    private static final AtomicLong ALLOCATE_COUNT                 = new AtomicLong();
+
+    /** 归还时因为池满了或者规格不对被丢弃的次数. */
+    private static final AtomicLong DISCARD_COUNT                  = new AtomicLong();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private BufferPool(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得一个普通缓冲区,用完之后需要 {@link #release(byte[])}.
+     *
+     * @return 长度是 {@link #getBufferSize()} 的缓冲区,内容未初始化
+     */
+    static byte[] acquire(){
+        return acquire(false);
+    }
+
+    /**
+     * 获得一个缓冲区,用完之后需要 {@link #release(byte[])}.
+     *
+     * @param large
+     *            是否使用大缓冲区
+     * @return 长度是 {@link #getBufferSize()} 或者 {@link #getLargeBufferSize()} 的缓冲区,内容未初始化
+     */
+    static byte[] acquire(boolean large){
+        int size = large ? largeBufferSize : bufferSize;
+        byte[] buffer = currentStripe().poll(size);
+        if (null != buffer){
+            REUSE_COUNT.incrementAndGet();
+            return buffer;
+        }
+        ALLOCATE_COUNT.incrementAndGet();
+        return new byte[size];
+    }
+
+    /**
+     * 归还缓冲区;归还之后调用方不能再使用它.
+     *
+     * @param buffer
+     *            the buffer,如果是 null,什么都不做
+     */
+    static void release(byte[] buffer){
+        if (null == buffer){
+            return;
+        }
+        if (!currentStripe().offer(buffer, bufferSize, largeBufferSize, maxBuffersPerStripe)){
+            DISCARD_COUNT.incrementAndGet();
+        }
+    }
+
+    /**
+     * 清空池,不重置计数.
+     */
+    public static void clear(){
+        for (Stripe stripe : STRIPES){
+            stripe.clear();
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 当前线程对应的分段.
+     *
+     * @return the stripe
+     */
+    private static Stripe currentStripe(){
+        long id = Thread.currentThread().getId();
+        return STRIPES[(int) (id ^ (id >>> 16)) & (STRIPE_COUNT - 1)];
+    }
+
+    /**
+     * 分段数量.
+     *
+     * @param availableProcessors
+     *            cpu 数量
+     * @return 不小于 cpu 数量两倍的 2 的幂,最多 64
+     */
+    static int toStripeCount(int availableProcessors){
+        return Math.min(64, Integer.highestOneBit(Math.max(1, availableProcessors * 2 - 1)) << 1);
+    }
+
+    /**
+     * New stripes.
+     *
+     * @return the stripe[]
+     */
+    private static Stripe[] newStripes(){
+        Stripe[] stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; ++i){
+            stripes[i] = new Stripe();
+        }
+        return stripes;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 普通缓冲区大小.
+     *
+     * @return the bufferSize
+     */
+    public static int getBufferSize(){
+        return bufferSize;
+    }
+
+    /**
+     * 设置 普通缓冲区大小.
+     *
+     * @param bufferSize
+     *            the bufferSize to set
+     * @throws IllegalArgumentException
+     *             如果 <code>bufferSize</code> 小于 {@link #MIN_BUFFER_SIZE}
+     */
+    public static void setBufferSize(int bufferSize){
+        Validate.isTrue(bufferSize >= MIN_BUFFER_SIZE, "bufferSize must >= %s, but is:%s", MIN_BUFFER_SIZE, bufferSize);
+        BufferPool.bufferSize = bufferSize;
+        clear();
+    }
+
+    /**
+     * 获得 大缓冲区大小.
+     *
+     * @return the largeBufferSize
+     */
+    public static int getLargeBufferSize(){
+        return largeBufferSize;
+    }
+
+    /**
+     * 设置 大缓冲区大小.
+     *
+     * @param largeBufferSize
+     *            the largeBufferSize to set
+     * @throws IllegalArgumentException
+     *             如果 <code>largeBufferSize</code> 小于 {@link #MIN_BUFFER_SIZE}
+     */
+    public static void setLargeBufferSize(int largeBufferSize){
+        Validate.isTrue(largeBufferSize >= MIN_BUFFER_SIZE, "largeBufferSize must >= %s, but is:%s", MIN_BUFFER_SIZE, largeBufferSize);
+        BufferPool.largeBufferSize = largeBufferSize;
+        clear();
+    }
+
+    /**
+     * 获得 每个分段每种规格最多缓存的数量.
+     *
+     * @return the maxBuffersPerStripe
+     */
+    public static int getMaxBuffersPerStripe(){
+        return maxBuffersPerStripe;
+    }
+
+    /**
+     * 设置 每个分段每种规格最多缓存的数量, 0 表示不缓存.
+     *
+     * @param maxBuffersPerStripe
+     *            the maxBuffersPerStripe to set
+     */
+    public static void setMaxBuffersPerStripe(int maxBuffersPerStripe){
+        BufferPool.maxBuffersPerStripe = Math.max(0, maxBuffersPerStripe);
+        clear();
+    }
+
+    /**
+     * 获得 分段数量.
+     *
+     * @return the stripe count
+     */
+    public static int getStripeCount(){
+        return STRIPE_COUNT;
+    }
+
+    /**
+     * 获得 当前池中缓存的缓冲区数量.
+     *
+     * @return the pooled count
+     */
+    public static int getPooledCount(){
+        int count = 0;
+        for (Stripe stripe : STRIPES){
+            count += stripe.size();
+        }
+        return count;
+    }
+
+    /**
+     * 获得 当前池中缓存的总字节数.
+     *
+     * @return the pooled bytes
+     */
+    public static long getPooledBytes(){
+        long bytes = 0;
+        for (Stripe stripe : STRIPES){
+            bytes += stripe.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 获得 从池中获得的次数.
+     *
+     * @return the reuse count
+     */
+    public static long getReuseCount(){
+        return REUSE_COUNT.get();
+    }
+
+    /**
+     * 获得 新分配的次数.
+     *
+     * @return the allocate count
+     */
+    public static long getAllocateCount(){
+        return ALLOCATE_COUNT.get();
+    }
+
+    /**
+     * 获得 归还时因为池满了或者规格不对被丢弃的次数.
+     *
+     * @return the discard count
+     */
+    public static long getDiscardCount(){
+        return DISCARD_COUNT.get();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 一个分段,普通以及大缓冲区各一个栈.
+     */
+    private static final class Stripe{
+
+        /** 普通缓冲区. */
+        private final Stack small = new Stack();
+
+        /** 大缓冲区. */
+        private final Stack large = new Stack();
+
+        /**
+         * 取出指定大小的缓冲区.
+         *
+         * @param size
+         *            the size
+         * @return 如果没有,返回 null
+         */
+        private synchronized byte[] poll(int size){
+            byte[] buffer = small.poll(size);
+            return null != buffer ? buffer : large.poll(size);
+        }
+
+        /**
+         * 放回.
+         *
+         * @param buffer
+         *            the buffer
+         * @param bufferSize
+         *            当前的普通缓冲区大小
+         * @param largeBufferSize
+         *            当前的大缓冲区大小
+         * @param max
+         *            每种规格最多缓存的数量
+         * @return 如果被丢弃,返回 false
+         */
+        private synchronized boolean offer(byte[] buffer,int bufferSize,int largeBufferSize,int max){
+            if (buffer.length == bufferSize){
+                return small.offer(buffer, max);
+            }
+            return buffer.length == largeBufferSize && large.offer(buffer, max);
+        }
+
+        /**
+         * Clear.
+         */
+        private synchronized void clear(){
+            small.clear();
+            large.clear();
+        }
+
+        /**
+         * Size.
+         *
+         * @return the int
+         */
+        private synchronized int size(){
+            return small.count + large.count;
+        }
+
+        /**
+         * Bytes.
+         *
+         * @return the long
+         */
+        private synchronized long bytes(){
+            return small.bytes() + large.bytes();
+        }
+    }
+
+    /**
+     * 缓冲区栈, 后进先出(最近用过的缓冲区更可能还在 cpu 缓存中),需要在 {@link Stripe} 锁内访问.
+     */
+    private static final class Stack{
+
+        /** The buffers. */
+        private byte[][] buffers = new byte[0][];
+
+        /** The count. */
+        private int      count;
+
+        /**
+         * 取出.
+         *
+         * @param size
+         *            需要的大小
+         * @return 如果栈顶不是这个大小,返回 null
+         */
+        private byte[] poll(int size){
+            if (0 == count || buffers[count - 1].length != size){
+                return null;
+            }
+            byte[] buffer = buffers[--count];
+            buffers[count] = null;
+            return buffer;
+        }
+
+        /**
+         * 放入.
+         *
+         * @param buffer
+         *            the buffer
+         * @param max
+         *            最多缓存的数量
+         * @return 如果满了,返回 false
+         */
+        private boolean offer(byte[] buffer,int max){
+            if (count >= max){
+                return false;
+            }
+            if (count == buffers.length){
+                byte[][] newBuffers = new byte[Math.min(max, Math.max(4, count * 2))][];
+                System.arraycopy(buffers, 0, newBuffers, 0, count);
+                buffers = newBuffers;
+            }
+            buffers[count++] = buffer;
+            return true;
+        }
+
+        /**
+         * Clear.
+         */
+        private void clear(){
+            buffers = new byte[0][];
+            count = 0;
+        }
+
+        /**
+         * Bytes.
+         *
+         * @return the long
+         */
+        private long bytes(){
+            long bytes = 0;
+            for (int i = 0; i < count; ++i){
+                bytes += buffers[i].length;
+            }
+            return bytes;
+        }
+    }
+}
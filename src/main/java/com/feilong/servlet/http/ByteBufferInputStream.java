@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 读取 {@link ByteBuffer} 的 {@link InputStream}, {@link #skip(long)} 直接移动 position.
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class ByteBufferInputStream extends InputStream{
+
+    /** The byte buffer. */
+    private final ByteBuffer byteBuffer;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param byteBuffer
+     *            the byte buffer,从当前 position 开始读取,会修改它的 position
+     */
+    ByteBufferInputStream(ByteBuffer byteBuffer){
+        this.byteBuffer = byteBuffer;
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read(){
+        return byteBuffer.hasRemaining() ? byteBuffer.get() & 0xFF : -1;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b,int off,int len){
+        if (len == 0){
+            return 0;
+        }
+        if (!byteBuffer.hasRemaining()){
+            return -1;
+        }
+        int count = Math.min(len, byteBuffer.remaining());
+        byteBuffer.get(b, off, count);
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#skip(long)
+     */
+    @Override
+    public long skip(long n){
+        if (n <= 0){
+            return 0;
+        }
+        int count = (int) Math.min(n, byteBuffer.remaining());
+        byteBuffer.position(byteBuffer.position() + count);
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available(){
+        return byteBuffer.remaining();
+    }
+}
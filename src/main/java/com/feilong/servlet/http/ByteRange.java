@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+/**
+ * 一个已经按照实体长度解析好的字节区间(byte-range),首尾均包含.
+ *
+ * <p>
+ * 比如 <code>bytes=0-499</code> 解析之后 {@link #start} 是 0, {@link #end} 是 499, {@link #getLength()} 是 500.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see <a href="https://tools.ietf.org/html/rfc7233#section-2.1">RFC 7233 2.1. Byte Ranges</a>
+ * @since 2.1.0
+ */
+final class ByteRange{
+
+    /** 第一个字节的位置(包含). */
+    private final long start;
+
+    /** 最后一个字节的位置(包含). */
+    private final long end;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param start
+     *            第一个字节的位置(包含)
+     * @param end
+     *            最后一个字节的位置(包含)
+     */
+    ByteRange(long start, long end){
+        this.start = start;
+        this.end = end;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 区间字节数.
+     *
+     * @return the length
+     */
+    long getLength(){
+        return end - start + 1;
+    }
+
+    /**
+     * 生成 <code>Content-Range</code> header 的值,比如 <code>bytes 0-499/1234</code>.
+     *
+     * @param totalLength
+     *            实体总长度
+     * @return the content range
+     */
+    String toContentRange(long totalLength){
+        return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 第一个字节的位置(包含).
+     *
+     * @return the start
+     */
+    long getStart(){
+        return start;
+    }
+
+    /**
+     * 获得 最后一个字节的位置(包含).
+     *
+     * @return the end
+     */
+    long getEnd(){
+        return end;
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString(){
+        return start + "-" + end;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 解析 <code>Range</code> request header 的工具类.
+ *
+ * <h3>解析规则:</h3>
+ *
+ * <blockquote>
+ * <table border="1" cellspacing="0" cellpadding="4" summary="">
+ * <tr style="background-color:#ccccff">
+ * <th align="left">情况</th>
+ * <th align="left">返回值</th>
+ * </tr>
+ * <tr valign="top">
+ * <td>header 是 blank,不是 <code>bytes=</code> 开头,语法错误,或者实体长度未知</td>
+ * <td><code>null</code>,表示忽略 Range,返回完整内容(200)</td>
+ * </tr>
+ * <tr valign="top" style="background-color:#eeeeff">
+ * <td>语法正确,但是没有一个区间可以满足</td>
+ * <td>empty list,表示需要返回 416</td>
+ * </tr>
+ * <tr valign="top">
+ * <td>其他</td>
+ * <td>按照实体长度修正之后的区间,顺序和请求保持一致</td>
+ * </tr>
+ * </table>
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see <a href="https://tools.ietf.org/html/rfc7233#section-3.1">RFC 7233 3.1. Range</a>
+ * @since 2.1.0
+ */
+final class ByteRangeUtil{
+
+    /** range unit 前缀. */
+    private static final String                 BYTES_UNIT_PREFIX = "bytes=";
+
+    /** 按照 start 升序. */
+    private static final Comparator<ByteRange> START_COMPARATOR  = new Comparator<ByteRange>(){
+
+                                                                      @Override
+                                                                      public int compare(ByteRange o1,ByteRange o2){
+                                                                          return Long.compare(o1.getStart(), o2.getStart());
+                                                                      }
+                                                                  };
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private ByteRangeUtil(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 解析 <code>Range</code> header.
+     *
+     * @param rangeHeader
+     *            Range header 的值,比如 <code>bytes=0-499</code>,<code>bytes=500-</code>,<code>bytes=-500</code>
+     * @param entityLength
+     *            实体总长度,如果 {@code <0} 表示未知,返回 null
+     * @return 参见类注释
+     */
+    static List<ByteRange> parse(String rangeHeader,long entityLength){
+        if (entityLength < 0 || StringUtils.isBlank(rangeHeader)){
+            return null;
+        }
+        String trimRangeHeader = rangeHeader.trim();
+        if (!StringUtils.startsWithIgnoreCase(trimRangeHeader, BYTES_UNIT_PREFIX)){
+            return null;
+        }
+
+        //---------------------------------------------------------------
+        String[] byteRangeSpecs = StringUtils.split(trimRangeHeader.substring(BYTES_UNIT_PREFIX.length()), ',');
+        if (byteRangeSpecs.length == 0){
+            return null;
+        }
+
+        List<ByteRange> byteRangeList = new ArrayList<>(byteRangeSpecs.length);
+        for (String byteRangeSpec : byteRangeSpecs){
+            long[] startAndEnd = parseSpec(byteRangeSpec.trim());
+            //语法错误,整个 header 忽略
+            if (null == startAndEnd){
+                return null;
+            }
+            ByteRange byteRange = toSatisfiableByteRange(startAndEnd[0], startAndEnd[1], entityLength);
+            if (null != byteRange){
+                byteRangeList.add(byteRange);
+            }
+        }
+        return byteRangeList.isEmpty() ? Collections.<ByteRange> emptyList() : byteRangeList;
+    }
+
+    /**
+     * 将区间按照 start 升序排列,并合并重叠或者相邻的区间.
+     * 
+     * <p>
+     * 合并之后的区间互不重叠并且是升序的,这样输出多个区间时,只需要对数据源向前 seek,每个区间一次.<br>
+     * RFC 7233 允许服务端不按照请求的顺序合并区间.
+     * </p>
+     *
+     * @param byteRangeList
+     *            the byte range list
+     * @return 如果 <code>byteRangeList</code> 元素个数 {@code <=1},直接返回
+     * @see <a href="https://tools.ietf.org/html/rfc7233#section-4.1">RFC 7233 4.1. 206 Partial Content</a>
+     */
+    static List<ByteRange> merge(List<ByteRange> byteRangeList){
+        if (byteRangeList.size() <= 1){
+            return byteRangeList;
+        }
+        List<ByteRange> sortedList = new ArrayList<>(byteRangeList);
+        Collections.sort(sortedList, START_COMPARATOR);
+
+        List<ByteRange> mergedList = new ArrayList<>(sortedList.size());
+        ByteRange current = sortedList.get(0);
+        for (int i = 1; i < sortedList.size(); ++i){
+            ByteRange next = sortedList.get(i);
+            //重叠或者相邻
+            if (next.getStart() <= current.getEnd() + 1){
+                current = new ByteRange(current.getStart(), Math.max(current.getEnd(), next.getEnd()));
+            }else{
+                mergedList.add(current);
+                current = next;
+            }
+        }
+        mergedList.add(current);
+        return mergedList;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 解析单个 byte-range-spec 或者 suffix-byte-range-spec.
+     *
+     * @param byteRangeSpec
+     *            比如 <code>0-499</code>,<code>500-</code>,<code>-500</code>
+     * @return 长度为2的数组, 未指定的位置使用 -1 表示;如果语法错误,返回 null
+     */
+    private static long[] parseSpec(String byteRangeSpec){
+        int index = byteRangeSpec.indexOf('-');
+        if (index < 0){
+            return null;
+        }
+        String startString = byteRangeSpec.substring(0, index).trim();
+        String endString = byteRangeSpec.substring(index + 1).trim();
+        if (startString.isEmpty() && endString.isEmpty()){
+            return null;
+        }
+
+        long start = startString.isEmpty() ? -1 : toNonNegativeLong(startString);
+        long end = endString.isEmpty() ? -1 : toNonNegativeLong(endString);
+
+        //非数字
+        if ((!startString.isEmpty() && start < 0) || (!endString.isEmpty() && end < 0)){
+            return null;
+        }
+        //last-byte-pos 小于 first-byte-pos, 语法错误
+        if (start >= 0 && end >= 0 && end < start){
+            return null;
+        }
+        return new long[] { start, end };
+    }
+
+    /**
+     * 按照实体长度修正区间.
+     *
+     * @param start
+     *            first-byte-pos, -1 表示 suffix-byte-range-spec
+     * @param end
+     *            last-byte-pos, -1 表示未指定
+     * @param entityLength
+     *            实体总长度
+     * @return 如果不可满足,返回 null
+     */
+    private static ByteRange toSatisfiableByteRange(long start,long end,long entityLength){
+        //suffix-byte-range-spec, 比如 -500 表示最后500个字节
+        if (start < 0){
+            if (end == 0 || entityLength == 0){
+                return null;
+            }
+            return new ByteRange(Math.max(0, entityLength - end), entityLength - 1);
+        }
+        if (start >= entityLength){
+            return null;
+        }
+        return new ByteRange(start, end < 0 || end >= entityLength ? entityLength - 1 : end);
+    }
+
+    /**
+     * 转成非负 long.
+     *
+     * @param value
+     *            the value
+     * @return 如果不是纯数字或者超出范围,返回 -1
+     */
+    private static long toNonNegativeLong(String value){
+        if (!StringUtils.isNumeric(value)){
+            return -1;
+        }
+        try{
+            return Long.parseLong(value);
+        }catch (NumberFormatException e){
+            return -1;
+        }
+    }
+}
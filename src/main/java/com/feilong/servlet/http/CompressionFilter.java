@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按照 <code>Accept-Encoding</code> 协商, gzip/deflate 压缩响应的 {@link Filter}.
+ *
+ * <p>
+ * 响应体的前 {@link #getThreshold()} 个字节先缓存起来,超过之后才开始边写边压缩,小的响应原样输出(并且带上 <code>Content-Length</code>);<br>
+ * 图片, zip, gz 等本身已经压缩过的类型(按照 {@link com.feilong.io.entity.MimeType#isText()} 判断)以及 206, 204, 304, 已经有
+ * <code>Content-Encoding</code> 的响应不压缩;<br>
+ * 压缩使用 {@link DeflaterPool} 中复用的 {@link Deflater}.
+ * </p>
+ *
+ * <h3>协商:</h3>
+ *
+ * <blockquote>
+ * <p>
+ * gzip 以及 deflate 的 q 值都大于 0 时,选择 q 值大的,相同时优先 gzip;都不接受的请求以及 HEAD 请求不包装.
+ * </p>
+ * </blockquote>
+ *
+ * <h3>异步请求:</h3>
+ *
+ * <blockquote>
+ * <p>
+ * 压缩需要在响应结束之前写出 gzip trailer,所以异步请求需要通过 <code>request.startAsync()</code> 返回的 {@link javax.servlet.AsyncContext} 调用
+ * <code>complete()</code>(参见 {@link CompressionRequestWrapper});<br>
+ * 使用 <code>dispatch</code> 的,filter-mapping 需要包含 <code>ASYNC</code>,由分派的请求结束压缩.
+ * </p>
+ * </blockquote>
+ *
+ * <h3>配置:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * {@code
+ * <filter>
+ *     <filter-name>compressionFilter</filter-name>
+ *     <filter-class>com.feilong.servlet.http.CompressionFilter</filter-class>
+ *     <async-supported>true</async-supported>
+ *     <init-param>
+ *         <param-name>threshold</param-name>
+ *         <param-value>1024</param-value>
+ *     </init-param>
+ *     <init-param>
+ *         <param-name>compressionLevel</param-name>
+ *         <param-value>6</param-value>
+ *     </init-param>
+ * </filter>
+ * <filter-mapping>
+ *     <filter-name>compressionFilter</filter-name>
+ *     <url-pattern>/*</url-pattern>
+ *     <dispatcher>REQUEST</dispatcher>
+ *     <dispatcher>ASYNC</dispatcher>
+ * </filter-mapping>
+ * }
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-5.3.4">RFC 7231 Accept-Encoding</a>
+ * @since 2.1.0
+ */
+public class CompressionFilter implements Filter{
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER             = LoggerFactory.getLogger(CompressionFilter.class);
+
+    /** gzip content-coding. */
+    static final String         GZIP               = "gzip";
+
+    /** deflate content-coding. */
+    static final String         DEFLATE            = "deflate";
+
+    /** 默认超过多少字节才压缩 <code>{@value}</code>. */
+    public static final int     DEFAULT_THRESHOLD  = 1024;
+
+    /** 标记请求已经被包装过的 attribute,值是 {@link CompressionResponseWrapper},防止 forward/include/error/async 重复包装. */
+    private static final String FILTERED_ATTRIBUTE = CompressionFilter.class.getName() + ".FILTERED";
+
+    //---------------------------------------------------------------
+
+    /** 超过多少字节才压缩. */
+    private int                 threshold          = DEFAULT_THRESHOLD;
+
+    /** 压缩级别. */
+    private int                 compressionLevel   = Deflater.DEFAULT_COMPRESSION;
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig filterConfig){
+        String thresholdValue = filterConfig.getInitParameter("threshold");
+        if (StringUtils.isNotBlank(thresholdValue)){
+            setThreshold(Integer.parseInt(thresholdValue.trim()));
+        }
+        String compressionLevelValue = filterConfig.getInitParameter("compressionLevel");
+        if (StringUtils.isNotBlank(compressionLevelValue)){
+            setCompressionLevel(Integer.parseInt(compressionLevelValue.trim()));
+        }
+        LOGGER.info("threshold:[{}],compressionLevel:[{}]", threshold, compressionLevel);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request,ServletResponse response,FilterChain chain) throws IOException,ServletException{
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)){
+            chain.doFilter(request, response);
+            return;
+        }
+        Object filtered = request.getAttribute(FILTERED_ATTRIBUTE);
+        if (null != filtered){
+            chain.doFilter(request, response);
+            //AsyncContext#dispatch 之后, 由分派的请求结束压缩(需要 <dispatcher>ASYNC</dispatcher>)
+            if (DispatcherType.ASYNC == request.getDispatcherType() && !request.isAsyncStarted()){
+                ((CompressionResponseWrapper) filtered).finish();
+            }
+            return;
+        }
+
+        HttpServletRequest httpServletRequest = (HttpServletRequest) request;
+        String contentEncoding = "HEAD".equalsIgnoreCase(httpServletRequest.getMethod()) ? null
+                        : selectContentEncoding(httpServletRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        if (null == contentEncoding){
+            chain.doFilter(request, response);
+            return;
+        }
+
+        //---------------------------------------------------------------
+        CompressionResponseWrapper wrapper = new CompressionResponseWrapper(
+                        (HttpServletResponse) response,
+                        contentEncoding,
+                        threshold,
+                        compressionLevel);
+        CompressionRequestWrapper requestWrapper = new CompressionRequestWrapper(httpServletRequest, wrapper);
+        request.setAttribute(FILTERED_ATTRIBUTE, wrapper);
+        boolean completed = false;
+        try{
+            chain.doFilter(requestWrapper, wrapper);
+            completed = true;
+        }finally{
+            if (!completed){
+                wrapper.abort();
+            }
+        }
+
+        if (requestWrapper.isAsyncStarted()){
+            //由包装之后的 AsyncContext#complete() 结束压缩
+            requestWrapper.getAsyncContext().addListener(new FinishAsyncListener(wrapper));
+        }else{
+            wrapper.finish();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy(){
+        //DeflaterPool 是全局的, 其他实例可能还在使用
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 按照 <code>Accept-Encoding</code> 选择 content-coding.
+     *
+     * @param acceptEncoding
+     *            the accept encoding
+     * @return 如果 <code>acceptEncoding</code> 是null或者blank,或者 gzip 和 deflate 都不接受,返回 null
+     */
+    static String selectContentEncoding(String acceptEncoding){
+        if (StringUtils.isBlank(acceptEncoding)){
+            return null;
+        }
+        double gzipQuality = PrecompressedVariants.getQuality(acceptEncoding, GZIP);
+        double deflateQuality = PrecompressedVariants.getQuality(acceptEncoding, DEFLATE);
+        if (gzipQuality <= 0 && deflateQuality <= 0){
+            return null;
+        }
+        return gzipQuality >= deflateQuality ? GZIP : DEFLATE;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 超过多少字节才压缩.
+     *
+     * @return the threshold
+     */
+    public int getThreshold(){
+        return threshold;
+    }
+
+    /**
+     * 设置 超过多少字节才压缩,默认 {@link #DEFAULT_THRESHOLD}.
+     *
+     * <p>
+     * 太小的响应压缩之后往往更大,并且白白消耗 CPU;0 表示总是压缩.
+     * </p>
+     *
+     * @param threshold
+     *            the threshold to set
+     * @throws IllegalArgumentException
+     *             如果 <code>threshold</code> 小于 0
+     */
+    public void setThreshold(int threshold){
+        Validate.isTrue(threshold >= 0, "threshold must >= 0, but is:%s", threshold);
+        this.threshold = threshold;
+    }
+
+    /**
+     * 获得 压缩级别.
+     *
+     * @return the compressionLevel
+     */
+    public int getCompressionLevel(){
+        return compressionLevel;
+    }
+
+    /**
+     * 设置 压缩级别,默认 {@link Deflater#DEFAULT_COMPRESSION}(zlib 的 6).
+     *
+     * <p>
+     * 1 最快,9 压缩率最高;动态内容一般 1~6 就够了,9 的 CPU 消耗明显更大,压缩率提高很少.
+     * </p>
+     *
+     * @param compressionLevel
+     *            the compressionLevel to set
+     * @throws IllegalArgumentException
+     *             如果 <code>compressionLevel</code> 不是 -1~9
+     */
+    public void setCompressionLevel(int compressionLevel){
+        Validate.isTrue(
+                        compressionLevel >= Deflater.DEFAULT_COMPRESSION && compressionLevel <= Deflater.BEST_COMPRESSION,
+                        "compressionLevel must between -1 and 9, but is:%s",
+                        compressionLevel);
+        this.compressionLevel = compressionLevel;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 异步请求结束时的兜底: 正常情况下压缩已经在 {@link javax.servlet.AsyncContext#complete()} 之前结束;<br>
+     * 如果异步请求被容器直接结束(比如超时之后没有调用 complete),这时响应已经结束,压缩输出不完整,只能释放资源.
+     */
+    private static final class FinishAsyncListener implements AsyncListener{
+
+        /** The wrapper. */
+        private final CompressionResponseWrapper wrapper;
+
+        /**
+         * The Constructor.
+         *
+         * @param wrapper
+         *            the wrapper
+         */
+        private FinishAsyncListener(CompressionResponseWrapper wrapper){
+            this.wrapper = wrapper;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncListener#onComplete(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onComplete(AsyncEvent event){
+            if (!wrapper.isFinished()){
+                LOGGER.warn("async request was completed by container before compression finished, compressed body may be truncated");
+                wrapper.abort();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncListener#onTimeout(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onTimeout(AsyncEvent event){
+            //onComplete 之后处理
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncListener#onError(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onError(AsyncEvent event){
+            wrapper.abort();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncListener#onStartAsync(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onStartAsync(AsyncEvent event){
+            //nothing to do
+        }
+    }
+}
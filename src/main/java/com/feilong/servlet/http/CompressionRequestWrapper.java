@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CompressionFilter} 使用的 request 包装,用于异步请求.
+ *
+ * <p>
+ * 容器在 {@link AsyncContext#complete()} 之后才回调 {@link AsyncListener#onComplete(javax.servlet.AsyncEvent)},这时响应已经结束,
+ * gzip 的 trailer 以及 deflate 最后的数据块写不出去;<br>
+ * 所以 {@link #startAsync()} 返回包装之后的 {@link AsyncContext},它的 {@link AsyncContext#complete()} 先结束压缩,再交给容器.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see CompressionFilter
+ * @since 2.1.0
+ */
+final class CompressionRequestWrapper extends HttpServletRequestWrapper{
+
+    /** The Constant LOGGER. */
+    private static final Logger              LOGGER = LoggerFactory.getLogger(CompressionRequestWrapper.class);
+
+    //---------------------------------------------------------------
+
+    /** The compression response wrapper. */
+    private final CompressionResponseWrapper compressionResponseWrapper;
+
+    /** 包装之后的 async context,没有开启异步时是 null. */
+    private volatile AsyncContext            asyncContext;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param request
+     *            the request
+     * @param compressionResponseWrapper
+     *            the compression response wrapper
+     */
+    CompressionRequestWrapper(HttpServletRequest request, CompressionResponseWrapper compressionResponseWrapper){
+        super(request);
+        this.compressionResponseWrapper = compressionResponseWrapper;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 使用当前的 request 以及压缩的 response 开启异步,这样 {@link AsyncContext#getResponse()} 仍然会被压缩.
+     *
+     * @return the async context
+     * @see javax.servlet.ServletRequestWrapper#startAsync()
+     */
+    @Override
+    public AsyncContext startAsync(){
+        return startAsync(this, compressionResponseWrapper);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletRequestWrapper#startAsync(javax.servlet.ServletRequest, javax.servlet.ServletResponse)
+     */
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest,ServletResponse servletResponse){
+        AsyncContext newAsyncContext = new CompressionAsyncContext(super.startAsync(servletRequest, servletResponse));
+        asyncContext = newAsyncContext;
+        return newAsyncContext;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletRequestWrapper#getAsyncContext()
+     */
+    @Override
+    public AsyncContext getAsyncContext(){
+        AsyncContext currentAsyncContext = asyncContext;
+        return null == currentAsyncContext ? super.getAsyncContext() : currentAsyncContext;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 结束压缩之后才 {@link #complete()} 的 {@link AsyncContext}.
+     */
+    private final class CompressionAsyncContext implements AsyncContext{
+
+        /** The delegate. */
+        private final AsyncContext delegate;
+
+        /**
+         * The Constructor.
+         *
+         * @param delegate
+         *            the delegate
+         */
+        private CompressionAsyncContext(AsyncContext delegate){
+            this.delegate = delegate;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#complete()
+         */
+        @Override
+        public void complete(){
+            try{
+                compressionResponseWrapper.finish();
+            }catch (IOException e){
+                //比如客户端已经断开, 仍然需要结束异步请求
+                LOGGER.warn("finish compression before async complete error", e);
+                compressionResponseWrapper.abort();
+            }finally{
+                delegate.complete();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#getRequest()
+         */
+        @Override
+        public ServletRequest getRequest(){
+            return delegate.getRequest();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#getResponse()
+         */
+        @Override
+        public ServletResponse getResponse(){
+            return delegate.getResponse();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#hasOriginalRequestAndResponse()
+         */
+        @Override
+        public boolean hasOriginalRequestAndResponse(){
+            return delegate.hasOriginalRequestAndResponse();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#dispatch()
+         */
+        @Override
+        public void dispatch(){
+            delegate.dispatch();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#dispatch(java.lang.String)
+         */
+        @Override
+        public void dispatch(String path){
+            delegate.dispatch(path);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#dispatch(javax.servlet.ServletContext, java.lang.String)
+         */
+        @Override
+        public void dispatch(ServletContext context,String path){
+            delegate.dispatch(context, path);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#start(java.lang.Runnable)
+         */
+        @Override
+        public void start(Runnable run){
+            delegate.start(run);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#addListener(javax.servlet.AsyncListener)
+         */
+        @Override
+        public void addListener(AsyncListener listener){
+            delegate.addListener(listener);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#addListener(javax.servlet.AsyncListener, javax.servlet.ServletRequest,
+         * javax.servlet.ServletResponse)
+         */
+        @Override
+        public void addListener(AsyncListener listener,ServletRequest servletRequest,ServletResponse servletResponse){
+            delegate.addListener(listener, servletRequest, servletResponse);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#createListener(java.lang.Class)
+         */
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException{
+            return delegate.createListener(clazz);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#setTimeout(long)
+         */
+        @Override
+        public void setTimeout(long timeout){
+            delegate.setTimeout(timeout);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.AsyncContext#getTimeout()
+         */
+        @Override
+        public long getTimeout(){
+            return delegate.getTimeout();
+        }
+    }
+}
@@ -0,0 +1,829 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.feilong.core.UncheckedIOException;
+import com.feilong.io.entity.MimeType;
+
+/**
+ * {@link CompressionFilter} 使用的 response 包装.
+ *
+ * <p>
+ * 响应体的前 <code>threshold</code> 个字节先缓存起来:
+ * </p>
+ *
+ * <ul>
+ * <li>缓存放不下(也就是响应体超过 threshold),并且是可以压缩的类型,那么输出 <code>Content-Encoding</code>,之后边写边压缩;</li>
+ * <li>否则(响应体很小,压缩得不偿失;或者类型本身已经压缩过,比如图片, zip),原样输出;如果调用方没有设置 <code>Content-Length</code>,结束时设置为实际长度.</li>
+ * </ul>
+ *
+ * <p>
+ * 调用方设置的 <code>Content-Length</code> 在决定之前不会输出,压缩时被丢弃;<br>
+ * 206, 204, 304,已经有 <code>Content-Encoding</code>(比如预压缩文件)的响应不压缩;<br>
+ * 描述原始字节的 header(<code>ETag</code>, <code>Digest</code>, <code>Content-MD5</code>, <code>Accept-Ranges</code>)同样在决定之后才输出,
+ * 压缩时去掉 <code>Digest</code> 以及 <code>Content-MD5</code>, <code>Accept-Ranges</code> 改成 <code>none</code>,
+ * <code>ETag</code> 改成压缩版本独有的弱 ETag(比如 <code>W/"100-1489545600000-gzip"</code>), 避免和原样输出的版本共用同一个校验器;<br>
+ * 使用 Servlet 3.1 非阻塞输出({@link ServletOutputStream#setWriteListener(WriteListener)})的响应不压缩.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see CompressionFilter
+ * @since 2.1.0
+ */
+final class CompressionResponseWrapper extends HttpServletResponseWrapper{
+
+    /** 还没有决定. */
+    private static final int          UNDECIDED              = 0;
+
+    /** 原样输出. */
+    private static final int          IDENTITY               = 1;
+
+    /** 压缩输出. */
+    private static final int          COMPRESSING            = 2;
+
+    /** 可以压缩的类型,即 {@link MimeType#isText()} 的类型. */
+    private static final Set<String>  TEXT_MIME_TYPES        = newTextMimeTypes();
+
+    /** 描述原始字节的 header,压缩之后不再适用. */
+    private static final String[]     REPRESENTATION_HEADERS = { HttpHeaders.ETAG, HttpHeaders.DIGEST, HttpHeaders.CONTENT_MD5, HttpHeaders.ACCEPT_RANGES };
+
+    /** 压缩缓冲区大小 <code>{@value}</code>. */
+    private static final int          DEFLATE_BUF_SIZE       = 8192;
+
+    //---------------------------------------------------------------
+
+    /** 协商好的 content-coding, <code>gzip</code> 或者 <code>deflate</code>. */
+    private final String              contentEncoding;
+
+    /** 超过多少字节才压缩. */
+    private final int                 threshold;
+
+    /** 压缩级别. */
+    private final int                 compressionLevel;
+
+    /** 当前状态. */
+    private int                       state                  = UNDECIDED;
+
+    /** 决定之前的缓存. */
+    private byte[]                    buffer;
+
+    /** {@link #buffer} 中的字节数. */
+    private int                       bufferCount;
+
+    /** 调用方设置的 <code>Content-Length</code>, -1 表示没有设置. */
+    private long                      contentLength          = -1;
+
+    /** 决定之前暂存的描述原始字节的 header, key 是 {@link #REPRESENTATION_HEADERS} 中的名称. */
+    private final Map<String, String> deferredHeaderMap      = new LinkedHashMap<>();
+
+    /** 压缩输出流. */
+    private DeflaterOutputStream      deflaterOutputStream;
+
+    /** 压缩输出流使用的 deflater. */
+    private Deflater                  deflater;
+
+    /** The output stream. */
+    private ServletOutputStream       outputStream;
+
+    /** The writer. */
+    private PrintWriter               writer;
+
+    /** 是否已经结束,异步请求时可能在其他线程读取. */
+    private volatile boolean          finished;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param response
+     *            the response
+     * @param contentEncoding
+     *            协商好的 content-coding, <code>gzip</code> 或者 <code>deflate</code>
+     * @param threshold
+     *            超过多少字节才压缩
+     * @param compressionLevel
+     *            压缩级别
+     */
+    CompressionResponseWrapper(HttpServletResponse response, String contentEncoding, int threshold, int compressionLevel){
+        super(response);
+        this.contentEncoding = contentEncoding;
+        this.threshold = threshold;
+        this.compressionLevel = compressionLevel;
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+     */
+    @Override
+    public ServletOutputStream getOutputStream(){
+        if (null != writer){
+            throw new IllegalStateException("getWriter() has already been called for this response");
+        }
+        return getOutputStreamInternal();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletResponseWrapper#getWriter()
+     */
+    @Override
+    public PrintWriter getWriter() throws IOException{
+        if (null == writer){
+            if (null != outputStream){
+                throw new IllegalStateException("getOutputStream() has already been called for this response");
+            }
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStreamInternal(), getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletResponseWrapper#setContentLength(int)
+     */
+    @Override
+    public void setContentLength(int len){
+        setContentLengthLong(len);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletResponseWrapper#setContentLengthLong(long)
+     */
+    @Override
+    public void setContentLengthLong(long len){
+        if (IDENTITY == state){
+            super.setContentLengthLong(len);
+        }else if (UNDECIDED == state){
+            contentLength = len;
+        }
+        //压缩时长度未知, 丢弃
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#setHeader(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void setHeader(String name,String value){
+        if (isContentLength(name)){
+            setContentLengthHeader(value);
+        }else if (!setRepresentationHeader(name, value, false)){
+            super.setHeader(name, value);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#addHeader(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void addHeader(String name,String value){
+        if (isContentLength(name)){
+            setContentLengthHeader(value);
+        }else if (!setRepresentationHeader(name, value, true)){
+            super.addHeader(name, value);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#getHeader(java.lang.String)
+     */
+    @Override
+    public String getHeader(String name){
+        String representationHeader = toRepresentationHeader(name);
+        if (null != representationHeader && deferredHeaderMap.containsKey(representationHeader)){
+            return deferredHeaderMap.get(representationHeader);
+        }
+        return super.getHeader(name);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#containsHeader(java.lang.String)
+     */
+    @Override
+    public boolean containsHeader(String name){
+        String representationHeader = toRepresentationHeader(name);
+        return (null != representationHeader && deferredHeaderMap.containsKey(representationHeader)) || super.containsHeader(name);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#setIntHeader(java.lang.String, int)
+     */
+    @Override
+    public void setIntHeader(String name,int value){
+        if (isContentLength(name)){
+            setContentLengthLong(value);
+        }else{
+            super.setIntHeader(name, value);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#addIntHeader(java.lang.String, int)
+     */
+    @Override
+    public void addIntHeader(String name,int value){
+        if (isContentLength(name)){
+            setContentLengthLong(value);
+        }else{
+            super.addIntHeader(name, value);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletResponseWrapper#flushBuffer()
+     */
+    @Override
+    public void flushBuffer() throws IOException{
+        if (null != writer){
+            writer.flush();
+        }
+        flushBody();
+        super.flushBuffer();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletResponseWrapper#resetBuffer()
+     */
+    @Override
+    public void resetBuffer(){
+        super.resetBuffer();
+        bufferCount = 0;
+        if (COMPRESSING == state){
+            //header 已经设置好了, 重新开始压缩
+            releaseDeflater();
+            try{
+                deflaterOutputStream = newDeflaterOutputStream();
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.ServletResponseWrapper#reset()
+     */
+    @Override
+    public void reset(){
+        super.reset();
+        releaseDeflater();
+        state = UNDECIDED;
+        bufferCount = 0;
+        contentLength = -1;
+        deferredHeaderMap.clear();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int)
+     */
+    @Override
+    public void sendError(int sc) throws IOException{
+        abort();
+        super.sendError(sc);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int, java.lang.String)
+     */
+    @Override
+    public void sendError(int sc,String msg) throws IOException{
+        abort();
+        super.sendError(sc, msg);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.servlet.http.HttpServletResponseWrapper#sendRedirect(java.lang.String)
+     */
+    @Override
+    public void sendRedirect(String location) throws IOException{
+        abort();
+        super.sendRedirect(location);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 结束响应:还没有决定的,原样输出缓存;压缩中的,输出压缩流的结尾,归还 {@link Deflater}.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void finish() throws IOException{
+        if (finished){
+            return;
+        }
+        finished = true;
+        if (null != writer){
+            //finished 之后 flush 不会触发决定, 这样小的响应可以带上 Content-Length
+            writer.flush();
+        }
+        if (UNDECIDED == state){
+            //没有写过数据(比如容器 sendfile)时保留调用方设置的长度
+            if (contentLength < 0 || bufferCount > 0){
+                contentLength = bufferCount;
+            }
+            decide(false);
+        }
+        if (COMPRESSING == state){
+            try{
+                deflaterOutputStream.finish();
+            }finally{
+                releaseDeflater();
+            }
+        }
+    }
+
+    /**
+     * 是否已经 {@link #finish()}.
+     *
+     * @return 如果已经结束,返回 true
+     */
+    boolean isFinished(){
+        return finished;
+    }
+
+    /**
+     * 放弃缓存以及压缩,之后原样输出(比如 sendError, sendRedirect, 或者请求处理出现异常).
+     */
+    void abort(){
+        releaseDeflater();
+        releaseBuffer();
+        state = IDENTITY;
+        writeDeferredHeaders();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 写响应体.
+     *
+     * @param b
+     *            the b
+     * @param off
+     *            the off
+     * @param len
+     *            the len
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeBody(byte[] b,int off,int len) throws IOException{
+        if (UNDECIDED == state){
+            if (bufferCount + len <= threshold){
+                if (null == buffer){
+                    buffer = acquireBuffer(threshold);
+                }
+                System.arraycopy(b, off, buffer, bufferCount, len);
+                bufferCount += len;
+                return;
+            }
+            decide(true);
+        }
+        if (COMPRESSING == state){
+            deflaterOutputStream.write(b, off, len);
+        }else{
+            super.getOutputStream().write(b, off, len);
+        }
+    }
+
+    /**
+     * Flush 响应体;还没有决定的,由于缓存没有超过 threshold,原样输出.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void flushBody() throws IOException{
+        decide(false);
+        if (COMPRESSING == state){
+            deflaterOutputStream.flush();
+        }else{
+            super.getOutputStream().flush();
+        }
+    }
+
+    /**
+     * 决定是否压缩,并输出缓存的数据.
+     *
+     * @param overThreshold
+     *            响应体是否超过了 threshold
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void decide(boolean overThreshold) throws IOException{
+        if (UNDECIDED != state){
+            return;
+        }
+        boolean compressible = isCompressible();
+        if (compressible){
+            super.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (overThreshold && compressible){
+            state = COMPRESSING;
+            super.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+            writeDeferredHeaders();
+            deflaterOutputStream = newDeflaterOutputStream();
+            if (bufferCount > 0){
+                deflaterOutputStream.write(buffer, 0, bufferCount);
+            }
+        }else{
+            state = IDENTITY;
+            writeDeferredHeaders();
+            if (contentLength >= 0){
+                super.setContentLengthLong(contentLength);
+            }
+            if (bufferCount > 0){
+                super.getOutputStream().write(buffer, 0, bufferCount);
+            }
+        }
+        releaseBuffer();
+    }
+
+    /**
+     * 设置描述原始字节的 header: 决定之前暂存,压缩时按照压缩之后的字节调整,原样输出时直接设置.
+     *
+     * @param name
+     *            the name
+     * @param value
+     *            the value
+     * @param add
+     *            是否是 addHeader, 暂存时多个值以逗号分隔
+     * @return 如果 <code>name</code> 不是 {@link #REPRESENTATION_HEADERS},返回 false
+     */
+    private boolean setRepresentationHeader(String name,String value,boolean add){
+        String representationHeader = toRepresentationHeader(name);
+        if (null == representationHeader){
+            return false;
+        }
+        if (UNDECIDED == state){
+            String oldValue = deferredHeaderMap.get(representationHeader);
+            deferredHeaderMap.put(representationHeader, add && null != oldValue ? oldValue + ", " + value : value);
+        }else if (COMPRESSING == state){
+            writeCompressedHeader(representationHeader, value);
+        }else if (add){
+            super.addHeader(representationHeader, value);
+        }else{
+            super.setHeader(representationHeader, value);
+        }
+        return true;
+    }
+
+    /**
+     * 输出决定之前暂存的 header.
+     */
+    private void writeDeferredHeaders(){
+        if (COMPRESSING == state){
+            //压缩之后不支持 Range
+            super.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+        }
+        for (Map.Entry<String, String> entry : deferredHeaderMap.entrySet()){
+            if (COMPRESSING == state){
+                writeCompressedHeader(entry.getKey(), entry.getValue());
+            }else{
+                super.setHeader(entry.getKey(), entry.getValue());
+            }
+        }
+        deferredHeaderMap.clear();
+    }
+
+    /**
+     * 压缩时输出描述原始字节的 header.
+     *
+     * <p>
+     * <code>Digest</code> 以及 <code>Content-MD5</code> 描述的是原始字节,丢弃;<code>Accept-Ranges</code> 已经是 <code>none</code>;<br>
+     * <code>ETag</code> 加上 content-coding 后缀,并且是弱 ETag: 压缩版本和原样输出的版本不能共用校验器,否则 <code>If-Range</code>
+     * 续传时会把原始字节按照压缩流的偏移量拼接到客户端的文件中.
+     * </p>
+     *
+     * @param name
+     *            {@link #REPRESENTATION_HEADERS} 中的名称
+     * @param value
+     *            the value
+     */
+    private void writeCompressedHeader(String name,String value){
+        if (HttpHeaders.ETAG.equals(name)){
+            super.setHeader(HttpHeaders.ETAG, toCompressedETag(value, contentEncoding));
+        }
+    }
+
+    /**
+     * 生成压缩版本的 ETag,比如 <code>W/"100-1489545600000"</code> 以及 gzip 生成 <code>W/"100-1489545600000-gzip"</code>.
+     *
+     * @param eTag
+     *            原始 ETag
+     * @param contentEncoding
+     *            content-coding
+     * @return the string
+     */
+    static String toCompressedETag(String eTag,String contentEncoding){
+        String opaqueTag = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        if (opaqueTag.length() >= 2 && opaqueTag.startsWith("\"") && opaqueTag.endsWith("\"")){
+            opaqueTag = opaqueTag.substring(1, opaqueTag.length() - 1);
+        }
+        return "W/\"" + opaqueTag + "-" + contentEncoding + "\"";
+    }
+
+    /**
+     * 如果 <code>name</code> 是 {@link #REPRESENTATION_HEADERS} 中的一个(忽略大小写),返回定义的名称.
+     *
+     * @param name
+     *            the name
+     * @return 否则返回 null
+     */
+    private static String toRepresentationHeader(String name){
+        for (String representationHeader : REPRESENTATION_HEADERS){
+            if (representationHeader.equalsIgnoreCase(name)){
+                return representationHeader;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 当前响应是否可以压缩.
+     *
+     * @return true, if is compressible
+     */
+    private boolean isCompressible(){
+        int status = getStatus();
+        if (status == SC_PARTIAL_CONTENT || status == SC_NO_CONTENT || status == SC_NOT_MODIFIED){
+            return false;
+        }
+        if (null != getHeader(HttpHeaders.CONTENT_ENCODING) || null != getHeader(HttpHeaders.CONTENT_RANGE)){
+            return false;
+        }
+        return isCompressibleType(getContentType());
+    }
+
+    /**
+     * 类型是否值得压缩.
+     *
+     * <p>
+     * <code>text/*</code>, <code>+json</code>, <code>+xml</code> 以及 {@link MimeType#isText()} 的类型压缩;<br>
+     * 其他(图片, 音视频, zip, gz 等本身已经压缩过的二进制类型,以及未知类型)不压缩.
+     * </p>
+     *
+     * @param contentType
+     *            the content type,可以带有 charset 等参数
+     * @return 如果是null,返回 false
+     */
+    static boolean isCompressibleType(String contentType){
+        if (null == contentType){
+            return false;
+        }
+        int index = contentType.indexOf(';');
+        String mime = (index < 0 ? contentType : contentType.substring(0, index)).trim().toLowerCase(Locale.ENGLISH);
+        return mime.startsWith("text/") || mime.endsWith("+json") || mime.endsWith("+xml") || TEXT_MIME_TYPES.contains(mime);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 {@link Deflater} 并创建压缩输出流.
+     *
+     * @return the deflater output stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private DeflaterOutputStream newDeflaterOutputStream() throws IOException{
+        boolean gzip = CompressionFilter.GZIP.equals(contentEncoding);
+        deflater = DeflaterPool.acquire(compressionLevel, gzip);
+        ServletOutputStream target = super.getOutputStream();
+        return gzip ? new GzipDeflaterOutputStream(target, deflater, DEFLATE_BUF_SIZE)
+                        : new DeflaterOutputStream(target, deflater, DEFLATE_BUF_SIZE, true);
+    }
+
+    /**
+     * 归还 {@link Deflater}.
+     */
+    private void releaseDeflater(){
+        if (null != deflater){
+            DeflaterPool.release(deflater, compressionLevel, CompressionFilter.GZIP.equals(contentEncoding));
+            deflater = null;
+            deflaterOutputStream = null;
+        }
+    }
+
+    /**
+     * 获得缓存.
+     *
+     * @param size
+     *            需要的大小
+     * @return the byte[]
+     */
+    private static byte[] acquireBuffer(int size){
+        byte[] pooled = BufferPool.acquire(size > BufferPool.getBufferSize());
+        if (pooled.length >= size){
+            return pooled;
+        }
+        BufferPool.release(pooled);
+        return new byte[size];
+    }
+
+    /**
+     * 归还缓存.
+     */
+    private void releaseBuffer(){
+        if (null != buffer){
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+        bufferCount = 0;
+    }
+
+    /**
+     * 获得包装的输出流.
+     *
+     * @return the output stream internal
+     */
+    private ServletOutputStream getOutputStreamInternal(){
+        if (null == outputStream){
+            outputStream = new CompressionServletOutputStream();
+        }
+        return outputStream;
+    }
+
+    /**
+     * Checks if is content length.
+     *
+     * @param name
+     *            the name
+     * @return true, if is content length
+     */
+    private static boolean isContentLength(String name){
+        return HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+    }
+
+    /**
+     * 以 header 的形式设置 <code>Content-Length</code>.
+     *
+     * @param value
+     *            the value
+     */
+    private void setContentLengthHeader(String value){
+        try{
+            setContentLengthLong(Long.parseLong(value.trim()));
+        }catch (NumberFormatException e){
+            super.setHeader(HttpHeaders.CONTENT_LENGTH, value);
+        }
+    }
+
+    /**
+     * 可以压缩的类型.
+     *
+     * @return the sets the
+     */
+    private static Set<String> newTextMimeTypes(){
+        Set<String> set = new HashSet<>();
+        for (MimeType mimeType : MimeType.values()){
+            if (mimeType.isText()){
+                set.add(mimeType.getMime().toLowerCase(Locale.ENGLISH));
+            }
+        }
+        return set;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 写到 {@link CompressionResponseWrapper} 的输出流.
+     */
+    private final class CompressionServletOutputStream extends ServletOutputStream{
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException{
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b,int off,int len) throws IOException{
+            if (len > 0){
+                writeBody(b, off, len);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#flush()
+         */
+        @Override
+        public void flush() throws IOException{
+            if (!finished){
+                flushBody();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#close()
+         */
+        @Override
+        public void close() throws IOException{
+            finish();
+            CompressionResponseWrapper.super.getOutputStream().close();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.ServletOutputStream#isReady()
+         */
+        @Override
+        public boolean isReady(){
+            try{
+                return UNDECIDED == state || CompressionResponseWrapper.super.getOutputStream().isReady();
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.servlet.ServletOutputStream#setWriteListener(javax.servlet.WriteListener)
+         */
+        @Override
+        public void setWriteListener(WriteListener writeListener){
+            if (COMPRESSING == state){
+                throw new IllegalStateException("non-blocking output is not supported when the response is being compressed");
+            }
+            try{
+                //非阻塞输出不压缩
+                decide(false);
+                CompressionResponseWrapper.super.getOutputStream().setWriteListener(writeListener);
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static com.feilong.core.Validator.isNullOrEmpty;
+
+import java.nio.ByteBuffer;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 条件请求(conditional request)相关的工具类, 处理 <code>ETag</code>,<code>If-None-Match</code>,<code>If-Modified-Since</code>.
+ *
+ * <h3>判断顺序(RFC 7232 6. Precedence):</h3>
+ *
+ * <blockquote>
+ * <ol>
+ * <li>如果有 <code>If-None-Match</code>,只使用它判断(弱比较),忽略 <code>If-Modified-Since</code>;</li>
+ * <li>否则如果有 <code>If-Modified-Since</code>,并且资源最后修改时间(精确到秒)不晚于它,表示未修改.</li>
+ * </ol>
+ * 仅对 GET 以及 HEAD 请求生效.
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see <a href="https://tools.ietf.org/html/rfc7232">RFC 7232 Conditional Requests</a>
+ * @since 2.1.0
+ */
+final class ConditionalRequestUtil{
+
+    /** 弱 ETag 前缀. */
+    private static final String WEAK_PREFIX = "W/";
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private ConditionalRequestUtil(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 基于文件大小和最后修改时间生成弱 ETag, 格式和 tomcat DefaultServlet 相同, 比如 <code>W/"1024-1489545600000"</code>.
+     *
+     * @param contentLength
+     *            文件大小
+     * @param lastModified
+     *            最后修改时间(毫秒)
+     * @return the string
+     */
+    static String toWeakETag(long contentLength,long lastModified){
+        return WEAK_PREFIX + "\"" + contentLength + "-" + lastModified + "\"";
+    }
+
+    /**
+     * 基于调用方提供的版本标识生成弱 ETag.
+     *
+     * @param versionToken
+     *            版本标识,双引号会被去掉
+     * @return 如果 <code>versionToken</code> 是null或者empty,返回 null
+     */
+    static String toWeakETag(String versionToken){
+        if (isNullOrEmpty(versionToken)){
+            return null;
+        }
+        return WEAK_PREFIX + "\"" + StringUtils.remove(versionToken, '"') + "\"";
+    }
+
+    /**
+     * 基于内容生成强 ETag,比如 <code>"2a-9f3c51d20e6b7a48"</code>(长度以及 {@link XxHash64} 的 16 进制).
+     *
+     * @param byteBuffer
+     *            内容,不会改变它的 position
+     * @return the string
+     */
+    static String toStrongETag(ByteBuffer byteBuffer){
+        return "\"" + Integer.toHexString(byteBuffer.remaining()) + "-" + Long.toHexString(XxHash64.hash(byteBuffer)) + "\"";
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 判断是否可以返回 304.
+     *
+     * @param eTag
+     *            资源的 ETag,可以是 null
+     * @param lastModified
+     *            资源最后修改时间(毫秒), {@code <=0} 表示未知
+     * @param request
+     *            the request
+     * @return 如果资源未修改,返回 true
+     */
+    static boolean isNotModified(String eTag,long lastModified,HttpServletRequest request){
+        String method = request.getMethod();
+        if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)){
+            return false;
+        }
+
+        //---------------------------------------------------------------
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (isNullOrEmpty(ifNoneMatch)){
+            return isNotModifiedSince(lastModified, request);
+        }
+        return null != eTag && isETagMatched(ifNoneMatch, eTag);
+    }
+
+    /**
+     * 判断 <code>If-None-Match</code> (或者 <code>If-Match</code>) header 是否匹配 <code>eTag</code>,使用弱比较.
+     *
+     * @param ifNoneMatch
+     *            header 值,可以是 <code>*</code> 或者以逗号分隔的多个 entity-tag
+     * @param eTag
+     *            资源的 ETag
+     * @return 如果匹配,返回 true
+     */
+    static boolean isETagMatched(String ifNoneMatch,String eTag){
+        if ("*".equals(ifNoneMatch.trim())){
+            return true;
+        }
+        String opaqueTag = toOpaqueTag(eTag);
+        for (String candidate : StringUtils.split(ifNoneMatch, ',')){
+            if (opaqueTag.equals(toOpaqueTag(candidate.trim()))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 判断 <code>If-Modified-Since</code>.
+     *
+     * @param lastModified
+     *            资源最后修改时间(毫秒), {@code <=0} 表示未知
+     * @param request
+     *            the request
+     * @return 如果资源从 If-Modified-Since 之后没有修改,返回 true
+     */
+    private static boolean isNotModifiedSince(long lastModified,HttpServletRequest request){
+        if (lastModified <= 0){
+            return false;
+        }
+        try{
+            long ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            //HTTP-date 只精确到秒
+            return ifModifiedSince > 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }catch (IllegalArgumentException e){
+            //不能解析的日期忽略
+            return false;
+        }
+    }
+
+    /**
+     * 去掉弱标识 <code>W/</code>, 用于弱比较.
+     *
+     * @param eTag
+     *            the e tag
+     * @return the string
+     */
+    private static String toOpaqueTag(String eTag){
+        return eTag.startsWith(WEAK_PREFIX) ? eTag.substring(WEAK_PREFIX.length()) : eTag;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 把实际写出的字节数累加到 {@link DownloadLog} 的输出流.
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class CountingOutputStream extends FilterOutputStream{
+
+    /** The download log. */
+    private final DownloadLog downloadLog;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param outputStream
+     *            the output stream
+     * @param downloadLog
+     *            the download log
+     */
+    CountingOutputStream(OutputStream outputStream, DownloadLog downloadLog){
+        super(outputStream);
+        this.downloadLog = downloadLog;
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException{
+        out.write(b);
+        downloadLog.addBytes(1);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b,int off,int len) throws IOException{
+        out.write(b, off, len);
+        downloadLog.addBytes(len);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.security.MessageDigest;
+
+/**
+ * CRC32c(Castagnoli, 多项式 <code>0x82F63B78</code>) 的 {@link MessageDigest} 实现.
+ * 
+ * <p>
+ * JDK 9 之前没有 <code>java.util.zip.CRC32C</code>,这里使用查表法;结果是大端 4 字节,和 RFC 3720 以及 IANA CRC32c Digest 一致.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class Crc32cMessageDigest extends MessageDigest{
+
+    /** 反射多项式. */
+    private static final int   POLYNOMIAL = 0x82F63B78;
+
+    /** 查表. */
+    private static final int[] TABLE      = new int[256];
+
+    static{
+        for (int i = 0; i < 256; ++i){
+            int crc = i;
+            for (int j = 0; j < 8; ++j){
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /** 当前值(取反之前). */
+    private int                crc        = 0xFFFFFFFF;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     */
+    Crc32cMessageDigest(){
+        super("CRC32c");
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.security.MessageDigestSpi#engineGetDigestLength()
+     */
+    @Override
+    protected int engineGetDigestLength(){
+        return 4;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.security.MessageDigestSpi#engineUpdate(byte)
+     */
+    @Override
+    protected void engineUpdate(byte input){
+        crc = (crc >>> 8) ^ TABLE[(crc ^ input) & 0xFF];
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.security.MessageDigestSpi#engineUpdate(byte[], int, int)
+     */
+    @Override
+    protected void engineUpdate(byte[] input,int offset,int len){
+        int value = crc;
+        for (int i = offset, end = offset + len; i < end; ++i){
+            value = (value >>> 8) ^ TABLE[(value ^ input[i]) & 0xFF];
+        }
+        crc = value;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.security.MessageDigestSpi#engineDigest()
+     */
+    @Override
+    protected byte[] engineDigest(){
+        int value = ~crc;
+        engineReset();
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.security.MessageDigestSpi#engineReset()
+     */
+    @Override
+    protected void engineReset(){
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 创建 daemon 线程的 {@link ThreadFactory},用于本包内部的后台任务(比如异步下载限速之后恢复输出, {@link EncodedResponseCache} 的后台刷新).
+ *
+ * <p>
+ * 线程不会阻止 JVM 退出;{@link #newSingleThreadScheduler(String)} 创建的线程空闲 {@link #KEEP_ALIVE_SECONDS} 秒之后自动结束,
+ * 应用 redeploy 之后不会一直持有 webapp 的 classloader.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class DaemonThreadFactory implements ThreadFactory{
+
+    /** 空闲线程保留的秒数 <code>{@value}</code>. */
+    static final long           KEEP_ALIVE_SECONDS = 60;
+
+    //---------------------------------------------------------------
+
+    /** 线程名称前缀. */
+    private final String        namePrefix;
+
+    /** 线程序号. */
+    private final AtomicInteger threadNumber       = new AtomicInteger(1);
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param name
+     *            线程名称,会加上序号
+     */
+    DaemonThreadFactory(String name){
+        this.namePrefix = name + "-";
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+     */
+    @Override
+    public Thread newThread(Runnable runnable){
+        Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 创建单线程的 daemon 调度器,线程空闲之后自动结束,有新任务的时候再创建.
+     *
+     * @param name
+     *            线程名称
+     * @return the scheduled executor service
+     */
+    static ScheduledExecutorService newSingleThreadScheduler(String name){
+        ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory(name));
+        scheduledThreadPoolExecutor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        scheduledThreadPoolExecutor.allowCoreThreadTimeOut(true);
+        scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
+        return scheduledThreadPoolExecutor;
+    }
+}
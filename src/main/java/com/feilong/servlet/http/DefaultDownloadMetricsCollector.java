@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 默认的 {@link DownloadMetricsCollector},在内存中汇总.
+ * 
+ * <ul>
+ * <li>计数: 完成, 客户端中断, 失败的下载次数;</li>
+ * <li>直方图(仅统计完成的下载): 字节数, 耗时(毫秒), 吞吐量(字节/秒).</li>
+ * </ul>
+ * 
+ * <p>
+ * 所有数据均是无锁累加的,可以定时读取之后输出到日志或者监控系统.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see DownloadMetrics#getCollector()
+ * @since 2.1.0
+ */
+public class DefaultDownloadMetricsCollector implements DownloadMetricsCollector{
+
+    /** 完成的次数. */
+    private final AtomicLong completedCount      = new AtomicLong();
+
+    /** 客户端中断的次数. */
+    private final AtomicLong abortedCount        = new AtomicLong();
+
+    /** 失败的次数. */
+    private final AtomicLong failedCount         = new AtomicLong();
+
+    /** 字节数. */
+    private final Histogram  bytesHistogram      = new Histogram();
+
+    /** 耗时(毫秒). */
+    private final Histogram  durationHistogram   = new Histogram();
+
+    /** 吞吐量(字节/秒). */
+    private final Histogram  throughputHistogram = new Histogram();
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.feilong.servlet.http.DownloadMetricsCollector#collect(com.feilong.servlet.http.DownloadOutcome, java.lang.String, long, long)
+     */
+    @Override
+    public void collect(DownloadOutcome downloadOutcome,String saveFileName,long bytes,long durationNanos){
+        switch (downloadOutcome) {
+            case ABORTED:
+                abortedCount.incrementAndGet();
+                return;
+            case FAILED:
+                failedCount.incrementAndGet();
+                return;
+            default:
+                completedCount.incrementAndGet();
+                break;
+        }
+
+        bytesHistogram.record(bytes);
+        durationHistogram.record(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+        if (durationNanos > 0){
+            throughputHistogram.record((long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / durationNanos));
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 完成的次数.
+     *
+     * @return the completedCount
+     */
+    public long getCompletedCount(){
+        return completedCount.get();
+    }
+
+    /**
+     * 获得 客户端中断的次数.
+     *
+     * @return the abortedCount
+     */
+    public long getAbortedCount(){
+        return abortedCount.get();
+    }
+
+    /**
+     * 获得 失败的次数.
+     *
+     * @return the failedCount
+     */
+    public long getFailedCount(){
+        return failedCount.get();
+    }
+
+    /**
+     * 获得 完成的下载的字节数直方图.
+     *
+     * @return the bytesHistogram
+     */
+    public Histogram getBytesHistogram(){
+        return bytesHistogram;
+    }
+
+    /**
+     * 获得 完成的下载的耗时(毫秒)直方图.
+     *
+     * @return the durationHistogram
+     */
+    public Histogram getDurationHistogram(){
+        return durationHistogram;
+    }
+
+    /**
+     * 获得 完成的下载的吞吐量(字节/秒)直方图.
+     *
+     * @return the throughputHistogram
+     */
+    public Histogram getThroughputHistogram(){
+        return throughputHistogram;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString(){
+        return "completed:[" + getCompletedCount() + "],aborted:[" + getAbortedCount() + "],failed:[" + getFailedCount() + "],bytes:["
+                        + bytesHistogram + "],durationMillis:[" + durationHistogram + "],bytesPerSecond:[" + throughputHistogram + "]";
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.ArrayDeque;
+import java.util.zip.Deflater;
+
+/**
+ * {@link Deflater} 池.
+ *
+ * <p>
+ * 每个 {@link Deflater} 持有几百 KB 的 native 内存,并且只有在 {@link Deflater#end()} 或者被 GC 回收的时候才释放;<br>
+ * 每个响应都 new 一个的话,高并发下 native 内存以及 GC 的压力都很大,所以按照压缩级别以及 nowrap 分别复用,使用之后 {@link Deflater#reset()} 放回.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see CompressionFilter
+ * @since 2.1.0
+ */
+final class DeflaterPool{
+
+    /** 每种(压缩级别, nowrap)最多保留的数量 <code>{@value}</code>,多出来的直接 {@link Deflater#end()}. */
+    static final int                            MAX_POOLED_PER_KEY = 32;
+
+    /** 压缩级别 -1~9 以及 nowrap 的组合,共 22 种. */
+    private static final ArrayDeque<Deflater>[] POOLS              = newPools();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private DeflaterPool(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得一个 {@link Deflater},池中没有时新建.
+     *
+     * @param level
+     *            压缩级别, -1~9
+     * @param nowrap
+     *            true 表示输出不带 zlib header 的原始 deflate 数据(gzip 使用)
+     * @return the deflater
+     */
+    static Deflater acquire(int level,boolean nowrap){
+        ArrayDeque<Deflater> pool = POOLS[toIndex(level, nowrap)];
+        synchronized (pool){
+            Deflater deflater = pool.pollFirst();
+            if (null != deflater){
+                return deflater;
+            }
+        }
+        return new Deflater(level, nowrap);
+    }
+
+    /**
+     * 重置并放回池中,池满时 {@link Deflater#end()}.
+     *
+     * @param deflater
+     *            the deflater
+     * @param level
+     *            获得时的压缩级别
+     * @param nowrap
+     *            获得时的 nowrap
+     */
+    static void release(Deflater deflater,int level,boolean nowrap){
+        deflater.reset();
+        ArrayDeque<Deflater> pool = POOLS[toIndex(level, nowrap)];
+        synchronized (pool){
+            if (pool.size() < MAX_POOLED_PER_KEY){
+                pool.offerFirst(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * 获得 池中的数量.
+     *
+     * @param level
+     *            压缩级别
+     * @param nowrap
+     *            nowrap
+     * @return the pooled count
+     */
+    static int getPooledCount(int level,boolean nowrap){
+        ArrayDeque<Deflater> pool = POOLS[toIndex(level, nowrap)];
+        synchronized (pool){
+            return pool.size();
+        }
+    }
+
+    /**
+     * 清空池,释放所有 {@link Deflater} 的 native 内存.
+     */
+    static void clear(){
+        for (ArrayDeque<Deflater> pool : POOLS){
+            synchronized (pool){
+                for (Deflater deflater : pool){
+                    deflater.end();
+                }
+                pool.clear();
+            }
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * To index.
+     *
+     * @param level
+     *            压缩级别, -1~9
+     * @param nowrap
+     *            nowrap
+     * @return the int
+     */
+    private static int toIndex(int level,boolean nowrap){
+        return (level + 1) * 2 + (nowrap ? 1 : 0);
+    }
+
+    /**
+     * New pools.
+     *
+     * @return the array deque[]
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static ArrayDeque<Deflater>[] newPools(){
+        ArrayDeque<Deflater>[] pools = new ArrayDeque[22];
+        for (int i = 0; i < pools.length; ++i){
+            pools[i] = new ArrayDeque<>();
+        }
+        return pools;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+/**
+ * 流式表格导出的格式.
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see ResponseDownloadUtil#downloadDelimited(String, java.util.Iterator, DelimitedFormat, String, javax.servlet.http.HttpServletRequest,
+ *      javax.servlet.http.HttpServletResponse)
+ * @since 2.1.0
+ */
+public enum DelimitedFormat{
+
+    /**
+     * RFC 4180, 逗号分隔,行尾 <code>CRLF</code>;包含逗号, 双引号, 换行的单元格使用双引号包起来,双引号转义成两个双引号.
+     */
+    CSV(',', "\r\n", "text/csv"),
+
+    /**
+     * IANA text/tab-separated-values, tab 分隔,行尾 <code>LF</code>;单元格中的 tab 以及换行替换成空格.
+     */
+    TSV('\t', "\n", "text/tab-separated-values");
+
+    //---------------------------------------------------------------
+
+    /** 分隔符. */
+    private final char   delimiter;
+
+    /** 行尾. */
+    private final String lineSeparator;
+
+    /** The content type. */
+    private final String contentType;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param delimiter
+     *            分隔符
+     * @param lineSeparator
+     *            行尾
+     * @param contentType
+     *            the content type
+     */
+    private DelimitedFormat(char delimiter, String lineSeparator, String contentType){
+        this.delimiter = delimiter;
+        this.lineSeparator = lineSeparator;
+        this.contentType = contentType;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 分隔符.
+     *
+     * @return the delimiter
+     */
+    public char getDelimiter(){
+        return delimiter;
+    }
+
+    /**
+     * 获得 行尾.
+     *
+     * @return the lineSeparator
+     */
+    public String getLineSeparator(){
+        return lineSeparator;
+    }
+
+    /**
+     * 获得 content type(不含 charset).
+     *
+     * @return the contentType
+     */
+    public String getContentType(){
+        return contentType;
+    }
+}
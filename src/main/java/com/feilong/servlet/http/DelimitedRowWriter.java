@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+
+/**
+ * 把行直接编码写到输出流,用于流式表格导出.
+ * 
+ * <p>
+ * 字符先写到固定大小的 {@link CharBuffer},满了之后使用同一个 {@link CharsetEncoder} 编码到 {@link BufferPool} 中的字节缓冲区再写出,缓冲区在整个导出过程中复用;<br>
+ * 每写出 {@link #FLUSH_INTERVAL} 个字节 flush 一次,数据及时发送给客户端,不会堆积在容器的输出缓冲区;<br>
+ * 因此内存占用和行数无关.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class DelimitedRowWriter{
+
+    /** 字符缓冲区大小 <code>{@value}</code>. */
+    static final int              BUFFER_SIZE    = 8192;
+
+    /** flush 间隔字节数 <code>{@value}</code>. */
+    static final int              FLUSH_INTERVAL = 64 * 1024;
+
+    //---------------------------------------------------------------
+
+    /** The delimited format. */
+    private final DelimitedFormat delimitedFormat;
+
+    /** The encoder. */
+    private final CharsetEncoder  charsetEncoder;
+
+    /** The output stream. */
+    private final OutputStream    outputStream;
+
+    /** 待编码的字符. */
+    private final CharBuffer      charBuffer     = CharBuffer.allocate(BUFFER_SIZE);
+
+    /** 编码之后待写出的字节,使用 {@link BufferPool} 中的缓冲区. */
+    private final ByteBuffer      byteBuffer;
+
+    /** 上次 flush 之后写出的字节数. */
+    private long                  unflushedBytes;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param delimitedFormat
+     *            the delimited format
+     * @param charset
+     *            the charset
+     * @param outputStream
+     *            the output stream
+     * @param buffer
+     *            编码之后的字节缓冲区
+     */
+    private DelimitedRowWriter(DelimitedFormat delimitedFormat, Charset charset, OutputStream outputStream, byte[] buffer){
+        this.delimitedFormat = delimitedFormat;
+        this.outputStream = outputStream;
+        //比如 GBK 不能表示的字符使用 ? 代替,而不是中断导出
+        this.charsetEncoder = charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.byteBuffer = ByteBuffer.wrap(buffer);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 写出所有的行,并 flush(不关闭 <code>outputStream</code>).
+     *
+     * @param rows
+     *            行,每一行是单元格的集合;单元格是 null 时输出空,否则使用 {@link String#valueOf(Object)}
+     * @param delimitedFormat
+     *            the delimited format
+     * @param charset
+     *            the charset
+     * @param outputStream
+     *            the output stream
+     * @return 写出的行数
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static long write(Iterator<? extends Iterable<?>> rows,DelimitedFormat delimitedFormat,Charset charset,OutputStream outputStream)
+                    throws IOException{
+        byte[] buffer = BufferPool.acquire();
+        try{
+            DelimitedRowWriter delimitedRowWriter = new DelimitedRowWriter(delimitedFormat, charset, outputStream, buffer);
+            long count = 0;
+            while (rows.hasNext()){
+                delimitedRowWriter.writeRow(rows.next());
+                ++count;
+            }
+            delimitedRowWriter.finish();
+            return count;
+        }finally{
+            BufferPool.release(buffer);
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 写一行.
+     *
+     * @param row
+     *            the row
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeRow(Iterable<?> row) throws IOException{
+        if (null != row){
+            boolean first = true;
+            for (Object cell : row){
+                if (!first){
+                    put(delimitedFormat.getDelimiter());
+                }
+                first = false;
+                if (null != cell){
+                    writeCell(cell instanceof CharSequence ? (CharSequence) cell : String.valueOf(cell));
+                }
+            }
+        }
+        String lineSeparator = delimitedFormat.getLineSeparator();
+        for (int i = 0; i < lineSeparator.length(); ++i){
+            put(lineSeparator.charAt(i));
+        }
+        if (unflushedBytes >= FLUSH_INTERVAL){
+            outputStream.flush();
+            unflushedBytes = 0;
+        }
+    }
+
+    /**
+     * 写一个单元格.
+     *
+     * @param cell
+     *            the cell
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeCell(CharSequence cell) throws IOException{
+        int length = cell.length();
+        if (DelimitedFormat.TSV == delimitedFormat){
+            for (int i = 0; i < length; ++i){
+                char c = cell.charAt(i);
+                put(c == '\t' || c == '\r' || c == '\n' ? ' ' : c);
+            }
+            return;
+        }
+
+        //---------------------------------------------------------------
+        if (!needQuote(cell)){
+            for (int i = 0; i < length; ++i){
+                put(cell.charAt(i));
+            }
+            return;
+        }
+        put('"');
+        for (int i = 0; i < length; ++i){
+            char c = cell.charAt(i);
+            if (c == '"'){
+                put('"');
+            }
+            put(c);
+        }
+        put('"');
+    }
+
+    /**
+     * CSV 单元格是否需要使用双引号包起来.
+     *
+     * @param cell
+     *            the cell
+     * @return 如果包含分隔符, 双引号, 换行,返回 true
+     */
+    private boolean needQuote(CharSequence cell){
+        char delimiter = delimitedFormat.getDelimiter();
+        for (int i = 0, length = cell.length(); i < length; ++i){
+            char c = cell.charAt(i);
+            if (c == delimiter || c == '"' || c == '\r' || c == '\n'){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 写一个字符,缓冲区满了的时候编码并写出.
+     *
+     * @param c
+     *            the c
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void put(char c) throws IOException{
+        if (!charBuffer.hasRemaining()){
+            encode(false);
+        }
+        charBuffer.put(c);
+    }
+
+    /**
+     * 编码 {@link #charBuffer} 中的字符并写出;末尾不完整的代理对保留到下一次.
+     *
+     * @param endOfInput
+     *            是否是最后一次
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void encode(boolean endOfInput) throws IOException{
+        charBuffer.flip();
+        while (true){
+            CoderResult coderResult = charsetEncoder.encode(charBuffer, byteBuffer, endOfInput);
+            if (coderResult.isUnderflow()){
+                break;
+            }
+            if (coderResult.isOverflow()){
+                writeByteBuffer();
+                continue;
+            }
+            coderResult.throwException();
+        }
+        charBuffer.compact();
+        writeByteBuffer();
+    }
+
+    /**
+     * 写出 {@link #byteBuffer} 中的字节.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeByteBuffer() throws IOException{
+        byteBuffer.flip();
+        int count = byteBuffer.remaining();
+        if (count > 0){
+            outputStream.write(byteBuffer.array(), byteBuffer.arrayOffset(), count);
+            unflushedBytes += count;
+        }
+        byteBuffer.clear();
+    }
+
+    /**
+     * 写出剩余的数据并 flush.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void finish() throws IOException{
+        encode(true);
+        while (charsetEncoder.flush(byteBuffer).isOverflow()){
+            writeByteBuffer();
+        }
+        writeByteBuffer();
+        outputStream.flush();
+    }
+}
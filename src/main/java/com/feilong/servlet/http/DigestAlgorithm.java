@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 下载时边输出边计算的摘要算法.
+ * 
+ * <p>
+ * 名称以及值的编码参见 RFC 3230 以及 IANA "HTTP Digest Algorithm Values",值均为摘要字节(CRC32c 为大端 4 字节)的 base64.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see HttpHeaders#DIGEST
+ * @see DownloadDigestCache
+ * @since 2.1.0
+ */
+public enum DigestAlgorithm{
+
+    /** MD5, 同时会输出 <code>Content-MD5</code>. */
+    MD5("MD5"),
+
+    /** SHA-256. */
+    SHA_256("SHA-256"),
+
+    /** CRC32c(Castagnoli), 计算比 MD5 和 SHA-256 快很多,只适合校验传输错误. */
+    CRC32C("CRC32c");
+
+    //---------------------------------------------------------------
+
+    /** Digest header 中的名称. */
+    private final String name;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param name
+     *            Digest header 中的名称
+     */
+    private DigestAlgorithm(String name){
+        this.name = name;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 创建新的 {@link MessageDigest}.
+     *
+     * @return the message digest
+     * @throws IllegalStateException
+     *             如果 JDK 不支持该算法(MD5 以及 SHA-256 是每个 JDK 都必须支持的)
+     */
+    MessageDigest newMessageDigest(){
+        if (this == CRC32C){
+            return new Crc32cMessageDigest();
+        }
+        try{
+            return MessageDigest.getInstance(name);
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 获得 Digest header 中的名称.
+     *
+     * @return the name
+     */
+    public String getName(){
+        return name;
+    }
+}
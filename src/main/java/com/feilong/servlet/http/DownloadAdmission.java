@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static com.feilong.core.Validator.isNullOrEmpty;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * 下载并发控制(准入).
+ *
+ * <p>
+ * 按照调用方指定的分类({@link com.feilong.servlet.http.entity.DownloadConfig#getCategory()},比如 export, attachment)分别限制同时进行的下载数量;<br>
+ * 许可用完时,最多 <code>maxWaiting</code> 个请求排队等待,每个最多等待 <code>waitTimeoutMillis</code> 毫秒;<br>
+ * 排队已满或者等待超时,返回 <code>503</code> 以及根据当前下载完成速度估算的 <code>Retry-After</code>,而不是让所有下载一起变慢,耗尽文件句柄以及磁盘带宽.
+ * </p>
+ *
+ * <p>
+ * 没有配置的分类不限制;可以在运行时重新配置,正在进行的下载仍然归还到原来的许可池.
+ * </p>
+ *
+ * <h3>示例:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * //报表导出最多同时 20 个, 排队 50 个, 每个最多等 10 秒
+ * DownloadAdmission.configure("export", 20, 50, 10000);
+ *
+ * DownloadConfig downloadConfig = new DownloadConfig();
+ * downloadConfig.setCategory("export");
+ * ResponseDownloadUtil.download(file, downloadConfig, request, response);
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+public final class DownloadAdmission{
+
+    /** 没有指定分类时使用的分类 <code>{@value}</code>. */
+    public static final String                            DEFAULT_CATEGORY        = "default";
+
+    /** <code>Retry-After</code> 的最大秒数 <code>{@value}</code>. */
+    static final long                                     MAX_RETRY_AFTER_SECONDS = 300;
+
+    /** 分类和许可池. */
+    private static final ConcurrentMap<String, Partition> PARTITIONS              = new ConcurrentHashMap<>();
+
+    /** 不限制时使用的许可. */
+    private static final Permit                           UNLIMITED               = new Permit(null, true, 0);
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private DownloadAdmission(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 配置分类的并发限制.
+     *
+     * @param category
+     *            分类,如果是null或者empty,使用 {@link #DEFAULT_CATEGORY}
+     * @param maxConcurrent
+     *            同时进行的最大下载数量,必须 {@code >0}
+     * @param maxWaiting
+     *            最大排队数量, {@code <=0} 表示不排队,许可用完直接返回 503
+     * @param waitTimeoutMillis
+     *            排队的最长等待时间(毫秒)
+     * @throws IllegalArgumentException
+     *             如果 <code>maxConcurrent</code> {@code <=0}
+     */
+    public static void configure(String category,int maxConcurrent,int maxWaiting,long waitTimeoutMillis){
+        Validate.isTrue(maxConcurrent > 0, "maxConcurrent must > 0, but is:%s", maxConcurrent);
+        PARTITIONS.put(toCategory(category), new Partition(maxConcurrent, Math.max(0, maxWaiting), Math.max(0, waitTimeoutMillis)));
+    }
+
+    /**
+     * 移除分类的并发限制,之后该分类不再限制.
+     *
+     * @param category
+     *            分类
+     */
+    public static void remove(String category){
+        PARTITIONS.remove(toCategory(category));
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得许可,如果需要,排队等待.
+     *
+     * @param category
+     *            分类
+     * @return 许可,通过 {@link Permit#isGranted()} 判断是否获得
+     */
+    static Permit acquire(String category){
+        Partition partition = PARTITIONS.get(toCategory(category));
+        return null == partition ? UNLIMITED : partition.acquire();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 分类当前正在进行的下载数量.
+     *
+     * @param category
+     *            分类
+     * @return 如果分类没有配置,返回 0
+     */
+    public static int getActiveCount(String category){
+        Partition partition = PARTITIONS.get(toCategory(category));
+        return null == partition ? 0 : partition.maxConcurrent - partition.semaphore.availablePermits();
+    }
+
+    /**
+     * 获得 分类当前排队的下载数量.
+     *
+     * @param category
+     *            分类
+     * @return 如果分类没有配置,返回 0
+     */
+    public static int getWaitingCount(String category){
+        Partition partition = PARTITIONS.get(toCategory(category));
+        return null == partition ? 0 : partition.waiting.get();
+    }
+
+    /**
+     * 获得 分类被拒绝(返回 503)的下载数量.
+     *
+     * @param category
+     *            分类
+     * @return 如果分类没有配置,返回 0
+     */
+    public static long getRejectedCount(String category){
+        Partition partition = PARTITIONS.get(toCategory(category));
+        return null == partition ? 0 : partition.rejected.get();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * To category.
+     *
+     * @param category
+     *            the category
+     * @return the string
+     */
+    private static String toCategory(String category){
+        return isNullOrEmpty(category) ? DEFAULT_CATEGORY : category;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 一个分类的许可池.
+     */
+    private static final class Partition{
+
+        /** 计算平均占用时间的平滑系数的倒数,越大越平滑. */
+        private static final int    SMOOTHING        = 8;
+
+        /** 同时进行的最大下载数量. */
+        private final int           maxConcurrent;
+
+        /** 最大排队数量. */
+        private final int           maxWaiting;
+
+        /** 排队的最长等待时间(毫秒). */
+        private final long          waitTimeoutMillis;
+
+        /** The semaphore. */
+        private final Semaphore     semaphore;
+
+        /** 当前排队数量. */
+        private final AtomicInteger waiting          = new AtomicInteger();
+
+        /** 被拒绝的数量. */
+        private final AtomicLong    rejected         = new AtomicLong();
+
+        /** 许可平均占用时间(纳秒),指数移动平均. */
+        private final AtomicLong    averageHoldNanos = new AtomicLong();
+
+        /**
+         * The Constructor.
+         *
+         * @param maxConcurrent
+         *            同时进行的最大下载数量
+         * @param maxWaiting
+         *            最大排队数量
+         * @param waitTimeoutMillis
+         *            排队的最长等待时间(毫秒)
+         */
+        private Partition(int maxConcurrent, int maxWaiting, long waitTimeoutMillis){
+            this.maxConcurrent = maxConcurrent;
+            this.maxWaiting = maxWaiting;
+            this.waitTimeoutMillis = waitTimeoutMillis;
+            this.semaphore = new Semaphore(maxConcurrent, true);
+        }
+
+        /**
+         * 获得许可.
+         *
+         * @return the permit
+         */
+        private Permit acquire(){
+            if (semaphore.tryAcquire()){
+                return new Permit(this, true, 0);
+            }
+            if (waiting.incrementAndGet() > maxWaiting){
+                waiting.decrementAndGet();
+                return reject();
+            }
+            try{
+                if (semaphore.tryAcquire(waitTimeoutMillis, TimeUnit.MILLISECONDS)){
+                    return new Permit(this, true, 0);
+                }
+                return reject();
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return reject();
+            }finally{
+                waiting.decrementAndGet();
+            }
+        }
+
+        /**
+         * 拒绝,并根据排队数量以及许可平均占用时间估算 Retry-After.
+         *
+         * @return the permit
+         */
+        private Permit reject(){
+            rejected.incrementAndGet();
+
+            //排在前面的下载数量 / 并发数 * 平均占用时间 = 大约多久之后会有空闲许可
+            long averageHoldMillis = TimeUnit.NANOSECONDS.toMillis(averageHoldNanos.get());
+            long estimateMillis = (waiting.get() + 1) * averageHoldMillis / maxConcurrent;
+            long retryAfterSeconds = Math.min(MAX_RETRY_AFTER_SECONDS, Math.max(1, (estimateMillis + 999) / 1000));
+            return new Permit(this, false, retryAfterSeconds);
+        }
+
+        /**
+         * 归还许可,并更新平均占用时间.
+         *
+         * @param holdNanos
+         *            本次占用时间
+         */
+        private void release(long holdNanos){
+            semaphore.release();
+
+            long current;
+            long next;
+            do{
+                current = averageHoldNanos.get();
+                next = 0 == current ? holdNanos : current + (holdNanos - current) / SMOOTHING;
+            }while (!averageHoldNanos.compareAndSet(current, next));
+        }
+    }
+
+    /**
+     * 准入结果,获得的许可需要且只需要 {@link #release()} 一次.
+     */
+    static final class Permit{
+
+        /** 所属的许可池,不限制时是 null. */
+        private final Partition     partition;
+
+        /** 是否获得许可. */
+        private final boolean       granted;
+
+        /** 没有获得许可时,建议的 Retry-After 秒数. */
+        private final long          retryAfterSeconds;
+
+        /** 获得许可的时间. */
+        private final long          acquiredNanos = System.nanoTime();
+
+        /** 是否已经归还. */
+        private final AtomicBoolean released      = new AtomicBoolean(false);
+
+        /**
+         * The Constructor.
+         *
+         * @param partition
+         *            所属的许可池
+         * @param granted
+         *            是否获得许可
+         * @param retryAfterSeconds
+         *            建议的 Retry-After 秒数
+         */
+        private Permit(Partition partition, boolean granted, long retryAfterSeconds){
+            this.partition = partition;
+            this.granted = granted;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        /**
+         * 归还许可,多次调用只归还一次;没有获得许可时什么都不做.
+         */
+        void release(){
+            if (granted && null != partition && released.compareAndSet(false, true)){
+                partition.release(System.nanoTime() - acquiredNanos);
+            }
+        }
+
+        /**
+         * 是否获得许可.
+         *
+         * @return 如果获得,返回 true
+         */
+        boolean isGranted(){
+            return granted;
+        }
+
+        /**
+         * 获得 没有获得许可时,建议的 Retry-After 秒数.
+         *
+         * @return the retryAfterSeconds
+         */
+        long getRetryAfterSeconds(){
+            return retryAfterSeconds;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * 下载时边输出边计算的文件摘要的缓存.
+ * 
+ * <p>
+ * 设置了 {@link com.feilong.servlet.http.entity.DownloadConfig#getDigestAlgorithm()} 的文件下载,第一次完整输出的时候顺便计算摘要(不需要再读一遍文件),
+ * 按照文件路径以及算法缓存,并且记录计算时文件的大小以及最后修改时间,文件变化之后自动失效;<br>
+ * 之后的下载在输出数据之前直接设置 <code>Digest</code>(MD5 还会设置 <code>Content-MD5</code>) header.
+ * </p>
+ * 
+ * <p>
+ * 最多缓存 {@link #getMaxEntries()} 个摘要,超过时按照 LRU 淘汰.
+ * </p>
+ *
+ * <h3>示例:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * DownloadConfig downloadConfig = new DownloadConfig();
+ * downloadConfig.setDigestAlgorithm(DigestAlgorithm.SHA_256);
+ * ResponseDownloadUtil.download(file, downloadConfig, request, response);
+ * 
+ * //已经计算过的摘要, 比如发布到下载页面
+ * String sha256 = DownloadDigestCache.getDigest(file, DigestAlgorithm.SHA_256);
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see HttpHeaders#DIGEST
+ * @since 2.1.0
+ */
+public final class DownloadDigestCache{
+
+    /** 默认的最大缓存数量 <code>{@value}</code>. */
+    public static final int                        DEFAULT_MAX_ENTRIES = 4096;
+
+    /** base64 字符表. */
+    private static final char[]                    BASE64              = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    //---------------------------------------------------------------
+
+    /** 缓存,按照访问顺序排列,需要在 {@link #LOCK} 内访问. */
+    private static final Map<String, CachedDigest> CACHE               = new LinkedHashMap<String, CachedDigest>(16, 0.75f, true);
+
+    /** The Constant LOCK. */
+    private static final Object                    LOCK                = new Object();
+
+    /** 最大缓存数量. */
+    private static volatile int                    maxEntries          = DEFAULT_MAX_ENTRIES;
+
+    /** 命中次数. */
+    private static final AtomicLong                HIT_COUNT           = new AtomicLong();
+
+    /** 未命中次数. */
+    private static final AtomicLong                MISS_COUNT          = new AtomicLong();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private DownloadDigestCache(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得文件当前内容的摘要.
+     *
+     * @param file
+     *            the file
+     * @param digestAlgorithm
+     *            the digest algorithm
+     * @return 如果还没有计算过,或者文件在计算之后被修改了,返回 null;否则返回摘要的 base64
+     * @throws NullPointerException
+     *             如果 <code>file</code> 或者 <code>digestAlgorithm</code> 是null
+     */
+    public static String getDigest(File file,DigestAlgorithm digestAlgorithm){
+        Validate.notNull(file, "file can't be null!");
+        Validate.notNull(digestAlgorithm, "digestAlgorithm can't be null!");
+        return get(file, file.length(), file.lastModified(), digestAlgorithm);
+    }
+
+    /**
+     * 获得摘要.
+     *
+     * @param file
+     *            the file
+     * @param length
+     *            文件当前的大小
+     * @param lastModified
+     *            文件当前的最后修改时间
+     * @param digestAlgorithm
+     *            the digest algorithm
+     * @return 如果没有缓存,或者文件已经变化,返回 null;否则返回摘要的 base64
+     */
+    static String get(File file,long length,long lastModified,DigestAlgorithm digestAlgorithm){
+        String key = toKey(file, digestAlgorithm);
+        synchronized (LOCK){
+            CachedDigest cachedDigest = CACHE.get(key);
+            if (null != cachedDigest && cachedDigest.length == length && cachedDigest.lastModified == lastModified){
+                HIT_COUNT.incrementAndGet();
+                return cachedDigest.value;
+            }
+        }
+        MISS_COUNT.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 缓存摘要.
+     *
+     * @param file
+     *            the file
+     * @param length
+     *            计算摘要时文件的大小
+     * @param lastModified
+     *            计算摘要时文件的最后修改时间
+     * @param digestAlgorithm
+     *            the digest algorithm
+     * @param digest
+     *            摘要字节
+     * @return 摘要的 base64
+     */
+    static String put(File file,long length,long lastModified,DigestAlgorithm digestAlgorithm,byte[] digest){
+        String value = toBase64(digest);
+        synchronized (LOCK){
+            CACHE.put(toKey(file, digestAlgorithm), new CachedDigest(length, lastModified, value));
+            evict(maxEntries);
+        }
+        return value;
+    }
+
+    /**
+     * 清空缓存,不重置计数.
+     */
+    public static void clear(){
+        synchronized (LOCK){
+            CACHE.clear();
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 按照 LRU 淘汰,直到数量不超过 <code>budget</code>, 需要在 {@link #LOCK} 内调用.
+     *
+     * @param budget
+     *            the budget
+     */
+    private static void evict(int budget){
+        Iterator<CachedDigest> iterator = CACHE.values().iterator();
+        while (CACHE.size() > budget && iterator.hasNext()){
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * To key.
+     *
+     * @param file
+     *            the file
+     * @param digestAlgorithm
+     *            the digest algorithm
+     * @return the string
+     */
+    private static String toKey(File file,DigestAlgorithm digestAlgorithm){
+        return digestAlgorithm.getName() + ":" + file.getAbsolutePath();
+    }
+
+    /**
+     * 标准 base64(带 padding).
+     *
+     * @param bytes
+     *            the bytes
+     * @return the string
+     */
+    static String toBase64(byte[] bytes){
+        StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3){
+            int remaining = bytes.length - i;
+            int b = (bytes[i] & 0xFF) << 16 | (remaining > 1 ? (bytes[i + 1] & 0xFF) << 8 : 0) | (remaining > 2 ? bytes[i + 2] & 0xFF : 0);
+            sb.append(BASE64[b >>> 18 & 0x3F]);
+            sb.append(BASE64[b >>> 12 & 0x3F]);
+            sb.append(remaining > 1 ? BASE64[b >>> 6 & 0x3F] : '=');
+            sb.append(remaining > 2 ? BASE64[b & 0x3F] : '=');
+        }
+        return sb.toString();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 最大缓存数量.
+     *
+     * @return the maxEntries
+     */
+    public static int getMaxEntries(){
+        return maxEntries;
+    }
+
+    /**
+     * 设置 最大缓存数量,如果比当前缓存的数量小,会立即淘汰.
+     *
+     * @param maxEntries
+     *            the maxEntries to set
+     */
+    public static void setMaxEntries(int maxEntries){
+        DownloadDigestCache.maxEntries = maxEntries;
+        synchronized (LOCK){
+            evict(maxEntries);
+        }
+    }
+
+    /**
+     * 获得 当前缓存的数量.
+     *
+     * @return the entry count
+     */
+    public static int getEntryCount(){
+        synchronized (LOCK){
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * 获得 命中次数.
+     *
+     * @return the hit count
+     */
+    public static long getHitCount(){
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * 获得 未命中次数.
+     *
+     * @return the miss count
+     */
+    public static long getMissCount(){
+        return MISS_COUNT.get();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 缓存的摘要.
+     */
+    private static final class CachedDigest{
+
+        /** 计算时文件的大小. */
+        private final long   length;
+
+        /** 计算时文件的最后修改时间. */
+        private final long   lastModified;
+
+        /** 摘要的 base64. */
+        private final String value;
+
+        /**
+         * The Constructor.
+         *
+         * @param length
+         *            计算时文件的大小
+         * @param lastModified
+         *            计算时文件的最后修改时间
+         * @param value
+         *            摘要的 base64
+         */
+        private CachedDigest(long length, long lastModified, String value){
+            this.length = length;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
+}
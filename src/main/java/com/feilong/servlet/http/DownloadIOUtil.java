@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 下载时使用的流操作工具类.
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class DownloadIOUtil{
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadIOUtil.class);
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private DownloadIOUtil(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 跳过 <code>count</code> 个字节.
+     * 
+     * <p>
+     * 对于 {@link java.io.FileInputStream}, {@link InputStream#skip(long)} 是直接 seek,不会读取前面的字节.
+     * </p>
+     *
+     * @param inputStream
+     *            the input stream
+     * @param count
+     *            the count
+     * @throws IOException
+     *             如果流提前结束
+     */
+    static void skipFully(InputStream inputStream,long count) throws IOException{
+        long remaining = count;
+        while (remaining > 0){
+            long skipped = inputStream.skip(remaining);
+            if (skipped <= 0){
+                //有些流 skip 返回0, 尝试读一个字节判断是否结束
+                if (inputStream.read() < 0){
+                    throw new EOFException("unexpected end of stream while skipping to position:" + count);
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * 从 <code>inputStream</code> 复制 <code>length</code> 个字节到 <code>outputStream</code>.
+     *
+     * @param inputStream
+     *            the input stream
+     * @param outputStream
+     *            the output stream
+     * @param length
+     *            the length
+     * @throws IOException
+     *             如果流提前结束
+     */
+    static void copy(InputStream inputStream,OutputStream outputStream,long length) throws IOException{
+        byte[] buffer = BufferPool.acquire();
+        try{
+            long remaining = length;
+            while (remaining > 0){
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0){
+                    throw new EOFException("unexpected end of stream, remaining bytes:" + remaining);
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }finally{
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 从 <code>inputStream</code> 复制所有的字节到 <code>outputStream</code>,不会关闭流.
+     *
+     * @param inputStream
+     *            the input stream
+     * @param outputStream
+     *            the output stream
+     * @param large
+     *            是否使用 {@link BufferPool#getLargeBufferSize()} 大缓冲区
+     * @return 复制的字节数
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static long copy(InputStream inputStream,OutputStream outputStream,boolean large) throws IOException{
+        byte[] buffer = BufferPool.acquire(large);
+        try{
+            long count = 0;
+            int read;
+            while (-1 != (read = inputStream.read(buffer))){
+                outputStream.write(buffer, 0, read);
+                count += read;
+            }
+            return count;
+        }finally{
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 把 <code>byteBuffer</code> 剩余的字节写到 <code>outputStream</code>,不会关闭 <code>outputStream</code>.
+     *
+     * @param byteBuffer
+     *            the byte buffer,会修改它的 position
+     * @param outputStream
+     *            the output stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static void write(ByteBuffer byteBuffer,OutputStream outputStream) throws IOException{
+        if (byteBuffer.hasArray()){
+            outputStream.write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+            byteBuffer.position(byteBuffer.limit());
+            return;
+        }
+        byte[] buffer = BufferPool.acquire();
+        try{
+            while (byteBuffer.hasRemaining()){
+                int count = Math.min(buffer.length, byteBuffer.remaining());
+                byteBuffer.get(buffer, 0, count);
+                outputStream.write(buffer, 0, count);
+            }
+        }finally{
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 关闭,忽略异常.
+     *
+     * @param closeable
+     *            the closeable
+     */
+    static void closeQuietly(Closeable closeable){
+        if (null == closeable){
+            return;
+        }
+        try{
+            closeable.close();
+        }catch (IOException e){
+            LOGGER.debug("close exception", e);
+        }
+    }
+}
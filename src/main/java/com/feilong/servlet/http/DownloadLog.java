@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static com.feilong.core.date.DateExtensionUtil.formatDuration;
+import static com.feilong.core.date.DateUtil.now;
+
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feilong.io.FileUtil;
+
+/**
+ * 一次下载的开始/结束/异常日志.
+ *
+ * <p>
+ * 同步下载以及异步下载共用,保证日志格式一致;结束时同时记录 {@link DownloadMetrics} 指标.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class DownloadLog{
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseDownloadUtil.class);
+
+    //---------------------------------------------------------------
+
+    /** The save file name. */
+    private final String        saveFileName;
+
+    /** 格式化之后的长度. */
+    private final String        length;
+
+    /** The begin date. */
+    private final Date          beginDate;
+
+    /** 开始时间(纳秒),用于计算耗时以及吞吐量. */
+    private final long          beginNanos;
+
+    /** 实际输出的字节数. */
+    private volatile long       bytes;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param saveFileName
+     *            the save file name
+     * @param length
+     *            格式化之后的长度
+     */
+    private DownloadLog(String saveFileName, String length){
+        this.saveFileName = saveFileName;
+        this.length = length;
+        this.beginDate = now();
+        this.beginNanos = System.nanoTime();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 开始下载,记录开始日志.
+     *
+     * @param saveFileName
+     *            the save file name
+     * @param contentLength
+     *            本次输出的长度,未知时是 null
+     * @param partial
+     *            是否是区间输出
+     * @return the download log
+     */
+    static DownloadLog begin(String saveFileName,Number contentLength,boolean partial){
+        String length = null == contentLength ? "unknown" : FileUtil.formatSize(contentLength.longValue());
+        DownloadLog downloadLog = new DownloadLog(saveFileName, length);
+        LOGGER.info("begin download~~,saveFileName:[{}],contentLength:[{}],partial:[{}]", saveFileName, downloadLog.length, partial);
+        return downloadLog;
+    }
+
+    /**
+     * 累加实际输出的字节数,只能在输出数据的线程中调用.
+     *
+     * @param count
+     *            本次输出的字节数
+     */
+    void addBytes(long count){
+        bytes += count;
+    }
+
+    /**
+     * 下载结束,记录结束日志以及 {@link DownloadOutcome#COMPLETED} 指标.
+     */
+    void end(){
+        DownloadMetrics.collect(DownloadOutcome.COMPLETED, saveFileName, bytes, System.nanoTime() - beginNanos);
+        if (LOGGER.isInfoEnabled()){
+            String pattern = "end download,saveFileName:[{}],contentLength:[{}],time use:[{}]";
+            LOGGER.info(pattern, saveFileName, length, formatDuration(beginDate));
+        }
+    }
+
+    /**
+     * 下载异常,记录日志以及 {@link DownloadOutcome#ABORTED} 或者 {@link DownloadOutcome#FAILED} 指标.
+     *
+     * @param throwable
+     *            the throwable
+     * @param request
+     *            用来获取 User-Agent
+     * @return 如果是客户端取消了下载(ClientAbortException),返回 true,只记录 warn 日志; 否则记录 error 日志,返回 false
+     */
+    boolean error(Throwable throwable,HttpServletRequest request){
+        /*
+         * 在写数据的时候, 对于 ClientAbortException 之类的异常, 是因为客户端取消了下载,而服务器端继续向浏览器写入数据时, 抛出这个异常,这个是正常的.
+         * 尤其是对于迅雷这种吸血的客户端软件, 明明已经有一个线程在读取
+         * 如果短时间内没有读取完毕,迅雷会再启第二个、第三个...线程来读取相同的字节段,
+         * 直到有一个线程读取完毕,迅雷会 KILL掉其他正在下载同一字节段的线程, 强行中止字节读出,造成服务器抛 ClientAbortException.
+         */
+        //ClientAbortException:  java.net.SocketException: Connection reset by peer: socket write error
+        final String exceptionName = throwable.getClass().getName();
+        long durationNanos = System.nanoTime() - beginNanos;
+
+        if (StringUtils.contains(exceptionName, "ClientAbortException")
+                        || StringUtils.contains(throwable.getMessage(), "ClientAbortException")){
+            DownloadMetrics.collect(DownloadOutcome.ABORTED, saveFileName, bytes, durationNanos);
+            String pattern = "[ClientAbortException],maybe user use Thunder soft or abort client soft download,exceptionName:[{}],exception message:[{}] ,request User-Agent:[{}]";
+            LOGGER.warn(pattern, exceptionName, throwable.getMessage(), RequestUtil.getHeaderUserAgent(request));
+            return true;
+        }
+        DownloadMetrics.collect(DownloadOutcome.FAILED, saveFileName, bytes, durationNanos);
+        LOGGER.error("[download exception],saveFileName:[" + saveFileName + "],exception name: " + exceptionName, throwable);
+        return false;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 下载指标的入口,持有当前使用的 {@link DownloadMetricsCollector}.
+ * 
+ * <p>
+ * 初始化时,如果通过 {@link ServiceLoader} 注册了 {@link DownloadMetricsCollector},使用第一个;否则使用 {@link DefaultDownloadMetricsCollector}.
+ * </p>
+ * 
+ * <h3>示例:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * DefaultDownloadMetricsCollector collector = (DefaultDownloadMetricsCollector) DownloadMetrics.getCollector();
+ * LOGGER.info("aborted:[{}],throughput p50:[{}]", collector.getAbortedCount(), collector.getThroughputHistogram().getQuantile(0.5));
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+public final class DownloadMetrics{
+
+    /** The Constant LOGGER. */
+    private static final Logger                      LOGGER    = LoggerFactory.getLogger(DownloadMetrics.class);
+
+    /** 当前使用的收集器. */
+    private static volatile DownloadMetricsCollector collector = loadCollector();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private DownloadMetrics(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 加载 {@link ServiceLoader} 注册的收集器.
+     *
+     * @return 如果没有注册,返回 {@link DefaultDownloadMetricsCollector}
+     */
+    private static DownloadMetricsCollector loadCollector(){
+        Iterator<DownloadMetricsCollector> iterator = ServiceLoader.load(DownloadMetricsCollector.class).iterator();
+        if (iterator.hasNext()){
+            DownloadMetricsCollector downloadMetricsCollector = iterator.next();
+            LOGGER.info("use DownloadMetricsCollector:[{}] from ServiceLoader", downloadMetricsCollector.getClass().getName());
+            return downloadMetricsCollector;
+        }
+        return new DefaultDownloadMetricsCollector();
+    }
+
+    /**
+     * 记录一次下载,收集器的异常只记录日志.
+     *
+     * @param downloadOutcome
+     *            下载结果
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param bytes
+     *            实际输出的字节数
+     * @param durationNanos
+     *            耗时(纳秒)
+     */
+    static void collect(DownloadOutcome downloadOutcome,String saveFileName,long bytes,long durationNanos){
+        DownloadMetricsCollector downloadMetricsCollector = collector;
+        try{
+            downloadMetricsCollector.collect(downloadOutcome, saveFileName, bytes, durationNanos);
+        }catch (RuntimeException e){
+            LOGGER.warn("DownloadMetricsCollector:[" + downloadMetricsCollector + "] exception", e);
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 当前使用的收集器.
+     *
+     * @return the collector
+     */
+    public static DownloadMetricsCollector getCollector(){
+        return collector;
+    }
+
+    /**
+     * 设置 当前使用的收集器.
+     *
+     * @param collector
+     *            the collector to set, 不能是 null
+     * @throws NullPointerException
+     *             如果 <code>collector</code> 是null
+     */
+    public static void setCollector(DownloadMetricsCollector collector){
+        Validate.notNull(collector, "collector can't be null!");
+        DownloadMetrics.collector = collector;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+/**
+ * 下载指标收集的 SPI.
+ * 
+ * <p>
+ * 每次下载结束(完成,客户端中断,或者失败)时,在下载线程中调用一次;实现需要是线程安全的,并且尽快返回,不要抛出异常.
+ * </p>
+ * 
+ * <p>
+ * 可以通过 {@link DownloadMetrics#setCollector(DownloadMetricsCollector)} 设置,或者通过 {@link java.util.ServiceLoader} 注册
+ * (<code>META-INF/services/com.feilong.servlet.http.DownloadMetricsCollector</code>),
+ * 比如把数据桥接到 Micrometer, Dropwizard Metrics 或者 Prometheus;<br>
+ * 默认使用 {@link DefaultDownloadMetricsCollector}.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see DownloadMetrics
+ * @since 2.1.0
+ */
+public interface DownloadMetricsCollector{
+
+    /**
+     * 记录一次下载.
+     *
+     * @param downloadOutcome
+     *            下载结果
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param bytes
+     *            实际输出的字节数
+     * @param durationNanos
+     *            耗时(纳秒)
+     */
+    void collect(DownloadOutcome downloadOutcome,String saveFileName,long bytes,long durationNanos);
+}
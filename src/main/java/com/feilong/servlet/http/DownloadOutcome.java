@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+/**
+ * 一次下载的结果.
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see DownloadMetricsCollector
+ * @since 2.1.0
+ */
+public enum DownloadOutcome{
+
+    /** 输出完成. */
+    COMPLETED,
+
+    /** 客户端中断(ClientAbortException),比如取消下载,或者迅雷之类的多线程下载软件主动断开. */
+    ABORTED,
+
+    /** 服务端异常,比如读取文件失败,异步输出超时. */
+    FAILED
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+/**
+ * 大文件下载的进度回调.
+ * 
+ * <p>
+ * 在下载线程中调用,每输出 {@link com.feilong.servlet.http.entity.DownloadConfig#getFlushInterval()} 个字节调用一次,输出完成之后再调用一次;<br>
+ * 实现需要尽快返回,不要抛出异常.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see com.feilong.servlet.http.entity.DownloadConfig#getProgressListener()
+ * @since 2.1.0
+ */
+public interface DownloadProgressListener{
+
+    /**
+     * 下载进度.
+     *
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param transferredBytes
+     *            已经输出的字节数
+     * @param totalBytes
+     *            本次需要输出的字节数,如果未知,是 -1
+     */
+    void onProgress(String saveFileName,long transferredBytes,long totalBytes);
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.feilong.io.FileUtil;
+
+/**
+ * 需要下载的资源,可以是 {@link File}, {@link InputStream} 或者 {@link InputStreamSupplier}.
+ *
+ * <p>
+ * 如果是 {@link File} 或者 {@link InputStreamSupplier},那么 {@link InputStream} 只会在真正需要输出数据的时候才打开,<br>
+ * 这样 HEAD, 416 或者 zero-copy 等不需要读取数据的场景,不会打开流.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class DownloadResource{
+
+    /** 保存文件的文件名. */
+    private final String              saveFileName;
+
+    /** 文件,如果资源是流,那么是 null;如果使用了预压缩文件,是预压缩文件. */
+    private final File                file;
+
+    /** 内容长度,可能是 null. */
+    private final Number              contentLength;
+
+    /** 最后修改时间(毫秒), {@code <=0} 表示未知. */
+    private final long                lastModified;
+
+    /** 预压缩文件的 content-coding, 比如 <code>gzip</code>,没有使用预压缩文件时是 null. */
+    private final String              contentEncoding;
+
+    /** 是否需要输出 <code>Vary: Accept-Encoding</code>. */
+    private final boolean             varyAcceptEncoding;
+
+    /** 延迟打开的输入流,不是基于 supplier 创建时是 null. */
+    private final InputStreamSupplier inputStreamSupplier;
+
+    /** 输入流. */
+    private InputStream               inputStream;
+
+    /** 缓存的文件内容(或者文件的内存映射),没有使用缓存时是 null. */
+    private ByteBuffer                content;
+
+    /** 使用中的内存映射,没有使用内存映射时是 null. */
+    private MappedFileCache.Mapping   mapping;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param file
+     *            文件,如果资源是流,那么是 null
+     * @param inputStream
+     *            输入流,如果资源是文件,可以是 null
+     * @param inputStreamSupplier
+     *            延迟打开的输入流,可以是 null
+     * @param contentLength
+     *            内容长度
+     * @param lastModified
+     *            最后修改时间(毫秒), {@code <=0} 表示未知
+     * @param contentEncoding
+     *            预压缩文件的 content-coding,没有使用预压缩文件时是 null
+     * @param varyAcceptEncoding
+     *            是否需要输出 <code>Vary: Accept-Encoding</code>
+     */
+    private DownloadResource(String saveFileName, File file, InputStream inputStream, InputStreamSupplier inputStreamSupplier,
+                    Number contentLength, long lastModified, String contentEncoding, boolean varyAcceptEncoding){
+        this.saveFileName = saveFileName;
+        this.file = file;
+        this.inputStream = inputStream;
+        this.inputStreamSupplier = inputStreamSupplier;
+        this.contentLength = contentLength;
+        this.lastModified = lastModified;
+        this.contentEncoding = contentEncoding;
+        this.varyAcceptEncoding = varyAcceptEncoding;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 基于文件创建.
+     *
+     * @param file
+     *            the file
+     * @return the download resource
+     */
+    static DownloadResource of(File file){
+        return new DownloadResource(file.getName(), file, null, null, FileUtil.getFileSize(file), file.lastModified(), null, false);
+    }
+
+    /**
+     * 基于文件以及已经读取的大小和最后修改时间创建,不再访问文件系统.
+     *
+     * @param file
+     *            the file
+     * @param length
+     *            文件的大小
+     * @param lastModified
+     *            文件的最后修改时间
+     * @return the download resource
+     */
+    static DownloadResource of(File file,long length,long lastModified){
+        return new DownloadResource(file.getName(), file, null, null, length, lastModified, null, false);
+    }
+
+    /**
+     * 基于协商之后的文件创建,输出 <code>Vary: Accept-Encoding</code>.
+     * 
+     * <p>
+     * 保存的文件名仍然是原文件的文件名,但是输出的数据,大小以及最后修改时间(也就是 ETag)均来自预压缩文件.
+     * </p>
+     *
+     * @param file
+     *            原文件
+     * @param variantFile
+     *            预压缩文件,如果是 null 表示使用原文件
+     * @param length
+     *            实际输出的文件的大小,由 {@link PrecompressedVariants} 读取,不再访问文件系统
+     * @param lastModified
+     *            实际输出的文件的最后修改时间
+     * @param contentEncoding
+     *            预压缩文件的 content-coding
+     * @return the download resource
+     * @see PrecompressedVariants#resolve(File, String)
+     */
+    static DownloadResource of(File file,File variantFile,long length,long lastModified,String contentEncoding){
+        File dataFile = null == variantFile ? file : variantFile;
+        return new DownloadResource(file.getName(), dataFile, null, null, length, lastModified, contentEncoding, true);
+    }
+
+    /**
+     * 基于流创建.
+     *
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param inputStream
+     *            输入流
+     * @param contentLength
+     *            内容长度,可以是 null
+     * @return the download resource
+     */
+    static DownloadResource of(String saveFileName,InputStream inputStream,Number contentLength){
+        return new DownloadResource(saveFileName, null, inputStream, null, contentLength, -1L, null, false);
+    }
+
+    /**
+     * 基于延迟打开的流创建.
+     *
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param inputStreamSupplier
+     *            延迟打开的输入流,只有需要输出数据的时候才调用
+     * @param contentLength
+     *            内容长度,可以是 null
+     * @return the download resource
+     */
+    static DownloadResource of(String saveFileName,InputStreamSupplier inputStreamSupplier,Number contentLength){
+        return new DownloadResource(saveFileName, null, null, inputStreamSupplier, contentLength, -1L, null, false);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得输入流,如果是文件或者 {@link InputStreamSupplier},第一次调用的时候才打开;如果使用了缓存,读取缓存的内容.
+     *
+     * @return the input stream
+     * @throws IOException
+     *             如果 {@link InputStreamSupplier#get()} 打开流失败
+     * @see com.feilong.io.FileUtil#getFileInputStream(File)
+     */
+    InputStream getInputStream() throws IOException{
+        return getInputStream(false);
+    }
+
+    /**
+     * 获得输入流,如果是文件或者 {@link InputStreamSupplier},第一次调用的时候才打开;如果使用了缓存,读取缓存的内容.
+     *
+     * @param readAhead
+     *            如果是文件,是否使用 {@link ReadAheadInputStream} 预读
+     * @return the input stream
+     * @throws IOException
+     *             如果打开流失败
+     * @see com.feilong.io.FileUtil#getFileInputStream(File)
+     * @see ReadAheadInputStream
+     */
+    InputStream getInputStream(boolean readAhead) throws IOException{
+        if (null == inputStream && null != content){
+            inputStream = new ByteBufferInputStream(content.duplicate());
+        }
+        if (null == inputStream && null != file){
+            // 以流的形式下载文件.
+            inputStream = readAhead ? new ReadAheadInputStream(file) : FileUtil.getFileInputStream(file);
+        }
+        if (null == inputStream && null != inputStreamSupplier){
+            inputStream = inputStreamSupplier.get();
+        }
+        return inputStream;
+    }
+
+    /**
+     * 如果是文件,尝试从 {@link FileContentCache} 获得文件内容.
+     *
+     * @return 如果命中或者已经缓存,返回 true
+     * @see FileContentCache#get(File, long, long)
+     */
+    boolean loadFromCache(){
+        if (null != file && null == inputStream){
+            content = FileContentCache.get(file, contentLength.longValue(), lastModified);
+        }
+        return null != content;
+    }
+
+    /**
+     * 如果是文件,尝试从 {@link MappedFileCache} 获得文件的内存映射.
+     *
+     * @return 如果映射成功,返回 true
+     * @see MappedFileCache#get(File, long, long)
+     */
+    boolean loadFromMappedFileCache(){
+        if (null != file && null == inputStream && null == content){
+            mapping = MappedFileCache.get(file, contentLength.longValue(), lastModified);
+            if (null != mapping){
+                content = mapping.getByteBuffer();
+            }
+        }
+        return null != mapping;
+    }
+
+    /**
+     * 关闭已经打开的输入流,没有打开过的不会再打开;如果使用了内存映射,释放引用.
+     */
+    void close(){
+        DownloadIOUtil.closeQuietly(inputStream);
+        if (null != mapping){
+            mapping.release();
+            mapping = null;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 保存文件的文件名.
+     *
+     * @return the saveFileName
+     */
+    String getSaveFileName(){
+        return saveFileName;
+    }
+
+    /**
+     * 获得 文件,如果资源是流,那么是 null.
+     *
+     * @return the file
+     */
+    File getFile(){
+        return file;
+    }
+
+    /**
+     * 获得 内容长度,可能是 null.
+     *
+     * @return the contentLength
+     */
+    Number getContentLength(){
+        return contentLength;
+    }
+
+    /**
+     * 获得 最后修改时间(毫秒), {@code <=0} 表示未知.
+     *
+     * @return the lastModified
+     */
+    long getLastModified(){
+        return lastModified;
+    }
+
+    /**
+     * 获得 预压缩文件的 content-coding,没有使用预压缩文件时是 null.
+     *
+     * @return the contentEncoding
+     */
+    String getContentEncoding(){
+        return contentEncoding;
+    }
+
+    /**
+     * 获得 是否需要输出 <code>Vary: Accept-Encoding</code>.
+     *
+     * @return the varyAcceptEncoding
+     */
+    boolean getVaryAcceptEncoding(){
+        return varyAcceptEncoding;
+    }
+
+    /**
+     * 获得 缓存的文件内容(或者文件的内存映射),没有使用缓存时是 null.
+     *
+     * @return the content
+     */
+    ByteBuffer getContent(){
+        return content;
+    }
+}
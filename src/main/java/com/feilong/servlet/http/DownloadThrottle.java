@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.InterruptedIOException;
+
+import com.feilong.servlet.http.entity.DownloadConfig;
+
+/**
+ * {@link ResponseDownloadUtil} 下载限速.
+ *
+ * <h3>两级限速:</h3>
+ *
+ * <blockquote>
+ * <ol>
+ * <li>单个下载: 每个下载各自一个令牌桶,速率是 {@link DownloadConfig#getBytesPerSecond()},如果没有设置,使用 {@link #getPerDownloadBytesPerSecond()};</li>
+ * <li>全局: 当前 JVM 所有下载共享一个无锁令牌桶,速率是 {@link #getGlobalBytesPerSecond()},避免大文件导出占满网卡,影响同一节点上的接口请求.</li>
+ * </ol>
+ * </blockquote>
+ *
+ * <h3>运行时调整:</h3>
+ *
+ * <blockquote>
+ * <p>
+ * 两个速率均可以随时通过 setter 调整,正在进行的下载(包括开始的时候没有任何限速的下载)在下一次写数据的时候立即生效(设置为 0 表示不再限速);<br>
+ * 没有任何限速的时候,每写一块数据只多两次 volatile 读.
+ * </p>
+ *
+ * <p>
+ * 唯一的例外是 sendfile: 数据由容器直接输出,只有开始的时候没有任何限速({@link #isLimited()} 为 false)才会使用,之后设置的限速对这次下载不生效.
+ * </p>
+ * </blockquote>
+ *
+ * <h3>示例:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * //全局 50MB/s, 单个下载默认 2MB/s
+ * DownloadThrottle.setGlobalBytesPerSecond(50 * 1024 * 1024);
+ * DownloadThrottle.setPerDownloadBytesPerSecond(2 * 1024 * 1024);
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see TokenBucket
+ * @since 2.1.0
+ */
+public final class DownloadThrottle{
+
+    /** 全局令牌桶. */
+    private static final TokenBucket GLOBAL_TOKEN_BUCKET = new TokenBucket();
+
+    /** 全局每秒字节数, {@code <=0} 表示不限速. */
+    private static volatile long     globalBytesPerSecond;
+
+    /** 单个下载默认的每秒字节数, {@code <=0} 表示不限速. */
+    private static volatile long     perDownloadBytesPerSecond;
+
+    //---------------------------------------------------------------
+
+    /** 单个下载的令牌桶. */
+    private final TokenBucket        tokenBucket         = new TokenBucket();
+
+    /** 本次下载指定的每秒字节数, {@code <=0} 表示使用 {@link #perDownloadBytesPerSecond}. */
+    private final long               bytesPerSecond;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param bytesPerSecond
+     *            本次下载指定的每秒字节数
+     */
+    private DownloadThrottle(long bytesPerSecond){
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 创建一次下载的限速器.
+     * 
+     * <p>
+     * 即使当前没有任何限速也会创建,这样下载过程中设置的全局或者单个下载默认速率也能作用在这次下载上.
+     * </p>
+     *
+     * @param downloadConfig
+     *            the download config
+     * @return the download throttle
+     */
+    static DownloadThrottle of(DownloadConfig downloadConfig){
+        return new DownloadThrottle(downloadConfig.getBytesPerSecond());
+    }
+
+    /**
+     * 当前是否有任何一级限速.
+     * 
+     * <p>
+     * 用于决定能否使用 sendfile.
+     * </p>
+     *
+     * @return 如果本次下载指定的速率, 单个下载默认速率以及全局速率均没有设置,返回 false
+     */
+    boolean isLimited(){
+        return bytesPerSecond > 0 || perDownloadBytesPerSecond > 0 || globalBytesPerSecond > 0;
+    }
+
+    /**
+     * 写 <code>bytes</code> 个字节之前调用,先后经过单个下载以及全局的令牌桶.
+     *
+     * @param bytes
+     *            即将写出的字节数
+     * @throws InterruptedIOException
+     *             如果等待的时候线程被中断
+     */
+    void acquire(long bytes) throws InterruptedIOException{
+        tokenBucket.acquire(bytes, bytesPerSecond > 0 ? bytesPerSecond : perDownloadBytesPerSecond);
+        GLOBAL_TOKEN_BUCKET.acquire(bytes, globalBytesPerSecond);
+    }
+
+    /**
+     * 不等待,同时从单个下载以及全局的令牌桶预约 <code>bytes</code> 个字节,返回需要等待的时间.
+     * 
+     * <p>
+     * 用于非阻塞输出({@link AsyncDownloadListener}),调用方不能在容器线程上 sleep,而是在返回的时间之后再继续输出.
+     * </p>
+     *
+     * @param bytes
+     *            已经(或者即将)写出的字节数
+     * @return 需要等待的纳秒数, {@code <=0} 表示不需要等待
+     */
+    long reserve(long bytes){
+        long waitNanos = tokenBucket.reserve(bytes, bytesPerSecond > 0 ? bytesPerSecond : perDownloadBytesPerSecond);
+        return Math.max(waitNanos, GLOBAL_TOKEN_BUCKET.reserve(bytes, globalBytesPerSecond));
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 全局每秒字节数, {@code <=0} 表示不限速.
+     *
+     * @return the globalBytesPerSecond
+     */
+    public static long getGlobalBytesPerSecond(){
+        return globalBytesPerSecond;
+    }
+
+    /**
+     * 设置 全局每秒字节数, {@code <=0} 表示不限速.
+     *
+     * @param globalBytesPerSecond
+     *            the globalBytesPerSecond to set
+     */
+    public static void setGlobalBytesPerSecond(long globalBytesPerSecond){
+        DownloadThrottle.globalBytesPerSecond = globalBytesPerSecond;
+    }
+
+    /**
+     * 获得 单个下载默认的每秒字节数, {@code <=0} 表示不限速.
+     *
+     * @return the perDownloadBytesPerSecond
+     */
+    public static long getPerDownloadBytesPerSecond(){
+        return perDownloadBytesPerSecond;
+    }
+
+    /**
+     * 设置 单个下载默认的每秒字节数, {@code <=0} 表示不限速.
+     *
+     * @param perDownloadBytesPerSecond
+     *            the perDownloadBytesPerSecond to set
+     */
+    public static void setPerDownloadBytesPerSecond(long perDownloadBytesPerSecond){
+        DownloadThrottle.perDownloadBytesPerSecond = perDownloadBytesPerSecond;
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static com.feilong.core.CharsetType.UTF8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feilong.core.UncheckedIOException;
+
+/**
+ * 预先编码好的响应内容缓存.
+ *
+ * <p>
+ * 适合一段时间内不变的 json/text 响应(比如配置, 字典, 开关):按照逻辑名称注册,内容只在注册以及刷新的时候序列化并编码成 UTF-8 一次,
+ * 同时计算长度以及强 ETag;<br>
+ * 之后每次 {@link #write(String, HttpServletRequest, HttpServletResponse)} 只是设置 header 并把 byte 数组复制一次到输出流,
+ * 如果请求的 <code>If-None-Match</code> 匹配,直接返回 304.
+ * </p>
+ *
+ * <h3>刷新:</h3>
+ *
+ * <blockquote>
+ * <p>
+ * 内容保存在不可变的快照中,刷新时生成新的快照再整体替换,读取方永远不会被阻塞,也不会读到一半新一半旧的内容;<br>
+ * 超过 ttl 或者 {@link #invalidate(String)} 之后,第一个读取到的请求照常输出旧的内容,然后触发一次刷新(同一时间只有一个),
+ * 刷新在 {@link #setRefreshExecutor(Executor)} 中执行,没有设置时在内部的单个 daemon 线程中执行,不会占用请求线程;<br>
+ * 刷新失败(抛出异常或者返回 null)时继续使用旧的内容,等待下一个 ttl 再重试(没有 ttl 的, 等待 {@link #setRefreshRetryMillis(long)} 之后再重试);
+ * 需要立即生效时使用 {@link #refresh(String)}.
+ * </p>
+ * </blockquote>
+ *
+ * <h3>示例:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * EncodedResponseCache.register("dictionary", MimeType.JSON.getMime(), 5 * 60 * 1000L, new ResponseBodyLoader(){
+ *
+ *     public CharSequence load(){
+ *         return JsonUtil.format(dictionaryService.findAll());
+ *     }
+ * });
+ *
+ * //controller
+ * EncodedResponseCache.write("dictionary", request, response);
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see ResponseUtil#write(HttpServletResponse, byte[], String)
+ * @since 2.1.0
+ */
+public final class EncodedResponseCache{
+
+    /** The Constant LOGGER. */
+    private static final Logger                       LOGGER                   = LoggerFactory.getLogger(EncodedResponseCache.class);
+
+    /** 注册的响应,key 是逻辑名称. */
+    private static final ConcurrentMap<String, Entry> REGISTRY                 = new ConcurrentHashMap<>();
+
+    /** 默认的刷新 executor,单个 daemon 线程,空闲之后自动结束. */
+    private static final Executor                     DEFAULT_REFRESH_EXECUTOR = DaemonThreadFactory
+                    .newSingleThreadScheduler("feilong-response-cache-refresh");
+
+    /** 刷新使用的 executor. */
+    private static volatile Executor                  refreshExecutor          = DEFAULT_REFRESH_EXECUTOR;
+
+    /** 没有 ttl 的响应刷新失败之后,多少毫秒之后再重试,默认 10 秒. */
+    private static volatile long                      refreshRetryMillis       = 10 * 1000L;
+
+    /** 命中次数. */
+    private static final AtomicLong                   HIT_COUNT                = new AtomicLong();
+
+    /** 未命中次数. */
+    private static final AtomicLong                   MISS_COUNT               = new AtomicLong();
+
+    /** 304 次数. */
+    private static final AtomicLong                   NOT_MODIFIED_COUNT       = new AtomicLong();
+
+    /** 刷新次数. */
+    private static final AtomicLong                   REFRESH_COUNT            = new AtomicLong();
+
+    /** 刷新失败次数. */
+    private static final AtomicLong                   REFRESH_FAILURE_COUNT    = new AtomicLong();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private EncodedResponseCache(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 注册一个由 <code>loader</code> 生成的响应,立即加载一次;如果 <code>name</code> 已经注册,替换.
+     *
+     * @param name
+     *            逻辑名称
+     * @param contentType
+     *            内容类型,比如 {@link com.feilong.io.entity.MimeType#JSON};如果没有 charset,自动加上 <code>;charset=UTF-8</code>;<br>
+     *            内容总是编码成 UTF-8,所以只能不带 charset 或者带 UTF-8
+     * @param ttlMillis
+     *            多少毫秒之后刷新,{@code <=0} 表示只在 {@link #invalidate(String)} 之后刷新
+     * @param loader
+     *            the loader
+     * @throws NullPointerException
+     *             如果 <code>name</code>, <code>contentType</code> 或者 <code>loader</code> 是null,或者第一次加载返回 null
+     * @throws IllegalArgumentException
+     *             如果 <code>name</code> 或者 <code>contentType</code> 是blank,或者 <code>contentType</code> 带的 charset 不是 UTF-8
+     */
+    public static void register(String name,String contentType,long ttlMillis,ResponseBodyLoader loader){
+        Validate.notBlank(name, "name can't be blank!");
+        Validate.notBlank(contentType, "contentType can't be blank!");
+        Validate.notNull(loader, "loader can't be null!");
+
+        Entry entry = new Entry(toUTF8ContentType(contentType), ttlMillis, loader);
+        CharSequence body = loader.load();
+        Validate.notNull(body, "loader of [%s] returns null!", name);
+        entry.update(body, entry.invalidationCount.get());
+
+        REGISTRY.put(name, entry);
+    }
+
+    /**
+     * 直接放入一个响应,不会过期,只能再次 put 或者 {@link #remove(String)}.
+     *
+     * @param name
+     *            逻辑名称
+     * @param body
+     *            响应内容
+     * @param contentType
+     *            内容类型;如果没有 charset,自动加上 <code>;charset=UTF-8</code>;只能不带 charset 或者带 UTF-8
+     * @throws NullPointerException
+     *             如果任何参数是null
+     * @throws IllegalArgumentException
+     *             如果 <code>name</code> 或者 <code>contentType</code> 是blank,或者 <code>contentType</code> 带的 charset 不是 UTF-8
+     */
+    public static void put(String name,CharSequence body,String contentType){
+        Validate.notBlank(name, "name can't be blank!");
+        Validate.notNull(body, "body can't be null!");
+        Validate.notBlank(contentType, "contentType can't be blank!");
+
+        Entry entry = new Entry(toUTF8ContentType(contentType), 0, null);
+        entry.update(body, entry.invalidationCount.get());
+        REGISTRY.put(name, entry);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 输出 <code>name</code> 对应的响应.
+     *
+     * <p>
+     * 设置 <code>ETag</code>;如果 <code>request</code> 的 <code>If-None-Match</code> 匹配,返回 304,否则设置
+     * <code>Content-Type</code>, <code>Content-Length</code> 并输出内容.
+     * </p>
+     *
+     * @param name
+     *            逻辑名称
+     * @param request
+     *            the request,可以是 null(不处理条件请求)
+     * @param response
+     *            the response
+     * @return 如果 <code>name</code> 没有注册,什么都不做,返回 false
+     */
+    public static boolean write(String name,HttpServletRequest request,HttpServletResponse response){
+        Entry entry = null == name ? null : REGISTRY.get(name);
+        if (null == entry){
+            MISS_COUNT.incrementAndGet();
+            return false;
+        }
+        HIT_COUNT.incrementAndGet();
+
+        //---------------------------------------------------------------
+        Snapshot snapshot = entry.snapshot;
+        response.setHeader(HttpHeaders.ETAG, snapshot.eTag);
+        if (null != request && ConditionalRequestUtil.isNotModified(snapshot.eTag, 0, request)){
+            NOT_MODIFIED_COUNT.incrementAndGet();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }else{
+            ResponseUtil.write(response, snapshot.bytes, entry.contentType);
+        }
+
+        //输出之后再触发刷新
+        if (entry.isStale()){
+            scheduleRefresh(name, entry);
+        }
+        return true;
+    }
+
+    /**
+     * 获得 <code>name</code> 当前的 ETag.
+     *
+     * @param name
+     *            逻辑名称
+     * @return 如果 <code>name</code> 没有注册,返回 null
+     */
+    public static String getETag(String name){
+        Entry entry = REGISTRY.get(name);
+        return null == entry ? null : entry.snapshot.eTag;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 标记失效,下一次读取时触发刷新(读取方仍然得到旧的内容);对 {@link #put(String, CharSequence, String)} 放入的响应,等同于
+     * {@link #remove(String)}.
+     *
+     * @param name
+     *            逻辑名称
+     */
+    public static void invalidate(String name){
+        Entry entry = REGISTRY.get(name);
+        if (null == entry){
+            return;
+        }
+        if (null == entry.loader){
+            REGISTRY.remove(name, entry);
+            return;
+        }
+        entry.invalidate();
+    }
+
+    /**
+     * 在当前线程立即刷新;读取方在刷新完成之前继续得到旧的内容.
+     *
+     * @param name
+     *            逻辑名称
+     * @return 如果刷新成功,返回 true;如果 <code>name</code> 没有注册,没有 loader,或者刷新失败,返回 false
+     */
+    public static boolean refresh(String name){
+        Entry entry = REGISTRY.get(name);
+        return null != entry && null != entry.loader && doRefresh(name, entry);
+    }
+
+    /**
+     * 删除.
+     *
+     * @param name
+     *            逻辑名称
+     */
+    public static void remove(String name){
+        REGISTRY.remove(name);
+    }
+
+    /**
+     * 清空,不重置计数.
+     */
+    public static void clear(){
+        REGISTRY.clear();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 触发后台刷新,同一个 entry 同一时间只有一个刷新.
+     *
+     * @param name
+     *            the name
+     * @param entry
+     *            the entry
+     */
+    private static void scheduleRefresh(final String name,final Entry entry){
+        if (!entry.refreshing.compareAndSet(false, true)){
+            return;
+        }
+        Runnable runnable = new Runnable(){
+
+            @Override
+            public void run(){
+                try{
+                    doRefresh(name, entry);
+                }finally{
+                    entry.refreshing.set(false);
+                }
+            }
+        };
+
+        try{
+            refreshExecutor.execute(runnable);
+        }catch (RejectedExecutionException e){
+            LOGGER.warn("refresh of [{}] rejected,will retry next time", name);
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * 调用 loader 并替换快照.
+     *
+     * @param name
+     *            the name
+     * @param entry
+     *            the entry
+     * @return 如果刷新成功,返回 true
+     */
+    private static boolean doRefresh(String name,Entry entry){
+        int invalidationCount = entry.invalidationCount.get();
+        try{
+            CharSequence body = entry.loader.load();
+            if (null != body){
+                entry.update(body, invalidationCount);
+                REFRESH_COUNT.incrementAndGet();
+                return true;
+            }
+            LOGGER.warn("loader of [{}] returns null,keep the old one", name);
+        }catch (RuntimeException e){
+            LOGGER.warn("refresh of [" + name + "] failed,keep the old one", e);
+        }
+        REFRESH_FAILURE_COUNT.incrementAndGet();
+        entry.retryLater(invalidationCount);
+        return false;
+    }
+
+    /**
+     * 没有 charset 的内容类型加上 <code>;charset=UTF-8</code>.
+     *
+     * @param contentType
+     *            the content type
+     * @return the string
+     * @throws IllegalArgumentException
+     *             如果 <code>contentType</code> 带的 charset 不是 UTF-8(内容总是编码成 UTF-8,声明其他 charset 客户端会解码出乱码)
+     */
+    private static String toUTF8ContentType(String contentType){
+        int index = StringUtils.indexOfIgnoreCase(contentType, "charset=");
+        if (index < 0){
+            return contentType + ";charset=" + UTF8;
+        }
+        String charsetName = StringUtils.substringBefore(contentType.substring(index + "charset=".length()), ";");
+        charsetName = StringUtils.strip(charsetName.trim(), "\"");
+        Validate.isTrue(StandardCharsets.UTF_8.equals(Charset.forName(charsetName)), "contentType:[%s] must be UTF-8!", contentType);
+        return contentType;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 刷新使用的 executor.
+     *
+     * @return the refreshExecutor
+     */
+    public static Executor getRefreshExecutor(){
+        return refreshExecutor;
+    }
+
+    /**
+     * 设置 刷新使用的 executor,生命周期由调用方管理.
+     *
+     * <p>
+     * 默认使用内部的单个 daemon 线程(空闲 {@value DaemonThreadFactory#KEEP_ALIVE_SECONDS} 秒之后自动结束),刷新不会占用请求线程.
+     * </p>
+     *
+     * @param refreshExecutor
+     *            the refreshExecutor to set,null 表示恢复默认
+     */
+    public static void setRefreshExecutor(Executor refreshExecutor){
+        EncodedResponseCache.refreshExecutor = null == refreshExecutor ? DEFAULT_REFRESH_EXECUTOR : refreshExecutor;
+    }
+
+    /**
+     * 获得 没有 ttl 的响应刷新失败之后,多少毫秒之后再重试.
+     *
+     * @return the refreshRetryMillis
+     */
+    public static long getRefreshRetryMillis(){
+        return refreshRetryMillis;
+    }
+
+    /**
+     * 设置 没有 ttl 的响应刷新失败之后,多少毫秒之后再重试.
+     *
+     * <p>
+     * 有 ttl 的响应刷新失败之后等待下一个 ttl 再重试,不受这个设置影响.
+     * </p>
+     *
+     * @param refreshRetryMillis
+     *            the refreshRetryMillis to set
+     */
+    public static void setRefreshRetryMillis(long refreshRetryMillis){
+        EncodedResponseCache.refreshRetryMillis = refreshRetryMillis;
+    }
+
+    /**
+     * 获得 注册的数量.
+     *
+     * @return the entry count
+     */
+    public static int getEntryCount(){
+        return REGISTRY.size();
+    }
+
+    /**
+     * 获得 命中次数.
+     *
+     * @return the hit count
+     */
+    public static long getHitCount(){
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * 获得 未命中次数.
+     *
+     * @return the miss count
+     */
+    public static long getMissCount(){
+        return MISS_COUNT.get();
+    }
+
+    /**
+     * 获得 304 次数.
+     *
+     * @return the not modified count
+     */
+    public static long getNotModifiedCount(){
+        return NOT_MODIFIED_COUNT.get();
+    }
+
+    /**
+     * 获得 刷新次数.
+     *
+     * @return the refresh count
+     */
+    public static long getRefreshCount(){
+        return REFRESH_COUNT.get();
+    }
+
+    /**
+     * 获得 刷新失败次数.
+     *
+     * @return the refresh failure count
+     */
+    public static long getRefreshFailureCount(){
+        return REFRESH_FAILURE_COUNT.get();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 一个注册的响应.
+     */
+    private static final class Entry{
+
+        /** 内容类型. */
+        private final String             contentType;
+
+        /** 多少毫秒之后刷新. */
+        private final long               ttlMillis;
+
+        /** The loader,null 表示 put 放入的. */
+        private final ResponseBodyLoader loader;
+
+        /** 失效次数,用来判断刷新期间是否又被标记失效. */
+        private final AtomicInteger      invalidationCount = new AtomicInteger();
+
+        /** 是否正在刷新. */
+        private final AtomicBoolean      refreshing        = new AtomicBoolean();
+
+        /** 当前快照. */
+        private volatile Snapshot        snapshot;
+
+        /** 什么时候刷新, {@link Long#MAX_VALUE} 表示不刷新. */
+        private volatile long            refreshAt         = Long.MAX_VALUE;
+
+        /**
+         * The Constructor.
+         *
+         * @param contentType
+         *            the content type
+         * @param ttlMillis
+         *            the ttl millis
+         * @param loader
+         *            the loader
+         */
+        private Entry(String contentType, long ttlMillis, ResponseBodyLoader loader){
+            this.contentType = contentType;
+            this.ttlMillis = ttlMillis;
+            this.loader = loader;
+        }
+
+        /**
+         * 编码并替换快照.
+         *
+         * @param body
+         *            the body
+         * @param expectedInvalidationCount
+         *            开始加载时的失效次数
+         */
+        private void update(CharSequence body,int expectedInvalidationCount){
+            ByteBuffer byteBuffer;
+            try{
+                byteBuffer = TextEncoder.encode(body, UTF8);
+            }catch (CharacterCodingException e){
+                throw new UncheckedIOException(e);
+            }
+            String eTag;
+            byte[] bytes;
+            try{
+                eTag = ConditionalRequestUtil.toStrongETag(byteBuffer);
+                bytes = new byte[byteBuffer.remaining()];
+                byteBuffer.get(bytes);
+            }finally{
+                TextEncoder.release(byteBuffer);
+            }
+
+            snapshot = new Snapshot(bytes, eTag);
+            postpone(expectedInvalidationCount);
+        }
+
+        /**
+         * 设置下一次刷新的时间;如果加载期间又被标记失效,保持失效.
+         *
+         * @param expectedInvalidationCount
+         *            开始加载时的失效次数
+         */
+        private synchronized void postpone(int expectedInvalidationCount){
+            if (expectedInvalidationCount == invalidationCount.get()){
+                refreshAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+            }
+        }
+
+        /**
+         * 刷新失败之后设置下一次重试的时间;没有 ttl 的, 使用 {@link EncodedResponseCache#refreshRetryMillis},避免失效之后刷新失败就再也不会重试.
+         *
+         * @param expectedInvalidationCount
+         *            开始加载时的失效次数
+         */
+        private synchronized void retryLater(int expectedInvalidationCount){
+            if (expectedInvalidationCount == invalidationCount.get()){
+                refreshAt = System.currentTimeMillis() + (ttlMillis > 0 ? ttlMillis : refreshRetryMillis);
+            }
+        }
+
+        /**
+         * 标记失效.
+         */
+        private synchronized void invalidate(){
+            invalidationCount.incrementAndGet();
+            refreshAt = 0;
+        }
+
+        /**
+         * 是否需要刷新.
+         *
+         * @return true, if is stale
+         */
+        private boolean isStale(){
+            return null != loader && System.currentTimeMillis() >= refreshAt;
+        }
+    }
+
+    /**
+     * 不可变的快照.
+     */
+    private static final class Snapshot{
+
+        /** UTF-8 编码之后的内容. */
+        private final byte[] bytes;
+
+        /** 强 ETag. */
+        private final String eTag;
+
+        /**
+         * The Constructor.
+         *
+         * @param bytes
+         *            the bytes
+         * @param eTag
+         *            the e tag
+         */
+        private Snapshot(byte[] bytes, String eTag){
+            this.bytes = bytes;
+            this.eTag = eTag;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 小文件下载的内存缓存.
+ *
+ * <p>
+ * 文件内容保存在 direct {@link ByteBuffer} 中(不占用堆,输出时也不需要再次读取文件),按照文件路径缓存,并且记录缓存时文件的大小以及最后修改时间,文件变化之后自动失效;<br>
+ * 所有缓存的总字节数不超过 {@link #getMaxBytes()},超过时按照 LRU 淘汰最久没有访问的条目,直到总字节数满足预算;<br>
+ * 超过 {@link #getMaxEntryBytes()} 的文件不会被缓存.
+ * </p>
+ *
+ * <p>
+ * 只有 {@link com.feilong.servlet.http.entity.DownloadConfig#getCache()} 是 true 的下载才会使用缓存;预算均可以在运行时调整.
+ * </p>
+ *
+ * <h3>示例:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * FileContentCache.setMaxBytes(128 * 1024 * 1024);
+ * FileContentCache.setMaxEntryBytes(512 * 1024);
+ *
+ * LOGGER.info("hit:[{}],miss:[{}],eviction:[{}]", FileContentCache.getHitCount(), FileContentCache.getMissCount(), FileContentCache.getEvictionCount());
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+public final class FileContentCache{
+
+    /** The Constant LOGGER. */
+    private static final Logger                     LOGGER                  = LoggerFactory.getLogger(FileContentCache.class);
+
+    /** 默认的总字节数 <code>{@value}</code>,即 64MB. */
+    public static final long                        DEFAULT_MAX_BYTES       = 64L * 1024 * 1024;
+
+    /** 默认的单个文件最大字节数 <code>{@value}</code>,即 1MB. */
+    public static final long                        DEFAULT_MAX_ENTRY_BYTES = 1024L * 1024;
+
+    //---------------------------------------------------------------
+
+    /** 缓存,按照访问顺序排列,需要在 {@link #LOCK} 内访问. */
+    private static final Map<String, CachedContent> CACHE                   = new LinkedHashMap<String, CachedContent>(16, 0.75f, true);
+
+    /** The Constant LOCK. */
+    private static final Object                     LOCK                    = new Object();
+
+    /** 当前缓存的总字节数,需要在 {@link #LOCK} 内修改. */
+    private static long                             size;
+
+    /** 总字节数. */
+    private static volatile long                    maxBytes                = DEFAULT_MAX_BYTES;
+
+    /** 单个文件最大字节数. */
+    private static volatile long                    maxEntryBytes           = DEFAULT_MAX_ENTRY_BYTES;
+
+    /** 命中次数. */
+    private static final AtomicLong                 HIT_COUNT               = new AtomicLong();
+
+    /** 未命中次数. */
+    private static final AtomicLong                 MISS_COUNT              = new AtomicLong();
+
+    /** 淘汰次数. */
+    private static final AtomicLong                 EVICTION_COUNT          = new AtomicLong();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private FileContentCache(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得文件内容.
+     *
+     * @param file
+     *            the file
+     * @param length
+     *            文件当前的大小
+     * @param lastModified
+     *            文件当前的最后修改时间
+     * @return 如果文件不能缓存(太大,预算是 0,读取失败),返回 null;否则返回一个独立 position 的只读 {@link ByteBuffer}
+     */
+    static ByteBuffer get(File file,long length,long lastModified){
+        String key = file.getAbsolutePath();
+        synchronized (LOCK){
+            CachedContent cachedContent = CACHE.get(key);
+            if (null != cachedContent && cachedContent.length == length && cachedContent.lastModified == lastModified){
+                HIT_COUNT.incrementAndGet();
+                return cachedContent.byteBuffer.duplicate();
+            }
+        }
+
+        //---------------------------------------------------------------
+        MISS_COUNT.incrementAndGet();
+        if (length > maxEntryBytes || length > maxBytes){
+            return null;
+        }
+
+        ByteBuffer byteBuffer;
+        try{
+            byteBuffer = load(file, length);
+        }catch (IOException e){
+            LOGGER.warn("can't cache file:[" + file + "],will read from disk", e);
+            return null;
+        }
+
+        synchronized (LOCK){
+            CachedContent old = CACHE.put(key, new CachedContent(length, lastModified, byteBuffer));
+            size += length - (null == old ? 0 : old.length);
+            evict(maxBytes);
+        }
+        return byteBuffer.duplicate();
+    }
+
+    /**
+     * 读取文件内容到 direct {@link ByteBuffer}.
+     *
+     * @param file
+     *            the file
+     * @param length
+     *            the length
+     * @return 只读的 {@link ByteBuffer}
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static ByteBuffer load(File file,long length) throws IOException{
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect((int) length);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                        FileChannel fileChannel = randomAccessFile.getChannel()){
+            while (byteBuffer.hasRemaining()){
+                if (fileChannel.read(byteBuffer) < 0){
+                    throw new EOFException("file:[" + file + "] is shorter than:[" + length + "]");
+                }
+            }
+        }
+        byteBuffer.flip();
+        return byteBuffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * 按照 LRU 淘汰,直到总字节数不超过 <code>budget</code>, 需要在 {@link #LOCK} 内调用.
+     *
+     * @param budget
+     *            the budget
+     */
+    private static void evict(long budget){
+        Iterator<CachedContent> iterator = CACHE.values().iterator();
+        while (size > budget && iterator.hasNext()){
+            size -= iterator.next().length;
+            iterator.remove();
+            EVICTION_COUNT.incrementAndGet();
+        }
+    }
+
+    /**
+     * 清空缓存,不重置计数.
+     */
+    public static void clear(){
+        synchronized (LOCK){
+            CACHE.clear();
+            size = 0;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 总字节数.
+     *
+     * @return the maxBytes
+     */
+    public static long getMaxBytes(){
+        return maxBytes;
+    }
+
+    /**
+     * 设置 总字节数,如果比当前缓存的字节数小,会立即淘汰.
+     *
+     * @param maxBytes
+     *            the maxBytes to set
+     */
+    public static void setMaxBytes(long maxBytes){
+        FileContentCache.maxBytes = maxBytes;
+        synchronized (LOCK){
+            evict(maxBytes);
+        }
+    }
+
+    /**
+     * 获得 单个文件最大字节数.
+     *
+     * @return the maxEntryBytes
+     */
+    public static long getMaxEntryBytes(){
+        return maxEntryBytes;
+    }
+
+    /**
+     * 设置 单个文件最大字节数,只影响之后缓存的文件.
+     *
+     * @param maxEntryBytes
+     *            the maxEntryBytes to set
+     */
+    public static void setMaxEntryBytes(long maxEntryBytes){
+        FileContentCache.maxEntryBytes = Math.min(maxEntryBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 获得 当前缓存的总字节数.
+     *
+     * @return the size
+     */
+    public static long getSize(){
+        synchronized (LOCK){
+            return size;
+        }
+    }
+
+    /**
+     * 获得 当前缓存的文件数量.
+     *
+     * @return the entry count
+     */
+    public static int getEntryCount(){
+        synchronized (LOCK){
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * 获得 命中次数.
+     *
+     * @return the hit count
+     */
+    public static long getHitCount(){
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * 获得 未命中次数.
+     *
+     * @return the miss count
+     */
+    public static long getMissCount(){
+        return MISS_COUNT.get();
+    }
+
+    /**
+     * 获得 淘汰次数.
+     *
+     * @return the eviction count
+     */
+    public static long getEvictionCount(){
+        return EVICTION_COUNT.get();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 缓存的文件内容.
+     */
+    private static final class CachedContent{
+
+        /** 缓存时文件的大小. */
+        private final long       length;
+
+        /** 缓存时文件的最后修改时间. */
+        private final long       lastModified;
+
+        /** 只读的文件内容. */
+        private final ByteBuffer byteBuffer;
+
+        /**
+         * The Constructor.
+         *
+         * @param length
+         *            缓存时文件的大小
+         * @param lastModified
+         *            缓存时文件的最后修改时间
+         * @param byteBuffer
+         *            只读的文件内容
+         */
+        private CachedContent(long length, long lastModified, ByteBuffer byteBuffer){
+            this.length = length;
+            this.lastModified = lastModified;
+            this.byteBuffer = byteBuffer;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 使用外部 {@link Deflater} 的 gzip 输出流.
+ *
+ * <p>
+ * {@link java.util.zip.GZIPOutputStream} 总是自己 new 一个 {@link Deflater},没办法复用;<br>
+ * 这里使用 {@link DeflaterPool} 中 nowrap 的 {@link Deflater},自己输出 gzip 的 header 以及 trailer(RFC 1952).
+ * </p>
+ *
+ * <p>
+ * {@link #flush()} 使用 {@link Deflater#SYNC_FLUSH},已经写入的数据可以立即被客户端解压;{@link #finish()} 之后不会 {@link Deflater#end()},由调用方归还到池中.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class GzipDeflaterOutputStream extends DeflaterOutputStream{
+
+    /** gzip header, magic + CM(deflate) + FLG + MTIME(0) + XFL + OS(unknown). */
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    /** 未压缩数据的 CRC-32. */
+    private final CRC32         crc    = new CRC32();
+
+    /** 是否已经输出 trailer. */
+    private boolean             finished;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param outputStream
+     *            the output stream
+     * @param deflater
+     *            nowrap 的 deflater
+     * @param size
+     *            压缩缓冲区大小
+     * @throws IOException
+     *             输出 header 失败
+     */
+    GzipDeflaterOutputStream(OutputStream outputStream, Deflater deflater, int size) throws IOException{
+        super(outputStream, deflater, size, true);
+        out.write(HEADER);
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.zip.DeflaterOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b,int off,int len) throws IOException{
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.zip.DeflaterOutputStream#finish()
+     */
+    @Override
+    public void finish() throws IOException{
+        if (finished){
+            return;
+        }
+        finished = true;
+        super.finish();
+
+        //trailer, 小端 CRC32 + ISIZE(未压缩长度 mod 2^32)
+        writeInt((int) crc.getValue());
+        writeInt((int) def.getBytesRead());
+    }
+
+    /**
+     * 小端输出 int.
+     *
+     * @param value
+     *            the value
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeInt(int value) throws IOException{
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        out.write((value >> 16) & 0xFF);
+        out.write((value >> 24) & 0xFF);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 低开销,无锁的直方图.
+ * 
+ * <p>
+ * 使用以 2 为底的指数桶(第 i 个桶记录 <code>[2^(i-1), 2^i)</code> 之间的值),记录一个值只需要几次原子加法,不分配对象;<br>
+ * 分位数是近似值(所在桶的上界),相对误差不超过 2 倍,适合观察下载大小, 耗时, 吞吐量的分布以及数量级变化.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+public final class Histogram{
+
+    /** 桶的数量, 0 单独一个桶, 再加上 long 的 63 位. */
+    private static final int      BUCKET_COUNT = 64;
+
+    /** The buckets. */
+    private final AtomicLongArray buckets      = new AtomicLongArray(BUCKET_COUNT);
+
+    /** The count. */
+    private final AtomicLong      count        = new AtomicLong();
+
+    /** The sum. */
+    private final AtomicLong      sum          = new AtomicLong();
+
+    /** The max. */
+    private final AtomicLong      max          = new AtomicLong();
+
+    //---------------------------------------------------------------
+
+    /**
+     * 记录一个值,负数按照 0 记录.
+     *
+     * @param value
+     *            the value
+     */
+    public void record(long value){
+        long useValue = Math.max(0, value);
+        buckets.incrementAndGet(toBucketIndex(useValue));
+        count.incrementAndGet();
+        sum.addAndGet(useValue);
+
+        long currentMax;
+        while (useValue > (currentMax = max.get())){
+            if (max.compareAndSet(currentMax, useValue)){
+                break;
+            }
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 记录的次数.
+     *
+     * @return the count
+     */
+    public long getCount(){
+        return count.get();
+    }
+
+    /**
+     * 获得 所有值的和.
+     *
+     * @return the sum
+     */
+    public long getSum(){
+        return sum.get();
+    }
+
+    /**
+     * 获得 最大值.
+     *
+     * @return the max
+     */
+    public long getMax(){
+        return max.get();
+    }
+
+    /**
+     * 获得 平均值.
+     *
+     * @return 如果没有记录,返回 0
+     */
+    public long getMean(){
+        long currentCount = count.get();
+        return 0 == currentCount ? 0 : sum.get() / currentCount;
+    }
+
+    /**
+     * 获得近似的分位数.
+     *
+     * @param quantile
+     *            分位,比如 0.5, 0.99
+     * @return 分位所在桶的上界,不会超过 {@link #getMax()};如果没有记录,返回 0
+     */
+    public long getQuantile(double quantile){
+        long currentCount = count.get();
+        if (0 == currentCount){
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * currentCount);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i){
+            seen += buckets.get(i);
+            if (seen >= rank){
+                return Math.min(toBucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 值所在的桶.
+     *
+     * @param value
+     *            非负数
+     * @return the int
+     */
+    static int toBucketIndex(long value){
+        return 0 == value ? 0 : Math.min(BUCKET_COUNT - 1, Long.SIZE - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * 桶的上界(包含).
+     *
+     * @param index
+     *            the index
+     * @return the long
+     */
+    private static long toBucketUpperBound(int index){
+        return index >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << index) - 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString(){
+        return "count=" + getCount() + ",mean=" + getMean() + ",p50=" + getQuantile(0.5) + ",p99=" + getQuantile(0.99) + ",max=" + getMax();
+    }
+}
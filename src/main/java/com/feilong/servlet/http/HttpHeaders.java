@@ -268,6 +268,9 @@ public final class HttpHeaders{
     /** <code>{@value}</code> RFC 2518 (WevDAV) Section 9.3 */
     public static final String DESTINATION                 = "Destination";
 
+    /** <code>{@value}</code> RFC 3230 Section 4.3.2 */
+    public static final String DIGEST                      = "Digest";
+
     /**
      * <code>{@value}</code> RFC 2616 (HTTP/1.1) Section 14.19 .
      * 
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 延迟生成下载数据的 {@link InputStream}.
+ * 
+ * <p>
+ * 只有在真正需要输出数据的时候才会被调用;返回的 {@link InputStream} 由调用方({@link ResponseDownloadUtil})负责关闭.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+public interface InputStreamSupplier{
+
+    /**
+     * 生成数据.
+     *
+     * @return the input stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    InputStream get() throws IOException;
+}
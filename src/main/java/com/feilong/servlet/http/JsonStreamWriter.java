@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 边遍历边输出的 JSON 序列化,直接编码成 UTF-8 写到 {@link OutputStream}.
+ *
+ * <p>
+ * 不会先生成完整的 JSON 字符串:字符直接编码到一个 {@link BufferPool} 的大缓冲区,缓冲区满了就写到输出流;<br>
+ * 所以无论数据多大,额外的内存只有一个缓冲区.
+ * </p>
+ *
+ * <h3>类型对应:</h3>
+ *
+ * <blockquote>
+ * <table border="1" cellspacing="0" cellpadding="4" summary="">
+ * <tr style="background-color:#ccccff">
+ * <th align="left">java</th>
+ * <th align="left">json</th>
+ * </tr>
+ * <tr valign="top">
+ * <td>null, 以及 NaN 或者无穷大的 {@link Double}/{@link Float}</td>
+ * <td>null</td>
+ * </tr>
+ * <tr valign="top" style="background-color:#eeeeff">
+ * <td>{@link Boolean}, {@link Number}</td>
+ * <td>true/false, 数字</td>
+ * </tr>
+ * <tr valign="top">
+ * <td>{@link CharSequence}, {@link Character}, {@link Enum}(name)</td>
+ * <td>字符串</td>
+ * </tr>
+ * <tr valign="top" style="background-color:#eeeeff">
+ * <td>{@link Date}</td>
+ * <td>毫秒数</td>
+ * </tr>
+ * <tr valign="top">
+ * <td>{@link Map}</td>
+ * <td>对象, key 使用 {@link String#valueOf(Object)}</td>
+ * </tr>
+ * <tr valign="top" style="background-color:#eeeeff">
+ * <td>{@link Iterable}, {@link Iterator}, 数组</td>
+ * <td>数组</td>
+ * </tr>
+ * <tr valign="top">
+ * <td>其他 <code>java.*</code> 类型(比如 {@link java.util.UUID}, {@link java.util.Locale})</td>
+ * <td>字符串, 使用 {@link String#valueOf(Object)}</td>
+ * </tr>
+ * <tr valign="top" style="background-color:#eeeeff">
+ * <td>其他对象</td>
+ * <td>对象, 属性是 JavaBean getter,按照属性名排序</td>
+ * </tr>
+ * </table>
+ * </blockquote>
+ *
+ * <p>
+ * 非线程安全,每次序列化使用一个新的实例.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see ResponseUtil#writeJsonStreaming(javax.servlet.http.HttpServletResponse, Object)
+ * @since 2.1.0
+ */
+final class JsonStreamWriter{
+
+    /** 十六进制字符. */
+    private static final byte[]                                    HEX              = "0123456789abcdef".getBytes();
+
+    /** 一个字符最多需要的字节数(<code>\\uXXXX</code>). */
+    private static final int                                       MAX_CHAR_BYTES   = 6;
+
+    /** 类和 getter 的缓存. */
+    private static final ConcurrentMap<Class<?>, PropertyGetter[]> PROPERTY_GETTERS = new ConcurrentHashMap<>();
+
+    //---------------------------------------------------------------
+
+    /** The output stream. */
+    private final OutputStream                                     outputStream;
+
+    /** 编码缓冲区. */
+    private final byte[]                                           buffer;
+
+    /** 缓冲区中已经写入的位置. */
+    private int                                                    position;
+
+    /** 已经写到 {@link #outputStream} 的字节数. */
+    private long                                                   count;
+
+    /** 正在序列化的容器以及对象,用来检测循环引用. */
+    private final Set<Object>                                      ancestors        = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param outputStream
+     *            the output stream
+     * @param buffer
+     *            编码缓冲区
+     */
+    private JsonStreamWriter(OutputStream outputStream, byte[] buffer){
+        this.outputStream = outputStream;
+        this.buffer = buffer;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 序列化 <code>value</code> 到 <code>outputStream</code>,不会 flush 以及关闭 <code>outputStream</code>.
+     *
+     * @param value
+     *            the value
+     * @param outputStream
+     *            the output stream
+     * @return 输出的字节数
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws IllegalArgumentException
+     *             如果有循环引用
+     * @throws IllegalStateException
+     *             如果读取属性失败
+     */
+    static long write(Object value,OutputStream outputStream) throws IOException{
+        byte[] buffer = BufferPool.acquire(true);
+        try{
+            JsonStreamWriter jsonStreamWriter = new JsonStreamWriter(outputStream, buffer);
+            jsonStreamWriter.writeValue(value);
+            jsonStreamWriter.flushBuffer();
+            return jsonStreamWriter.count;
+        }finally{
+            BufferPool.release(buffer);
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 输出一个值.
+     *
+     * @param value
+     *            the value
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeValue(Object value) throws IOException{
+        if (null == value){
+            writeAscii("null");
+        }else if (value instanceof CharSequence){
+            writeString((CharSequence) value);
+        }else if (value instanceof Number){
+            writeNumber((Number) value);
+        }else if (value instanceof Boolean){
+            writeAscii(((Boolean) value).booleanValue() ? "true" : "false");
+        }else if (value instanceof Character || value instanceof Enum){
+            writeString(value instanceof Enum ? ((Enum<?>) value).name() : value.toString());
+        }else if (value instanceof Date){
+            writeAscii(String.valueOf(((Date) value).getTime()));
+        }else if (value instanceof Map){
+            enter(value);
+            writeMap((Map<?, ?>) value);
+            ancestors.remove(value);
+        }else if (value instanceof Iterable || value instanceof Iterator || value.getClass().isArray()){
+            enter(value);
+            writeArray(value);
+            ancestors.remove(value);
+        }else if (value.getClass().getName().startsWith("java.")){
+            writeString(String.valueOf(value));
+        }else{
+            enter(value);
+            writeBean(value);
+            ancestors.remove(value);
+        }
+    }
+
+    /**
+     * 进入容器或者对象,检测循环引用.
+     *
+     * @param value
+     *            the value
+     */
+    private void enter(Object value){
+        if (!ancestors.add(value)){
+            throw new IllegalArgumentException("there is a cycle in the hierarchy,type:" + value.getClass().getName());
+        }
+    }
+
+    /**
+     * 输出数字.
+     *
+     * @param number
+     *            the number
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeNumber(Number number) throws IOException{
+        if ((number instanceof Double && (((Double) number).isNaN() || ((Double) number).isInfinite()))
+                        || (number instanceof Float && (((Float) number).isNaN() || ((Float) number).isInfinite()))){
+            writeAscii("null");
+            return;
+        }
+        writeAscii(number.toString());
+    }
+
+    /**
+     * 输出对象.
+     *
+     * @param map
+     *            the map
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeMap(Map<?, ?> map) throws IOException{
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()){
+            if (!first){
+                writeByte(',');
+            }
+            first = false;
+            writeString(String.valueOf(entry.getKey()));
+            writeByte(':');
+            writeValue(entry.getValue());
+        }
+        writeByte('}');
+    }
+
+    /**
+     * 输出数组.
+     *
+     * @param value
+     *            {@link Iterable}, {@link Iterator} 或者数组
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeArray(Object value) throws IOException{
+        writeByte('[');
+        if (value.getClass().isArray()){
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; ++i){
+                if (i > 0){
+                    writeByte(',');
+                }
+                writeValue(Array.get(value, i));
+            }
+        }else{
+            Iterator<?> iterator = value instanceof Iterator ? (Iterator<?>) value : ((Iterable<?>) value).iterator();
+            boolean first = true;
+            while (iterator.hasNext()){
+                if (!first){
+                    writeByte(',');
+                }
+                first = false;
+                writeValue(iterator.next());
+            }
+        }
+        writeByte(']');
+    }
+
+    /**
+     * 输出 JavaBean.
+     *
+     * @param bean
+     *            the bean
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeBean(Object bean) throws IOException{
+        writeByte('{');
+        PropertyGetter[] propertyGetters = getPropertyGetters(bean.getClass());
+        for (int i = 0; i < propertyGetters.length; ++i){
+            if (i > 0){
+                writeByte(',');
+            }
+            PropertyGetter propertyGetter = propertyGetters[i];
+            writeString(propertyGetter.name);
+            writeByte(':');
+            writeValue(propertyGetter.get(bean));
+        }
+        writeByte('}');
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 输出字符串,转义并编码成 UTF-8.
+     *
+     * @param value
+     *            the value
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeString(CharSequence value) throws IOException{
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; ++i){
+            if (position + MAX_CHAR_BYTES > buffer.length){
+                flushBuffer();
+            }
+            char c = value.charAt(i);
+            if (c < 0x80){
+                writeAsciiChar(c);
+            }else if (c < 0x800){
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }else if (c == '\u2028' || c == '\u2029'){
+                //JSON 允许,但是作为 JavaScript 会被当做换行
+                writeUnicodeEscape(c);
+            }else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            }else if (Character.isSurrogate(c)){
+                //不成对的代理项
+                buffer[position++] = '?';
+            }else{
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * 输出字符串中的 ASCII 字符,需要的话转义;调用之前需要保证缓冲区至少有 {@link #MAX_CHAR_BYTES} 个字节.
+     *
+     * @param c
+     *            the c
+     */
+    private void writeAsciiChar(char c){
+        switch (c) {
+            case '"':
+            case '\\':
+                buffer[position++] = '\\';
+                buffer[position++] = (byte) c;
+                break;
+            case '\n':
+                buffer[position++] = '\\';
+                buffer[position++] = 'n';
+                break;
+            case '\r':
+                buffer[position++] = '\\';
+                buffer[position++] = 'r';
+                break;
+            case '\t':
+                buffer[position++] = '\\';
+                buffer[position++] = 't';
+                break;
+            default:
+                if (c < 0x20){
+                    writeUnicodeEscape(c);
+                }else{
+                    buffer[position++] = (byte) c;
+                }
+        }
+    }
+
+    /**
+     * 输出 <code>\\uXXXX</code>;调用之前需要保证缓冲区至少有 {@link #MAX_CHAR_BYTES} 个字节.
+     *
+     * @param c
+     *            the c
+     */
+    private void writeUnicodeEscape(char c){
+        buffer[position++] = '\\';
+        buffer[position++] = 'u';
+        buffer[position++] = HEX[(c >> 12) & 0xF];
+        buffer[position++] = HEX[(c >> 8) & 0xF];
+        buffer[position++] = HEX[(c >> 4) & 0xF];
+        buffer[position++] = HEX[c & 0xF];
+    }
+
+    /**
+     * 输出不需要转义的 ASCII 字符串(关键字以及数字).
+     *
+     * @param value
+     *            the value
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeAscii(String value) throws IOException{
+        int length = value.length();
+        if (position + length > buffer.length){
+            flushBuffer();
+        }
+        for (int i = 0; i < length; ++i){
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * 输出一个 ASCII 字节.
+     *
+     * @param b
+     *            the b
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void writeByte(char b) throws IOException{
+        if (position == buffer.length){
+            flushBuffer();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    /**
+     * 把缓冲区写到 {@link #outputStream}.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void flushBuffer() throws IOException{
+        if (position > 0){
+            outputStream.write(buffer, 0, position);
+            count += position;
+            position = 0;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得类的属性 getter,按照属性名排序.
+     *
+     * @param type
+     *            the type
+     * @return the property getters
+     */
+    private static PropertyGetter[] getPropertyGetters(Class<?> type){
+        PropertyGetter[] propertyGetters = PROPERTY_GETTERS.get(type);
+        if (null != propertyGetters){
+            return propertyGetters;
+        }
+
+        PropertyDescriptor[] propertyDescriptors;
+        try{
+            propertyDescriptors = Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors();
+        }catch (IntrospectionException e){
+            throw new IllegalStateException("can't introspect type:" + type.getName(), e);
+        }
+
+        List<PropertyGetter> propertyGetterList = new ArrayList<>(propertyDescriptors.length);
+        for (PropertyDescriptor propertyDescriptor : propertyDescriptors){
+            Method readMethod = propertyDescriptor.getReadMethod();
+            if (null != readMethod){
+                //非 public 类的 public getter 也可以调用
+                readMethod.setAccessible(true);
+                propertyGetterList.add(new PropertyGetter(propertyDescriptor.getName(), readMethod));
+            }
+        }
+        propertyGetters = propertyGetterList.toArray(new PropertyGetter[propertyGetterList.size()]);
+        PROPERTY_GETTERS.putIfAbsent(type, propertyGetters);
+        return propertyGetters;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 属性名以及 getter.
+     */
+    private static final class PropertyGetter{
+
+        /** 属性名. */
+        private final String name;
+
+        /** The read method. */
+        private final Method readMethod;
+
+        /**
+         * The Constructor.
+         *
+         * @param name
+         *            属性名
+         * @param readMethod
+         *            the read method
+         */
+        private PropertyGetter(String name, Method readMethod){
+            this.name = name;
+            this.readMethod = readMethod;
+        }
+
+        /**
+         * 读取属性值.
+         *
+         * @param bean
+         *            the bean
+         * @return the object
+         */
+        private Object get(Object bean){
+            try{
+                return readMethod.invoke(bean);
+            }catch (IllegalAccessException | InvocationTargetException e){
+                throw new IllegalStateException("can't read property:" + name + " of " + bean.getClass().getName(), e);
+            }
+        }
+    }
+}
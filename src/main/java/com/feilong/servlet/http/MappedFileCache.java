@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 大文件下载的内存映射({@link MappedByteBuffer})缓存.
+ *
+ * <p>
+ * 适合被反复下载的大的只读文件(比如地图切片, 模型文件):文件只映射一次,之后的下载(包括 Range)直接对映射做 slice 输出,不再有 read 系统调用,也不需要把文件读到堆里;<br>
+ * 按照文件路径缓存,并且记录映射时文件的大小以及最后修改时间,文件变化之后自动失效.
+ * </p>
+ *
+ * <h3>引用计数:</h3>
+ *
+ * <blockquote>
+ * <p>
+ * 每次下载通过 {@link #get(File, long, long)} 获得一个 {@link Mapping},输出结束之后 {@link Mapping#release()};<br>
+ * 所有缓存的映射总字节数不超过 {@link #getMaxBytes()},超过时按照 LRU 淘汰<b>没有被使用</b>的映射;正在输出的映射不会被淘汰,暂时超出预算时,在它们被释放的时候再淘汰.
+ * </p>
+ *
+ * <p>
+ * 由于 JDK 没有安全的主动 unmap 方法(异步输出超时的时候,其他线程可能仍然在读取),淘汰的映射只是不再被引用,由 GC 回收时解除映射.
+ * </p>
+ * </blockquote>
+ *
+ * <p>
+ * 只有 {@link com.feilong.servlet.http.entity.DownloadConfig#getMemoryMapped()} 是 true 的下载才会使用;单个 {@link MappedByteBuffer} 最大 2GB,超过的文件不映射.
+ * </p>
+ *
+ * <h3>示例:</h3>
+ *
+ * <blockquote>
+ *
+ * <pre class="code">
+ * MappedFileCache.setMaxBytes(4L * 1024 * 1024 * 1024);
+ *
+ * LOGGER.info("hit:[{}],miss:[{}],eviction:[{}]", MappedFileCache.getHitCount(), MappedFileCache.getMissCount(), MappedFileCache.getEvictionCount());
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see FileContentCache
+ * @since 2.1.0
+ */
+public final class MappedFileCache{
+
+    /** The Constant LOGGER. */
+    private static final Logger               LOGGER            = LoggerFactory.getLogger(MappedFileCache.class);
+
+    /** 默认的映射总字节数 <code>{@value}</code>,即 1GB. */
+    public static final long                  DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    //---------------------------------------------------------------
+
+    /** 缓存,按照访问顺序排列,需要在 {@link #LOCK} 内访问. */
+    private static final Map<String, Mapping> CACHE             = new LinkedHashMap<String, Mapping>(16, 0.75f, true);
+
+    /** The Constant LOCK. */
+    private static final Object               LOCK              = new Object();
+
+    /** 当前缓存的映射总字节数,需要在 {@link #LOCK} 内修改. */
+    private static long                       size;
+
+    /** 映射总字节数. */
+    private static volatile long              maxBytes          = DEFAULT_MAX_BYTES;
+
+    /** 命中次数. */
+    private static final AtomicLong           HIT_COUNT         = new AtomicLong();
+
+    /** 未命中次数. */
+    private static final AtomicLong           MISS_COUNT        = new AtomicLong();
+
+    /** 淘汰次数. */
+    private static final AtomicLong           EVICTION_COUNT    = new AtomicLong();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private MappedFileCache(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得文件的映射,引用计数加一.
+     *
+     * @param file
+     *            the file
+     * @param length
+     *            文件当前的大小
+     * @param lastModified
+     *            文件当前的最后修改时间
+     * @return 如果文件不能映射(空文件,超过 2GB,超过预算,映射失败),返回 null;否则返回的映射使用完之后必须 {@link Mapping#release()}
+     */
+    static Mapping get(File file,long length,long lastModified){
+        String key = file.getAbsolutePath();
+        synchronized (LOCK){
+            Mapping mapping = CACHE.get(key);
+            if (null != mapping && mapping.length == length && mapping.lastModified == lastModified){
+                HIT_COUNT.incrementAndGet();
+                ++mapping.refCount;
+                return mapping;
+            }
+        }
+
+        //---------------------------------------------------------------
+        MISS_COUNT.incrementAndGet();
+        if (length <= 0 || length > Integer.MAX_VALUE || length > maxBytes){
+            return null;
+        }
+
+        MappedByteBuffer mappedByteBuffer;
+        try{
+            mappedByteBuffer = map(file, length);
+        }catch (IOException e){
+            LOGGER.warn("can't map file:[" + file + "],will read from disk", e);
+            return null;
+        }
+
+        //缓存自己持有一个引用, 调用方持有一个引用
+        Mapping mapping = new Mapping(length, lastModified, mappedByteBuffer);
+        mapping.refCount = 2;
+        synchronized (LOCK){
+            Mapping old = CACHE.put(key, mapping);
+            size += length;
+            if (null != old){
+                remove(old);
+            }
+            evict(maxBytes);
+        }
+        return mapping;
+    }
+
+    /**
+     * 只读映射文件.
+     *
+     * @param file
+     *            the file
+     * @param length
+     *            the length
+     * @return the mapped byte buffer
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static MappedByteBuffer map(File file,long length) throws IOException{
+        //映射建立之后, 关闭 channel 不影响映射
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                        FileChannel fileChannel = randomAccessFile.getChannel()){
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+    }
+
+    /**
+     * 按照 LRU 淘汰没有被使用的映射,直到总字节数不超过 <code>budget</code>, 需要在 {@link #LOCK} 内调用.
+     *
+     * @param budget
+     *            the budget
+     */
+    private static void evict(long budget){
+        Iterator<Mapping> iterator = CACHE.values().iterator();
+        while (size > budget && iterator.hasNext()){
+            Mapping mapping = iterator.next();
+            //只有缓存自己的引用
+            if (1 == mapping.refCount){
+                iterator.remove();
+                remove(mapping);
+                EVICTION_COUNT.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 已经从 {@link #CACHE} 中移除的映射,扣除总字节数并释放缓存持有的引用, 需要在 {@link #LOCK} 内调用.
+     *
+     * @param mapping
+     *            the mapping
+     */
+    private static void remove(Mapping mapping){
+        size -= mapping.length;
+        --mapping.refCount;
+    }
+
+    /**
+     * 清空缓存,不重置计数;正在使用的映射在释放之前仍然有效.
+     */
+    public static void clear(){
+        synchronized (LOCK){
+            for (Mapping mapping : CACHE.values()){
+                --mapping.refCount;
+            }
+            CACHE.clear();
+            size = 0;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 映射总字节数.
+     *
+     * @return the maxBytes
+     */
+    public static long getMaxBytes(){
+        return maxBytes;
+    }
+
+    /**
+     * 设置 映射总字节数,如果比当前缓存的字节数小,会立即淘汰没有被使用的映射.
+     *
+     * @param maxBytes
+     *            the maxBytes to set
+     */
+    public static void setMaxBytes(long maxBytes){
+        MappedFileCache.maxBytes = maxBytes;
+        synchronized (LOCK){
+            evict(maxBytes);
+        }
+    }
+
+    /**
+     * 获得 当前缓存的映射总字节数.
+     *
+     * @return the size
+     */
+    public static long getSize(){
+        synchronized (LOCK){
+            return size;
+        }
+    }
+
+    /**
+     * 获得 当前缓存的文件数量.
+     *
+     * @return the entry count
+     */
+    public static int getEntryCount(){
+        synchronized (LOCK){
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * 获得 当前正在被下载使用的缓存文件数量.
+     *
+     * @return the in use count
+     */
+    public static int getInUseCount(){
+        int count = 0;
+        synchronized (LOCK){
+            for (Mapping mapping : CACHE.values()){
+                if (mapping.refCount > 1){
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 获得 命中次数.
+     *
+     * @return the hit count
+     */
+    public static long getHitCount(){
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * 获得 未命中次数.
+     *
+     * @return the miss count
+     */
+    public static long getMissCount(){
+        return MISS_COUNT.get();
+    }
+
+    /**
+     * 获得 淘汰次数.
+     *
+     * @return the eviction count
+     */
+    public static long getEvictionCount(){
+        return EVICTION_COUNT.get();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 一个文件的映射.
+     */
+    static final class Mapping{
+
+        /** 映射时文件的大小. */
+        private final long             length;
+
+        /** 映射时文件的最后修改时间. */
+        private final long             lastModified;
+
+        /** 只读的映射. */
+        private final MappedByteBuffer mappedByteBuffer;
+
+        /** 引用计数,缓存以及每个正在进行的下载各持有一个,需要在 {@link #LOCK} 内修改. */
+        private int                    refCount;
+
+        /**
+         * The Constructor.
+         *
+         * @param length
+         *            映射时文件的大小
+         * @param lastModified
+         *            映射时文件的最后修改时间
+         * @param mappedByteBuffer
+         *            只读的映射
+         */
+        private Mapping(long length, long lastModified, MappedByteBuffer mappedByteBuffer){
+            this.length = length;
+            this.lastModified = lastModified;
+            this.mappedByteBuffer = mappedByteBuffer;
+        }
+
+        /**
+         * 获得一个独立 position 的只读视图.
+         *
+         * @return the byte buffer
+         */
+        ByteBuffer getByteBuffer(){
+            return mappedByteBuffer.asReadOnlyBuffer();
+        }
+
+        /**
+         * 释放调用方持有的引用,每次 {@link MappedFileCache#get(File, long, long)} 对应一次;如果之前因为被使用而暂时超出预算,现在淘汰.
+         */
+        void release(){
+            synchronized (LOCK){
+                --refCount;
+                if (size > maxBytes){
+                    evict(maxBytes);
+                }
+            }
+        }
+    }
+}
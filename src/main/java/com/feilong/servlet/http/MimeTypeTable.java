@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static com.feilong.core.Validator.isNotNullOrEmpty;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.servlet.ServletContext;
+
+import com.feilong.core.util.MapUtil;
+import com.feilong.io.entity.MimeType;
+
+/**
+ * 预先计算好的, 不可变的 扩展名-&gt;MIME 对照表.
+ *
+ * <p>
+ * 类加载时基于 {@link MimeType} 建立基础的对照表;每个 {@link ServletContext}(也就是每个应用)在第一次下载的时候,
+ * 再基于基础的对照表合并它自己的 {@link ServletContext#getMimeType(String)} 映射(比如 tomcat conf/web.xml 以及应用 web.xml 中的
+ * <code>mime-mapping</code>),生成这个应用专用的对照表,容器的映射优先;<br>
+ * 同一个 jar 被多个应用共享(比如放在 tomcat/lib)的时候,各个应用的 <code>mime-mapping</code> 互不影响;
+ * 对照表使用 {@link WeakHashMap} 按照 {@link ServletContext} 保存,应用卸载之后自动释放.
+ * </p>
+ *
+ * <p>
+ * 查找时直接在文件名最后一个 <code>.</code> 之后的字符上计算大小写无关的 hash,使用开放寻址表以及
+ * {@link String#regionMatches(boolean, int, String, int, int)} 比较,不截取子串,不转换大小写,不分配任何对象.
+ * </p>
+ *
+ * <p>
+ * 由于 {@link ServletContext} 不能枚举所有映射,所以只合并 {@link MimeType} 以及 {@link #COMMON_EXTENSIONS} 中的扩展名.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class MimeTypeTable{
+
+    /** 需要向容器查询的常用扩展名(参考 tomcat conf/web.xml). */
+    static final String[]                                   COMMON_EXTENSIONS = {
+                                                                                  "txt",
+                                                                                  "csv",
+                                                                                  "tsv",
+                                                                                  "json",
+                                                                                  "xml",
+                                                                                  "html",
+                                                                                  "htm",
+                                                                                  "css",
+                                                                                  "js",
+                                                                                  "pdf",
+                                                                                  "doc",
+                                                                                  "docx",
+                                                                                  "xls",
+                                                                                  "xlsx",
+                                                                                  "ppt",
+                                                                                  "pptx",
+                                                                                  "odt",
+                                                                                  "ods",
+                                                                                  "rtf",
+                                                                                  "zip",
+                                                                                  "gz",
+                                                                                  "tar",
+                                                                                  "tgz",
+                                                                                  "7z",
+                                                                                  "rar",
+                                                                                  "jar",
+                                                                                  "apk",
+                                                                                  "png",
+                                                                                  "jpg",
+                                                                                  "jpeg",
+                                                                                  "gif",
+                                                                                  "bmp",
+                                                                                  "svg",
+                                                                                  "webp",
+                                                                                  "ico",
+                                                                                  "mp3",
+                                                                                  "wav",
+                                                                                  "mp4",
+                                                                                  "avi",
+                                                                                  "mov",
+                                                                                  "webm",
+                                                                                  "exe" };
+
+    /** 只包含 {@link MimeType} 的对照表,没有 {@link ServletContext} 的时候使用. */
+    private static final MimeTypeTable                      BASE_TABLE        = new MimeTypeTable(buildBaseMapping());
+
+    /** 每个应用合并了容器映射之后的对照表,使用时需要同步. */
+    private static final Map<ServletContext, MimeTypeTable> CONTEXT_TABLE_MAP = new WeakHashMap<>();
+
+    //---------------------------------------------------------------
+
+    /** 扩展名,小写, 开放寻址. */
+    private final String[]                                  keys;
+
+    /** 和 {@link #keys} 对应的 MIME. */
+    private final String[]                                  values;
+
+    /** 表长度 -1, 表长度是 2 的幂. */
+    private final int                                       mask;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param extensionAndMimeMap
+     *            key 是小写扩展名
+     */
+    private MimeTypeTable(Map<String, String> extensionAndMimeMap){
+        int capacity = Integer.highestOneBit(Math.max(4, extensionAndMimeMap.size() * 4) - 1) << 1;
+        this.keys = new String[capacity];
+        this.values = new String[capacity];
+        this.mask = capacity - 1;
+
+        for (Map.Entry<String, String> entry : extensionAndMimeMap.entrySet()){
+            String key = entry.getKey();
+            int index = hash(key, 0, key.length()) & mask;
+            while (null != keys[index]){
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            values[index] = entry.getValue();
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 基于文件名获得 content type.
+     *
+     * @param servletContext
+     *            the servlet context,如果是 null,只查 {@link MimeType}
+     * @param fileName
+     *            the file name
+     * @return 如果没有扩展名,或者扩展名没有映射,返回 null
+     */
+    static String getContentType(ServletContext servletContext,String fileName){
+        return of(servletContext).lookup(fileName);
+    }
+
+    /**
+     * 清空所有应用的对照表,下一次查找时重新合并容器的映射.
+     */
+    static void clear(){
+        synchronized (CONTEXT_TABLE_MAP){
+            CONTEXT_TABLE_MAP.clear();
+        }
+    }
+
+    /**
+     * 获得 <code>servletContext</code> 的对照表,第一次使用时合并容器的映射.
+     *
+     * @param servletContext
+     *            the servlet context
+     * @return 如果 <code>servletContext</code> 是 null,返回 {@link #BASE_TABLE}
+     */
+    private static MimeTypeTable of(ServletContext servletContext){
+        if (null == servletContext){
+            return BASE_TABLE;
+        }
+        synchronized (CONTEXT_TABLE_MAP){
+            MimeTypeTable mimeTypeTable = CONTEXT_TABLE_MAP.get(servletContext);
+            if (null == mimeTypeTable){
+                Map<String, String> extensionAndMimeMap = buildBaseMapping();
+                mergeServletContext(extensionAndMimeMap, servletContext);
+                mimeTypeTable = new MimeTypeTable(extensionAndMimeMap);
+                CONTEXT_TABLE_MAP.put(servletContext, mimeTypeTable);
+            }
+            return mimeTypeTable;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 查找.
+     *
+     * @param fileName
+     *            the file name
+     * @return the string
+     */
+    private String lookup(String fileName){
+        if (null == fileName){
+            return null;
+        }
+        int length = fileName.length();
+        int dotIndex = fileName.lastIndexOf('.');
+        if (dotIndex < 0 || dotIndex == length - 1){
+            return null;
+        }
+        int start = dotIndex + 1;
+        int extensionLength = length - start;
+        int index = hash(fileName, start, length) & mask;
+        for (String key = keys[index]; null != key; key = keys[index]){
+            if (key.length() == extensionLength && fileName.regionMatches(true, start, key, 0, extensionLength)){
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * 大小写无关(ASCII)的 hash.
+     *
+     * @param value
+     *            the value
+     * @param start
+     *            起始位置(包含)
+     * @param end
+     *            结束位置(不包含)
+     * @return the int
+     */
+    private static int hash(String value,int start,int end){
+        int hash = 0;
+        for (int i = start; i < end; ++i){
+            char c = value.charAt(i);
+            hash = 31 * hash + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+        }
+        //打散高位
+        return hash ^ (hash >>> 16);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 基于 {@link MimeType} 建立映射.
+     *
+     * @return the map
+     */
+    private static Map<String, String> buildBaseMapping(){
+        MimeType[] mimeTypes = MimeType.values();
+        Map<String, String> extensionAndMimeMap = MapUtil.newHashMap(mimeTypes.length + COMMON_EXTENSIONS.length);
+        for (MimeType mimeType : mimeTypes){
+            extensionAndMimeMap.put(mimeType.getExtension().toLowerCase(Locale.ENGLISH), mimeType.getMime());
+        }
+        return extensionAndMimeMap;
+    }
+
+    /**
+     * 合并容器的映射,容器优先.
+     *
+     * @param extensionAndMimeMap
+     *            the extension and mime map
+     * @param servletContext
+     *            the servlet context
+     */
+    private static void mergeServletContext(Map<String, String> extensionAndMimeMap,ServletContext servletContext){
+        String[] baseExtensions = extensionAndMimeMap.keySet().toArray(new String[0]);
+        for (String extension : baseExtensions){
+            mergeServletContext(extensionAndMimeMap, servletContext, extension);
+        }
+        for (String extension : COMMON_EXTENSIONS){
+            mergeServletContext(extensionAndMimeMap, servletContext, extension);
+        }
+    }
+
+    /**
+     * 合并容器中 <code>extension</code> 的映射.
+     *
+     * @param extensionAndMimeMap
+     *            the extension and mime map
+     * @param servletContext
+     *            the servlet context
+     * @param extension
+     *            the extension
+     */
+    private static void mergeServletContext(Map<String, String> extensionAndMimeMap,ServletContext servletContext,String extension){
+        String mimeType = servletContext.getMimeType("file." + extension);
+        if (isNotNullOrEmpty(mimeType)){
+            extensionAndMimeMap.put(extension, mimeType);
+        }
+    }
+}
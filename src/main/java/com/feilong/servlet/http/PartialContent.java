@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static com.feilong.core.CharsetType.ISO_8859_1;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 206 Partial Content 响应体.
+ * 
+ * <p>
+ * 单个区间时直接输出该区间的字节;<br>
+ * 多个区间时输出 <code>multipart/byteranges</code>,每个 part 带有自己的 <code>Content-Type</code> 以及 <code>Content-Range</code>,总长度在输出之前就已经算好.
+ * </p>
+ * 
+ * <h3>multipart/byteranges 格式:</h3>
+ * 
+ * <pre class="code">
+ * 
+ * --THIS_STRING_SEPARATES
+ * Content-Type: application/pdf
+ * Content-Range: bytes 500-999/8000
+ * 
+ * ...the first range...
+ * --THIS_STRING_SEPARATES
+ * Content-Type: application/pdf
+ * Content-Range: bytes 7000-7999/8000
+ * 
+ * ...the second range
+ * --THIS_STRING_SEPARATES--
+ * </pre>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see <a href="https://tools.ietf.org/html/rfc7233#appendix-A">RFC 7233 Appendix A. Internet Media Type multipart/byteranges</a>
+ * @since 2.1.0
+ */
+final class PartialContent{
+
+    /** multipart 头部使用的编码. */
+    private static final Charset  HEADER_CHARSET = Charset.forName(ISO_8859_1);
+
+    /** The Constant CRLF. */
+    private static final String   CRLF           = "\r\n";
+
+    //---------------------------------------------------------------
+
+    /** 升序并且互不重叠的区间. */
+    private final List<ByteRange> byteRangeList;
+
+    /** 实体总长度. */
+    private final long            entityLength;
+
+    /** 单个区间时的 content type, 也是多个区间时每个 part 的 content type. */
+    private final String          contentType;
+
+    /** multipart 的分隔符, 单个区间时为 null. */
+    private final String          boundary;
+
+    /** 每个 part 的头部字节, 单个区间时为 null. */
+    private final List<byte[]>    partHeaderList;
+
+    /** 结束分隔符字节, 单个区间时为 null. */
+    private final byte[]          closeDelimiter;
+
+    /** 响应体总长度. */
+    private final long            contentLength;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param byteRangeList
+     *            升序并且互不重叠的区间,参见 {@link ByteRangeUtil#merge(List)}
+     * @param entityLength
+     *            实体总长度
+     * @param contentType
+     *            实体的 content type
+     */
+    PartialContent(List<ByteRange> byteRangeList, long entityLength, String contentType){
+        this.byteRangeList = byteRangeList;
+        this.entityLength = entityLength;
+        this.contentType = contentType;
+
+        if (byteRangeList.size() == 1){
+            this.boundary = null;
+            this.partHeaderList = null;
+            this.closeDelimiter = null;
+            this.contentLength = byteRangeList.get(0).getLength();
+            return;
+        }
+
+        //---------------------------------------------------------------
+        this.boundary = "FEILONG_BYTERANGES_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        this.partHeaderList = new ArrayList<>(byteRangeList.size());
+
+        long length = 0;
+        for (ByteRange byteRange : byteRangeList){
+            String partHeader = CRLF + "--" + boundary + CRLF //
+                            + HttpHeaders.CONTENT_TYPE + ": " + contentType + CRLF //
+                            + HttpHeaders.CONTENT_RANGE + ": " + byteRange.toContentRange(entityLength) + CRLF //
+                            + CRLF;
+            byte[] partHeaderBytes = partHeader.getBytes(HEADER_CHARSET);
+            partHeaderList.add(partHeaderBytes);
+            length += partHeaderBytes.length + byteRange.getLength();
+        }
+        this.closeDelimiter = (CRLF + "--" + boundary + "--" + CRLF).getBytes(HEADER_CHARSET);
+        this.contentLength = length + closeDelimiter.length;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 是否是 multipart/byteranges.
+     *
+     * @return 如果多于一个区间,返回 true
+     */
+    boolean isMultipart(){
+        return null != boundary;
+    }
+
+    /**
+     * 获得 响应的 content type.
+     *
+     * @return 单个区间时返回实体的 content type; 多个区间时返回 <code>multipart/byteranges; boundary=...</code>
+     */
+    String getContentType(){
+        return isMultipart() ? "multipart/byteranges; boundary=" + boundary : contentType;
+    }
+
+    /**
+     * 获得 单个区间时的 <code>Content-Range</code>.
+     *
+     * @return 多个区间时返回 null
+     */
+    String getContentRange(){
+        return isMultipart() ? null : byteRangeList.get(0).toContentRange(entityLength);
+    }
+
+    /**
+     * 获得 单个区间.
+     *
+     * @return 多个区间时返回 null
+     */
+    ByteRange getByteRange(){
+        return isMultipart() ? null : byteRangeList.get(0);
+    }
+
+    /**
+     * 获得 响应体总长度.
+     *
+     * @return the content length
+     */
+    long getContentLength(){
+        return contentLength;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 输出响应体.
+     * 
+     * <p>
+     * 由于区间是升序并且互不重叠的, 对 <code>inputStream</code> 只需要向前 seek, 每个区间一次.
+     * </p>
+     *
+     * @param inputStream
+     *            数据源,从位置0开始,不会被关闭
+     * @param outputStream
+     *            the output stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void write(InputStream inputStream,OutputStream outputStream) throws IOException{
+        long position = 0;
+        for (int i = 0; i < byteRangeList.size(); ++i){
+            ByteRange byteRange = byteRangeList.get(i);
+            if (isMultipart()){
+                outputStream.write(partHeaderList.get(i));
+            }
+            DownloadIOUtil.skipFully(inputStream, byteRange.getStart() - position);
+            DownloadIOUtil.copy(inputStream, outputStream, byteRange.getLength());
+            position = byteRange.getEnd() + 1;
+        }
+        if (isMultipart()){
+            outputStream.write(closeDelimiter);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * 从内存(缓存的文件内容或者内存映射)输出响应体.
+     * 
+     * <p>
+     * 每个区间直接按照位置 slice,不需要 seek.
+     * </p>
+     *
+     * @param content
+     *            完整内容,不会修改它的 position
+     * @param outputStream
+     *            the output stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void write(ByteBuffer content,OutputStream outputStream) throws IOException{
+        for (int i = 0; i < byteRangeList.size(); ++i){
+            ByteRange byteRange = byteRangeList.get(i);
+            if (isMultipart()){
+                outputStream.write(partHeaderList.get(i));
+            }
+            ByteBuffer slice = content.duplicate();
+            slice.limit((int) (byteRange.getEnd() + 1));
+            slice.position((int) byteRange.getStart());
+            DownloadIOUtil.write(slice, outputStream);
+        }
+        if (isMultipart()){
+            outputStream.write(closeDelimiter);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * 将响应体包装成 {@link InputStream}, 用于需要按块拉取数据的场景(比如异步输出).
+     * 
+     * <p>
+     * 读取的字节和 {@link #write(InputStream, OutputStream)} 输出的完全一致;关闭返回的流不会关闭 <code>inputStream</code>.
+     * </p>
+     *
+     * @param inputStream
+     *            数据源,从位置0开始
+     * @return the input stream
+     */
+    InputStream toInputStream(InputStream inputStream){
+        List<InputStream> inputStreamList = new ArrayList<>();
+        long position = 0;
+        for (int i = 0; i < byteRangeList.size(); ++i){
+            ByteRange byteRange = byteRangeList.get(i);
+            if (isMultipart()){
+                inputStreamList.add(new ByteArrayInputStream(partHeaderList.get(i)));
+            }
+            inputStreamList.add(new RangeInputStream(inputStream, byteRange.getStart() - position, byteRange.getLength()));
+            position = byteRange.getEnd() + 1;
+        }
+        if (isMultipart()){
+            inputStreamList.add(new ByteArrayInputStream(closeDelimiter));
+        }
+        return new SequenceInputStream(Collections.enumeration(inputStreamList));
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 数据源中的一个区间,第一次读取的时候才 seek.
+     */
+    private static final class RangeInputStream extends InputStream{
+
+        /** 数据源. */
+        private final InputStream inputStream;
+
+        /** 读取之前需要跳过的字节数. */
+        private long              skip;
+
+        /** 剩余字节数. */
+        private long              remaining;
+
+        //---------------------------------------------------------------
+
+        /**
+         * The Constructor.
+         *
+         * @param inputStream
+         *            数据源
+         * @param skip
+         *            读取之前需要跳过的字节数
+         * @param length
+         *            区间长度
+         */
+        private RangeInputStream(InputStream inputStream, long skip, long length){
+            this.inputStream = inputStream;
+            this.skip = skip;
+            this.remaining = length;
+        }
+
+        //---------------------------------------------------------------
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() throws IOException{
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b,int off,int len) throws IOException{
+            if (remaining <= 0){
+                return -1;
+            }
+            if (skip > 0){
+                DownloadIOUtil.skipFully(inputStream, skip);
+                skip = 0;
+            }
+            int read = inputStream.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0){
+                throw new EOFException("unexpected end of stream, remaining bytes:" + remaining);
+            }
+            remaining -= read;
+            return read;
+        }
+
+        /**
+         * 不关闭数据源.
+         */
+        @Override
+        public void close(){
+            //nothing to do
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static com.feilong.core.Validator.isNullOrEmpty;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 文件预压缩版本(同目录下的 <code>.br</code> / <code>.gz</code> 文件)的探测以及协商.
+ *
+ * <p>
+ * 预压缩文件需要不早于原文件的最后修改时间,否则视为过期,不使用.<br>
+ * 探测结果按照文件路径缓存,同时记录原文件以及预压缩文件的大小和最后修改时间;<br>
+ * 命中缓存时只读取原文件以及本次选中的预压缩文件的大小和最后修改时间(这些值直接用于 {@link DownloadResource},不会再读取一次),
+ * 不会探测其他后缀;原文件变化,或者选中的预压缩文件被删除, 重新生成之后重新探测;<br>
+ * 原文件没有变化时新增加的预压缩文件不会被发现,需要 {@link #clearCache()};<br>
+ * 缓存条目超过 {@link #MAX_CACHE_SIZE} 时按照 LRU 淘汰最久没有访问的条目.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-5.3.4">RFC 7231 Accept-Encoding</a>
+ * @since 2.1.0
+ */
+final class PrecompressedVariants{
+
+    /** 支持的 content-coding, 按照优先级排列. */
+    private static final String[]                           ENCODINGS      = { "br", "gzip" };
+
+    /** 和 {@link #ENCODINGS} 一一对应的文件后缀. */
+    private static final String[]                           EXTENSIONS     = { ".br", ".gz" };
+
+    /** 缓存的最大条目数 <code>{@value}</code>. */
+    static final int                                        MAX_CACHE_SIZE = 4096;
+
+    /** 探测结果缓存, key 是文件的绝对路径,按照访问顺序排列,需要在 {@link #LOCK} 内访问. */
+    private static final Map<String, PrecompressedVariants> CACHE          = new LinkedHashMap<String, PrecompressedVariants>(16, 0.75f, true);
+
+    /** The Constant LOCK. */
+    private static final Object                             LOCK           = new Object();
+
+    //---------------------------------------------------------------
+
+    /** 探测时原文件的大小. */
+    private final long                                      length;
+
+    /** 探测时原文件的最后修改时间. */
+    private final long                                      lastModified;
+
+    /** 和 {@link #ENCODINGS} 一一对应的预压缩文件,不存在或者过期的是 null. */
+    private final File[]                                    variantFiles;
+
+    /** 探测时预压缩文件的大小,和 {@link #variantFiles} 一一对应. */
+    private final long[]                                    variantLengths;
+
+    /** 探测时预压缩文件的最后修改时间,和 {@link #variantFiles} 一一对应. */
+    private final long[]                                    variantLastModifieds;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param length
+     *            探测时原文件的大小
+     * @param lastModified
+     *            探测时原文件的最后修改时间
+     * @param variantFiles
+     *            预压缩文件
+     * @param variantLengths
+     *            探测时预压缩文件的大小
+     * @param variantLastModifieds
+     *            探测时预压缩文件的最后修改时间
+     */
+    private PrecompressedVariants(long length, long lastModified, File[] variantFiles, long[] variantLengths, long[] variantLastModifieds){
+        this.length = length;
+        this.lastModified = lastModified;
+        this.variantFiles = variantFiles;
+        this.variantLengths = variantLengths;
+        this.variantLastModifieds = variantLastModifieds;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 <code>file</code> 的预压缩版本, 优先使用缓存.
+     *
+     * @param file
+     *            原文件
+     * @return the precompressed variants
+     */
+    static PrecompressedVariants of(File file){
+        String key = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        PrecompressedVariants precompressedVariants;
+        synchronized (LOCK){
+            precompressedVariants = CACHE.get(key);
+        }
+        if (null != precompressedVariants && precompressedVariants.length == length && precompressedVariants.lastModified == lastModified){
+            return precompressedVariants;
+        }
+        return reprobe(file, length, lastModified);
+    }
+
+    /**
+     * 基于 <code>Accept-Encoding</code> 协商,生成需要输出的资源.
+     *
+     * <p>
+     * 只校验选中的预压缩文件: 如果它的大小或者最后修改时间和探测时不同(比如被删除或者重新生成),重新探测再协商.
+     * </p>
+     *
+     * @param file
+     *            原文件
+     * @param acceptEncoding
+     *            请求的 Accept-Encoding header
+     * @return 如果没有预压缩文件,返回原文件的资源
+     */
+    static DownloadResource resolve(File file,String acceptEncoding){
+        PrecompressedVariants precompressedVariants = of(file);
+        String contentEncoding = precompressedVariants.selectEncoding(acceptEncoding);
+        if (null != contentEncoding){
+            int index = indexOf(contentEncoding);
+            File variantFile = precompressedVariants.variantFiles[index];
+            long variantLastModified = variantFile.lastModified();
+            long variantLength = variantFile.length();
+            if (variantLastModified == precompressedVariants.variantLastModifieds[index]
+                            && variantLength == precompressedVariants.variantLengths[index]){
+                return DownloadResource.of(file, variantFile, variantLength, variantLastModified, contentEncoding);
+            }
+
+            //---------------------------------------------------------------
+            //被删除或者重新生成, 刚刚探测的结果可以直接使用
+            precompressedVariants = reprobe(file, precompressedVariants.length, precompressedVariants.lastModified);
+            contentEncoding = precompressedVariants.selectEncoding(acceptEncoding);
+            if (null != contentEncoding){
+                index = indexOf(contentEncoding);
+                return DownloadResource.of(
+                                file,
+                                precompressedVariants.variantFiles[index],
+                                precompressedVariants.variantLengths[index],
+                                precompressedVariants.variantLastModifieds[index],
+                                contentEncoding);
+            }
+        }
+        if (precompressedVariants.isEmpty()){
+            return DownloadResource.of(file, precompressedVariants.length, precompressedVariants.lastModified);
+        }
+        return DownloadResource.of(file, null, precompressedVariants.length, precompressedVariants.lastModified, null);
+    }
+
+    /**
+     * 清空探测结果缓存.
+     */
+    static void clearCache(){
+        synchronized (LOCK){
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * 获得 缓存的条目数.
+     *
+     * @return the cache size
+     */
+    static int getCacheSize(){
+        synchronized (LOCK){
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * 探测文件系统并替换缓存.
+     *
+     * @param file
+     *            原文件
+     * @param length
+     *            原文件的大小
+     * @param lastModified
+     *            原文件的最后修改时间
+     * @return the precompressed variants
+     */
+    private static PrecompressedVariants reprobe(File file,long length,long lastModified){
+        PrecompressedVariants precompressedVariants = probe(file, length, lastModified);
+        synchronized (LOCK){
+            CACHE.put(file.getAbsolutePath(), precompressedVariants);
+            evict();
+        }
+        return precompressedVariants;
+    }
+
+    /**
+     * 按照 LRU 淘汰,直到条目数不超过 {@link #MAX_CACHE_SIZE}, 需要在 {@link #LOCK} 内调用.
+     */
+    private static void evict(){
+        Iterator<PrecompressedVariants> iterator = CACHE.values().iterator();
+        while (CACHE.size() > MAX_CACHE_SIZE && iterator.hasNext()){
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 探测文件系统.
+     *
+     * @param file
+     *            原文件
+     * @param length
+     *            原文件的大小
+     * @param lastModified
+     *            原文件的最后修改时间
+     * @return the precompressed variants
+     */
+    private static PrecompressedVariants probe(File file,long length,long lastModified){
+        File[] variantFiles = new File[ENCODINGS.length];
+        long[] variantLengths = new long[ENCODINGS.length];
+        long[] variantLastModifieds = new long[ENCODINGS.length];
+        for (int i = 0; i < EXTENSIONS.length; ++i){
+            File variantFile = new File(file.getPath() + EXTENSIONS[i]);
+            //lastModified 为 0 表示文件不存在
+            long variantLastModified = variantFile.lastModified();
+            if (variantLastModified > 0 && variantLastModified >= lastModified && variantFile.isFile()){
+                variantFiles[i] = variantFile;
+                variantLengths[i] = variantFile.length();
+                variantLastModifieds[i] = variantLastModified;
+            }
+        }
+        return new PrecompressedVariants(length, lastModified, variantFiles, variantLengths, variantLastModifieds);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 是否存在任何预压缩文件.
+     *
+     * <p>
+     * 如果存在,响应需要输出 <code>Vary: Accept-Encoding</code>,不管本次是否使用了预压缩文件.
+     * </p>
+     *
+     * @return 如果存在,返回 true
+     */
+    boolean isEmpty(){
+        for (File variantFile : variantFiles){
+            if (null != variantFile){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 基于 <code>Accept-Encoding</code> 选择 content-coding.
+     *
+     * @param acceptEncoding
+     *            请求的 Accept-Encoding header
+     * @return 如果没有可以使用的预压缩文件,返回 null; 否则返回 q 值最大的 content-coding,q 值相同时 <code>br</code> 优先
+     */
+    String selectEncoding(String acceptEncoding){
+        if (isNullOrEmpty(acceptEncoding)){
+            return null;
+        }
+        String selected = null;
+        double selectedQuality = 0;
+        for (int i = 0; i < ENCODINGS.length; ++i){
+            if (null == variantFiles[i]){
+                continue;
+            }
+            double quality = getQuality(acceptEncoding, ENCODINGS[i]);
+            if (quality > selectedQuality){
+                selected = ENCODINGS[i];
+                selectedQuality = quality;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 获得 <code>encoding</code> 在 {@link #ENCODINGS} 中的位置.
+     *
+     * @param encoding
+     *            the encoding
+     * @return 如果没有,返回 -1
+     */
+    private static int indexOf(String encoding){
+        for (int i = 0; i < ENCODINGS.length; ++i){
+            if (ENCODINGS[i].equals(encoding)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 解析 <code>Accept-Encoding</code> 中 <code>coding</code> 的 q 值.
+     *
+     * <p>
+     * 明确列出的 coding 优先于 <code>*</code>;没有列出并且没有 <code>*</code>,返回 0.
+     * </p>
+     *
+     * @param acceptEncoding
+     *            the accept encoding
+     * @param coding
+     *            the coding
+     * @return the quality
+     */
+    static double getQuality(String acceptEncoding,String coding){
+        double explicitQuality = -1;
+        double wildcardQuality = -1;
+        for (String token : StringUtils.split(acceptEncoding, ',')){
+            String[] parts = StringUtils.split(token, ';');
+            if (parts.length == 0){
+                continue;
+            }
+            String name = parts[0].trim();
+            double quality = parseQuality(parts);
+            if (name.equalsIgnoreCase(coding)){
+                explicitQuality = quality;
+            }else if ("*".equals(name)){
+                wildcardQuality = quality;
+            }
+        }
+        if (explicitQuality >= 0){
+            return explicitQuality;
+        }
+        return wildcardQuality >= 0 ? wildcardQuality : 0;
+    }
+
+    /**
+     * 解析 <code>q</code> 参数,没有时是 1,不能解析时是 0.
+     *
+     * @param parts
+     *            以分号分隔之后的 token
+     * @return the double
+     */
+    private static double parseQuality(String[] parts){
+        for (int i = 1; i < parts.length; ++i){
+            String param = parts[i].trim();
+            if (param.startsWith("q=") || param.startsWith("Q=")){
+                try{
+                    return Double.parseDouble(param.substring(2).trim());
+                }catch (NumberFormatException e){
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
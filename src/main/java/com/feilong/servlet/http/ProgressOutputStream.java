@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 大文件下载使用的输出流,每输出 <code>flushInterval</code> 个字节 flush 一次,并回调 {@link DownloadProgressListener}.
+ * 
+ * <p>
+ * 定期 flush 可以让容器尽快把数据写到 socket,避免数据堆积在容器的输出缓冲区.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class ProgressOutputStream extends FilterOutputStream{
+
+    /** The Constant LOGGER. */
+    private static final Logger            LOGGER = LoggerFactory.getLogger(ProgressOutputStream.class);
+
+    /** The save file name. */
+    private final String                   saveFileName;
+
+    /** 本次需要输出的字节数,如果未知,是 -1. */
+    private final long                     totalBytes;
+
+    /** flush 间隔字节数, {@code <=0} 表示不主动 flush. */
+    private final long                     flushInterval;
+
+    /** 进度回调,可以是 null. */
+    private final DownloadProgressListener downloadProgressListener;
+
+    /** 已经输出的字节数. */
+    private long                           transferredBytes;
+
+    /** 上次 flush 时已经输出的字节数. */
+    private long                           flushedBytes;
+
+    /** 是否已经回调过完成. */
+    private boolean                        completed;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param outputStream
+     *            the output stream
+     * @param saveFileName
+     *            the save file name
+     * @param totalBytes
+     *            本次需要输出的字节数,如果未知,是 -1
+     * @param flushInterval
+     *            flush 间隔字节数, {@code <=0} 表示不主动 flush
+     * @param downloadProgressListener
+     *            进度回调,可以是 null
+     */
+    ProgressOutputStream(OutputStream outputStream, String saveFileName, long totalBytes, long flushInterval,
+                    DownloadProgressListener downloadProgressListener){
+        super(outputStream);
+        this.saveFileName = saveFileName;
+        this.totalBytes = totalBytes;
+        this.flushInterval = flushInterval;
+        this.downloadProgressListener = downloadProgressListener;
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException{
+        out.write(b);
+        afterWrite(1);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b,int off,int len) throws IOException{
+        out.write(b, off, len);
+        afterWrite(len);
+    }
+
+    /**
+     * 输出完成, flush 并回调完成进度;多次调用只回调一次.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void complete() throws IOException{
+        if (completed){
+            return;
+        }
+        completed = true;
+        out.flush();
+        notifyProgress();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#close()
+     */
+    @Override
+    public void close() throws IOException{
+        try{
+            complete();
+        }finally{
+            out.close();
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 累计字节数,达到间隔时 flush 并回调进度.
+     *
+     * @param count
+     *            本次写出的字节数
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void afterWrite(int count) throws IOException{
+        transferredBytes += count;
+        if (flushInterval > 0 && transferredBytes - flushedBytes >= flushInterval){
+            out.flush();
+            flushedBytes = transferredBytes;
+            notifyProgress();
+        }
+    }
+
+    /**
+     * 回调进度,回调的异常只记录日志,不影响下载.
+     */
+    private void notifyProgress(){
+        if (null == downloadProgressListener){
+            return;
+        }
+        try{
+            downloadProgressListener.onProgress(saveFileName, transferredBytes, totalBytes);
+        }catch (RuntimeException e){
+            LOGGER.warn("DownloadProgressListener:[" + downloadProgressListener + "] exception,saveFileName:[" + saveFileName + "]", e);
+        }
+    }
+}
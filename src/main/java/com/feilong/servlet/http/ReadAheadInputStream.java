@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * 基于 {@link AsynchronousFileChannel} 预读的文件输入流.
+ *
+ * <p>
+ * 使用两个缓冲区交替工作: 调用方消费(写到客户端)其中一个缓冲区的时候,另一个缓冲区的磁盘读取已经在后台进行;<br>
+ * 这样磁盘读取和 socket 写可以重叠,对于 NFS 等高延迟的存储,单个下载的吞吐会更高,工作线程也不会每次都阻塞在磁盘读取上.
+ * </p>
+ *
+ * <p>
+ * 缓冲区来自 {@link BufferPool}(大缓冲区),{@link #close()} 的时候等待正在进行的读取结束之后归还;<br>
+ * {@link #skip(long)} 超过当前缓冲区的时候,丢弃预读的数据,从新的位置重新预读,不会读取跳过的字节.
+ * </p>
+ *
+ * <p>
+ * 后台读取失败之后,之后的每次读取都会抛出异常,不会返回 -1 被当成文件末尾(否则下载会被悄悄截断).
+ * </p>
+ *
+ * <p>
+ * 非线程安全.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see com.feilong.servlet.http.entity.DownloadConfig#getReadAhead()
+ * @since 2.1.0
+ */
+final class ReadAheadInputStream extends InputStream{
+
+    /** The file channel. */
+    private final AsynchronousFileChannel fileChannel;
+
+    /** 当前消费的缓冲区. */
+    private ByteBuffer                    current;
+
+    /** 正在后台读取的缓冲区. */
+    private ByteBuffer                    next;
+
+    /** 正在进行的读取,没有时是 null. */
+    private Future<Integer>               pending;
+
+    /** 正在进行的读取的起始位置,也就是 {@link #current} 结束的位置. */
+    private long                          pendingPosition;
+
+    /** 是否已经读到文件末尾. */
+    private boolean                       eof;
+
+    /** 后台读取失败的原因,之后的读取都抛出这个异常,没有失败时是 null. */
+    private IOException                   failure;
+
+    /** 是否已经关闭. */
+    private boolean                       closed;
+
+    //---------------------------------------------------------------
+
+    /**
+     * 打开文件,并立即开始读取第一个缓冲区.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     *             如果文件不能打开
+     */
+    ReadAheadInputStream(File file) throws IOException{
+        this.fileChannel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.current = ByteBuffer.wrap(BufferPool.acquire(true));
+        this.current.limit(0);
+        this.next = ByteBuffer.wrap(BufferPool.acquire(true));
+        startRead(0);
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read() throws IOException{
+        if (!current.hasRemaining() && !fill()){
+            return -1;
+        }
+        return current.get() & 0xFF;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b,int off,int len) throws IOException{
+        if (len == 0){
+            return 0;
+        }
+        if (!current.hasRemaining() && !fill()){
+            return -1;
+        }
+        int count = Math.min(len, current.remaining());
+        current.get(b, off, count);
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) throws IOException{
+        if (n <= 0){
+            return 0;
+        }
+        int remaining = current.remaining();
+        if (n <= remaining){
+            current.position(current.position() + (int) n);
+            return n;
+        }
+        if (eof){
+            current.position(current.limit());
+            return remaining;
+        }
+
+        //丢弃预读的数据, 从新的位置重新预读
+        long target = pendingPosition + (n - remaining);
+        awaitPending();
+        current.limit(0);
+        startRead(target);
+        return n;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available(){
+        return current.remaining();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.InputStream#close()
+     */
+    @Override
+    public void close() throws IOException{
+        if (closed){
+            return;
+        }
+        closed = true;
+        current.limit(0);
+        try{
+            //缓冲区归还之前, 必须等待后台读取结束
+            if (null != pending){
+                try{
+                    awaitPending();
+                }catch (IOException e){
+                    //关闭的时候, 读取的结果已经不需要了
+                }
+            }
+            fileChannel.close();
+        }finally{
+            BufferPool.release(current.array());
+            BufferPool.release(next.array());
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 等待后台读取结束,交换两个缓冲区,并开始读取下一个缓冲区.
+     *
+     * @return 如果已经到了文件末尾,返回 false
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private boolean fill() throws IOException{
+        while (!eof && !closed && !current.hasRemaining()){
+            int count = awaitPending();
+            if (count < 0){
+                eof = true;
+                break;
+            }
+
+            ByteBuffer filled = next;
+            filled.flip();
+            next = current;
+            current = filled;
+            startRead(pendingPosition + count);
+        }
+        return current.hasRemaining();
+    }
+
+    /**
+     * 在后台读取 <code>position</code> 开始的数据到 {@link #next}.
+     *
+     * @param position
+     *            文件位置
+     */
+    private void startRead(long position){
+        next.clear();
+        pendingPosition = position;
+        pending = fileChannel.read(next, position);
+    }
+
+    /**
+     * 等待正在进行的读取结束.
+     *
+     * @return 读取的字节数, 文件末尾返回 -1
+     * @throws IOException
+     *             读取失败(包括之前的读取已经失败)或者等待的时候线程被中断
+     */
+    private int awaitPending() throws IOException{
+        if (null != failure){
+            throw new IOException("read ahead failed before", failure);
+        }
+        Future<Integer> future = pending;
+        if (null == future){
+            return -1;
+        }
+        pending = null;
+        try{
+            return future.get();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            //不能在读取进行中归还缓冲区
+            awaitUninterruptibly(future);
+            failure = new InterruptedIOException("interrupted while reading ahead");
+            throw failure;
+        }catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            throw failure;
+        }
+    }
+
+    /**
+     * 不响应中断地等待读取结束,忽略结果.
+     *
+     * @param future
+     *            the future
+     */
+    private static void awaitUninterruptibly(Future<Integer> future){
+        boolean interrupted = false;
+        while (true){
+            try{
+                future.get();
+                break;
+            }catch (InterruptedException e){
+                interrupted = true;
+            }catch (ExecutionException e){
+                break;
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
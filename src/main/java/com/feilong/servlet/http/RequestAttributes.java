@@ -196,6 +196,44 @@ public final class RequestAttributes{
 
     // 暂时还用不到下面的属性 "javax.servlet.context.tempdir" "javax.security.auth.subject"
 
+    //----------------------------tomcat sendfile-----------------------------------
+
+    /**
+     * <code>{@value}</code><br>
+     * 容器设置的属性,如果值是 {@link Boolean#TRUE},表示当前请求支持 sendfile.
+     *
+     * @see "org.apache.catalina.Globals.SENDFILE_SUPPORTED_ATTR"
+     * @since 2.1.0
+     */
+    public static final String SENDFILE_SUPPORTED      = "org.apache.tomcat.sendfile.support";
+
+    /**
+     * <code>{@value}</code><br>
+     * 需要 sendfile 的文件全路径(canonical path),类型是 String.
+     *
+     * @see "org.apache.catalina.Globals.SENDFILE_FILENAME_ATTR"
+     * @since 2.1.0
+     */
+    public static final String SENDFILE_FILENAME       = "org.apache.tomcat.sendfile.filename";
+
+    /**
+     * <code>{@value}</code><br>
+     * sendfile 的起始位置(包含),类型是 Long.
+     *
+     * @see "org.apache.catalina.Globals.SENDFILE_FILE_START_ATTR"
+     * @since 2.1.0
+     */
+    public static final String SENDFILE_FILE_START     = "org.apache.tomcat.sendfile.start";
+
+    /**
+     * <code>{@value}</code><br>
+     * sendfile 的结束位置(不包含),类型是 Long.
+     *
+     * @see "org.apache.catalina.Globals.SENDFILE_FILE_END_ATTR"
+     * @since 2.1.0
+     */
+    public static final String SENDFILE_FILE_END       = "org.apache.tomcat.sendfile.end";
+
     //---------------------------------------------------------------
 
     /** Don't let anyone instantiate this class. */
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+/**
+ * 生成 {@link EncodedResponseCache} 中缓存的响应内容.
+ *
+ * <p>
+ * 注册时调用一次,之后在过期或者失效的时候调用;刷新时读取方继续使用旧的内容,不会等待.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+public interface ResponseBodyLoader{
+
+    /**
+     * 生成响应内容,比如 json 字符串.
+     *
+     * @return 如果是null,刷新失败,继续使用旧的内容
+     */
+    CharSequence load();
+}
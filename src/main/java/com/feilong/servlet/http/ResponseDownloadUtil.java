@@ -17,31 +17,197 @@ package com.feilong.servlet.http;
 
 import static com.feilong.core.CharsetType.UTF8;
 import static com.feilong.core.Validator.isNotNullOrEmpty;
-import static com.feilong.core.date.DateExtensionUtil.formatDuration;
-import static com.feilong.core.date.DateUtil.now;
+import static com.feilong.core.Validator.isNullOrEmpty;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.feilong.core.UncheckedIOException;
 import com.feilong.core.net.URIUtil;
-import com.feilong.io.FileUtil;
 import com.feilong.io.IOWriteUtil;
 import com.feilong.io.MimeTypeUtil;
 import com.feilong.io.entity.MimeType;
+import com.feilong.servlet.http.entity.DownloadConfig;
 
 /**
  * 关于 {@link javax.servlet.http.HttpServletResponse}下载的工具类.
+ * 
+ * <h3>关于断点续传(Range):</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 如果知道 contentLength, 会输出 <code>Accept-Ranges: bytes</code>;<br>
+ * 对于 GET 请求,如果带有单个区间的 <code>Range</code> header(并且 <code>If-Range</code> 校验通过),那么会 seek 到区间起始位置,仅输出该区间的字节,返回
+ * <code>206</code> 以及 <code>Content-Range</code>;<br>
+ * 如果带有多个区间,重叠以及相邻的区间会被合并并按升序排列,然后输出 <code>multipart/byteranges</code>,每个区间 seek 一次,<code>Content-Length</code>
+ * 预先计算好;<br>
+ * 合并之后区间数量超过 {@link DownloadConfig#getMaxRanges()},或者区间均不可满足,返回 <code>416</code> 以及
+ * <code>Content-Range: bytes *&#47;contentLength</code>.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于 HEAD:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * HEAD 请求只计算并输出 header(<code>Content-Length</code>, <code>Content-Type</code>, <code>Content-Disposition</code>, <code>ETag</code>,
+ * <code>Last-Modified</code> 等),不打开文件或者流,不占用并发许可;<br>
+ * 数据源是流的时候,可以使用
+ * {@link #download(String, InputStreamSupplier, Number, DownloadConfig, HttpServletRequest, HttpServletResponse)} 传入延迟打开的流;<br>
+ * zip, 表格导出以及 single-flight 下载也不会生成数据.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于条件请求(304):</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 下载文件时,会基于文件大小和最后修改时间生成弱 <code>ETag</code>,并输出 <code>Last-Modified</code>;<br>
+ * 下载流时,如果设置了 {@link DownloadConfig#getVersionToken()},会基于它生成弱 <code>ETag</code>;<br>
+ * 如果请求的 <code>If-None-Match</code> 或者 <code>If-Modified-Since</code> 表示资源没有修改,直接返回不带 body 的 <code>304</code>,不会打开文件.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于预压缩文件:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 如果设置了 {@link DownloadConfig#getPrecompressed()},下载文件时会按照 <code>Accept-Encoding</code> 优先输出同目录下的 <code>.br</code> 或者
+ * <code>.gz</code> 文件;<br>
+ * 探测结果按照文件路径缓存,原文件没有变化时不会再次访问文件系统.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于内存缓存:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 如果设置了 {@link DownloadConfig#getCache()},下载文件时小文件的内容会被缓存在 {@link FileContentCache},文件没有变化时不再打开文件.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于限速:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 支持单个下载以及全局两级令牌桶限速,参见 {@link DownloadThrottle}.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于内存映射:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 如果设置了 {@link DownloadConfig#getMemoryMapped()},反复下载的大文件只映射一次(引用计数, 总大小有上限,参见 {@link MappedFileCache}),
+ * 完整内容以及 Range 均直接对映射 slice 输出.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于预读:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 如果设置了 {@link DownloadConfig#getReadAhead()},下载文件时使用 {@link java.nio.channels.AsynchronousFileChannel} 双缓冲预读,
+ * 磁盘读取和写客户端重叠,适合高延迟的网络存储.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于大文件:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 超过 2GB 的 <code>Content-Length</code> 不会被截断;<br>
+ * 大文件模式({@link DownloadConfig#getLargeFile()},超过 2GB 时自动开启)使用更大的复制缓冲区({@link BufferPool#getLargeBufferSize()}),定期 flush,并回调 {@link DownloadProgressListener}.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于 zip 打包下载:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * {@link #downloadZip(String, List, HttpServletRequest, HttpServletResponse)} 以及
+ * {@link #downloadZip(String, Map, HttpServletRequest, HttpServletResponse)} 直接把 zip 写到输出流,不生成临时文件;已经压缩过的条目不再压缩.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于表格导出:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * {@link #downloadCsv(String, Iterator, HttpServletRequest, HttpServletResponse)} 等方法边迭代行边编码输出,不需要先在内存中拼接完整的 CSV 字符串.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于并发生成:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * {@link #downloadSingleFlight(String, String, InputStreamSupplier, DownloadConfig, HttpServletRequest, HttpServletResponse)}
+ * 相同 key 的并发下载只生成一次数据,其他请求共享正在生成的数据.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于并发控制:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 可以通过 {@link DownloadAdmission} 按照 {@link DownloadConfig#getCategory()} 限制同时进行的下载数量,超过排队上限或者等待超时返回 <code>503</code> 以及
+ * <code>Retry-After</code>;zip 打包下载使用 {@link DownloadAdmission#DEFAULT_CATEGORY}.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于指标:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 每次下载结束时,实际输出的字节数, 耗时以及结果(完成, 客户端中断, 失败)会记录到 {@link DownloadMetrics}.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于摘要:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 如果设置了 {@link DownloadConfig#getDigestAlgorithm()},文件第一次完整输出的时候边输出边计算摘要,保存到 {@link DownloadDigestCache}(文件变化之后失效);<br>
+ * 之后的下载在输出数据之前设置 <code>Digest</code> header,不需要为了计算摘要再读一遍文件.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于 Content-Type:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 没有指定 contentType 时,基于文件扩展名在预先计算好的 {@link MimeTypeTable} 中查找(第一次下载时合并容器的 mime-mapping),没有的再使用
+ * {@link MimeTypeUtil#getContentTypeByFileName(String)}.
+ * </p>
+ * </blockquote>
+ * 
+ * <h3>关于非阻塞输出:</h3>
+ * 
+ * <blockquote>
+ * <p>
+ * 如果设置了 {@link DownloadConfig#getAsync()},并且请求支持异步,那么使用 Servlet 3.1 {@link javax.servlet.WriteListener} 输出,容器线程立即返回;<br>
+ * 完成, 超时, 客户端中断均会记录和同步下载相同格式的日志,并关闭数据源.
+ * </p>
+ * </blockquote>
  *
  * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
  * @see javax.servlet.http.HttpServletResponse
@@ -90,14 +256,30 @@ public final class ResponseDownloadUtil{
      * @see com.feilong.io.FileUtil#getFileInputStream(File)
      * @see #download(String, InputStream, Number, HttpServletRequest, HttpServletResponse)
      * @since 1.4.1
+     * @since 2.1.0 支持 Range,使用文件的最后修改时间校验 If-Range; 文件流在真正输出数据的时候才打开
      */
     public static void download(File file,HttpServletRequest request,HttpServletResponse response){
-        String saveFileName = file.getName();
-        // 以流的形式下载文件.
-        InputStream inputStream = FileUtil.getFileInputStream(file);
-        long contentLength = FileUtil.getFileSize(file);
+        download(file, null, request, response);
+    }
 
-        download(saveFileName, inputStream, contentLength, request, response);
+    /**
+     * 下载文件.
+     *
+     * @param file
+     *            the file
+     * @param downloadConfig
+     *            下载配置,如果是 null,使用默认配置
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @see #download(File, HttpServletRequest, HttpServletResponse)
+     * @since 2.1.0
+     */
+    public static void download(File file,DownloadConfig downloadConfig,HttpServletRequest request,HttpServletResponse response){
+        DownloadResource downloadResource = null != downloadConfig && downloadConfig.getPrecompressed() && null != request
+                        ? resolvePrecompressedResource(file, request) : DownloadResource.of(file);
+        download(downloadResource, null, null, downloadConfig, request, response);
     }
 
     /**
@@ -156,6 +338,8 @@ public final class ResponseDownloadUtil{
      * @see "org.springframework.http.HttpHeaders"
      * @see com.feilong.io.MimeTypeUtil#getContentTypeByFileName(String)
      * @see javax.servlet.ServletContext#getMimeType(String)
+     * @see MimeTypeTable
+     * @since 2.1.0 支持 Range, 由于没有校验器,带有 If-Range 的请求将返回完整内容
      */
     public static void download(
                     String saveFileName,
@@ -165,66 +349,1117 @@ public final class ResponseDownloadUtil{
                     String contentDisposition,
                     HttpServletRequest request,
                     HttpServletResponse response){
+        download(saveFileName, inputStream, contentLength, contentType, contentDisposition, null, request, response);
+    }
 
-        setDownloadResponseHeader(saveFileName, contentLength, contentType, contentDisposition, response);
+    /**
+     * 下载.
+     *
+     * @param saveFileName
+     *            保存文件的文件名,将会被设置到 Content-Disposition header 中
+     * @param inputStream
+     *            保存数据输入流
+     * @param contentLength
+     *            如果是网络流就需要自己来取到大小了
+     * @param contentType
+     *            the content type
+     * @param contentDisposition
+     *            the content disposition
+     * @param downloadConfig
+     *            下载配置,如果是 null,使用默认配置
+     * @param request
+     *            用来获取request相关信息 ,仅用来记录log
+     * @param response
+     *            response
+     * @see #download(String, InputStream, Number, String, String, HttpServletRequest, HttpServletResponse)
+     * @since 2.1.0
+     */
+    public static void download(
+                    String saveFileName,
+                    InputStream inputStream,
+                    Number contentLength,
+                    String contentType,
+                    String contentDisposition,
+                    DownloadConfig downloadConfig,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        DownloadResource downloadResource = DownloadResource.of(saveFileName, inputStream, contentLength);
+        download(downloadResource, contentType, contentDisposition, downloadConfig, request, response);
+    }
 
-        //下载数据
-        downLoadData(saveFileName, inputStream, contentLength, request, response);
+    /**
+     * 下载延迟打开的流.
+     * 
+     * <p>
+     * 只有真正需要输出数据的时候才会调用 {@link InputStreamSupplier#get()};<br>
+     * 对于 HEAD, 304, 503 等不需要输出数据的请求,不会打开流(比如不会为了 HEAD 去请求远程文件或者打开数据库 blob).
+     * </p>
+     *
+     * @param saveFileName
+     *            保存文件的文件名,将会被设置到 Content-Disposition header 中
+     * @param inputStreamSupplier
+     *            延迟打开的输入流,返回的流输出完成之后会被关闭
+     * @param contentLength
+     *            内容长度,可以是 null
+     * @param downloadConfig
+     *            下载配置,如果是 null,使用默认配置
+     * @param request
+     *            用来获取request相关信息
+     * @param response
+     *            response
+     * @throws NullPointerException
+     *             如果 <code>inputStreamSupplier</code> 是null
+     * @see #download(String, InputStream, Number, String, String, DownloadConfig, HttpServletRequest, HttpServletResponse)
+     * @since 2.1.0
+     */
+    public static void download(
+                    String saveFileName,
+                    InputStreamSupplier inputStreamSupplier,
+                    Number contentLength,
+                    DownloadConfig downloadConfig,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        Validate.notNull(inputStreamSupplier, "inputStreamSupplier can't be null!");
+        DownloadResource downloadResource = DownloadResource.of(saveFileName, inputStreamSupplier, contentLength);
+        download(downloadResource, null, null, downloadConfig, request, response);
     }
 
     //---------------------------------------------------------------
 
     /**
-     * Down load data.
+     * 把多个文件打包成 zip 下载,不生成临时文件.
+     * 
+     * <p>
+     * 条目名称是文件名,重名时自动加上序号;文件在写到对应条目的时候才打开;<br>
+     * 由于大小未知,不输出 <code>Content-Length</code>,不支持 Range.
+     * </p>
      *
      * @param saveFileName
-     *            the save file name
-     * @param inputStream
-     *            the input stream
+     *            保存文件的文件名,比如 <code>attachments.zip</code>
+     * @param files
+     *            the files
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @see ZipDownloadUtil#writeFiles(Iterable, OutputStream)
+     * @since 2.1.0
+     */
+    public static void downloadZip(String saveFileName,List<File> files,HttpServletRequest request,HttpServletResponse response){
+        downloadZip(saveFileName, files, null, request, response);
+    }
+
+    /**
+     * 把多个流打包成 zip 下载,不生成临时文件.
+     * 
+     * <p>
+     * 每个流写完之后立即关闭;由于大小未知,不输出 <code>Content-Length</code>,不支持 Range.
+     * </p>
+     *
+     * @param saveFileName
+     *            保存文件的文件名,比如 <code>attachments.zip</code>
+     * @param nameAndInputStreamMap
+     *            key 是条目名称(可以包含 <code>/</code> 表示目录),value 是数据;建议使用 {@link java.util.LinkedHashMap} 保持顺序
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @see ZipDownloadUtil#writeInputStreams(Map, OutputStream)
+     * @since 2.1.0
+     */
+    public static void downloadZip(
+                    String saveFileName,
+                    Map<String, InputStream> nameAndInputStreamMap,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        downloadZip(saveFileName, null, nameAndInputStreamMap, request, response);
+    }
+
+    /**
+     * 打包成 zip 下载.
+     *
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param files
+     *            the files,和 <code>nameAndInputStreamMap</code> 二选一
+     * @param nameAndInputStreamMap
+     *            the name and input stream map,和 <code>files</code> 二选一
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @since 2.1.0
+     */
+    private static void downloadZip(
+                    String saveFileName,
+                    List<File> files,
+                    Map<String, InputStream> nameAndInputStreamMap,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        //HEAD 不需要打包
+        if (isHead(request)){
+            setDownloadResponseHeader(saveFileName, null, MimeType.ZIP.getMime(), null, response);
+            if (null != nameAndInputStreamMap){
+                for (InputStream inputStream : nameAndInputStreamMap.values()){
+                    DownloadIOUtil.closeQuietly(inputStream);
+                }
+            }
+            return;
+        }
+
+        DownloadAdmission.Permit permit = DownloadAdmission.acquire(null);
+        if (!permit.isGranted()){
+            sendServiceUnavailable(saveFileName, null, permit, response);
+            return;
+        }
+        setDownloadResponseHeader(saveFileName, null, MimeType.ZIP.getMime(), null, response);
+
+        DownloadLog downloadLog = DownloadLog.begin(saveFileName, null, false);
+        try{
+            OutputStream outputStream = newGeneratedOutputStream(null, downloadLog, response);
+            if (null != files){
+                ZipDownloadUtil.writeFiles(files, outputStream);
+            }else{
+                ZipDownloadUtil.writeInputStreams(nameAndInputStreamMap, outputStream);
+            }
+            downloadLog.end();
+        }catch (IOException e){
+            if (!downloadLog.error(e, request)){
+                throw new UncheckedIOException(e);
+            }
+        }catch (RuntimeException e){
+            downloadLog.error(e, request);
+            throw e;
+        }finally{
+            permit.release();
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 流式导出 CSV(UTF-8).
+     *
+     * @param saveFileName
+     *            保存文件的文件名,比如 <code>orders.csv</code>
+     * @param rows
+     *            行,每一行是单元格的集合
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @see #downloadDelimited(String, Iterator, DelimitedFormat, String, HttpServletRequest, HttpServletResponse)
+     * @since 2.1.0
+     */
+    public static void downloadCsv(
+                    String saveFileName,
+                    Iterator<? extends Iterable<?>> rows,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        downloadDelimited(saveFileName, rows, DelimitedFormat.CSV, UTF8, request, response);
+    }
+
+    /**
+     * 流式导出 TSV(UTF-8).
+     *
+     * @param saveFileName
+     *            保存文件的文件名,比如 <code>orders.tsv</code>
+     * @param rows
+     *            行,每一行是单元格的集合
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @see #downloadDelimited(String, Iterator, DelimitedFormat, String, HttpServletRequest, HttpServletResponse)
+     * @since 2.1.0
+     */
+    public static void downloadTsv(
+                    String saveFileName,
+                    Iterator<? extends Iterable<?>> rows,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        downloadDelimited(saveFileName, rows, DelimitedFormat.TSV, UTF8, request, response);
+    }
+
+    /**
+     * 流式导出表格数据,边迭代边编码输出,不在内存中拼接完整内容.
+     * 
+     * <p>
+     * 字符以及字节缓冲区在整个导出过程中复用,定期 flush,内存占用和行数无关;<br>
+     * 由于大小未知,不输出 <code>Content-Length</code>,不支持 Range;<br>
+     * 如果 <code>rows</code> 实现了 {@link Closeable}(比如包装了数据库游标),导出结束之后(包括出错)会被关闭.
+     * </p>
+     * 
+     * <h3>示例:</h3>
+     * 
+     * <blockquote>
+     * 
+     * <pre class="code">
+     * final Iterator{@code <Order>} orders = orderDao.iterate(query);
+     * Iterator{@code <List<Object>>} rows = new Iterator{@code <List<Object>>}(){
+     * 
+     *     public boolean hasNext(){
+     *         return orders.hasNext();
+     *     }
+     * 
+     *     public List{@code <Object>} next(){
+     *         Order order = orders.next();
+     *         return Arrays.{@code <Object>} asList(order.getCode(), order.getAmount(), order.getCreateTime());
+     *     }
+     * 
+     *     public void remove(){
+     *         throw new UnsupportedOperationException();
+     *     }
+     * };
+     * ResponseDownloadUtil.downloadDelimited("orders.csv", rows, DelimitedFormat.CSV, "GBK", request, response);
+     * </pre>
+     * 
+     * </blockquote>
+     *
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param rows
+     *            行,每一行是单元格的集合;单元格是 null 时输出空,否则使用 {@link String#valueOf(Object)}
+     * @param delimitedFormat
+     *            the delimited format
+     * @param charsetName
+     *            编码,比如给 Excel 打开的中文 CSV 可以使用 GBK
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @throws NullPointerException
+     *             如果 <code>rows</code> 或者 <code>delimitedFormat</code> 是null
+     * @throws java.nio.charset.UnsupportedCharsetException
+     *             如果不支持 <code>charsetName</code>
+     * @see DelimitedRowWriter
+     * @since 2.1.0
+     */
+    public static void downloadDelimited(
+                    String saveFileName,
+                    Iterator<? extends Iterable<?>> rows,
+                    DelimitedFormat delimitedFormat,
+                    String charsetName,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        Validate.notNull(rows, "rows can't be null!");
+        Validate.notNull(delimitedFormat, "delimitedFormat can't be null!");
+        Charset charset = Charset.forName(charsetName);
+
+        String contentType = delimitedFormat.getContentType() + ";charset=" + charsetName;
+
+        //HEAD 不需要迭代行
+        if (isHead(request)){
+            setDownloadResponseHeader(saveFileName, null, contentType, null, response);
+            closeRows(rows);
+            return;
+        }
+
+        DownloadAdmission.Permit permit = DownloadAdmission.acquire(null);
+        if (!permit.isGranted()){
+            closeRows(rows);
+            sendServiceUnavailable(saveFileName, null, permit, response);
+            return;
+        }
+        setDownloadResponseHeader(saveFileName, null, contentType, null, response);
+
+        DownloadLog downloadLog = DownloadLog.begin(saveFileName, null, false);
+        try{
+            long rowCount = DelimitedRowWriter.write(rows, delimitedFormat, charset, newGeneratedOutputStream(null, downloadLog, response));
+            LOGGER.debug("saveFileName:[{}],rows:[{}]", saveFileName, rowCount);
+            downloadLog.end();
+        }catch (IOException e){
+            if (!downloadLog.error(e, request)){
+                throw new UncheckedIOException(e);
+            }
+        }catch (RuntimeException e){
+            downloadLog.error(e, request);
+            throw e;
+        }finally{
+            closeRows(rows);
+            permit.release();
+        }
+    }
+
+    /**
+     * 相同 <code>key</code> 的并发下载只生成一次数据.
+     * 
+     * <p>
+     * 比如热门报表第一次被请求的时候,很多用户同时点击下载,每个请求都去生成同样耗时的数据;<br>
+     * 使用该方法,第一个请求调用 <code>inputStreamSupplier</code> 生成数据,生成过程中到达的相同 key 的请求从共享缓冲区(超过 1MB 的部分在临时文件中)边写边读,只生成一次;<br>
+     * 生成结束之后 key 失效,之后的请求会重新生成(需要缓存结果的话,请生成到文件再使用 {@link #download(File, DownloadConfig, HttpServletRequest, HttpServletResponse)}).
+     * </p>
+     * 
+     * <p>
+     * 由于大小未知,不输出 <code>Content-Length</code>,不支持 Range;follower 的输出速度受 leader 客户端的速度影响.
+     * </p>
+     * 
+     * <h3>示例:</h3>
+     * 
+     * <blockquote>
+     * 
+     * <pre class="code">
+     * ResponseDownloadUtil.downloadSingleFlight("report:2016-05", "report-2016-05.xlsx", new InputStreamSupplier(){
+     * 
+     *     public InputStream get() throws IOException{
+     *         return reportService.generate("2016-05");
+     *     }
+     * }, null, request, response);
+     * </pre>
+     * 
+     * </blockquote>
+     *
+     * @param key
+     *            相同数据的标识,比如报表名称加参数
+     * @param saveFileName
+     *            保存文件的文件名
+     * @param inputStreamSupplier
+     *            生成数据,只有第一个请求会调用,返回的流输出完成之后会被关闭
+     * @param downloadConfig
+     *            下载配置,使用其中的分类({@link DownloadConfig#getCategory()})以及限速({@link DownloadConfig#getBytesPerSecond()}),可以是 null
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @throws NullPointerException
+     *             如果 <code>key</code> 或者 <code>inputStreamSupplier</code> 是null
+     * @throws IllegalArgumentException
+     *             如果 <code>key</code> 是blank
+     * @see SingleFlight
+     * @since 2.1.0
+     */
+    public static void downloadSingleFlight(
+                    String key,
+                    String saveFileName,
+                    InputStreamSupplier inputStreamSupplier,
+                    DownloadConfig downloadConfig,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        Validate.notBlank(key, "key can't be blank!");
+        Validate.notNull(inputStreamSupplier, "inputStreamSupplier can't be null!");
+        String contentType = resolverContentType(saveFileName, null, null == request ? null : request.getServletContext());
+        //HEAD 不需要生成数据
+        if (isHead(request)){
+            setDownloadResponseHeader(saveFileName, null, contentType, null, response);
+            return;
+        }
+
+        String category = null == downloadConfig ? null : downloadConfig.getCategory();
+        DownloadAdmission.Permit permit = DownloadAdmission.acquire(category);
+        if (!permit.isGranted()){
+            sendServiceUnavailable(saveFileName, category, permit, response);
+            return;
+        }
+        setDownloadResponseHeader(saveFileName, null, contentType, null, response);
+
+        DownloadLog downloadLog = DownloadLog.begin(saveFileName, null, false);
+        try{
+            boolean leader = SingleFlight.write(key, inputStreamSupplier, newGeneratedOutputStream(downloadConfig, downloadLog, response));
+            LOGGER.debug("saveFileName:[{}],single flight key:[{}],generated by this request:[{}]", saveFileName, key, leader);
+            downloadLog.end();
+        }catch (IOException e){
+            if (!downloadLog.error(e, request)){
+                throw new UncheckedIOException(e);
+            }
+        }catch (RuntimeException e){
+            downloadLog.error(e, request);
+            throw e;
+        }finally{
+            permit.release();
+        }
+    }
+
+    /**
+     * 是否是 HEAD 请求,HEAD 请求只输出 header,不输出(也不需要生成)数据.
+     *
+     * @param request
+     *            the request
+     * @return 如果 <code>request</code> 是null,返回 false
+     * @since 2.1.0
+     */
+    private static boolean isHead(HttpServletRequest request){
+        return null != request && "HEAD".equalsIgnoreCase(request.getMethod());
+    }
+
+    /**
+     * 如果 <code>rows</code> 实现了 {@link Closeable},关闭它.
+     *
+     * @param rows
+     *            the rows
+     * @since 2.1.0
+     */
+    private static void closeRows(Iterator<?> rows){
+        if (rows instanceof Closeable){
+            DownloadIOUtil.closeQuietly((Closeable) rows);
+        }
+    }
+
+    /**
+     * 生成的内容(zip, 表格导出, single-flight)使用的输出流,受限速,并统计输出的字节数.
+     *
+     * @param downloadConfig
+     *            the download config,如果是 null,只受全局限速
+     * @param downloadLog
+     *            the download log
+     * @param response
+     *            the response
+     * @return the output stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @since 2.1.0
+     */
+    private static OutputStream newGeneratedOutputStream(DownloadConfig downloadConfig,DownloadLog downloadLog,HttpServletResponse response)
+                    throws IOException{
+        DownloadThrottle downloadThrottle = DownloadThrottle.of(null == downloadConfig ? new DownloadConfig() : downloadConfig);
+        return new CountingOutputStream(new ThrottledOutputStream(response.getOutputStream(), downloadThrottle), downloadLog);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 下载.
+     *
+     * @param downloadResource
+     *            需要下载的资源
+     * @param contentType
+     *            the content type
+     * @param contentDisposition
+     *            the content disposition
+     * @param downloadConfig
+     *            下载配置,如果是 null,使用默认配置
+     * @param request
+     *            the request
+     * @param response
+     *            response
+     * @since 2.1.0
+     */
+    private static void download(
+                    DownloadResource downloadResource,
+                    String contentType,
+                    String contentDisposition,
+                    DownloadConfig downloadConfig,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        DownloadConfig useDownloadConfig = null == downloadConfig ? new DownloadConfig() : downloadConfig;
+
+        String saveFileName = downloadResource.getSaveFileName();
+        Number contentLength = downloadResource.getContentLength();
+        long lastModified = downloadResource.getLastModified();
+        String eTag = resolveETag(downloadResource, useDownloadConfig);
+
+        //条件请求
+        if (null != request && ConditionalRequestUtil.isNotModified(eTag, lastModified, request)){
+            sendNotModified(downloadResource, eTag, response);
+            return;
+        }
+
+        //---------------------------------------------------------------
+        List<ByteRange> byteRangeList = resolveByteRangeList(contentLength, eTag, lastModified, useDownloadConfig, request);
+
+        //区间均不可满足, 或者区间太多
+        if (null != byteRangeList && byteRangeList.isEmpty()){
+            sendRangeNotSatisfiable(downloadResource, response);
+            return;
+        }
+
+        //---------------------------------------------------------------
+        DigestAlgorithm digestAlgorithm = null == downloadResource.getFile() ? null : useDownloadConfig.getDigestAlgorithm();
+        String digest = null == digestAlgorithm ? null
+                        : DownloadDigestCache.get(downloadResource.getFile(), contentLength.longValue(), lastModified, digestAlgorithm);
+
+        //---------------------------------------------------------------
+        ServletContext servletContext = null == request ? null : request.getServletContext();
+        String resolvedContentType = resolverContentType(saveFileName, contentType, servletContext);
+        if (null == byteRangeList){
+            setDownloadResponseHeader(saveFileName, contentLength, resolvedContentType, contentDisposition, response);
+            setValidatorHeader(eTag, lastModified, response);
+            setContentEncodingHeader(downloadResource, response);
+            setDigestHeader(digestAlgorithm, digest, true, response);
+            if (isNotNullOrEmpty(contentLength)){
+                response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            }
+
+            //HEAD 只需要 header, 不打开流, 不占用并发许可
+            if (isHead(request)){
+                LOGGER.debug("HEAD saveFileName:[{}],contentLength:[{}],skip body", saveFileName, contentLength);
+                downloadResource.close();
+                return;
+            }
+            //下载数据, 还没有摘要的时候顺便计算
+            downLoadData(downloadResource, contentLength, null, null == digest ? digestAlgorithm : null, useDownloadConfig, request, response);
+            return;
+        }
+
+        //---------------------------------------------------------------
+        PartialContent partialContent = new PartialContent(byteRangeList, contentLength.longValue(), resolvedContentType);
+
+        setDownloadResponseHeader(
+                        saveFileName,
+                        partialContent.getContentLength(),
+                        partialContent.getContentType(),
+                        contentDisposition,
+                        response);
+        setValidatorHeader(eTag, lastModified, response);
+        setContentEncodingHeader(downloadResource, response);
+        setDigestHeader(digestAlgorithm, digest, false, response);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (!partialContent.isMultipart()){
+            response.setHeader(HttpHeaders.CONTENT_RANGE, partialContent.getContentRange());
+        }
+
+        //下载数据
+        downLoadData(downloadResource, partialContent.getContentLength(), partialContent, null, useDownloadConfig, request, response);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 基于 <code>Accept-Encoding</code> 协商预压缩文件.
+     *
+     * @param file
+     *            原文件
+     * @param request
+     *            the request
+     * @return 如果没有预压缩文件,返回原文件的资源
+     * @see PrecompressedVariants
+     * @since 2.1.0
+     */
+    private static DownloadResource resolvePrecompressedResource(File file,HttpServletRequest request){
+        return PrecompressedVariants.resolve(file, request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    /**
+     * 设置预压缩文件相关的 header, <code>Content-Encoding</code> 以及 <code>Vary</code>.
+     *
+     * @param downloadResource
+     *            the download resource
+     * @param response
+     *            the response
+     * @since 2.1.0
+     */
+    private static void setContentEncodingHeader(DownloadResource downloadResource,HttpServletResponse response){
+        if (downloadResource.getVaryAcceptEncoding()){
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        String contentEncoding = downloadResource.getContentEncoding();
+        if (null != contentEncoding){
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+    }
+
+    /**
+     * 设置摘要 header, <code>Digest</code> 以及 <code>Content-MD5</code>.
+     *
+     * @param digestAlgorithm
+     *            the digest algorithm
+     * @param digest
+     *            摘要的 base64,如果是 null,不设置
+     * @param fullContent
+     *            是否输出完整内容, <code>Content-MD5</code> 是响应体的摘要,只有完整内容才设置
+     * @param response
+     *            the response
+     * @see DownloadDigestCache
+     * @since 2.1.0
+     */
+    private static void setDigestHeader(DigestAlgorithm digestAlgorithm,String digest,boolean fullContent,HttpServletResponse response){
+        if (null == digest){
+            return;
+        }
+        response.setHeader(HttpHeaders.DIGEST, digestAlgorithm.getName() + "=" + digest);
+        if (fullContent && DigestAlgorithm.MD5 == digestAlgorithm){
+            response.setHeader(HttpHeaders.CONTENT_MD5, digest);
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 解析资源的 ETag.
+     * 
+     * <p>
+     * 文件使用大小以及最后修改时间生成弱 ETag;流使用 {@link DownloadConfig#getVersionToken()} 生成弱 ETag,如果没有设置,返回 null.
+     * </p>
+     *
+     * @param downloadResource
+     *            the download resource
+     * @param downloadConfig
+     *            the download config
+     * @return the string
+     * @since 2.1.0
+     */
+    private static String resolveETag(DownloadResource downloadResource,DownloadConfig downloadConfig){
+        if (null != downloadResource.getFile()){
+            return ConditionalRequestUtil.toWeakETag(downloadResource.getContentLength().longValue(), downloadResource.getLastModified());
+        }
+        return ConditionalRequestUtil.toWeakETag(downloadConfig.getVersionToken());
+    }
+
+    /**
+     * 设置校验器 header, <code>ETag</code> 以及 <code>Last-Modified</code>.
+     *
+     * @param eTag
+     *            the e tag,如果是 null,不设置
+     * @param lastModified
+     *            资源最后修改时间(毫秒), {@code <=0} 不设置
+     * @param response
+     *            the response
+     * @since 2.1.0
+     */
+    private static void setValidatorHeader(String eTag,long lastModified,HttpServletResponse response){
+        if (null != eTag){
+            response.setHeader(HttpHeaders.ETAG, eTag);
+        }
+        if (lastModified > 0){
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        }
+    }
+
+    /**
+     * 输出不带 body 的 304.
+     *
+     * @param downloadResource
+     *            the download resource,将会被关闭
+     * @param eTag
+     *            the e tag
+     * @param response
+     *            the response
+     * @since 2.1.0
+     */
+    private static void sendNotModified(DownloadResource downloadResource,String eTag,HttpServletResponse response){
+        LOGGER.debug("not modified,saveFileName:[{}],eTag:[{}]", downloadResource.getSaveFileName(), eTag);
+        downloadResource.close();
+
+        response.reset();
+        setValidatorHeader(eTag, downloadResource.getLastModified(), response);
+        if (downloadResource.getVaryAcceptEncoding()){
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 解析本次请求需要输出的区间.
+     *
      * @param contentLength
      *            the content length
+     * @param eTag
+     *            资源的 ETag, 可能是 null
+     * @param lastModified
+     *            资源最后修改时间(毫秒), {@code <=0} 表示未知
+     * @param downloadConfig
+     *            the download config
+     * @param request
+     *            the request
+     * @return 如果需要返回完整内容,返回 null;如果区间均不可满足或者区间太多,返回 empty list;否则返回合并之后升序的区间
+     * @see ByteRangeUtil#parse(String, long)
+     * @see ByteRangeUtil#merge(List)
+     * @since 2.1.0
+     */
+    private static List<ByteRange> resolveByteRangeList(
+                    Number contentLength,
+                    String eTag,
+                    long lastModified,
+                    DownloadConfig downloadConfig,
+                    HttpServletRequest request){
+        //Range 只对 GET 有意义
+        if (null == request || isNullOrEmpty(contentLength) || !"GET".equalsIgnoreCase(request.getMethod())){
+            return null;
+        }
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (isNullOrEmpty(range) || !isIfRangeMatched(eTag, lastModified, request)){
+            return null;
+        }
+
+        List<ByteRange> byteRangeList = ByteRangeUtil.parse(range, contentLength.longValue());
+        if (null == byteRangeList || byteRangeList.size() <= 1){
+            return byteRangeList;
+        }
+
+        //---------------------------------------------------------------
+        int maxRanges = downloadConfig.getMaxRanges();
+        //仅支持单个区间, 多个区间时返回完整内容(RFC 7233 允许服务端忽略 Range)
+        if (maxRanges <= 1){
+            return null;
+        }
+        List<ByteRange> mergedByteRangeList = ByteRangeUtil.merge(byteRangeList);
+        if (mergedByteRangeList.size() > maxRanges){
+            LOGGER.warn("too many ranges:[{}],maxRanges:[{}],range header:[{}]", mergedByteRangeList.size(), maxRanges, range);
+            return Collections.emptyList();
+        }
+        return mergedByteRangeList;
+    }
+
+    /**
+     * 校验 <code>If-Range</code>.
+     * 
+     * <p>
+     * 如果没有 If-Range header,返回 true;<br>
+     * 如果 If-Range 是 entity-tag,只有和资源的 ETag 强比较相同时返回 true (RFC 7233 3.2);<br>
+     * 任何一方是弱 ETag 都不匹配: 文件以及流的 ETag 都是弱 ETag, 所以续传需要使用 <code>Last-Modified</code> 的日期形式;<br>
+     * 如果 If-Range 是 HTTP-date,并且和 <code>lastModified</code> 精确到秒相等,返回 true;<br>
+     * 其他情况返回 false,此时需要返回完整内容.
+     * </p>
+     *
+     * @param eTag
+     *            资源的 ETag, 可能是 null
+     * @param lastModified
+     *            资源最后修改时间(毫秒), {@code <=0} 表示未知
+     * @param request
+     *            the request
+     * @return 如果区间可以使用,返回 true
+     * @since 2.1.0
+     */
+    private static boolean isIfRangeMatched(String eTag,long lastModified,HttpServletRequest request){
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (isNullOrEmpty(ifRange)){
+            return true;
+        }
+        String trimIfRange = ifRange.trim();
+        if (trimIfRange.startsWith("\"") || trimIfRange.startsWith("W/")){
+            //If-Range 只能使用强比较
+            return null != eTag && !eTag.startsWith("W/") && !trimIfRange.startsWith("W/") && trimIfRange.equals(eTag);
+        }
+        if (lastModified <= 0){
+            return false;
+        }
+        try{
+            long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return ifRangeDate / 1000 == lastModified / 1000;
+        }catch (IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    /**
+     * 输出 416.
+     *
+     * @param downloadResource
+     *            the download resource,将会被关闭
+     * @param response
+     *            the response
+     * @since 2.1.0
+     */
+    private static void sendRangeNotSatisfiable(DownloadResource downloadResource,HttpServletResponse response){
+        Number contentLength = downloadResource.getContentLength();
+        LOGGER.info("range not satisfiable,saveFileName:[{}],contentLength:[{}]", downloadResource.getSaveFileName(), contentLength);
+        downloadResource.close();
+
+        response.reset();
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + contentLength.longValue());
+        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * Down load data.
+     *
+     * @param downloadResource
+     *            the download resource,输出完成之后会被关闭
+     * @param contentLength
+     *            本次输出的长度
+     * @param partialContent
+     *            需要输出的区间,如果是 null 表示输出完整内容
+     * @param digestAlgorithm
+     *            需要边输出边计算的摘要算法,如果是 null 表示不需要计算
+     * @param downloadConfig
+     *            the download config
      * @param request
      *            the request
      * @param response
      *            the response
      */
     private static void downLoadData(
-                    String saveFileName,
-                    InputStream inputStream,
+                    DownloadResource downloadResource,
                     Number contentLength,
+                    PartialContent partialContent,
+                    DigestAlgorithm digestAlgorithm,
+                    DownloadConfig downloadConfig,
                     HttpServletRequest request,
                     HttpServletResponse response){
-        Date beginDate = now();
-        String length = FileUtil.formatSize(contentLength.longValue());
-        LOGGER.info("begin download~~,saveFileName:[{}],contentLength:[{}]", saveFileName, length);
+        DownloadAdmission.Permit permit = DownloadAdmission.acquire(downloadConfig.getCategory());
+        if (!permit.isGranted()){
+            downloadResource.close();
+            sendServiceUnavailable(downloadResource.getSaveFileName(), downloadConfig.getCategory(), permit, response);
+            return;
+        }
+
+        //---------------------------------------------------------------
+        if (downloadConfig.getCache() && downloadResource.loadFromCache()){
+            LOGGER.debug("saveFileName:[{}] will be written from FileContentCache", downloadResource.getSaveFileName());
+        }else if (downloadConfig.getMemoryMapped() && downloadResource.loadFromMappedFileCache()){
+            LOGGER.debug("saveFileName:[{}] will be written from MappedFileCache", downloadResource.getSaveFileName());
+        }
+
+        //---------------------------------------------------------------
+        if (downloadConfig.getAsync()){
+            if (null != request && request.isAsyncSupported()){
+                if (null != digestAlgorithm){
+                    LOGGER.debug("async download will not compute digest,saveFileName:[{}]", downloadResource.getSaveFileName());
+                }
+                startAsync(downloadResource, contentLength, partialContent, downloadConfig, permit, request, response);
+                return;
+            }
+            LOGGER.warn("request is not async supported,saveFileName:[{}] will be written blocking", downloadResource.getSaveFileName());
+        }
+
+        //---------------------------------------------------------------
+        DownloadLog downloadLog = DownloadLog.begin(downloadResource.getSaveFileName(), contentLength, null != partialContent);
         try{
-            OutputStream outputStream = response.getOutputStream();
-            IOWriteUtil.write(inputStream, outputStream);
-            if (LOGGER.isInfoEnabled()){
-                String pattern = "end download,saveFileName:[{}],contentLength:[{}],time use:[{}]";
-                LOGGER.info(pattern, saveFileName, length, formatDuration(beginDate));
+            writeBody(downloadResource, contentLength, partialContent, digestAlgorithm, downloadConfig, downloadLog, request, response);
+            downloadLog.end();
+        }catch (IOException e){
+            if (!downloadLog.error(e, request)){
+                throw new UncheckedIOException(e);
             }
+        }catch (RuntimeException e){
+            downloadLog.error(e, request);
+            throw e;
+        }finally{
+            downloadResource.close();
+            permit.release();
+        }
+    }
+
+    /**
+     * 输出 503 以及 <code>Retry-After</code>.
+     *
+     * @param saveFileName
+     *            the save file name
+     * @param category
+     *            分类
+     * @param permit
+     *            没有获得的许可
+     * @param response
+     *            the response
+     * @since 2.1.0
+     */
+    private static void sendServiceUnavailable(
+                    String saveFileName,
+                    String category,
+                    DownloadAdmission.Permit permit,
+                    HttpServletResponse response){
+        LOGGER.warn(
+                        "too many concurrent downloads,category:[{}],saveFileName:[{}],retry after:[{}]s",
+                        category,
+                        saveFileName,
+                        permit.getRetryAfterSeconds());
+
+        response.reset();
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(permit.getRetryAfterSeconds()));
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * 开启 Servlet 3.1 非阻塞输出.
+     *
+     * @param downloadResource
+     *            the download resource,输出结束之后会被关闭
+     * @param contentLength
+     *            本次输出的长度
+     * @param partialContent
+     *            需要输出的区间,如果是 null 表示输出完整内容
+     * @param downloadConfig
+     *            the download config
+     * @param permit
+     *            准入许可,输出结束之后归还
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @see AsyncDownloadListener
+     * @since 2.1.0
+     */
+    private static void startAsync(
+                    DownloadResource downloadResource,
+                    Number contentLength,
+                    PartialContent partialContent,
+                    DownloadConfig downloadConfig,
+                    DownloadAdmission.Permit permit,
+                    HttpServletRequest request,
+                    HttpServletResponse response){
+        try{
+            AsyncDownloadListener.start(downloadResource, contentLength, partialContent, downloadConfig, permit, request, response);
         }catch (IOException e){
-            /*
-             * 在写数据的时候, 对于 ClientAbortException 之类的异常, 是因为客户端取消了下载,而服务器端继续向浏览器写入数据时, 抛出这个异常,这个是正常的.
-             * 尤其是对于迅雷这种吸血的客户端软件, 明明已经有一个线程在读取
-             * 如果短时间内没有读取完毕,迅雷会再启第二个、第三个...线程来读取相同的字节段,
-             * 直到有一个线程读取完毕,迅雷会 KILL掉其他正在下载同一字节段的线程, 强行中止字节读出,造成服务器抛 ClientAbortException.
-             */
-            //ClientAbortException:  java.net.SocketException: Connection reset by peer: socket write error
-            final String exceptionName = e.getClass().getName();
-
-            if (StringUtils.contains(exceptionName, "ClientAbortException")
-                            || StringUtils.contains(e.getMessage(), "ClientAbortException")){
-                String pattern = "[ClientAbortException],maybe user use Thunder soft or abort client soft download,exceptionName:[{}],exception message:[{}] ,request User-Agent:[{}]";
-                LOGGER.warn(pattern, exceptionName, e.getMessage(), RequestUtil.getHeaderUserAgent(request));
+            downloadResource.close();
+            permit.release();
+            throw new UncheckedIOException(e);
+        }catch (RuntimeException e){
+            downloadResource.close();
+            permit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 输出响应体.
+     * 
+     * <p>
+     * 如果资源是文件,并且开启了 {@link DownloadConfig#getZeroCopy()}, 容器支持的时候交给容器 sendfile;<br>
+     * 其他情况使用流复制(参见 {@link ZeroCopyUtil}).
+     * </p>
+     * 
+     * <p>
+     * 如果需要限速,输出流会被 {@link ThrottledOutputStream} 包装;然后被 {@link CountingOutputStream} 包装,统计实际输出的字节数;需要计算摘要时,再被
+     * {@link DigestOutputStream} 包装,输出完成之后摘要保存到 {@link DownloadDigestCache};大文件模式下,再被 {@link ProgressOutputStream} 包装;<br>
+     * 如果命中了 {@link FileContentCache},直接输出缓存的内容.
+     * </p>
+     *
+     * @param downloadResource
+     *            the download resource
+     * @param contentLength
+     *            本次输出的长度
+     * @param partialContent
+     *            需要输出的区间,如果是 null 表示输出完整内容
+     * @param digestAlgorithm
+     *            需要边输出边计算的摘要算法,如果是 null 表示不需要计算
+     * @param downloadConfig
+     *            the download config
+     * @param downloadLog
+     *            the download log
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @since 2.1.0
+     */
+    private static void writeBody(
+                    DownloadResource downloadResource,
+                    Number contentLength,
+                    PartialContent partialContent,
+                    DigestAlgorithm digestAlgorithm,
+                    DownloadConfig downloadConfig,
+                    DownloadLog downloadLog,
+                    HttpServletRequest request,
+                    HttpServletResponse response) throws IOException{
+        DownloadThrottle downloadThrottle = DownloadThrottle.of(downloadConfig);
+        OutputStream outputStream = new ThrottledOutputStream(response.getOutputStream(), downloadThrottle);
+        outputStream = new CountingOutputStream(outputStream, downloadLog);
+
+        DigestOutputStream digestOutputStream = null;
+        if (null != digestAlgorithm){
+            digestOutputStream = new DigestOutputStream(outputStream, digestAlgorithm.newMessageDigest());
+            outputStream = digestOutputStream;
+        }
+
+        boolean largeFile = isLargeFile(contentLength, downloadConfig);
+        ProgressOutputStream progressOutputStream = null;
+        if (largeFile){
+            progressOutputStream = new ProgressOutputStream(
+                            outputStream,
+                            downloadResource.getSaveFileName(),
+                            null == contentLength ? -1 : contentLength.longValue(),
+                            downloadConfig.getFlushInterval(),
+                            downloadConfig.getProgressListener());
+            outputStream = progressOutputStream;
+        }
+
+        //sendfile 由容器输出, 无法限速, 无法统计进度, 也无法计算摘要
+        boolean sendfileAllowed = !downloadThrottle.isLimited() && null == progressOutputStream && null == digestOutputStream;
+        writeBody(downloadResource, partialContent, downloadConfig, largeFile, sendfileAllowed, outputStream, downloadLog, request);
+
+        if (null != progressOutputStream){
+            progressOutputStream.complete();
+        }
+        if (null != digestOutputStream){
+            String digest = DownloadDigestCache.put(
+                            downloadResource.getFile(),
+                            downloadResource.getContentLength().longValue(),
+                            downloadResource.getLastModified(),
+                            digestAlgorithm,
+                            digestOutputStream.getMessageDigest().digest());
+            LOGGER.debug("[{}] {} digest:[{}]", downloadResource.getFile(), digestAlgorithm.getName(), digest);
+        }
+    }
+
+    /**
+     * 输出响应体到 <code>outputStream</code>.
+     *
+     * @param downloadResource
+     *            the download resource
+     * @param partialContent
+     *            需要输出的区间,如果是 null 表示输出完整内容
+     * @param downloadConfig
+     *            the download config
+     * @param largeFile
+     *            是否是大文件模式
+     * @param sendfileAllowed
+     *            是否可以交给容器 sendfile
+     * @param outputStream
+     *            包装之后的输出流
+     * @param downloadLog
+     *            the download log,sendfile 时累加字节数
+     * @param request
+     *            the request
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @since 2.1.0
+     */
+    private static void writeBody(
+                    DownloadResource downloadResource,
+                    PartialContent partialContent,
+                    DownloadConfig downloadConfig,
+                    boolean largeFile,
+                    boolean sendfileAllowed,
+                    OutputStream outputStream,
+                    DownloadLog downloadLog,
+                    HttpServletRequest request) throws IOException{
+        ByteBuffer content = downloadResource.getContent();
+        if (null != content){
+            //命中缓存或者内存映射, 直接从内存输出
+            if (null == partialContent){
+                DownloadIOUtil.write(content.duplicate(), outputStream);
+                outputStream.flush();
             }else{
-                LOGGER.error("[download exception],exception name: " + exceptionName, e);
-                throw new UncheckedIOException(e);
+                partialContent.write(content, outputStream);
+            }
+            return;
+        }
+
+        File file = downloadResource.getFile();
+        if (null != file && sendfileAllowed && downloadConfig.getZeroCopy()){
+            long entityLength = downloadResource.getContentLength().longValue();
+
+            //sendfile 只能发送一个连续区间
+            ByteRange byteRange = null == partialContent ? new ByteRange(0, entityLength - 1) : partialContent.getByteRange();
+            if (null != byteRange && byteRange.getLength() > 0
+                            && ZeroCopyUtil.sendfile(file, byteRange.getStart(), byteRange.getEnd() + 1, request)){
+                LOGGER.debug("[{}] range:[{}] will be sent by container sendfile", file, byteRange);
+                downloadLog.addBytes(byteRange.getLength());
+                return;
             }
+            //容器不支持 sendfile, 使用下面的流复制
+        }
+
+        //---------------------------------------------------------------
+        InputStream inputStream = downloadResource.getInputStream(downloadConfig.getReadAhead());
+        if (null == partialContent){
+            DownloadIOUtil.copy(inputStream, outputStream, largeFile);
+            outputStream.flush();
+        }else{
+            partialContent.write(inputStream, outputStream);
         }
     }
 
+    /**
+     * 是否使用大文件模式.
+     *
+     * @param contentLength
+     *            本次输出的长度
+     * @param downloadConfig
+     *            the download config
+     * @return 如果设置了 {@link DownloadConfig#getLargeFile()},或者长度超过 {@link Integer#MAX_VALUE},返回 true
+     * @since 2.1.0
+     */
+    private static boolean isLargeFile(Number contentLength,DownloadConfig downloadConfig){
+        return downloadConfig.getLargeFile() || (null != contentLength && contentLength.longValue() > Integer.MAX_VALUE);
+    }
+
     //---------------------------------------------------------------
 
     /**
@@ -235,7 +1470,7 @@ public final class ResponseDownloadUtil{
      * @param contentLength
      *            the content length
      * @param contentType
-     *            如果传递了改参数,使用传递的值;如果没有传递,即为 <code>null</code>,那么使用默认的值,参见 {@link #resolverContentType(String, String)}
+     *            如果传递了改参数,使用传递的值;如果没有传递,即为 <code>null</code>,那么使用默认的值,参见 {@link #resolverContentType(String, String, ServletContext)}
      * @param contentDisposition
      *            如果传递了改参数,使用传递的值;如果没有传递,即为 <code>null</code>,那么使用默认的值,参见 {@link #resolverContentDisposition(String, String)}
      * @param response
@@ -259,10 +1494,10 @@ public final class ResponseDownloadUtil{
 
         // ===================== Default MIME Type Mappings =================== -->
         //浏览器接收到文件后,会进入插件系统进行查找,查找出哪种插件可以识别读取接收到的文件.如果浏览器不清楚调用哪种插件系统,它可能会告诉用户缺少某插件,
-        response.setContentType(resolverContentType(saveFileName, contentType));
+        response.setContentType(resolverContentType(saveFileName, contentType, null));
 
         if (isNotNullOrEmpty(contentLength)){
-            response.setContentLength(contentLength.intValue());
+            setContentLength(contentLength.longValue(), response);
         }
 
         //************************about buffer***********************************************************
@@ -280,6 +1515,34 @@ public final class ResponseDownloadUtil{
         //This method buffers the input internally, so there is no need to use a BufferedInputStream
     }
 
+    /**
+     * 设置 <code>Content-Length</code>.
+     * 
+     * <p>
+     * {@link HttpServletResponse#setContentLength(int)} 超过 {@link Integer#MAX_VALUE} 会被截断,所以超过 2GB 时使用 Servlet 3.1
+     * {@link HttpServletResponse#setContentLengthLong(long)};<br>
+     * 如果容器不支持 Servlet 3.1,直接设置 <code>Content-Length</code> header.
+     * </p>
+     *
+     * @param contentLength
+     *            the content length
+     * @param response
+     *            the response
+     * @since 2.1.0
+     */
+    private static void setContentLength(long contentLength,HttpServletResponse response){
+        if (contentLength <= Integer.MAX_VALUE){
+            response.setContentLength((int) contentLength);
+            return;
+        }
+        try{
+            response.setContentLengthLong(contentLength);
+        }catch (AbstractMethodError | NoSuchMethodError e){
+            //Servlet 3.0 容器
+            response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength));
+        }
+    }
+
     /**
      * Resolver content disposition.
      * 
@@ -312,10 +1575,12 @@ public final class ResponseDownloadUtil{
      *            the save file name
      * @param inputContentType
      *            the content type
+     * @param servletContext
+     *            the servlet context,用来合并容器的 mime-mapping,可以是 null
      * @return the string
      * @since 1.4.0
      */
-    private static String resolverContentType(String saveFileName,String inputContentType){
+    private static String resolverContentType(String saveFileName,String inputContentType,ServletContext servletContext){
         //See tomcat web.xml
         //When serving static resources, Tomcat will automatically generate a "Content-Type" header based on the resource's filename extension, based on these mappings.  
         //Additional mappings can be added here (to apply to all web applications), or in your own application's web.xml deployment descriptor.                                               -->
@@ -323,7 +1588,11 @@ public final class ResponseDownloadUtil{
         if (isNotNullOrEmpty(inputContentType)){
             return inputContentType;
         }
-        String contentTypeByFileName = MimeTypeUtil.getContentTypeByFileName(saveFileName);
+        //先查预先计算好的对照表,没有的再使用 MimeTypeUtil
+        String contentTypeByFileName = MimeTypeTable.getContentType(servletContext, saveFileName);
+        if (null == contentTypeByFileName){
+            contentTypeByFileName = MimeTypeUtil.getContentTypeByFileName(saveFileName);
+        }
 
         //contentType = "application/force-download";//,php强制下载application/force-download,将发送HTTP 标头您的浏览器并告诉它下载,而不是在浏览器中运行的文件
         //application/x-download
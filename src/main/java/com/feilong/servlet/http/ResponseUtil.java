@@ -22,10 +22,13 @@ import static com.feilong.core.util.MapUtil.newLinkedHashMap;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.util.Collection;
 import java.util.Map;
 
 import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -371,6 +374,71 @@ public final class ResponseUtil{
         write(response, json, contentType, characterEncoding);
     }
 
+    /**
+     * 以json的方式流式输出 java 对象(UTF-8).
+     * 
+     * <p>
+     * 和 {@link #writeJson(HttpServletResponse, Object)} 需要调用方先生成完整的 json 字符串不同,该方法边遍历 <code>value</code> 边序列化,
+     * 直接编码成 UTF-8 写到一个池化的缓冲区,缓冲区满了就写到 {@link ServletResponse#getOutputStream()};<br>
+     * 所以不会出现完整的 json 字符串, char 缓冲区以及编码之后的 byte 数组,比如 20MB 的列表,额外的内存只有一个缓冲区.
+     * </p>
+     * 
+     * <p>
+     * 支持 JavaBean, {@link Map}, {@link Iterable}, {@link java.util.Iterator}, 数组以及基本类型,类型对应参见 {@link JsonStreamWriter};<br>
+     * 由于使用 {@link ServletResponse#getOutputStream()},调用之前不能调用过 {@link ServletResponse#getWriter()}.
+     * </p>
+     * 
+     * <h3>和 feilong-json 的差异:</h3>
+     * 
+     * <blockquote>
+     * <p>
+     * 该方法不使用 feilong-json ({@code JsonUtil}),输出<span style="color:red">不保证</span>和 {@link #writeJson(HttpServletResponse, Object)}
+     * 配合 {@code JsonUtil.format(value)} 的结果一致,从 {@code JsonUtil} 切换过来之前需要确认调用方能接受:
+     * </p>
+     * <ol>
+     * <li>{@link java.util.Date} (包括 {@link java.sql.Timestamp}) 输出毫秒数,不使用日期格式;</li>
+     * <li>JavaBean 的属性是 {@link java.beans.Introspector} 找到的 getter,按照属性名排序,不是字段声明的顺序;</li>
+     * <li>没有特别处理的其他 <code>java.*</code> 类型(比如 {@link java.util.Locale}, {@link java.util.Calendar})输出 {@link Object#toString()} 的字符串;</li>
+     * <li>不支持 {@code JsonConfig}: 没有 includes/excludes, 属性名转换, 值处理器以及日期格式设置, 值是 null 的属性也会输出.</li>
+     * </ol>
+     * </blockquote>
+     * 
+     * <h3>示例:</h3>
+     * 
+     * <blockquote>
+     * 
+     * <pre class="code">
+     * List{@code <OrderVO>} orderList = orderService.findList(query);
+     * ResponseUtil.writeJsonStreaming(response, orderList);
+     * </pre>
+     * 
+     * </blockquote>
+     *
+     * @param response
+     *            HttpServletResponse
+     * @param value
+     *            需要序列化的对象
+     * @throws IllegalArgumentException
+     *             如果 <code>value</code> 中有循环引用
+     * @see JsonStreamWriter
+     * @see com.feilong.io.entity.MimeType#JSON
+     * @since 2.1.0
+     */
+    public static void writeJsonStreaming(HttpServletResponse response,Object value){
+        response.setContentType(MimeType.JSON.getMime() + ";charset=" + UTF8);
+        response.setCharacterEncoding(UTF8);
+
+        try{
+            ServletOutputStream outputStream = response.getOutputStream();
+            long count = JsonStreamWriter.write(value, outputStream);
+            outputStream.flush();
+
+            LOGGER.debug("write json streaming,bytes:[{}]", count);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
     //---------------------------------------------------------------
 
     /**
@@ -435,6 +503,293 @@ public final class ResponseUtil{
 
     // [end]
 
+    //   [start] OutputStream
+
+    /**
+     * 以字节的方式输出,设置精确的 <code>Content-Length</code>,一次写到 {@link ServletResponse#getOutputStream()}.
+     *
+     * <p>
+     * 和 {@link #write(HttpServletResponse, Object, String, String)} 使用 {@link ServletResponse#getWriter()} 并且没有长度不同,
+     * 容器知道响应的长度,不需要使用 chunked 编码;小的 API 响应, header 以及 body 可以在一个 TCP 报文中发出.
+     * </p>
+     *
+     * <p>
+     * 由于使用 {@link ServletResponse#getOutputStream()},调用之前不能调用过 {@link ServletResponse#getWriter()}.
+     * </p>
+     *
+     * @param response
+     *            HttpServletResponse
+     * @param bytes
+     *            响应内容<br>
+     *            如果 <code>bytes</code> 是null,抛出 {@link NullPointerException}<br>
+     * @param contentType
+     *            内容类型, 可以为null或者empty; <br>
+     *            如果不为null或者empty,将会设置 {@link ServletResponse#setContentType(String)}
+     * @see javax.servlet.ServletResponse#setContentLength(int)
+     * @since 2.1.0
+     */
+    public static void write(HttpServletResponse response,byte[] bytes,String contentType){
+        Validate.notNull(bytes, "bytes can't be null!");
+        write(response, ByteBuffer.wrap(bytes), contentType);
+    }
+
+    /**
+     * 以字节的方式输出 <code>byteBuffer</code> 剩余的内容({@link ByteBuffer#remaining()}),设置精确的 <code>Content-Length</code>.
+     *
+     * <p>
+     * 不会改变 <code>byteBuffer</code> 的 position;堆内的 buffer 直接写底层数组,direct buffer 通过池化的缓冲区复制.
+     * </p>
+     *
+     * @param response
+     *            HttpServletResponse
+     * @param byteBuffer
+     *            响应内容<br>
+     *            如果 <code>byteBuffer</code> 是null,抛出 {@link NullPointerException}<br>
+     * @param contentType
+     *            内容类型, 可以为null或者empty; <br>
+     *            如果不为null或者empty,将会设置 {@link ServletResponse#setContentType(String)}
+     * @see #write(HttpServletResponse, byte[], String)
+     * @since 2.1.0
+     */
+    public static void write(HttpServletResponse response,ByteBuffer byteBuffer,String contentType){
+        Validate.notNull(byteBuffer, "byteBuffer can't be null!");
+
+        if (isNotNullOrEmpty(contentType)){
+            response.setContentType(contentType);
+        }
+        int length = byteBuffer.remaining();
+        response.setContentLength(length);
+
+        //---------------------------------------------------------------
+        try{
+            ServletOutputStream outputStream = response.getOutputStream();
+            if (byteBuffer.hasArray()){
+                outputStream.write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), length);
+            }else{
+                DownloadIOUtil.write(byteBuffer.duplicate(), outputStream);
+            }
+            outputStream.flush();
+
+            LOGGER.debug("write bytes:[{}]", length);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 把文本编码之后以字节的方式输出,设置精确的 <code>Content-Length</code>.
+     *
+     * <p>
+     * 使用 {@link java.nio.charset.CharsetEncoder} 直接编码到 {@link BufferPool} 的缓冲区(参见 {@link TextEncoder}),写出之后归还,
+     * 然后和 {@link #write(HttpServletResponse, byte[], String)} 一样一次写出;<br>
+     * 由于使用 {@link ServletResponse#getOutputStream()},调用之前不能调用过 {@link ServletResponse#getWriter()}.
+     * </p>
+     *
+     * <h3>示例:</h3>
+     *
+     * <blockquote>
+     *
+     * <pre class="code">
+     * ResponseUtil.writeEncoded(response, json, MimeType.JSON.getMime() + ";charset=UTF-8", UTF8);
+     * </pre>
+     *
+     * </blockquote>
+     *
+     * @param response
+     *            HttpServletResponse
+     * @param text
+     *            响应内容<br>
+     *            如果 <code>text</code> 是null,抛出 {@link NullPointerException}<br>
+     * @param contentType
+     *            内容类型, 可以为null或者empty; <br>
+     *            如果不为null或者empty,将会设置 {@link ServletResponse#setContentType(String)}
+     * @param characterEncoding
+     *            字符编码,建议使用 {@link CharsetType} 定义好的常量;<br>
+     *            如果 <code>characterEncoding</code> 是null,抛出 {@link NullPointerException}<br>
+     *            如果 <code>characterEncoding</code> 是blank,抛出 {@link IllegalArgumentException}<br>
+     * @see TextEncoder
+     * @since 2.1.0
+     */
+    public static void writeEncoded(HttpServletResponse response,CharSequence text,String contentType,String characterEncoding){
+        Validate.notNull(text, "text can't be null!");
+        Validate.notBlank(characterEncoding, "characterEncoding can't be blank!");
+
+        response.setCharacterEncoding(characterEncoding);
+        ByteBuffer byteBuffer = encode(text, characterEncoding);
+        try{
+            write(response, byteBuffer, contentType);
+        }finally{
+            TextEncoder.release(byteBuffer);
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 以text的方式输出,支持条件请求(UTF-8).
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            HttpServletResponse
+     * @param text
+     *            text字符串
+     * @see #writeText(HttpServletRequest, HttpServletResponse, Object, String)
+     * @since 2.1.0
+     */
+    public static void writeText(HttpServletRequest request,HttpServletResponse response,Object text){
+        writeText(request, response, text, UTF8);
+    }
+
+    /**
+     * 以text的方式输出,支持条件请求.
+     *
+     * <p>
+     * 编码之后使用 {@link XxHash64} 计算内容的强 <code>ETag</code>;如果 <code>request</code> 的 <code>If-None-Match</code> 匹配,
+     * 返回 304,不输出内容,否则和 {@link #writeEncoded(HttpServletResponse, CharSequence, String, String)} 一样带上
+     * <code>Content-Length</code> 输出.
+     * </p>
+     *
+     * <p>
+     * 服务端仍然需要生成内容,但是节省了带宽以及客户端的解析;适合被客户端频繁轮询,内容又很少变化的接口.
+     * </p>
+     *
+     * @param request
+     *            the request<br>
+     *            如果 <code>request</code> 是null,抛出 {@link NullPointerException}<br>
+     * @param response
+     *            HttpServletResponse
+     * @param text
+     *            text字符串,null 输出 "null",和 {@link PrintWriter#print(Object)} 一致
+     * @param characterEncoding
+     *            编码<br>
+     *            如果 <code>characterEncoding</code> 是null,抛出 {@link NullPointerException}<br>
+     *            如果 <code>characterEncoding</code> 是blank,抛出 {@link IllegalArgumentException}<br>
+     * @see com.feilong.io.entity.MimeType#TXT
+     * @since 2.1.0
+     */
+    public static void writeText(HttpServletRequest request,HttpServletResponse response,Object text,String characterEncoding){
+        Validate.notBlank(characterEncoding, "characterEncoding can't be blank!");
+
+        String contentType = MimeType.TXT.getMime() + ";charset=" + characterEncoding;
+        writeConditional(request, response, text, contentType, characterEncoding);
+    }
+
+    /**
+     * 以json的方式输出,支持条件请求(UTF-8).
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            HttpServletResponse
+     * @param json
+     *            json字符串
+     * @see #writeJson(HttpServletRequest, HttpServletResponse, Object, String)
+     * @since 2.1.0
+     */
+    public static void writeJson(HttpServletRequest request,HttpServletResponse response,Object json){
+        writeJson(request, response, json, UTF8);
+    }
+
+    /**
+     * 以json的方式输出,支持条件请求.
+     *
+     * <p>
+     * 编码之后使用 {@link XxHash64} 计算内容的强 <code>ETag</code>;如果 <code>request</code> 的 <code>If-None-Match</code> 匹配,
+     * 返回 304,不输出内容,否则带上 <code>Content-Length</code> 输出.
+     * </p>
+     *
+     * <h3>示例:</h3>
+     *
+     * <blockquote>
+     *
+     * <pre class="code">
+     * ResponseUtil.writeJson(request, response, JsonUtil.format(orderStatus));
+     * </pre>
+     *
+     * </blockquote>
+     *
+     * @param request
+     *            the request<br>
+     *            如果 <code>request</code> 是null,抛出 {@link NullPointerException}<br>
+     * @param response
+     *            HttpServletResponse
+     * @param json
+     *            json字符串
+     * @param characterEncoding
+     *            编码<br>
+     *            如果 <code>characterEncoding</code> 是null,抛出 {@link NullPointerException}<br>
+     *            如果 <code>characterEncoding</code> 是blank,抛出 {@link IllegalArgumentException}<br>
+     * @see com.feilong.io.entity.MimeType#JSON
+     * @since 2.1.0
+     */
+    public static void writeJson(HttpServletRequest request,HttpServletResponse response,Object json,String characterEncoding){
+        Validate.notBlank(characterEncoding, "characterEncoding can't be blank!");
+
+        String contentType = MimeType.JSON.getMime() + ";charset=" + characterEncoding;
+        writeConditional(request, response, json, contentType, characterEncoding);
+    }
+
+    /**
+     * 编码,设置 <code>ETag</code>,未修改时返回 304,否则输出.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @param content
+     *            the content
+     * @param contentType
+     *            the content type
+     * @param characterEncoding
+     *            the character encoding
+     * @since 2.1.0
+     */
+    private static void writeConditional(
+                    HttpServletRequest request,
+                    HttpServletResponse response,
+                    Object content,
+                    String contentType,
+                    String characterEncoding){
+        Validate.notNull(request, "request can't be null!");
+
+        ByteBuffer byteBuffer = encode(String.valueOf(content), characterEncoding);
+        try{
+            String eTag = ConditionalRequestUtil.toStrongETag(byteBuffer);
+            response.setHeader(HttpHeaders.ETAG, eTag);
+            if (ConditionalRequestUtil.isNotModified(eTag, 0, request)){
+                LOGGER.debug("not modified,eTag:[{}]", eTag);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            response.setCharacterEncoding(characterEncoding);
+            write(response, byteBuffer, contentType);
+        }finally{
+            TextEncoder.release(byteBuffer);
+        }
+    }
+
+    /**
+     * 使用 {@link TextEncoder} 编码,用完之后需要 {@link TextEncoder#release(ByteBuffer)}.
+     *
+     * @param text
+     *            the text
+     * @param characterEncoding
+     *            the character encoding
+     * @return the byte buffer
+     * @since 2.1.0
+     */
+    private static ByteBuffer encode(CharSequence text,String characterEncoding){
+        try{
+            return TextEncoder.encode(text, characterEncoding);
+        }catch (CharacterCodingException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // [end]
+
     //---------------------------------------------------------------
 
     /**
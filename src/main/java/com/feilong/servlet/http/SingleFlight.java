@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 相同 key 的并发下载只生成一次数据(single-flight).
+ * 
+ * <p>
+ * 第一个请求(leader)调用 {@link InputStreamSupplier} 生成数据,每读到一段,先追加到共享缓冲区,再写到自己的响应;<br>
+ * 生成过程中到达的相同 key 的请求(follower)不再生成,而是从共享缓冲区边写边读;<br>
+ * 共享缓冲区前 {@link #MEMORY_THRESHOLD} 个字节在内存中,超过的部分写到临时文件,最后一个参与者结束之后删除.
+ * </p>
+ * 
+ * <p>
+ * 生成结束(完成或者失败)之后 key 立即移除,之后的请求会重新生成;<br>
+ * leader 的客户端中断时,如果还有 follower,继续生成直到结束;否则立即停止.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class SingleFlight{
+
+    /** The Constant LOGGER. */
+    private static final Logger                        LOGGER           = LoggerFactory.getLogger(SingleFlight.class);
+
+    /** 共享缓冲区在内存中的最大字节数 <code>{@value}</code>,即 1MB. */
+    static final int                                   MEMORY_THRESHOLD = 1024 * 1024;
+
+    /** 正在生成的数据. */
+    private static final ConcurrentMap<String, Flight> FLIGHTS          = new ConcurrentHashMap<>();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private SingleFlight(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 输出 <code>key</code> 对应的数据,如果已经有相同 key 的请求正在生成,直接共享它的数据.
+     *
+     * @param key
+     *            the key
+     * @param inputStreamSupplier
+     *            生成数据,只有 leader 会调用
+     * @param outputStream
+     *            the output stream
+     * @return 如果是本次调用生成的数据,返回 true
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static boolean write(String key,InputStreamSupplier inputStreamSupplier,OutputStream outputStream) throws IOException{
+        Flight flight;
+        boolean leader;
+        while (true){
+            flight = FLIGHTS.get(key);
+            if (null == flight){
+                Flight created = new Flight();
+                if (null == FLIGHTS.putIfAbsent(key, created)){
+                    flight = created;
+                    leader = true;
+                    break;
+                }
+            }else if (flight.retain()){
+                leader = false;
+                break;
+            }else{
+                FLIGHTS.remove(key, flight);
+            }
+        }
+
+        //---------------------------------------------------------------
+        LOGGER.debug("single flight key:[{}],leader:[{}]", key, leader);
+        try{
+            if (leader){
+                produce(key, flight, inputStreamSupplier, outputStream);
+            }else{
+                flight.copyTo(outputStream);
+            }
+            outputStream.flush();
+            return leader;
+        }finally{
+            flight.release();
+        }
+    }
+
+    /**
+     * 获得 key 当前的参与者数量(包括 leader).
+     *
+     * @param key
+     *            the key
+     * @return 如果没有正在生成,返回 0
+     */
+    static int getParticipantCount(String key){
+        Flight flight = FLIGHTS.get(key);
+        return null == flight ? 0 : flight.getReferences();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * leader 生成数据,追加到共享缓冲区,并写到自己的响应.
+     *
+     * @param key
+     *            the key
+     * @param flight
+     *            the flight
+     * @param inputStreamSupplier
+     *            the input stream supplier
+     * @param outputStream
+     *            the output stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static void produce(String key,Flight flight,InputStreamSupplier inputStreamSupplier,OutputStream outputStream)
+                    throws IOException{
+        IOException clientException = null;
+        byte[] buffer = BufferPool.acquire();
+        try (InputStream inputStream = inputStreamSupplier.get()){
+            int count;
+            while (-1 != (count = inputStream.read(buffer))){
+                flight.append(buffer, 0, count);
+                if (null != clientException){
+                    continue;
+                }
+                try{
+                    outputStream.write(buffer, 0, count);
+                }catch (IOException e){
+                    //没有 follower 了, 不需要再生成
+                    if (flight.getReferences() <= 1){
+                        throw e;
+                    }
+                    LOGGER.debug("single flight key:[{}] leader client aborted,continue for followers", key);
+                    clientException = e;
+                }
+            }
+            FLIGHTS.remove(key, flight);
+            flight.complete();
+        }finally{
+            BufferPool.release(buffer);
+            //异常
+            if (FLIGHTS.remove(key, flight)){
+                flight.fail();
+            }
+        }
+        if (null != clientException){
+            throw clientException;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 一次生成的共享缓冲区.
+     */
+    private static final class Flight{
+
+        /** 内存部分的初始大小. */
+        private static final int INITIAL_MEMORY_SIZE = 64 * 1024;
+
+        /** 内存部分, 需要在 this 锁内访问. */
+        private byte[]           memory              = new byte[INITIAL_MEMORY_SIZE];
+
+        /** 已经写入的总字节数, 需要在 this 锁内访问. */
+        private long             size;
+
+        /** 是否生成完成. */
+        private boolean          completed;
+
+        /** 是否生成失败. */
+        private boolean          failed;
+
+        /** 参与者数量, 0 表示已经释放. */
+        private int              references          = 1;
+
+        /** 临时文件,超过 {@link SingleFlight#MEMORY_THRESHOLD} 才创建. */
+        private File             spillFile;
+
+        /** 临时文件. */
+        private RandomAccessFile spillRandomAccessFile;
+
+        /** 临时文件的 channel, 只有 leader 写,follower 按照位置读. */
+        private FileChannel      spillChannel;
+
+        //---------------------------------------------------------------
+
+        /**
+         * follower 加入.
+         *
+         * @return 如果已经释放,返回 false
+         */
+        private synchronized boolean retain(){
+            if (0 == references){
+                return false;
+            }
+            ++references;
+            return true;
+        }
+
+        /**
+         * 参与者结束,最后一个参与者删除临时文件.
+         */
+        private void release(){
+            synchronized (this){
+                if (--references > 0){
+                    return;
+                }
+            }
+            if (null != spillFile){
+                DownloadIOUtil.closeQuietly(spillRandomAccessFile);
+                if (!spillFile.delete()){
+                    LOGGER.warn("can't delete single flight spill file:[{}]", spillFile);
+                }
+            }
+        }
+
+        /**
+         * Gets the references.
+         *
+         * @return the references
+         */
+        private synchronized int getReferences(){
+            return references;
+        }
+
+        /**
+         * 生成完成.
+         */
+        private synchronized void complete(){
+            completed = true;
+            notifyAll();
+        }
+
+        /**
+         * 生成失败.
+         */
+        private synchronized void fail(){
+            failed = true;
+            notifyAll();
+        }
+
+        //---------------------------------------------------------------
+
+        /**
+         * leader 追加数据.
+         *
+         * @param bytes
+         *            the bytes
+         * @param offset
+         *            the offset
+         * @param length
+         *            the length
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        private void append(byte[] bytes,int offset,int length) throws IOException{
+            long position;
+            int memoryCount;
+            synchronized (this){
+                position = size;
+                memoryCount = (int) Math.max(0, Math.min(length, MEMORY_THRESHOLD - position));
+                if (memoryCount > 0){
+                    ensureMemoryCapacity((int) position + memoryCount);
+                    System.arraycopy(bytes, offset, memory, (int) position, memoryCount);
+                }
+            }
+
+            //超过内存部分的写到临时文件, 只有 leader 写, 不需要加锁
+            int fileCount = length - memoryCount;
+            if (fileCount > 0){
+                if (null == spillChannel){
+                    spillFile = File.createTempFile("feilong-single-flight", ".tmp");
+                    spillRandomAccessFile = new RandomAccessFile(spillFile, "rw");
+                    spillChannel = spillRandomAccessFile.getChannel();
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, offset + memoryCount, fileCount);
+                long filePosition = position + memoryCount - MEMORY_THRESHOLD;
+                while (byteBuffer.hasRemaining()){
+                    filePosition += spillChannel.write(byteBuffer, filePosition);
+                }
+            }
+
+            synchronized (this){
+                size = position + length;
+                notifyAll();
+            }
+        }
+
+        /**
+         * 内存部分扩容,需要在 this 锁内调用.
+         *
+         * @param minCapacity
+         *            the min capacity
+         */
+        private void ensureMemoryCapacity(int minCapacity){
+            if (minCapacity <= memory.length){
+                return;
+            }
+            int newCapacity = Math.min(MEMORY_THRESHOLD, Math.max(minCapacity, memory.length * 2));
+            byte[] newMemory = new byte[newCapacity];
+            System.arraycopy(memory, 0, newMemory, 0, memory.length);
+            memory = newMemory;
+        }
+
+        /**
+         * follower 从共享缓冲区边写边读.
+         *
+         * @param outputStream
+         *            the output stream
+         * @throws IOException
+         *             如果 leader 生成失败,或者输出失败
+         */
+        private void copyTo(OutputStream outputStream) throws IOException{
+            byte[] buffer = BufferPool.acquire();
+            try{
+                copyTo(outputStream, buffer);
+            }finally{
+                BufferPool.release(buffer);
+            }
+        }
+
+        /**
+         * follower 从共享缓冲区边写边读.
+         *
+         * @param outputStream
+         *            the output stream
+         * @param buffer
+         *            复制缓冲区
+         * @throws IOException
+         *             如果 leader 生成失败,或者输出失败
+         */
+        private void copyTo(OutputStream outputStream,byte[] buffer) throws IOException{
+            long position = 0;
+            while (true){
+                int count;
+                FileChannel channel;
+                synchronized (this){
+                    while (position >= size && !completed && !failed){
+                        try{
+                            wait();
+                        }catch (InterruptedException e){
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("interrupted while waiting single flight data");
+                        }
+                    }
+                    if (failed){
+                        throw new IOException("single flight leader failed to generate data");
+                    }
+                    if (position >= size){
+                        return;
+                    }
+                    count = (int) Math.min(buffer.length, size - position);
+                    if (position < MEMORY_THRESHOLD){
+                        count = (int) Math.min(count, MEMORY_THRESHOLD - position);
+                        System.arraycopy(memory, (int) position, buffer, 0, count);
+                        channel = null;
+                    }else{
+                        channel = spillChannel;
+                    }
+                }
+
+                if (null != channel){
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, count);
+                    long filePosition = position - MEMORY_THRESHOLD;
+                    while (byteBuffer.hasRemaining()){
+                        int read = channel.read(byteBuffer, filePosition);
+                        if (read < 0){
+                            throw new IOException("single flight spill file is shorter than expected");
+                        }
+                        filePosition += read;
+                    }
+                }
+                outputStream.write(buffer, 0, count);
+                position += count;
+            }
+        }
+    }
+}
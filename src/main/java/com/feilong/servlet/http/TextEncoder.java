@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 把文本编码到 {@link BufferPool} 的缓冲区.
+ *
+ * <p>
+ * {@link String#getBytes(String)} 每次都会查找 {@link Charset},新建 encoder 以及一个按最大长度估算的 byte 数组,然后再复制一次;<br>
+ * 这里缓存按照字符集名称查找到的 {@link Charset},编码到从 {@link BufferPool} 借来的缓冲区,输出之后通过 {@link #release(ByteBuffer)} 归还,
+ * 常见的小 API 响应只会新建一个 encoder.
+ * </p>
+ *
+ * <p>
+ * 不使用 {@link ThreadLocal}: 容器线程池里的线程比 webapp 活得长,线程本地的 encoder 以及数组会在 redeploy 之后一直持有 webapp 的 classloader.
+ * </p>
+ *
+ * <p>
+ * 不能映射以及不合法的字符替换成字符集的替换字节(比如 <code>?</code>),和 {@link java.io.PrintWriter} 的行为一致.<br>
+ * 超过 {@link BufferPool#getLargeBufferSize()} 的结果使用临时数组,不会进入缓冲区池.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see ResponseUtil#writeEncoded(javax.servlet.http.HttpServletResponse, CharSequence, String, String)
+ * @since 2.1.0
+ */
+final class TextEncoder{
+
+    /** 按照字符集名称缓存的 {@link Charset}. */
+    private static final ConcurrentMap<String, Charset> CHARSET_MAP = new ConcurrentHashMap<>();
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private TextEncoder(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 编码.
+     *
+     * @param text
+     *            the text
+     * @param charsetName
+     *            字符集名称
+     * @return position 是 0, limit 是编码之后的长度;<br>
+     *         <span style="color:red">可能是 {@link BufferPool} 的缓冲区,使用完之后需要 {@link #release(ByteBuffer)},之后不能再使用</span>
+     * @throws CharacterCodingException
+     *             不会发生,不能编码的字符已经替换
+     * @throws java.nio.charset.UnsupportedCharsetException
+     *             如果不支持 <code>charsetName</code>
+     */
+    static ByteBuffer encode(CharSequence text,String charsetName) throws CharacterCodingException{
+        CharsetEncoder encoder = newEncoder(charsetName);
+
+        CharBuffer in = CharBuffer.wrap(text);
+        long estimate = (long) Math.ceil(text.length() * (double) encoder.averageBytesPerChar());
+        ByteBuffer out = ByteBuffer.wrap(acquire((int) Math.min(Integer.MAX_VALUE - 8, estimate)));
+
+        boolean flushing = false;
+        for (;;){
+            CoderResult coderResult = flushing ? encoder.flush(out) : encoder.encode(in, out, true);
+            if (coderResult.isUnderflow()){
+                if (flushing){
+                    break;
+                }
+                flushing = true;
+            }else if (coderResult.isOverflow()){
+                out = grow(out);
+            }else{
+                release(out);
+                coderResult.throwException();
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * 归还 {@link #encode(CharSequence, String)} 的结果使用的缓冲区.
+     *
+     * @param byteBuffer
+     *            the byte buffer,如果是 null,什么都不做
+     */
+    static void release(ByteBuffer byteBuffer){
+        if (null == byteBuffer){
+            return;
+        }
+        byte[] bytes = byteBuffer.array();
+        //临时数组不归还
+        if (bytes.length == BufferPool.getBufferSize() || bytes.length == BufferPool.getLargeBufferSize()){
+            BufferPool.release(bytes);
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 新建 encoder,{@link CharsetEncoder} 不是线程安全的,每次编码使用一个新的.
+     *
+     * @param charsetName
+     *            the charset name
+     * @return the charset encoder
+     */
+    private static CharsetEncoder newEncoder(String charsetName){
+        Charset charset = CHARSET_MAP.get(charsetName);
+        if (null == charset){
+            charset = Charset.forName(charsetName);
+            CHARSET_MAP.putIfAbsent(charsetName, charset);
+        }
+        return charset.newEncoder()//
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 获得至少 <code>size</code> 大小的数组.
+     *
+     * @param size
+     *            the size
+     * @return 不超过 {@link BufferPool#getLargeBufferSize()} 时是缓冲区池中的数组,否则是临时数组
+     */
+    private static byte[] acquire(int size){
+        if (size > BufferPool.getLargeBufferSize()){
+            return new byte[size];
+        }
+        byte[] bytes = BufferPool.acquire(size > BufferPool.getBufferSize());
+        //缓冲区大小可能刚好被调整
+        return bytes.length >= size ? bytes : new byte[size];
+    }
+
+    /**
+     * 扩容,保留已经写入的数据,并归还原来的缓冲区.
+     *
+     * @param out
+     *            the out
+     * @return the byte buffer
+     */
+    private static ByteBuffer grow(ByteBuffer out){
+        int capacity = out.capacity();
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16L, capacity * 2L));
+        if (newCapacity <= capacity){
+            throw new OutOfMemoryError("encoded text is too large");
+        }
+        ByteBuffer newOut = ByteBuffer.wrap(acquire(newCapacity));
+        out.flip();
+        newOut.put(out);
+        release(out);
+        return newOut;
+    }
+}
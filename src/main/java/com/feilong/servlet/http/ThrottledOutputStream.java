@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 写数据之前先经过 {@link DownloadThrottle} 的输出流.
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class ThrottledOutputStream extends FilterOutputStream{
+
+    /** The download throttle. */
+    private final DownloadThrottle downloadThrottle;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     *
+     * @param outputStream
+     *            the output stream
+     * @param downloadThrottle
+     *            the download throttle
+     */
+    ThrottledOutputStream(OutputStream outputStream, DownloadThrottle downloadThrottle){
+        super(outputStream);
+        this.downloadThrottle = downloadThrottle;
+    }
+
+    //---------------------------------------------------------------
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException{
+        downloadThrottle.acquire(1);
+        out.write(b);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b,int off,int len) throws IOException{
+        downloadThrottle.acquire(len);
+        out.write(b, off, len);
+    }
+}
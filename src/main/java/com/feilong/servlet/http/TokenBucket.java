@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的令牌桶,单位是字节.
+ *
+ * <p>
+ * 不维护"剩余令牌数"以及后台补充线程,而是只维护一个"桶被取空的时间点"(虚拟时间, 纳秒),每次获取令牌通过一次 CAS 把它向后推进
+ * <code>bytes / rate</code>;<br>
+ * 桶的容量是 {@link #BURST_NANOS} 时间内可以产生的令牌,所以空闲之后允许一次小的突发.<br>
+ * 大量线程并发获取时只竞争一个 {@link AtomicLong},没有锁,也没有补充令牌的开销;CAS 成功之后每个线程各自 sleep 到自己的时间点.
+ * </p>
+ *
+ * <p>
+ * 速率在每次获取的时候传入,所以可以在运行时随时调整,正在进行的下载立即生效.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class TokenBucket{
+
+    /** 桶容量对应的时间 <code>{@value}</code> 纳秒,即 200 毫秒. */
+    static final long        BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /** 桶被取空的时间点(纳秒, {@link System#nanoTime()} 时间轴). */
+    private final AtomicLong emptyAt     = new AtomicLong(System.nanoTime() - BURST_NANOS);
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获取 <code>bytes</code> 个令牌,如果不够,sleep 直到足够.
+     *
+     * @param bytes
+     *            字节数
+     * @param bytesPerSecond
+     *            每秒字节数, {@code <=0} 表示不限速,直接返回
+     * @throws InterruptedIOException
+     *             如果等待的时候线程被中断
+     */
+    void acquire(long bytes,long bytesPerSecond) throws InterruptedIOException{
+        long waitNanos = reserve(bytes, bytesPerSecond);
+        if (waitNanos <= 0){
+            return;
+        }
+        try{
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            InterruptedIOException interruptedIOException = new InterruptedIOException("interrupted while waiting for bandwidth");
+            interruptedIOException.initCause(e);
+            throw interruptedIOException;
+        }
+    }
+
+    /**
+     * 预约 <code>bytes</code> 个令牌.
+     *
+     * @param bytes
+     *            字节数
+     * @param bytesPerSecond
+     *            每秒字节数, {@code <=0} 表示不限速
+     * @return 需要等待的纳秒数, {@code <=0} 表示不需要等待
+     */
+    long reserve(long bytes,long bytesPerSecond){
+        if (bytesPerSecond <= 0 || bytes <= 0){
+            return 0;
+        }
+        long costNanos = (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+        for (;;){
+            long now = System.nanoTime();
+            long current = emptyAt.get();
+
+            //桶最多攒 BURST_NANOS 的令牌; nanoTime 可能溢出,使用差值比较
+            long full = now - BURST_NANOS;
+            long base = current - full < 0 ? full : current;
+            long next = base + costNanos;
+            if (emptyAt.compareAndSet(current, next)){
+                return next - now;
+            }
+        }
+    }
+}
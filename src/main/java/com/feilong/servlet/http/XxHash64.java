@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * xxHash64(seed 0),用于根据响应内容生成 ETag.
+ *
+ * <p>
+ * 非加密哈希,每次处理 8 字节,速度比 MD5/SHA 快一个数量级以上;64 位的结果用于区分同一个资源的不同版本足够了.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see <a href="https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md">xxHash specification</a>
+ * @since 2.1.0
+ */
+final class XxHash64{
+
+    /** The Constant PRIME64_1. */
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+
+    /** The Constant PRIME64_2. */
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+
+    /** The Constant PRIME64_3. */
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+
+    /** The Constant PRIME64_4. */
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+
+    /** The Constant PRIME64_5. */
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private XxHash64(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 计算 <code>byteBuffer</code> 剩余内容({@link ByteBuffer#remaining()})的哈希,不会改变它的 position.
+     *
+     * @param byteBuffer
+     *            the byte buffer
+     * @return the long
+     */
+    static long hash(ByteBuffer byteBuffer){
+        ByteBuffer buffer = byteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int index = buffer.position();
+        int end = buffer.limit();
+        int length = end - index;
+
+        long hash;
+        if (length >= 32){
+            long v1 = PRIME64_1 + PRIME64_2;
+            long v2 = PRIME64_2;
+            long v3 = 0;
+            long v4 = -PRIME64_1;
+            for (int limit = end - 32; index <= limit; index += 32){
+                v1 = round(v1, buffer.getLong(index));
+                v2 = round(v2, buffer.getLong(index + 8));
+                v3 = round(v3, buffer.getLong(index + 16));
+                v4 = round(v4, buffer.getLong(index + 24));
+            }
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        }else{
+            hash = PRIME64_5;
+        }
+        hash += length;
+
+        //---------------------------------------------------------------
+        for (; index + 8 <= end; index += 8){
+            hash ^= round(0, buffer.getLong(index));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (index + 4 <= end){
+            hash ^= (buffer.getInt(index) & 0xFFFFFFFFL) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            index += 4;
+        }
+        for (; index < end; ++index){
+            hash ^= (buffer.get(index) & 0xFFL) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+        }
+
+        //---------------------------------------------------------------
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    /**
+     * 计算 <code>bytes</code> 的哈希.
+     *
+     * @param bytes
+     *            the bytes
+     * @return the long
+     */
+    static long hash(byte[] bytes){
+        return hash(ByteBuffer.wrap(bytes));
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * Round.
+     *
+     * @param acc
+     *            the acc
+     * @param input
+     *            the input
+     * @return the long
+     */
+    private static long round(long acc,long input){
+        return Long.rotateLeft(acc + input * PRIME64_2, 31) * PRIME64_1;
+    }
+
+    /**
+     * Merge round.
+     *
+     * @param acc
+     *            the acc
+     * @param value
+     *            the value
+     * @return the long
+     */
+    private static long mergeRound(long acc,long value){
+        return (acc ^ round(0, value)) * PRIME64_1 + PRIME64_4;
+    }
+}
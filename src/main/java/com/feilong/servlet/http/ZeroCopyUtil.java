@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static com.feilong.servlet.http.RequestAttributes.SENDFILE_FILENAME;
+import static com.feilong.servlet.http.RequestAttributes.SENDFILE_FILE_END;
+import static com.feilong.servlet.http.RequestAttributes.SENDFILE_FILE_START;
+import static com.feilong.servlet.http.RequestAttributes.SENDFILE_SUPPORTED;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 文件下载的 zero-copy 输出,交给容器 sendfile.
+ * 
+ * <p>
+ * 如果 request 属性 {@link RequestAttributes#SENDFILE_SUPPORTED} 是 {@link Boolean#TRUE} (比如 tomcat NIO/APR connector),
+ * 那么仅设置 sendfile 相关的 request 属性,由容器在 servlet 返回之后直接从文件写到 socket,数据不经过 JVM 堆;<br>
+ * 由于 sendfile 只能发送一个连续区间, multipart/byteranges 不使用该方式.
+ * </p>
+ * 
+ * <p>
+ * 容器不支持 sendfile 的时候,没有其他 zero-copy 的方式:servlet 输出流不是 {@link java.nio.channels.SocketChannel},
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} 写到
+ * {@link java.nio.channels.Channels#newChannel(java.io.OutputStream)} 时,JDK 先读到临时的 direct buffer,再复制到 channel 内部的堆数组,
+ * 反而比使用 {@link BufferPool} 缓冲区的流复制多一次复制;所以这种情况由调用方使用普通的流复制.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see "org.apache.catalina.servlets.DefaultServlet#checkSendfile"
+ * @since 2.1.0
+ */
+final class ZeroCopyUtil{
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZeroCopyUtil.class);
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private ZeroCopyUtil(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 如果容器支持,交给容器 sendfile.
+     *
+     * @param file
+     *            the file
+     * @param start
+     *            起始位置(包含)
+     * @param end
+     *            结束位置(不包含)
+     * @param request
+     *            the request
+     * @return 如果已经交给容器,返回 true, 此时不能再向 response 写数据
+     */
+    static boolean sendfile(File file,long start,long end,HttpServletRequest request){
+        if (null == request || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))){
+            return false;
+        }
+        try{
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+        }catch (IOException e){
+            LOGGER.warn("can't get canonical path of file:[" + file + "],will not use sendfile", e);
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILE_START, start);
+        request.setAttribute(SENDFILE_FILE_END, end);
+        return true;
+    }
+}
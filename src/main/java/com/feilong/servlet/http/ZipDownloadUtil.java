@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.feilong.io.FileUtil;
+
+/**
+ * 流式输出 zip.
+ * 
+ * <p>
+ * 直接把 {@link ZipOutputStream} 写到 servlet 输出流,不生成临时文件;每个条目写完 header 之后立即 flush,客户端马上就能收到第一个字节;<br>
+ * 复制缓冲区是固定大小的,内存占用和压缩包大小无关(只有 zip 中央目录和条目数量相关).
+ * </p>
+ * 
+ * <p>
+ * 已经压缩过的文件(按照扩展名判断,比如 jpg,png,zip,docx,mp4)使用 {@link Deflater#NO_COMPRESSION} 级别写出,不再消耗 CPU 压缩;<br>
+ * 由于 {@link ZipEntry#STORED} 需要预先知道 CRC,而流只能读一遍,所以不使用 STORED.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class ZipDownloadUtil{
+
+    /** 已经压缩过的文件扩展名. */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+                    "zip",
+                    "gz",
+                    "tgz",
+                    "bz2",
+                    "xz",
+                    "7z",
+                    "rar",
+                    "jar",
+                    "war",
+                    "apk",
+                    "docx",
+                    "xlsx",
+                    "pptx",
+                    "odt",
+                    "ods",
+                    "jpg",
+                    "jpeg",
+                    "png",
+                    "gif",
+                    "webp",
+                    "mp3",
+                    "m4a",
+                    "aac",
+                    "ogg",
+                    "mp4",
+                    "m4v",
+                    "mov",
+                    "avi",
+                    "mkv",
+                    "webm"));
+
+    //---------------------------------------------------------------
+
+    /** Don't let anyone instantiate this class. */
+    private ZipDownloadUtil(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 把文件写成 zip,条目名称是文件名,文件只在写到该条目的时候才打开.
+     *
+     * @param files
+     *            the files
+     * @param outputStream
+     *            the output stream,不会被关闭
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static void writeFiles(Iterable<File> files,OutputStream outputStream) throws IOException{
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        Set<String> entryNames = new HashSet<>();
+        byte[] buffer = BufferPool.acquire();
+        try{
+            for (File file : files){
+                try (InputStream inputStream = FileUtil.getFileInputStream(file)){
+                    writeEntry(zipOutputStream, file.getName(), file.lastModified(), inputStream, entryNames, buffer);
+                }
+            }
+        }finally{
+            BufferPool.release(buffer);
+        }
+        zipOutputStream.finish();
+        zipOutputStream.flush();
+    }
+
+    /**
+     * 把流写成 zip,每个流写完之后立即关闭;如果出现异常,剩余的流也会被关闭.
+     *
+     * @param nameAndInputStreamMap
+     *            key 是条目名称(可以包含 <code>/</code> 表示目录), value 是数据
+     * @param outputStream
+     *            the output stream,不会被关闭
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static void writeInputStreams(Map<String, InputStream> nameAndInputStreamMap,OutputStream outputStream) throws IOException{
+        byte[] buffer = BufferPool.acquire();
+        try{
+            ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+            Set<String> entryNames = new HashSet<>();
+            for (Map.Entry<String, InputStream> entry : nameAndInputStreamMap.entrySet()){
+                try (InputStream inputStream = entry.getValue()){
+                    writeEntry(zipOutputStream, entry.getKey(), -1, inputStream, entryNames, buffer);
+                }
+            }
+            zipOutputStream.finish();
+            zipOutputStream.flush();
+        }finally{
+            BufferPool.release(buffer);
+            //已经关闭的流再次关闭没有影响
+            for (InputStream inputStream : nameAndInputStreamMap.values()){
+                DownloadIOUtil.closeQuietly(inputStream);
+            }
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 写一个条目.
+     *
+     * @param zipOutputStream
+     *            the zip output stream
+     * @param name
+     *            条目名称
+     * @param lastModified
+     *            最后修改时间, {@code <=0} 表示使用当前时间
+     * @param inputStream
+     *            the input stream
+     * @param entryNames
+     *            已经使用的条目名称,用来避免重名
+     * @param buffer
+     *            复制缓冲区
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static void writeEntry(
+                    ZipOutputStream zipOutputStream,
+                    String name,
+                    long lastModified,
+                    InputStream inputStream,
+                    Set<String> entryNames,
+                    byte[] buffer) throws IOException{
+        ZipEntry zipEntry = new ZipEntry(toUniqueName(name, entryNames));
+        if (lastModified > 0){
+            zipEntry.setTime(lastModified);
+        }
+        zipOutputStream.setLevel(isCompressed(name) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+        zipOutputStream.putNextEntry(zipEntry);
+        //让客户端尽快收到数据
+        zipOutputStream.flush();
+
+        int read;
+        while ((read = inputStream.read(buffer)) != -1){
+            zipOutputStream.write(buffer, 0, read);
+        }
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * 如果条目名称已经使用过,在扩展名之前加上 <code>(1)</code>, <code>(2)</code>...
+     *
+     * @param name
+     *            the name
+     * @param entryNames
+     *            已经使用的条目名称
+     * @return the string
+     */
+    static String toUniqueName(String name,Set<String> entryNames){
+        if (entryNames.add(name)){
+            return name;
+        }
+        int dotIndex = name.lastIndexOf('.');
+        int slashIndex = name.lastIndexOf('/');
+        boolean hasExtension = dotIndex > slashIndex + 1;
+        String base = hasExtension ? name.substring(0, dotIndex) : name;
+        String extension = hasExtension ? name.substring(dotIndex) : "";
+        for (int i = 1;; ++i){
+            String candidate = base + "(" + i + ")" + extension;
+            if (entryNames.add(candidate)){
+                return candidate;
+            }
+        }
+    }
+
+    /**
+     * 按照扩展名判断是否是已经压缩过的文件.
+     *
+     * @param name
+     *            the name
+     * @return 如果是,返回 true
+     */
+    static boolean isCompressed(String name){
+        String extension = StringUtils.substringAfterLast(name, ".");
+        return COMPRESSED_EXTENSIONS.contains(extension.toLowerCase());
+    }
+}
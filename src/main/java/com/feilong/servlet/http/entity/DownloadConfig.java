@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http.entity;
+
+import java.io.Serializable;
+
+import com.feilong.servlet.http.DigestAlgorithm;
+import com.feilong.servlet.http.DownloadProgressListener;
+
+/**
+ * 下载配置,用于 {@link com.feilong.servlet.http.ResponseDownloadUtil ResponseDownloadUtil}.
+ *
+ * <p>
+ * 不传递或者传递 <code>null</code> 的时候,均使用默认值.
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @see com.feilong.servlet.http.ResponseDownloadUtil
+ * @since 2.1.0
+ */
+public class DownloadConfig implements Serializable{
+
+    /** The Constant serialVersionUID. */
+    private static final long                  serialVersionUID       = 1453476384937536045L;
+
+    /** 默认的 {@link #maxRanges} <code>{@value}</code>. */
+    public static final int                    DEFAULT_MAX_RANGES     = 16;
+
+    /** 默认的 {@link #flushInterval} <code>{@value}</code>,即 8MB. */
+    public static final long                   DEFAULT_FLUSH_INTERVAL = 8L * 1024 * 1024;
+
+    /** 默认的 {@link #asyncTimeout} <code>{@value}</code> 毫秒,即 30 分钟. */
+    public static final long                   DEFAULT_ASYNC_TIMEOUT  = 30L * 60 * 1000;
+
+    //---------------------------------------------------------------
+
+    /**
+     * 一次请求允许的最大区间数量(合并重叠以及相邻区间之后).
+     *
+     * <p>
+     * 超过该数量的 Range 请求,将返回 416,避免恶意客户端通过大量小区间放大服务器开销;<br>
+     * 默认 {@link #DEFAULT_MAX_RANGES}; 如果 {@code <=1} 表示仅支持单个区间,多个区间时返回完整内容.
+     * </p>
+     */
+    private int                                maxRanges              = DEFAULT_MAX_RANGES;
+
+    /**
+     * 下载 {@link java.io.File} 的时候是否使用 zero-copy.
+     * 
+     * <p>
+     * 如果是 true,容器支持 sendfile (request 属性 <code>org.apache.tomcat.sendfile.support</code> 是 true)时,交给容器 sendfile,数据不经过 JVM 堆;<br>
+     * 容器不支持 sendfile,或者是 multipart/byteranges,或者需要限速, 统计进度, 计算摘要的时候,使用普通的流复制.
+     * </p>
+     * 
+     * <p>
+     * 默认 false; 对 {@link java.io.InputStream} 下载无效.
+     * </p>
+     */
+    private boolean                            zeroCopy;
+
+    /**
+     * 下载 {@link java.io.File} 的时候是否使用预压缩文件.
+     * 
+     * <p>
+     * 如果是 true,并且请求的 <code>Accept-Encoding</code> 允许,那么优先输出同目录下不早于原文件的 <code>原文件名.br</code> 或者 <code>原文件名.gz</code>,
+     * 同时输出 <code>Content-Encoding</code> 以及 <code>Vary: Accept-Encoding</code>,不需要在每次请求的时候压缩;<br>
+     * 保存的文件名以及 <code>Content-Type</code> 仍然基于原文件.
+     * </p>
+     * 
+     * <p>
+     * 默认 false; 对 {@link java.io.InputStream} 下载无效.
+     * </p>
+     */
+    private boolean                            precompressed;
+
+    /**
+     * 下载 {@link java.io.File} 的时候是否使用 {@link com.feilong.servlet.http.FileContentCache} 内存缓存.
+     * 
+     * <p>
+     * 适合被频繁下载的小文件(比如发票, 图标, 模板);命中时直接从内存输出,不再打开文件;<br>
+     * 默认 false; 对 {@link java.io.InputStream} 下载无效;命中缓存时不使用 {@link #zeroCopy}.
+     * </p>
+     */
+    private boolean                            cache;
+
+    /**
+     * 下载 {@link java.io.InputStream} 时,调用方提供的资源版本标识(比如数据库记录的版本号或者内容的 hash).
+     * 
+     * <p>
+     * 如果设置了,会基于它生成弱 <code>ETag</code>,并支持 <code>If-None-Match</code> 返回 304;<br>
+     * 由于是和具体资源相关的,不同的资源下载需要使用不同的 {@link DownloadConfig} 实例;对 {@link java.io.File} 下载无效(文件使用大小和最后修改时间生成 ETag).
+     * </p>
+     */
+    private String                             versionToken;
+
+    /**
+     * 本次下载的限速,每秒字节数.
+     * 
+     * <p>
+     * 默认 0,表示使用 {@link com.feilong.servlet.http.DownloadThrottle#getPerDownloadBytesPerSecond()};<br>
+     * 不管是否设置,均受 {@link com.feilong.servlet.http.DownloadThrottle#getGlobalBytesPerSecond()} 全局限速;<br>
+     * 限速的下载不使用容器 sendfile.
+     * </p>
+     */
+    private long                               bytesPerSecond;
+
+    /**
+     * 是否使用大文件模式.
+     * 
+     * <p>
+     * 大文件模式使用更大的复制缓冲区({@link com.feilong.servlet.http.BufferPool#getLargeBufferSize()}),每输出 {@link #flushInterval} 个字节 flush 一次,避免数据堆积在容器的输出缓冲区,并回调 {@link #progressListener};<br>
+     * 默认 false;如果输出长度超过 {@link Integer#MAX_VALUE}(2GB),自动使用大文件模式;异步输出不使用大文件模式.
+     * </p>
+     */
+    private boolean                            largeFile;
+
+    /** 大文件模式的 flush 间隔字节数,默认 {@link #DEFAULT_FLUSH_INTERVAL}; {@code <=0} 表示不主动 flush. */
+    private long                               flushInterval          = DEFAULT_FLUSH_INTERVAL;
+
+    /** 大文件模式的进度回调,不参与序列化. */
+    private transient DownloadProgressListener progressListener;
+
+    /**
+     * 下载的分类,比如 <code>export</code>, <code>attachment</code>.
+     * 
+     * <p>
+     * 用于 {@link com.feilong.servlet.http.DownloadAdmission} 按照分类限制并发;如果是 null,使用
+     * {@link com.feilong.servlet.http.DownloadAdmission#DEFAULT_CATEGORY}.
+     * </p>
+     */
+    private String                             category;
+
+    /**
+     * 是否使用 Servlet 3.1 {@link javax.servlet.WriteListener} 非阻塞输出.
+     * 
+     * <p>
+     * 如果是 true,并且 {@link javax.servlet.http.HttpServletRequest#isAsyncSupported()},开启异步上下文后立即返回,容器线程不会被慢速客户端占用;<br>
+     * 下载方法返回的时候数据可能还没有输出完成,数据源会在输出结束(完成,超时或者出错)时关闭;<br>
+     * 如果请求不支持异步(比如 servlet/filter 没有配置 <code>async-supported</code>),退化成同步输出.
+     * </p>
+     * 
+     * <p>
+     * 默认 false; 异步输出不使用 {@link #zeroCopy}.
+     * </p>
+     */
+    private boolean                            async;
+
+    /**
+     * 异步输出的超时时间(毫秒), 默认 {@link #DEFAULT_ASYNC_TIMEOUT}; {@code <=0} 表示不超时.
+     * 
+     * @see javax.servlet.AsyncContext#setTimeout(long)
+     */
+    private long                               asyncTimeout           = DEFAULT_ASYNC_TIMEOUT;
+
+    /**
+     * 下载 {@link java.io.File} 的时候,边输出边计算的摘要算法.
+     * 
+     * <p>
+     * 第一次完整输出(非 Range, 非异步)的时候顺便计算摘要并缓存到 {@link com.feilong.servlet.http.DownloadDigestCache},不需要为了计算摘要再读一遍文件;<br>
+     * 之后的下载(包括 Range)在输出数据之前设置 <code>Digest</code> header,MD5 的完整输出还会设置 <code>Content-MD5</code>;<br>
+     * 默认 null,不计算;对 {@link java.io.InputStream} 下载无效;计算摘要的那次下载不使用容器 sendfile.
+     * </p>
+     */
+    private DigestAlgorithm                    digestAlgorithm;
+
+    /**
+     * 下载 {@link java.io.File} 的时候,是否使用 {@link java.nio.channels.AsynchronousFileChannel} 双缓冲预读.
+     * 
+     * <p>
+     * 当前缓冲区写到客户端的时候,下一个缓冲区的磁盘读取已经在后台进行,磁盘读取和 socket 写重叠;<br>
+     * 适合 NFS 等高延迟的网络存储;对于本地磁盘,操作系统本身的预读已经足够,不需要开启.
+     * </p>
+     * 
+     * <p>
+     * 默认 false; 交给容器 sendfile 以及命中 {@link #cache} 时不使用.
+     * </p>
+     */
+    private boolean                            readAhead;
+
+    /**
+     * 下载 {@link java.io.File} 的时候,是否使用内存映射.
+     * 
+     * <p>
+     * 适合被反复下载的大的只读文件(比如地图切片, 模型文件);文件只映射一次,缓存在 {@link com.feilong.servlet.http.MappedFileCache},
+     * 之后的下载(包括 Range)直接从映射输出,没有 read 系统调用;<br>
+     * 默认 false;命中 {@link #cache} 时不使用;使用映射时不使用容器 sendfile 以及 {@link #readAhead}.
+     * </p>
+     */
+    private boolean                            memoryMapped;
+
+    //---------------------------------------------------------------
+
+    /**
+     * The Constructor.
+     */
+    public DownloadConfig(){
+        super();
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 获得 一次请求允许的最大区间数量(合并重叠以及相邻区间之后).
+     *
+     * @return the maxRanges
+     */
+    public int getMaxRanges(){
+        return maxRanges;
+    }
+
+    /**
+     * 设置 一次请求允许的最大区间数量(合并重叠以及相邻区间之后).
+     *
+     * @param maxRanges
+     *            the maxRanges to set
+     */
+    public void setMaxRanges(int maxRanges){
+        this.maxRanges = maxRanges;
+    }
+
+    /**
+     * 获得 下载 {@link java.io.File} 的时候是否使用 zero-copy.
+     *
+     * @return the zeroCopy
+     */
+    public boolean getZeroCopy(){
+        return zeroCopy;
+    }
+
+    /**
+     * 设置 下载 {@link java.io.File} 的时候是否使用 zero-copy.
+     *
+     * @param zeroCopy
+     *            the zeroCopy to set
+     */
+    public void setZeroCopy(boolean zeroCopy){
+        this.zeroCopy = zeroCopy;
+    }
+
+    /**
+     * 获得 下载 {@link java.io.File} 的时候是否使用预压缩文件.
+     *
+     * @return the precompressed
+     */
+    public boolean getPrecompressed(){
+        return precompressed;
+    }
+
+    /**
+     * 设置 下载 {@link java.io.File} 的时候是否使用预压缩文件.
+     *
+     * @param precompressed
+     *            the precompressed to set
+     */
+    public void setPrecompressed(boolean precompressed){
+        this.precompressed = precompressed;
+    }
+
+    /**
+     * 获得 下载 {@link java.io.File} 的时候是否使用内存缓存.
+     *
+     * @return the cache
+     */
+    public boolean getCache(){
+        return cache;
+    }
+
+    /**
+     * 设置 下载 {@link java.io.File} 的时候是否使用内存缓存.
+     *
+     * @param cache
+     *            the cache to set
+     */
+    public void setCache(boolean cache){
+        this.cache = cache;
+    }
+
+    /**
+     * 获得 下载 {@link java.io.InputStream} 时,调用方提供的资源版本标识.
+     *
+     * @return the versionToken
+     */
+    public String getVersionToken(){
+        return versionToken;
+    }
+
+    /**
+     * 设置 下载 {@link java.io.InputStream} 时,调用方提供的资源版本标识.
+     *
+     * @param versionToken
+     *            the versionToken to set
+     */
+    public void setVersionToken(String versionToken){
+        this.versionToken = versionToken;
+    }
+
+    /**
+     * 获得 本次下载的限速,每秒字节数.
+     *
+     * @return the bytesPerSecond
+     */
+    public long getBytesPerSecond(){
+        return bytesPerSecond;
+    }
+
+    /**
+     * 设置 本次下载的限速,每秒字节数.
+     *
+     * @param bytesPerSecond
+     *            the bytesPerSecond to set
+     */
+    public void setBytesPerSecond(long bytesPerSecond){
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 获得 是否使用大文件模式.
+     *
+     * @return the largeFile
+     */
+    public boolean getLargeFile(){
+        return largeFile;
+    }
+
+    /**
+     * 设置 是否使用大文件模式.
+     *
+     * @param largeFile
+     *            the largeFile to set
+     */
+    public void setLargeFile(boolean largeFile){
+        this.largeFile = largeFile;
+    }
+
+    /**
+     * 获得 大文件模式的 flush 间隔字节数.
+     *
+     * @return the flushInterval
+     */
+    public long getFlushInterval(){
+        return flushInterval;
+    }
+
+    /**
+     * 设置 大文件模式的 flush 间隔字节数.
+     *
+     * @param flushInterval
+     *            the flushInterval to set
+     */
+    public void setFlushInterval(long flushInterval){
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * 获得 大文件模式的进度回调.
+     *
+     * @return the progressListener
+     */
+    public DownloadProgressListener getProgressListener(){
+        return progressListener;
+    }
+
+    /**
+     * 设置 大文件模式的进度回调.
+     *
+     * @param progressListener
+     *            the progressListener to set
+     */
+    public void setProgressListener(DownloadProgressListener progressListener){
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * 获得 下载的分类.
+     *
+     * @return the category
+     */
+    public String getCategory(){
+        return category;
+    }
+
+    /**
+     * 设置 下载的分类.
+     *
+     * @param category
+     *            the category to set
+     */
+    public void setCategory(String category){
+        this.category = category;
+    }
+
+    /**
+     * 获得 是否使用 Servlet 3.1 {@link javax.servlet.WriteListener} 非阻塞输出.
+     *
+     * @return the async
+     */
+    public boolean getAsync(){
+        return async;
+    }
+
+    /**
+     * 设置 是否使用 Servlet 3.1 {@link javax.servlet.WriteListener} 非阻塞输出.
+     *
+     * @param async
+     *            the async to set
+     */
+    public void setAsync(boolean async){
+        this.async = async;
+    }
+
+    /**
+     * 获得 异步输出的超时时间(毫秒).
+     *
+     * @return the asyncTimeout
+     */
+    public long getAsyncTimeout(){
+        return asyncTimeout;
+    }
+
+    /**
+     * 设置 异步输出的超时时间(毫秒).
+     *
+     * @param asyncTimeout
+     *            the asyncTimeout to set
+     */
+    public void setAsyncTimeout(long asyncTimeout){
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    /**
+     * 获得 下载 {@link java.io.File} 的时候,边输出边计算的摘要算法.
+     *
+     * @return the digestAlgorithm
+     */
+    public DigestAlgorithm getDigestAlgorithm(){
+        return digestAlgorithm;
+    }
+
+    /**
+     * 设置 下载 {@link java.io.File} 的时候,边输出边计算的摘要算法.
+     *
+     * @param digestAlgorithm
+     *            the digestAlgorithm to set
+     */
+    public void setDigestAlgorithm(DigestAlgorithm digestAlgorithm){
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * 获得 下载 {@link java.io.File} 的时候,是否使用 {@link java.nio.channels.AsynchronousFileChannel} 双缓冲预读.
+     *
+     * @return the readAhead
+     */
+    public boolean getReadAhead(){
+        return readAhead;
+    }
+
+    /**
+     * 设置 下载 {@link java.io.File} 的时候,是否使用 {@link java.nio.channels.AsynchronousFileChannel} 双缓冲预读.
+     *
+     * @param readAhead
+     *            the readAhead to set
+     */
+    public void setReadAhead(boolean readAhead){
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * 获得 下载 {@link java.io.File} 的时候,是否使用内存映射.
+     *
+     * @return the memoryMapped
+     */
+    public boolean getMemoryMapped(){
+        return memoryMapped;
+    }
+
+    /**
+     * 设置 下载 {@link java.io.File} 的时候,是否使用内存映射.
+     *
+     * @param memoryMapped
+     *            the memoryMapped to set
+     */
+    public void setMemoryMapped(boolean memoryMapped){
+        this.memoryMapped = memoryMapped;
+    }
+}
@@ -19,10 +19,60 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import com.feilong.servlet.http.AsyncDownloadListenerTest;
+import com.feilong.servlet.http.BufferPoolTest;
+import com.feilong.servlet.http.ByteRangeUtilTest;
+import com.feilong.servlet.http.CompressionResponseWrapperTest;
+import com.feilong.servlet.http.ConditionalRequestUtilTest;
+import com.feilong.servlet.http.DelimitedRowWriterTest;
+import com.feilong.servlet.http.DownloadAdmissionTest;
+import com.feilong.servlet.http.DownloadDigestCacheTest;
+import com.feilong.servlet.http.DownloadResourceTest;
+import com.feilong.servlet.http.EncodedResponseCacheTest;
+import com.feilong.servlet.http.FileContentCacheTest;
+import com.feilong.servlet.http.HistogramTest;
+import com.feilong.servlet.http.JsonStreamWriterTest;
+import com.feilong.servlet.http.MappedFileCacheTest;
+import com.feilong.servlet.http.MimeTypeTableTest;
+import com.feilong.servlet.http.PrecompressedVariantsTest;
+import com.feilong.servlet.http.ProgressOutputStreamTest;
+import com.feilong.servlet.http.ReadAheadInputStreamTest;
+import com.feilong.servlet.http.ResponseDownloadUtilTest;
+import com.feilong.servlet.http.ResponseUtilTest;
+import com.feilong.servlet.http.SingleFlightTest;
+import com.feilong.servlet.http.TextEncoderTest;
+import com.feilong.servlet.http.TokenBucketTest;
+import com.feilong.servlet.http.XxHash64Test;
+import com.feilong.servlet.http.ZipDownloadUtilTest;
 import com.feilong.servlet.http.requestutil.FeiLongRequstUtilSuiteTests;
 
 @RunWith(Suite.class)
-@SuiteClasses({ FeiLongRequstUtilSuiteTests.class
+@SuiteClasses({ FeiLongRequstUtilSuiteTests.class,
+                ByteRangeUtilTest.class,
+                ConditionalRequestUtilTest.class,
+                PrecompressedVariantsTest.class,
+                TokenBucketTest.class,
+                FileContentCacheTest.class,
+                ProgressOutputStreamTest.class,
+                ZipDownloadUtilTest.class,
+                HistogramTest.class,
+                DownloadAdmissionTest.class,
+                MimeTypeTableTest.class,
+                DownloadDigestCacheTest.class,
+                DelimitedRowWriterTest.class,
+                SingleFlightTest.class,
+                BufferPoolTest.class,
+                DownloadResourceTest.class,
+                ReadAheadInputStreamTest.class,
+                MappedFileCacheTest.class,
+                JsonStreamWriterTest.class,
+                CompressionResponseWrapperTest.class,
+                TextEncoderTest.class,
+                XxHash64Test.class,
+                EncodedResponseCacheTest.class,
+                ResponseUtilTest.class,
+                AsyncDownloadListenerTest.class,
+                ResponseDownloadUtilTest.class
         //
 })
 public class FeiLongServletSuiteTests{
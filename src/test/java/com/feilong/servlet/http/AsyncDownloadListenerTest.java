@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.feilong.servlet.http.entity.DownloadConfig;
+
+public class AsyncDownloadListenerTest{
+
+    private static final String             CATEGORY                  = "async-download-test";
+
+    @Rule
+    public final RecordingMetricsCollector  recordingMetricsCollector = new RecordingMetricsCollector();
+
+    private final ServletFakes.FakeRequest  fakeRequest               = new ServletFakes.FakeRequest("GET");
+
+    private final ServletFakes.FakeResponse fakeResponse              = new ServletFakes.FakeResponse();
+
+    private final AtomicInteger             closeCount                = new AtomicInteger();
+
+    /** 测试自己持有的许可,用来确认下载只归还自己的许可. */
+    private DownloadAdmission.Permit        otherPermit;
+
+    @Before
+    public void before(){
+        DownloadAdmission.configure(CATEGORY, 2, 0, 0);
+        otherPermit = DownloadAdmission.acquire(CATEGORY);
+    }
+
+    @After
+    public void after(){
+        otherPermit.release();
+        DownloadAdmission.remove(CATEGORY);
+    }
+
+    @Test
+    public void testComplete() throws Exception{
+        byte[] bytes = newBytes(20000);
+        fakeResponse.getOutputStream().setReady(false);
+        start(bytes, new DownloadConfig());
+        assertEquals(0, fakeResponse.getBody().length);
+        assertEquals(2, DownloadAdmission.getActiveCount(CATEGORY));
+
+        //容器在可写的时候回调
+        fakeResponse.getOutputStream().setReady(true);
+
+        assertArrayEquals(bytes, fakeResponse.getBody());
+        assertEquals(1, fakeRequest.getAsyncContext().getCompleteCount());
+        assertEquals(1, DownloadAdmission.getActiveCount(CATEGORY));
+        assertEquals(1, closeCount.get());
+        assertEquals(Collections.singletonList(DownloadOutcome.COMPLETED), recordingMetricsCollector.getDownloadOutcomes());
+    }
+
+    @Test
+    public void testTimeout() throws Exception{
+        fakeResponse.getOutputStream().setReady(false);
+        start(newBytes(20000), new DownloadConfig());
+
+        fakeRequest.getAsyncContext().fireTimeout();
+
+        assertEquals(1, fakeRequest.getAsyncContext().getCompleteCount());
+        assertEquals(1, DownloadAdmission.getActiveCount(CATEGORY));
+        assertEquals(1, closeCount.get());
+        assertEquals(Collections.singletonList(DownloadOutcome.FAILED), recordingMetricsCollector.getDownloadOutcomes());
+    }
+
+    @Test
+    public void testClientAbort() throws Exception{
+        fakeResponse.getOutputStream().setWriteException(new ClientAbortException());
+        start(newBytes(20000), new DownloadConfig());
+
+        assertEquals(1, fakeRequest.getAsyncContext().getCompleteCount());
+        assertEquals(1, DownloadAdmission.getActiveCount(CATEGORY));
+        assertEquals(1, closeCount.get());
+        assertEquals(Collections.singletonList(DownloadOutcome.ABORTED), recordingMetricsCollector.getDownloadOutcomes());
+    }
+
+    @Test
+    public void testContainerError() throws Exception{
+        fakeResponse.getOutputStream().setReady(false);
+        start(newBytes(20000), new DownloadConfig());
+
+        fakeRequest.getAsyncContext().fireError(new IOException("broken pipe"));
+
+        assertEquals(1, fakeRequest.getAsyncContext().getCompleteCount());
+        assertEquals(1, DownloadAdmission.getActiveCount(CATEGORY));
+        assertEquals(1, closeCount.get());
+        assertEquals(Collections.singletonList(DownloadOutcome.FAILED), recordingMetricsCollector.getDownloadOutcomes());
+    }
+
+    @Test
+    public void testFinishOnlyOnce() throws Exception{
+        start(newBytes(100), new DownloadConfig());
+        assertEquals(1, fakeRequest.getAsyncContext().getCompleteCount());
+
+        //结束之后容器的其他回调不会重复关闭数据源, 归还许可以及记录日志
+        for (AsyncListener asyncListener : fakeRequest.getAsyncContext().getAsyncListeners()){
+            AsyncEvent asyncEvent = new AsyncEvent(fakeRequest.getAsyncContext(), new IOException("late"));
+            asyncListener.onTimeout(asyncEvent);
+            asyncListener.onError(asyncEvent);
+            asyncListener.onComplete(asyncEvent);
+        }
+        fakeResponse.getOutputStream().getWriteListener().onError(new IOException("late"));
+
+        //结束之后不会再读取数据源
+        int completeCount = fakeRequest.getAsyncContext().getCompleteCount();
+        fakeResponse.getOutputStream().getWriteListener().onWritePossible();
+        assertEquals(completeCount, fakeRequest.getAsyncContext().getCompleteCount());
+
+        assertEquals(1, DownloadAdmission.getActiveCount(CATEGORY));
+        assertEquals(1, closeCount.get());
+        assertEquals(Arrays.asList(DownloadOutcome.COMPLETED), recordingMetricsCollector.getDownloadOutcomes());
+    }
+
+    @Test
+    public void testTimeoutWhileReading() throws Exception{
+        final byte[] bytes = newBytes(20000);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch slowDisk = new CountDownLatch(1);
+        InputStream inputStream = new ByteArrayInputStream(bytes){
+
+            @Override
+            public synchronized int read(byte[] b,int off,int len){
+                if (0 == pos){
+                    reading.countDown();
+                    //模拟很慢的挂载盘
+                    awaitQuietly(slowDisk);
+                }
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public void close(){
+                closeCount.incrementAndGet();
+            }
+        };
+        fakeResponse.getOutputStream().setReady(false);
+        start(DownloadResource.of("a.bin", inputStream, bytes.length), bytes.length);
+
+        Thread containerThread = new Thread(new Runnable(){
+
+            @Override
+            public void run(){
+                fakeResponse.getOutputStream().setReady(true);
+            }
+        });
+        containerThread.start();
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+        Thread timeoutThread = new Thread(new Runnable(){
+
+            @Override
+            public void run(){
+                try{
+                    fakeRequest.getAsyncContext().fireTimeout();
+                }catch (IOException e){
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        timeoutThread.start();
+        timeoutThread.join(200);
+        //正在读取的时候不能关闭数据源, 归还许可
+        assertTrue(timeoutThread.isAlive());
+        assertEquals(0, closeCount.get());
+        assertEquals(2, DownloadAdmission.getActiveCount(CATEGORY));
+
+        slowDisk.countDown();
+        containerThread.join(5000);
+        timeoutThread.join(5000);
+        assertArrayEquals(bytes, fakeResponse.getBody());
+        assertEquals(1, closeCount.get());
+        assertEquals(1, DownloadAdmission.getActiveCount(CATEGORY));
+        assertEquals(Collections.singletonList(DownloadOutcome.COMPLETED), recordingMetricsCollector.getDownloadOutcomes());
+    }
+
+    @Test
+    public void testThrottleDoesNotBlockContainerThread() throws Exception{
+        byte[] bytes = newBytes(40000);
+        DownloadConfig downloadConfig = new DownloadConfig();
+        downloadConfig.setBytesPerSecond(64 * 1024);
+
+        long begin = System.nanoTime();
+        start(bytes, downloadConfig);
+        long startMillis = (System.nanoTime() - begin) / 1000000;
+
+        //容器线程立即返回, 剩下的数据由调度线程恢复输出
+        assertTrue(fakeResponse.getBody().length < bytes.length);
+        assertTrue("start use:" + startMillis, startMillis < 200);
+
+        awaitComplete();
+        assertArrayEquals(bytes, fakeResponse.getBody());
+        assertEquals(1, fakeRequest.getAsyncContext().getCompleteCount());
+        assertTrue((System.nanoTime() - begin) / 1000000 >= 300);
+    }
+
+    @Test
+    public void testGlobalLimitAppliesToRunningDownload() throws Exception{
+        byte[] bytes = newBytes(40000);
+        fakeResponse.getOutputStream().setReady(false);
+        start(bytes, new DownloadConfig());
+
+        //下载开始之后才设置的全局限速, 对正在进行的下载同样生效
+        DownloadThrottle.setGlobalBytesPerSecond(64 * 1024);
+        try{
+            long begin = System.nanoTime();
+            fakeResponse.getOutputStream().setReady(true);
+            assertTrue(fakeResponse.getBody().length < bytes.length);
+
+            awaitComplete();
+            assertArrayEquals(bytes, fakeResponse.getBody());
+            assertTrue((System.nanoTime() - begin) / 1000000 >= 300);
+        }finally{
+            DownloadThrottle.setGlobalBytesPerSecond(0);
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    private void start(byte[] bytes,DownloadConfig downloadConfig) throws IOException{
+        DownloadResource downloadResource = DownloadResource.of("a.bin", new ByteArrayInputStream(bytes){
+
+            @Override
+            public void close(){
+                closeCount.incrementAndGet();
+            }
+        }, bytes.length);
+        start(downloadResource, bytes.length, downloadConfig);
+    }
+
+    private void start(DownloadResource downloadResource,int length) throws IOException{
+        start(downloadResource, length, new DownloadConfig());
+    }
+
+    private void start(DownloadResource downloadResource,int length,DownloadConfig downloadConfig) throws IOException{
+        AsyncDownloadListener.start(
+                        downloadResource,
+                        length,
+                        null,
+                        downloadConfig,
+                        DownloadAdmission.acquire(CATEGORY),
+                        fakeRequest.getRequest(),
+                        fakeResponse.getResponse());
+    }
+
+    private void awaitComplete() throws InterruptedException{
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!fakeRequest.getAsyncContext().isCompleted() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch countDownLatch){
+        try{
+            countDownLatch.await(5, TimeUnit.SECONDS);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] newBytes(int length){
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i){
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    //---------------------------------------------------------------
+
+    /** 模拟 tomcat 的 org.apache.catalina.connector.ClientAbortException. */
+    private static final class ClientAbortException extends IOException{
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferPoolTest{
+
+    @Before
+    public void before(){
+        BufferPool.clear();
+    }
+
+    @After
+    public void after(){
+        BufferPool.setBufferSize(BufferPool.DEFAULT_BUFFER_SIZE);
+        BufferPool.setLargeBufferSize(BufferPool.DEFAULT_LARGE_BUFFER_SIZE);
+        BufferPool.setMaxBuffersPerStripe(BufferPool.DEFAULT_MAX_BUFFERS_PER_STRIPE);
+    }
+
+    @Test
+    public void testReuse(){
+        byte[] buffer = BufferPool.acquire();
+        assertEquals(BufferPool.DEFAULT_BUFFER_SIZE, buffer.length);
+        BufferPool.release(buffer);
+        assertEquals(1, BufferPool.getPooledCount());
+        assertEquals(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.getPooledBytes());
+
+        assertSame(buffer, BufferPool.acquire());
+        assertEquals(0, BufferPool.getPooledCount());
+    }
+
+    @Test
+    public void testLarge(){
+        byte[] buffer = BufferPool.acquire(true);
+        assertEquals(BufferPool.DEFAULT_LARGE_BUFFER_SIZE, buffer.length);
+        BufferPool.release(buffer);
+
+        //规格不同, 不会互相借用
+        assertNotSame(buffer, BufferPool.acquire(false));
+        assertSame(buffer, BufferPool.acquire(true));
+    }
+
+    @Test
+    public void testBounded(){
+        BufferPool.setMaxBuffersPerStripe(2);
+        long discardCount = BufferPool.getDiscardCount();
+        BufferPool.release(new byte[BufferPool.DEFAULT_BUFFER_SIZE]);
+        BufferPool.release(new byte[BufferPool.DEFAULT_BUFFER_SIZE]);
+        BufferPool.release(new byte[BufferPool.DEFAULT_BUFFER_SIZE]);
+
+        assertEquals(2, BufferPool.getPooledCount());
+        assertEquals(discardCount + 1, BufferPool.getDiscardCount());
+    }
+
+    @Test
+    public void testResize(){
+        BufferPool.release(BufferPool.acquire());
+        BufferPool.setBufferSize(16 * 1024);
+        assertEquals(0, BufferPool.getPooledCount());
+        assertEquals(16 * 1024, BufferPool.acquire().length);
+
+        //旧规格的缓冲区归还时被丢弃
+        BufferPool.release(new byte[BufferPool.DEFAULT_BUFFER_SIZE]);
+        assertEquals(0, BufferPool.getPooledCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetBufferSizeTooSmall(){
+        BufferPool.setBufferSize(16);
+    }
+
+    @Test
+    public void testToStripeCount(){
+        assertEquals(2, BufferPool.toStripeCount(1));
+        assertEquals(8, BufferPool.toStripeCount(4));
+        assertEquals(16, BufferPool.toStripeCount(6));
+        assertEquals(64, BufferPool.toStripeCount(128));
+    }
+}
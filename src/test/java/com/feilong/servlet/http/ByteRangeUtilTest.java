@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ByteRangeUtilTest{
+
+    @Test
+    public void testParse(){
+        List<ByteRange> byteRangeList = ByteRangeUtil.parse("bytes=0-499", 1000);
+        assertEquals(1, byteRangeList.size());
+        assertEquals("bytes 0-499/1000", byteRangeList.get(0).toContentRange(1000));
+        assertEquals(500, byteRangeList.get(0).getLength());
+    }
+
+    @Test
+    public void testParseOpenEnd(){
+        assertEquals("bytes 900-999/1000", ByteRangeUtil.parse("bytes=900-", 1000).get(0).toContentRange(1000));
+    }
+
+    @Test
+    public void testParseEndOverflow(){
+        assertEquals("bytes 900-999/1000", ByteRangeUtil.parse("bytes=900-5000", 1000).get(0).toContentRange(1000));
+    }
+
+    @Test
+    public void testParseSuffix(){
+        assertEquals("bytes 800-999/1000", ByteRangeUtil.parse("bytes=-200", 1000).get(0).toContentRange(1000));
+        assertEquals("bytes 0-999/1000", ByteRangeUtil.parse("bytes=-2000", 1000).get(0).toContentRange(1000));
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testParseUnsatisfiable(){
+        assertTrue(ByteRangeUtil.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRangeUtil.parse("bytes=-0", 1000).isEmpty());
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testParseIgnore(){
+        assertNull(ByteRangeUtil.parse(null, 1000));
+        assertNull(ByteRangeUtil.parse(" ", 1000));
+        assertNull(ByteRangeUtil.parse("items=0-1", 1000));
+        assertNull(ByteRangeUtil.parse("bytes=a-1", 1000));
+        assertNull(ByteRangeUtil.parse("bytes=5-1", 1000));
+        assertNull(ByteRangeUtil.parse("bytes=-", 1000));
+        assertNull(ByteRangeUtil.parse("bytes=0-1", -1));
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testParseMultiple(){
+        assertEquals(2, ByteRangeUtil.parse("bytes=0-1023,500000-501023", 1000000).size());
+    }
+
+    @Test
+    public void testMerge(){
+        List<ByteRange> byteRangeList = ByteRangeUtil.merge(ByteRangeUtil.parse("bytes=500-599,0-99,50-149,150-199,900-", 1000));
+        assertEquals(3, byteRangeList.size());
+        assertEquals("0-199", byteRangeList.get(0).toString());
+        assertEquals("500-599", byteRangeList.get(1).toString());
+        assertEquals("900-999", byteRangeList.get(2).toString());
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.feilong.io.entity.MimeType;
+import com.feilong.servlet.http.entity.DownloadConfig;
+
+public class CompressionResponseWrapperTest{
+
+    @Rule
+    public TemporaryFolder            temporaryFolder = new TemporaryFolder();
+
+    private ServletFakes.FakeResponse fakeResponse    = new ServletFakes.FakeResponse();
+
+    @After
+    public void after(){
+        DeflaterPool.clear();
+        DownloadDigestCache.clear();
+    }
+
+    @Test
+    public void testGzip() throws IOException{
+        byte[] bytes = newBytes(10000);
+        CompressionResponseWrapper wrapper = newWrapper(CompressionFilter.GZIP, "text/html;charset=UTF-8");
+        wrapper.setContentLength(bytes.length);
+        wrapper.setHeader(HttpHeaders.ETAG, "\"abc\"");
+        wrapper.getOutputStream().write(bytes, 0, 100);
+        wrapper.getOutputStream().write(bytes, 100, bytes.length - 100);
+        wrapper.finish();
+
+        assertEquals("gzip", fakeResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, fakeResponse.getHeader(HttpHeaders.VARY));
+        assertEquals("W/\"abc-gzip\"", fakeResponse.getHeader(HttpHeaders.ETAG));
+        assertEquals(-1, fakeResponse.getContentLength());
+        assertTrue(fakeResponse.getBody().length < bytes.length);
+        assertArrayEquals(bytes, readFully(new GZIPInputStream(new ByteArrayInputStream(fakeResponse.getBody()))));
+        assertEquals(1, DeflaterPool.getPooledCount(Deflater.DEFAULT_COMPRESSION, true));
+    }
+
+    @Test
+    public void testDeflateWriter() throws IOException{
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; ++i){
+            sb.append("{\"name\":\"feilong\",\"index\":").append(i).append('}');
+        }
+        CompressionResponseWrapper wrapper = newWrapper(CompressionFilter.DEFLATE, "application/json;charset=UTF-8");
+        PrintWriter writer = wrapper.getWriter();
+        writer.write(sb.toString());
+        writer.flush();
+        wrapper.finish();
+
+        assertEquals("deflate", fakeResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        byte[] inflated = readFully(new InflaterInputStream(new ByteArrayInputStream(fakeResponse.getBody())));
+        assertEquals(sb.toString(), new String(inflated, "UTF-8"));
+        assertEquals(1, DeflaterPool.getPooledCount(Deflater.DEFAULT_COMPRESSION, false));
+    }
+
+    @Test
+    public void testPoolReuse() throws IOException{
+        for (int i = 0; i < 3; ++i){
+            fakeResponse = new ServletFakes.FakeResponse();
+            CompressionResponseWrapper wrapper = newWrapper(CompressionFilter.GZIP, MimeType.TXT.getMime());
+            wrapper.getOutputStream().write(newBytes(5000));
+            wrapper.finish();
+            assertArrayEquals(newBytes(5000), readFully(new GZIPInputStream(new ByteArrayInputStream(fakeResponse.getBody()))));
+        }
+        assertEquals(1, DeflaterPool.getPooledCount(Deflater.DEFAULT_COMPRESSION, true));
+    }
+
+    @Test
+    public void testSmallBody() throws IOException{
+        CompressionResponseWrapper wrapper = newWrapper(CompressionFilter.GZIP, "text/plain");
+        PrintWriter writer = wrapper.getWriter();
+        writer.write("hello");
+        wrapper.finish();
+
+        assertNull(fakeResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, fakeResponse.getHeader(HttpHeaders.VARY));
+        assertEquals(5, fakeResponse.getContentLength());
+        assertEquals("hello", fakeResponse.getBodyAsString());
+    }
+
+    @Test
+    public void testAlreadyCompressedType() throws IOException{
+        byte[] bytes = newBytes(10000);
+        CompressionResponseWrapper wrapper = newWrapper(CompressionFilter.GZIP, MimeType.JPG.getMime());
+        wrapper.setHeader(HttpHeaders.CONTENT_LENGTH, "" + bytes.length);
+        wrapper.getOutputStream().write(bytes);
+        wrapper.finish();
+
+        assertNull(fakeResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertNull(fakeResponse.getHeader(HttpHeaders.VARY));
+        assertEquals(10000, fakeResponse.getContentLength());
+        assertArrayEquals(bytes, fakeResponse.getBody());
+    }
+
+    @Test
+    public void testNoWriteKeepContentLength() throws IOException{
+        //比如容器 sendfile
+        CompressionResponseWrapper wrapper = newWrapper(CompressionFilter.GZIP, MimeType.TXT.getMime());
+        wrapper.setContentLengthLong(1000000L);
+        wrapper.finish();
+
+        assertNull(fakeResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(1000000, fakeResponse.getContentLength());
+    }
+
+    @Test
+    public void testPartialContent() throws IOException{
+        CompressionResponseWrapper wrapper = newWrapper(CompressionFilter.GZIP, "text/plain");
+        fakeResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        wrapper.getOutputStream().write(newBytes(5000));
+        wrapper.finish();
+
+        assertNull(fakeResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(5000, fakeResponse.getBody().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSetWriteListenerWhenCompressing() throws IOException{
+        CompressionResponseWrapper wrapper = newWrapper(CompressionFilter.GZIP, "text/plain");
+        wrapper.getOutputStream().write(newBytes(5000));
+        wrapper.getOutputStream().setWriteListener(null);
+    }
+
+    @Test
+    public void testAsyncComplete() throws Exception{
+        final byte[] bytes = newBytes(10000);
+        final AsyncContext[] asyncContexts = new AsyncContext[1];
+        ServletFakes.FakeRequest fakeRequest = new ServletFakes.FakeRequest("GET").setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        new CompressionFilter().doFilter(fakeRequest.getRequest(), fakeResponse.getResponse(), new FilterChain(){
+
+            @Override
+            public void doFilter(ServletRequest request,ServletResponse response) throws IOException{
+                response.setContentType(MimeType.TXT.getMime());
+                asyncContexts[0] = request.startAsync();
+                response.getOutputStream().write(bytes);
+            }
+        });
+
+        //容器结束异步请求时, 响应体需要已经完整
+        final int[] bodyLengthOnComplete = { -1 };
+        fakeRequest.getAsyncContext().addListener(new AsyncListener(){
+
+            @Override
+            public void onComplete(AsyncEvent event){
+                bodyLengthOnComplete[0] = fakeResponse.getBody().length;
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event){
+            }
+
+            @Override
+            public void onError(AsyncEvent event){
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event){
+            }
+        });
+        //异步线程继续输出
+        asyncContexts[0].getResponse().getOutputStream().write(bytes);
+        asyncContexts[0].complete();
+
+        assertEquals(1, fakeRequest.getAsyncContext().getCompleteCount());
+        assertEquals("gzip", fakeResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(fakeResponse.getBody().length, bodyLengthOnComplete[0]);
+
+        byte[] unzipped = readFully(new GZIPInputStream(new ByteArrayInputStream(fakeResponse.getBody())));
+        assertEquals(bytes.length * 2, unzipped.length);
+        assertEquals(1, DeflaterPool.getPooledCount(Deflater.DEFAULT_COMPRESSION, true));
+    }
+
+    @Test
+    public void testDownload() throws Exception{
+        byte[] bytes = newBytes(10000);
+        File file = temporaryFolder.newFile("a.txt");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)){
+            fileOutputStream.write(bytes);
+        }
+        final DownloadConfig downloadConfig = new DownloadConfig();
+        downloadConfig.setDigestAlgorithm(DigestAlgorithm.MD5);
+        //第一次下载计算摘要, 之后的下载输出 Digest 以及 Content-MD5
+        ResponseDownloadUtil.download(file, downloadConfig, new ServletFakes.FakeRequest("GET").getRequest(), new ServletFakes.FakeResponse().getResponse());
+        assertNotNull(DownloadDigestCache.getDigest(file, DigestAlgorithm.MD5));
+
+        //原样输出的版本
+        ServletFakes.FakeResponse identityResponse = new ServletFakes.FakeResponse();
+        ResponseDownloadUtil.download(file, downloadConfig, new ServletFakes.FakeRequest("GET").getRequest(), identityResponse.getResponse());
+        String eTag = identityResponse.getHeader(HttpHeaders.ETAG);
+        assertEquals("bytes", identityResponse.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertNotNull(identityResponse.getHeader(HttpHeaders.CONTENT_MD5));
+
+        //压缩的版本
+        downloadThroughFilter(file, downloadConfig, new ServletFakes.FakeRequest("GET").setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip"));
+        assertEquals("gzip", fakeResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertNull(fakeResponse.getHeader(HttpHeaders.DIGEST));
+        assertNull(fakeResponse.getHeader(HttpHeaders.CONTENT_MD5));
+        assertEquals("none", fakeResponse.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(CompressionResponseWrapper.toCompressedETag(eTag, "gzip"), fakeResponse.getHeader(HttpHeaders.ETAG));
+        assertNotEquals(eTag, fakeResponse.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(bytes, readFully(new GZIPInputStream(new ByteArrayInputStream(fakeResponse.getBody()))));
+
+        //使用压缩版本的 ETag 续传, 不能返回原始字节的区间
+        fakeResponse = new ServletFakes.FakeResponse();
+        String compressedETag = CompressionResponseWrapper.toCompressedETag(eTag, "gzip");
+        downloadThroughFilter(
+                        file,
+                        downloadConfig,
+                        new ServletFakes.FakeRequest("GET").setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                                        .setHeader(HttpHeaders.RANGE, "bytes=100-")
+                                        .setHeader(HttpHeaders.IF_RANGE, compressedETag));
+        assertEquals(HttpServletResponse.SC_OK, fakeResponse.getStatus());
+        assertArrayEquals(bytes, readFully(new GZIPInputStream(new ByteArrayInputStream(fakeResponse.getBody()))));
+    }
+
+    @Test
+    public void testToCompressedETag(){
+        assertEquals("W/\"100-123-gzip\"", CompressionResponseWrapper.toCompressedETag("W/\"100-123\"", "gzip"));
+        assertEquals("W/\"abc-deflate\"", CompressionResponseWrapper.toCompressedETag("\"abc\"", "deflate"));
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testIsCompressibleType(){
+        assertTrue(CompressionResponseWrapper.isCompressibleType("text/html; charset=UTF-8"));
+        assertTrue(CompressionResponseWrapper.isCompressibleType("application/vnd.api+json"));
+        assertTrue(CompressionResponseWrapper.isCompressibleType(MimeType.JSON.getMime()));
+        assertFalse(CompressionResponseWrapper.isCompressibleType(MimeType.ZIP.getMime()));
+        assertFalse(CompressionResponseWrapper.isCompressibleType(MimeType.GZ.getMime()));
+        assertFalse(CompressionResponseWrapper.isCompressibleType(MimeType.JPG.getMime()));
+        assertFalse(CompressionResponseWrapper.isCompressibleType(null));
+    }
+
+    @Test
+    public void testSelectContentEncoding(){
+        assertEquals("gzip", CompressionFilter.selectContentEncoding("gzip, deflate, br"));
+        assertEquals("deflate", CompressionFilter.selectContentEncoding("gzip;q=0.5, deflate"));
+        assertEquals("deflate", CompressionFilter.selectContentEncoding("deflate"));
+        assertEquals("gzip", CompressionFilter.selectContentEncoding("*"));
+        assertNull(CompressionFilter.selectContentEncoding("gzip;q=0, identity"));
+        assertNull(CompressionFilter.selectContentEncoding("br"));
+        assertNull(CompressionFilter.selectContentEncoding(null));
+    }
+
+    //---------------------------------------------------------------
+
+    private void downloadThroughFilter(final File file,final DownloadConfig downloadConfig,ServletFakes.FakeRequest fakeRequest) throws Exception{
+        new CompressionFilter().doFilter(fakeRequest.getRequest(), fakeResponse.getResponse(), new FilterChain(){
+
+            @Override
+            public void doFilter(ServletRequest request,ServletResponse response){
+                ResponseDownloadUtil.download(file, downloadConfig, (HttpServletRequest) request, (HttpServletResponse) response);
+            }
+        });
+    }
+
+    private CompressionResponseWrapper newWrapper(String contentEncoding,String contentType){
+        fakeResponse.setContentType(contentType);
+        return new CompressionResponseWrapper(fakeResponse.getResponse(), contentEncoding, 1024, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private static byte[] newBytes(int length){
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i){
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException{
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1){
+            outputStream.write(buffer, 0, n);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+}
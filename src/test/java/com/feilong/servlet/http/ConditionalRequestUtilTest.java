@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConditionalRequestUtilTest{
+
+    @Test
+    public void testToWeakETag(){
+        assertEquals("W/\"1024-1489545600000\"", ConditionalRequestUtil.toWeakETag(1024, 1489545600000L));
+        assertEquals("W/\"v2\"", ConditionalRequestUtil.toWeakETag("\"v2\""));
+        assertNull(ConditionalRequestUtil.toWeakETag(null));
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testIsETagMatched(){
+        assertTrue(ConditionalRequestUtil.isETagMatched("W/\"v2\"", "W/\"v2\""));
+        assertTrue(ConditionalRequestUtil.isETagMatched("\"v2\"", "W/\"v2\""));
+        assertTrue(ConditionalRequestUtil.isETagMatched("\"v1\", W/\"v2\"", "W/\"v2\""));
+        assertTrue(ConditionalRequestUtil.isETagMatched(" * ", "W/\"v2\""));
+    }
+
+    @Test
+    public void testIsETagNotMatched(){
+        assertFalse(ConditionalRequestUtil.isETagMatched("\"v1\"", "W/\"v2\""));
+        assertFalse(ConditionalRequestUtil.isETagMatched("v2", "W/\"v2\""));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DelimitedRowWriterTest{
+
+    @Test
+    public void testCsv() throws IOException{
+        List<List<?>> rows = new ArrayList<>();
+        rows.add(Arrays.asList("code", "name", "amount"));
+        rows.add(Arrays.asList("A1", "a,b", 12.5));
+        rows.add(Arrays.asList("A2", "say \"hi\"", null));
+        rows.add(Arrays.asList("A3", "line1\nline2", 0));
+
+        assertEquals(
+                        "code,name,amount\r\nA1,\"a,b\",12.5\r\nA2,\"say \"\"hi\"\"\",\r\nA3,\"line1\nline2\",0\r\n",
+                        write(rows.iterator(), DelimitedFormat.CSV, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTsv() throws IOException{
+        List<List<?>> rows = new ArrayList<>();
+        rows.add(Arrays.asList("a\tb", "c\r\nd", "e,\"f\""));
+
+        assertEquals("a b\tc  d\te,\"f\"\n", write(rows.iterator(), DelimitedFormat.TSV, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEmpty() throws IOException{
+        assertEquals("", write(Collections.<List<?>> emptyIterator(), DelimitedFormat.CSV, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGbk() throws IOException{
+        Charset gbk = Charset.forName("GBK");
+        List<List<?>> rows = new ArrayList<>();
+        rows.add(Arrays.asList("飞龙", "上海"));
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DelimitedRowWriter.write(rows.iterator(), DelimitedFormat.CSV, gbk, byteArrayOutputStream);
+        assertEquals("飞龙,上海\r\n", new String(byteArrayOutputStream.toByteArray(), gbk));
+    }
+
+    /**
+     * 跨越多个缓冲区,并且代理对落在缓冲区边界.
+     */
+    @Test
+    public void testLargeRow() throws IOException{
+        StringBuilder sb = new StringBuilder();
+        sb.append('a');
+        while (sb.length() < DelimitedRowWriter.BUFFER_SIZE * 3){
+            sb.append("\uD83D\uDE00中");
+        }
+        String cell = sb.toString();
+        List<List<?>> rows = new ArrayList<>();
+        for (int i = 0; i < 20; ++i){
+            rows.add(Collections.singletonList(cell));
+        }
+
+        String result = write(rows.iterator(), DelimitedFormat.CSV, StandardCharsets.UTF_8);
+        assertEquals(20 * (cell.length() + 2), result.length());
+        assertEquals(cell + "\r\n", result.substring(0, cell.length() + 2));
+        assertEquals(cell + "\r\n", result.substring(result.length() - cell.length() - 2));
+    }
+
+    private static String write(Iterator<? extends Iterable<?>> rows,DelimitedFormat delimitedFormat,Charset charset) throws IOException{
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DelimitedRowWriter.write(rows, delimitedFormat, charset, byteArrayOutputStream);
+        return new String(byteArrayOutputStream.toByteArray(), charset);
+    }
+}
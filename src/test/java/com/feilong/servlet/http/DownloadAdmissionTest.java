@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DownloadAdmissionTest{
+
+    private static final String CATEGORY = "admission-test";
+
+    //---------------------------------------------------------------
+
+    @After
+    public void after(){
+        DownloadAdmission.remove(CATEGORY);
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testUnlimited(){
+        DownloadAdmission.Permit permit = DownloadAdmission.acquire("not-configured");
+        assertTrue(permit.isGranted());
+        permit.release();
+    }
+
+    @Test
+    public void testRejectWhenSaturated(){
+        DownloadAdmission.configure(CATEGORY, 1, 0, 0);
+
+        DownloadAdmission.Permit first = DownloadAdmission.acquire(CATEGORY);
+        assertTrue(first.isGranted());
+        assertEquals(1, DownloadAdmission.getActiveCount(CATEGORY));
+
+        DownloadAdmission.Permit second = DownloadAdmission.acquire(CATEGORY);
+        assertFalse(second.isGranted());
+        assertTrue(second.getRetryAfterSeconds() >= 1);
+        assertEquals(1, DownloadAdmission.getRejectedCount(CATEGORY));
+
+        //重复归还只归还一次
+        first.release();
+        first.release();
+        second.release();
+        assertEquals(0, DownloadAdmission.getActiveCount(CATEGORY));
+        assertTrue(DownloadAdmission.acquire(CATEGORY).isGranted());
+    }
+
+    @Test
+    public void testWaitTimeout(){
+        DownloadAdmission.configure(CATEGORY, 1, 1, 50);
+        DownloadAdmission.Permit first = DownloadAdmission.acquire(CATEGORY);
+
+        long begin = System.currentTimeMillis();
+        assertFalse(DownloadAdmission.acquire(CATEGORY).isGranted());
+        assertTrue(System.currentTimeMillis() - begin >= 40);
+        assertEquals(0, DownloadAdmission.getWaitingCount(CATEGORY));
+
+        first.release();
+    }
+}
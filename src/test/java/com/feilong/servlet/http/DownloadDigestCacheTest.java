@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DownloadDigestCacheTest{
+
+    private final File file = new File("/tmp/feilong/a.zip");
+
+    @After
+    public void after(){
+        DownloadDigestCache.clear();
+        DownloadDigestCache.setMaxEntries(DownloadDigestCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    @Test
+    public void testCrc32c(){
+        MessageDigest messageDigest = DigestAlgorithm.CRC32C.newMessageDigest();
+        messageDigest.update("123456789".getBytes(StandardCharsets.US_ASCII));
+
+        //RFC 3720 check value 0xE3069283
+        assertEquals("4waSgw==", DownloadDigestCache.toBase64(messageDigest.digest()));
+    }
+
+    @Test
+    public void testToBase64(){
+        MessageDigest messageDigest = DigestAlgorithm.MD5.newMessageDigest();
+        assertEquals("1B2M2Y8AsgTpgAmY7PhCfg==", DownloadDigestCache.toBase64(messageDigest.digest()));
+
+        assertEquals("", DownloadDigestCache.toBase64(new byte[0]));
+        assertEquals("Zg==", DownloadDigestCache.toBase64("f".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("Zm8=", DownloadDigestCache.toBase64("fo".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("Zm9v", DownloadDigestCache.toBase64("foo".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testGet(){
+        DownloadDigestCache.put(file, 10, 1000, DigestAlgorithm.CRC32C, new byte[] { 1, 2, 3, 4 });
+
+        assertEquals("AQIDBA==", DownloadDigestCache.get(file, 10, 1000, DigestAlgorithm.CRC32C));
+
+        //文件变化
+        assertNull(DownloadDigestCache.get(file, 10, 2000, DigestAlgorithm.CRC32C));
+        assertNull(DownloadDigestCache.get(file, 11, 1000, DigestAlgorithm.CRC32C));
+
+        //算法不同
+        assertNull(DownloadDigestCache.get(file, 10, 1000, DigestAlgorithm.MD5));
+    }
+
+    @Test
+    public void testEvict(){
+        DownloadDigestCache.setMaxEntries(2);
+        DownloadDigestCache.put(new File("/tmp/1"), 1, 1, DigestAlgorithm.MD5, new byte[] { 1 });
+        DownloadDigestCache.put(new File("/tmp/2"), 1, 1, DigestAlgorithm.MD5, new byte[] { 2 });
+        DownloadDigestCache.get(new File("/tmp/1"), 1, 1, DigestAlgorithm.MD5);
+        DownloadDigestCache.put(new File("/tmp/3"), 1, 1, DigestAlgorithm.MD5, new byte[] { 3 });
+
+        assertEquals(2, DownloadDigestCache.getEntryCount());
+        assertNull(DownloadDigestCache.get(new File("/tmp/2"), 1, 1, DigestAlgorithm.MD5));
+        assertEquals("AQ==", DownloadDigestCache.get(new File("/tmp/1"), 1, 1, DigestAlgorithm.MD5));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class DownloadResourceTest{
+
+    @Test
+    public void testSupplierNotOpenedUntilNeeded() throws IOException{
+        final AtomicInteger openCount = new AtomicInteger();
+        DownloadResource downloadResource = DownloadResource.of("a.txt", new InputStreamSupplier(){
+
+            @Override
+            public InputStream get(){
+                openCount.incrementAndGet();
+                return new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+            }
+        }, 3);
+
+        assertEquals(3, downloadResource.getContentLength().intValue());
+        assertEquals(0, openCount.get());
+
+        //HEAD 直接关闭, 不会打开
+        downloadResource.close();
+        assertEquals(0, openCount.get());
+
+        InputStream inputStream = downloadResource.getInputStream();
+        assertSame(inputStream, downloadResource.getInputStream());
+        assertEquals(1, openCount.get());
+        assertEquals(1, inputStream.read());
+        downloadResource.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testSupplierFail() throws IOException{
+        DownloadResource.of("a.txt", new InputStreamSupplier(){
+
+            @Override
+            public InputStream get() throws IOException{
+                throw new IOException("remote not available");
+            }
+        }, null).getInputStream();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.feilong.io.entity.MimeType;
+
+public class EncodedResponseCacheTest{
+
+    private ServletFakes.FakeResponse fakeResponse = new ServletFakes.FakeResponse();
+
+    @After
+    public void after(){
+        EncodedResponseCache.clear();
+        EncodedResponseCache.setRefreshExecutor(null);
+    }
+
+    @Test
+    public void testWrite() throws Exception{
+        EncodedResponseCache.put("config", "{\"name\":\"飞龙\"}", MimeType.JSON.getMime());
+
+        assertTrue(EncodedResponseCache.write("config", newRequest(null), fakeResponse.getResponse()));
+        assertEquals("{\"name\":\"飞龙\"}", fakeResponse.getBodyAsString());
+        assertEquals(MimeType.JSON.getMime() + ";charset=UTF-8", fakeResponse.getContentType());
+        assertEquals(fakeResponse.getBody().length, fakeResponse.getContentLength());
+        assertEquals(EncodedResponseCache.getETag("config"), fakeResponse.getHeader(HttpHeaders.ETAG));
+
+        assertFalse(EncodedResponseCache.write("unknown", null, fakeResponse.getResponse()));
+    }
+
+    @Test
+    public void testNotModified(){
+        EncodedResponseCache.put("config", "{}", MimeType.JSON.getMime());
+        String eTag = EncodedResponseCache.getETag("config");
+
+        EncodedResponseCache.write("config", newRequest(eTag), fakeResponse.getResponse());
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, fakeResponse.getStatus());
+        assertEquals(0, fakeResponse.getBody().length);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception{
+        final AtomicInteger version = new AtomicInteger();
+        EncodedResponseCache.register("flags", "text/plain", 0, new ResponseBodyLoader(){
+
+            @Override
+            public CharSequence load(){
+                return "v" + version.incrementAndGet();
+            }
+        });
+        String eTag = EncodedResponseCache.getETag("flags");
+
+        EncodedResponseCache.invalidate("flags");
+        //失效之后的第一次仍然是旧的内容
+        EncodedResponseCache.write("flags", null, fakeResponse.getResponse());
+        assertEquals("v1", fakeResponse.getBodyAsString());
+
+        awaitRefreshed("flags", eTag);
+
+        fakeResponse = new ServletFakes.FakeResponse();
+        EncodedResponseCache.write("flags", null, fakeResponse.getResponse());
+        assertEquals("v2", fakeResponse.getBodyAsString());
+        assertNotEquals(eTag, EncodedResponseCache.getETag("flags"));
+    }
+
+    @Test
+    public void testTtl() throws Exception{
+        final AtomicInteger version = new AtomicInteger();
+        EncodedResponseCache.register("dictionary", "text/plain", 1, new ResponseBodyLoader(){
+
+            @Override
+            public CharSequence load(){
+                return "v" + version.incrementAndGet();
+            }
+        });
+        String eTag = EncodedResponseCache.getETag("dictionary");
+        Thread.sleep(5);
+        EncodedResponseCache.write("dictionary", null, fakeResponse.getResponse());
+        assertEquals("v1", fakeResponse.getBodyAsString());
+
+        awaitRefreshed("dictionary", eTag);
+        assertTrue(version.get() >= 2);
+    }
+
+    @Test
+    public void testDefaultRefreshExecutor() throws Exception{
+        final Thread requestThread = Thread.currentThread();
+        final AtomicReference<Thread> loadThread = new AtomicReference<>();
+        final AtomicInteger version = new AtomicInteger();
+        EncodedResponseCache.register("config", "text/plain", 0, new ResponseBodyLoader(){
+
+            @Override
+            public CharSequence load(){
+                loadThread.set(Thread.currentThread());
+                return "v" + version.incrementAndGet();
+            }
+        });
+        String eTag = EncodedResponseCache.getETag("config");
+        EncodedResponseCache.invalidate("config");
+        EncodedResponseCache.write("config", null, fakeResponse.getResponse());
+        awaitRefreshed("config", eTag);
+
+        //不占用请求线程
+        assertNotSame(requestThread, loadThread.get());
+        assertTrue(loadThread.get().isDaemon());
+        assertNotNull(EncodedResponseCache.getRefreshExecutor());
+    }
+
+    @Test
+    public void testRefreshFailure() throws Exception{
+        final AtomicInteger count = new AtomicInteger();
+        EncodedResponseCache.register("config", "text/plain", 0, new ResponseBodyLoader(){
+
+            @Override
+            public CharSequence load(){
+                if (count.incrementAndGet() > 1){
+                    throw new IllegalStateException("db is down");
+                }
+                return "v1";
+            }
+        });
+        long failureCount = EncodedResponseCache.getRefreshFailureCount();
+
+        assertFalse(EncodedResponseCache.refresh("config"));
+        assertEquals(failureCount + 1, EncodedResponseCache.getRefreshFailureCount());
+
+        EncodedResponseCache.write("config", null, fakeResponse.getResponse());
+        assertEquals("v1", fakeResponse.getBodyAsString());
+    }
+
+    @Test
+    public void testRefreshRetryWithoutTtl() throws Exception{
+        final AtomicInteger count = new AtomicInteger();
+        EncodedResponseCache.register("flags", "text/plain", 0, new ResponseBodyLoader(){
+
+            @Override
+            public CharSequence load(){
+                if (count.incrementAndGet() == 2){
+                    throw new IllegalStateException("db is down");
+                }
+                return "v" + count.get();
+            }
+        });
+        String eTag = EncodedResponseCache.getETag("flags");
+        long refreshRetryMillis = EncodedResponseCache.getRefreshRetryMillis();
+        EncodedResponseCache.setRefreshRetryMillis(1);
+        try{
+            //失效之后刷新失败, 没有 ttl 也要重试
+            EncodedResponseCache.invalidate("flags");
+            assertFalse(EncodedResponseCache.refresh("flags"));
+            Thread.sleep(5);
+            EncodedResponseCache.write("flags", null, fakeResponse.getResponse());
+            assertEquals("v1", fakeResponse.getBodyAsString());
+
+            awaitRefreshed("flags", eTag);
+            assertEquals(3, count.get());
+        }finally{
+            EncodedResponseCache.setRefreshRetryMillis(refreshRetryMillis);
+        }
+    }
+
+    @Test
+    public void testContentTypeCharset(){
+        EncodedResponseCache.put("config", "{}", "application/json; charset=\"utf-8\"");
+        EncodedResponseCache.write("config", null, fakeResponse.getResponse());
+        assertEquals("application/json; charset=\"utf-8\"", fakeResponse.getResponse().getContentType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContentTypeNotUTF8(){
+        EncodedResponseCache.put("config", "飞龙", "text/plain;charset=GBK");
+    }
+
+    @Test
+    public void testRefreshExecutor(){
+        final AtomicInteger executed = new AtomicInteger();
+        EncodedResponseCache.setRefreshExecutor(new Executor(){
+
+            @Override
+            public void execute(Runnable command){
+                executed.incrementAndGet();
+                //不执行, 模拟刷新还没有完成
+            }
+        });
+        EncodedResponseCache.register("config", "text/plain", 0, new ResponseBodyLoader(){
+
+            @Override
+            public CharSequence load(){
+                return "v1";
+            }
+        });
+        EncodedResponseCache.invalidate("config");
+        EncodedResponseCache.write("config", null, fakeResponse.getResponse());
+        EncodedResponseCache.write("config", null, fakeResponse.getResponse());
+
+        //同一时间只有一个刷新
+        assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void testInvalidatePut(){
+        EncodedResponseCache.put("config", "{}", MimeType.JSON.getMime());
+        EncodedResponseCache.invalidate("config");
+        assertNull(EncodedResponseCache.getETag("config"));
+    }
+
+    //---------------------------------------------------------------
+
+    //等待后台刷新替换快照
+    private static void awaitRefreshed(String name,String oldETag) throws InterruptedException{
+        long deadline = System.currentTimeMillis() + 5000;
+        while (oldETag.equals(EncodedResponseCache.getETag(name)) && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertNotEquals(oldETag, EncodedResponseCache.getETag(name));
+    }
+
+    private static HttpServletRequest newRequest(String ifNoneMatch){
+        return new ServletFakes.FakeRequest("GET").setHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch).getRequest();
+    }
+}
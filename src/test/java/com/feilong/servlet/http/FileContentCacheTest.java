@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileContentCacheTest{
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    //---------------------------------------------------------------
+
+    @Before
+    public void before(){
+        FileContentCache.clear();
+        FileContentCache.setMaxBytes(FileContentCache.DEFAULT_MAX_BYTES);
+        FileContentCache.setMaxEntryBytes(FileContentCache.DEFAULT_MAX_ENTRY_BYTES);
+    }
+
+    @After
+    public void after(){
+        before();
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testHit() throws IOException{
+        File file = newFile("a.txt", 10);
+
+        long hitCount = FileContentCache.getHitCount();
+        ByteBuffer first = get(file);
+        ByteBuffer second = get(file);
+
+        assertEquals(10, first.remaining());
+        assertEquals(10, second.remaining());
+        assertEquals(hitCount + 1, FileContentCache.getHitCount());
+        assertEquals(10, FileContentCache.getSize());
+    }
+
+    @Test
+    public void testTooLarge() throws IOException{
+        FileContentCache.setMaxEntryBytes(5);
+        assertNull(get(newFile("a.txt", 10)));
+        assertEquals(0, FileContentCache.getEntryCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException{
+        FileContentCache.setMaxBytes(25);
+        File a = newFile("a.txt", 10);
+        File b = newFile("b.txt", 10);
+        File c = newFile("c.txt", 10);
+
+        long evictionCount = FileContentCache.getEvictionCount();
+        get(a);
+        get(b);
+        //访问 a, b 变成最久没有访问的
+        get(a);
+        get(c);
+
+        assertEquals(evictionCount + 1, FileContentCache.getEvictionCount());
+        assertEquals(2, FileContentCache.getEntryCount());
+        assertEquals(20, FileContentCache.getSize());
+
+        long hitCount = FileContentCache.getHitCount();
+        assertNotNull(get(a));
+        assertEquals(hitCount + 1, FileContentCache.getHitCount());
+    }
+
+    //---------------------------------------------------------------
+
+    private static ByteBuffer get(File file){
+        return FileContentCache.get(file, file.length(), file.lastModified());
+    }
+
+    private File newFile(String name,int length) throws IOException{
+        File file = temporaryFolder.newFile(name);
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)){
+            fileOutputStream.write(new byte[length]);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HistogramTest{
+
+    @Test
+    public void testToBucketIndex(){
+        assertEquals(0, Histogram.toBucketIndex(0));
+        assertEquals(1, Histogram.toBucketIndex(1));
+        assertEquals(2, Histogram.toBucketIndex(3));
+        assertEquals(11, Histogram.toBucketIndex(1024));
+        assertEquals(63, Histogram.toBucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRecord(){
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; ++i){
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(50, histogram.getMean());
+        assertEquals(100, histogram.getMax());
+
+        //50 在 [32,63] 桶
+        assertEquals(63, histogram.getQuantile(0.5));
+        assertEquals(100, histogram.getQuantile(0.99));
+    }
+
+    @Test
+    public void testEmpty(){
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getQuantile(0.99));
+    }
+
+    @Test
+    public void testDefaultDownloadMetricsCollector(){
+        DefaultDownloadMetricsCollector collector = new DefaultDownloadMetricsCollector();
+        collector.collect(DownloadOutcome.COMPLETED, "a.zip", 1000, 1000000000L);
+        collector.collect(DownloadOutcome.ABORTED, "a.zip", 10, 1000L);
+        collector.collect(DownloadOutcome.FAILED, "a.zip", 0, 1000L);
+
+        assertEquals(1, collector.getCompletedCount());
+        assertEquals(1, collector.getAbortedCount());
+        assertEquals(1, collector.getFailedCount());
+        assertEquals(1000, collector.getThroughputHistogram().getMax());
+        assertEquals(1000, collector.getDurationHistogram().getMax());
+    }
+}
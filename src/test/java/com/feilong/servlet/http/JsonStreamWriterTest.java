@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class JsonStreamWriterTest{
+
+    @Test
+    public void testSimple() throws IOException{
+        assertEquals("null", toJson(null));
+        assertEquals("true", toJson(true));
+        assertEquals("12", toJson(12));
+        assertEquals("1.5", toJson(new BigDecimal("1.5")));
+        assertEquals("null", toJson(Double.NaN));
+        assertEquals("null", toJson(Float.POSITIVE_INFINITY));
+        assertEquals("\"SECONDS\"", toJson(TimeUnit.SECONDS));
+        assertEquals("\"c\"", toJson('c'));
+        assertEquals("1000", toJson(new Date(1000)));
+
+        UUID uuid = UUID.randomUUID();
+        assertEquals("\"" + uuid + "\"", toJson(uuid));
+    }
+
+    @Test
+    public void testEscape() throws IOException{
+        assertEquals("\"a\\\"b\\\\c\\n\\r\\t\\u0001\"", toJson("a\"b\\c\n\r\t\u0001"));
+        assertEquals("\"\\u2028\\u2029\"", toJson("\u2028\u2029"));
+        assertEquals("\"飞龙 é \uD83D\uDE00\"", toJson("飞龙 é \uD83D\uDE00"));
+
+        //不成对的代理项
+        assertEquals("\"?a\"", toJson("\uD83Da"));
+    }
+
+    @Test
+    public void testContainer() throws IOException{
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("list", Arrays.asList(1, "a", null));
+        map.put("array", new int[] { 1, 2 });
+        map.put("empty", new Object[0]);
+        map.put("iterator", Arrays.asList(true).iterator());
+        map.put(null, "nullKey");
+        assertEquals("{\"list\":[1,\"a\",null],\"array\":[1,2],\"empty\":[],\"iterator\":[true],\"null\":\"nullKey\"}", toJson(map));
+    }
+
+    @Test
+    public void testBean() throws IOException{
+        User user = new User("飞龙", 18);
+        user.getTags().add("a");
+        assertEquals("{\"age\":18,\"name\":\"飞龙\",\"parent\":null,\"tags\":[\"a\"]}", toJson(user));
+
+        User child = new User("child", 1);
+        child.setParent(user);
+        assertEquals(
+                        "{\"age\":1,\"name\":\"child\",\"parent\":{\"age\":18,\"name\":\"飞龙\",\"parent\":null,\"tags\":[\"a\"]},\"tags\":[]}",
+                        toJson(child));
+
+        //同一个对象出现多次, 但不是循环引用
+        assertEquals("[[],[]]", toJson(Arrays.asList(child.getTags(), child.getTags())));
+    }
+
+    //和 feilong-json 不同的输出, 修改之前需要同步修改 ResponseUtil#writeJsonStreaming 的文档
+    @Test
+    public void testDifferentFromJsonUtil() throws IOException{
+        //日期输出毫秒数
+        assertEquals("1489545600000", toJson(new Date(1489545600000L)));
+        assertEquals("1489545600000", toJson(new Timestamp(1489545600000L)));
+
+        //属性按照名称排序, 不是字段声明的顺序
+        assertEquals("{\"apple\":null,\"banana\":2,\"zebra\":\"z\"}", toJson(new Fruit()));
+
+        //其他 java.* 类型使用 toString
+        assertEquals("\"zh_CN\"", toJson(Locale.SIMPLIFIED_CHINESE));
+        Calendar calendar = Calendar.getInstance();
+        assertEquals(toJson(calendar.toString()), toJson(calendar));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycle() throws IOException{
+        User user = new User("a", 1);
+        user.setParent(user);
+        toJson(user);
+    }
+
+    @Test
+    public void testLarge() throws IOException{
+        //超过缓冲区, 多次写出
+        List<String> list = new ArrayList<>();
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 20000; ++i){
+            String value = "飞龙-" + i;
+            list.add(value);
+            expected.append(i > 0 ? "," : "").append('"').append(value).append('"');
+        }
+        expected.append(']');
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        long count = JsonStreamWriter.write(list, byteArrayOutputStream);
+        assertEquals(expected.toString(), new String(byteArrayOutputStream.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(byteArrayOutputStream.size(), count);
+    }
+
+    //---------------------------------------------------------------
+
+    private static String toJson(Object value) throws IOException{
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        JsonStreamWriter.write(value, byteArrayOutputStream);
+        return new String(byteArrayOutputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    //---------------------------------------------------------------
+
+    public static class Fruit{
+
+        public String getZebra(){
+            return "z";
+        }
+
+        public int getBanana(){
+            return 2;
+        }
+
+        public String getApple(){
+            return null;
+        }
+    }
+
+    public static class User{
+
+        private final String       name;
+
+        private final int          age;
+
+        private User               parent;
+
+        private final List<String> tags = new ArrayList<>();
+
+        public User(String name, int age){
+            this.name = name;
+            this.age = age;
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public int getAge(){
+            return age;
+        }
+
+        public User getParent(){
+            return parent;
+        }
+
+        public void setParent(User parent){
+            this.parent = parent;
+        }
+
+        public List<String> getTags(){
+            return tags;
+        }
+    }
+}
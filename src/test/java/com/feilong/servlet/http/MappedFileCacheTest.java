@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFileCacheTest{
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    //---------------------------------------------------------------
+
+    @Before
+    public void before(){
+        MappedFileCache.clear();
+        MappedFileCache.setMaxBytes(MappedFileCache.DEFAULT_MAX_BYTES);
+    }
+
+    @After
+    public void after(){
+        before();
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testHit() throws IOException{
+        File file = newFile("a.bin", 100);
+
+        long hitCount = MappedFileCache.getHitCount();
+        MappedFileCache.Mapping first = get(file);
+        MappedFileCache.Mapping second = get(file);
+        assertSame(first, second);
+        assertEquals(hitCount + 1, MappedFileCache.getHitCount());
+        assertEquals(1, MappedFileCache.getInUseCount());
+
+        ByteBuffer byteBuffer = first.getByteBuffer();
+        byteBuffer.get();
+        assertEquals(0, second.getByteBuffer().position());
+        assertEquals(100, MappedFileCache.getSize());
+
+        first.release();
+        second.release();
+        assertEquals(0, MappedFileCache.getInUseCount());
+        assertEquals(1, MappedFileCache.getEntryCount());
+    }
+
+    @Test
+    public void testFileChanged() throws IOException{
+        File file = newFile("a.bin", 100);
+        MappedFileCache.Mapping first = get(file);
+        first.release();
+
+        file = newFile("a.bin", 200);
+        MappedFileCache.Mapping second = get(file);
+        assertNotSame(first, second);
+        assertEquals(200, second.getByteBuffer().remaining());
+        assertEquals(200, MappedFileCache.getSize());
+        assertEquals(1, MappedFileCache.getEntryCount());
+        second.release();
+    }
+
+    @Test
+    public void testInUseNotEvicted() throws IOException{
+        MappedFileCache.setMaxBytes(150);
+
+        MappedFileCache.Mapping a = get(newFile("a.bin", 100));
+        MappedFileCache.Mapping b = get(newFile("b.bin", 100));
+
+        //a 正在使用, 暂时超出预算
+        assertEquals(2, MappedFileCache.getEntryCount());
+        assertEquals(200, MappedFileCache.getSize());
+
+        long evictionCount = MappedFileCache.getEvictionCount();
+        a.release();
+        assertEquals(evictionCount + 1, MappedFileCache.getEvictionCount());
+        assertEquals(1, MappedFileCache.getEntryCount());
+        assertEquals(100, MappedFileCache.getSize());
+
+        //释放之后仍然可读
+        assertEquals(100, a.getByteBuffer().remaining());
+        b.release();
+    }
+
+    @Test
+    public void testNotMapped() throws IOException{
+        assertNull(get(newFile("empty.bin", 0)));
+
+        MappedFileCache.setMaxBytes(10);
+        assertNull(get(newFile("a.bin", 100)));
+        assertEquals(0, MappedFileCache.getEntryCount());
+    }
+
+    @Test
+    public void testPartialContentWrite() throws IOException{
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; ++i){
+            data[i] = (byte) i;
+        }
+        PartialContent partialContent = new PartialContent(
+                        Arrays.asList(new ByteRange(0, 9), new ByteRange(500, 599), new ByteRange(990, 999)),
+                        data.length,
+                        "application/octet-stream");
+
+        ByteBuffer content = ByteBuffer.wrap(data).asReadOnlyBuffer();
+        ByteArrayOutputStream fromByteBuffer = new ByteArrayOutputStream();
+        partialContent.write(content, fromByteBuffer);
+        assertEquals(0, content.position());
+
+        ByteArrayOutputStream fromInputStream = new ByteArrayOutputStream();
+        partialContent.write(new ByteArrayInputStream(data), fromInputStream);
+        assertArrayEquals(fromInputStream.toByteArray(), fromByteBuffer.toByteArray());
+        assertEquals(partialContent.getContentLength(), fromByteBuffer.size());
+    }
+
+    //---------------------------------------------------------------
+
+    private static MappedFileCache.Mapping get(File file){
+        return MappedFileCache.get(file, file.length(), file.lastModified());
+    }
+
+    private File newFile(String name,int length) throws IOException{
+        File file = new File(temporaryFolder.getRoot(), name);
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) length);
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)){
+            fileOutputStream.write(bytes);
+        }
+        file.setLastModified(System.currentTimeMillis() - length * 1000L);
+        return file;
+    }
+}
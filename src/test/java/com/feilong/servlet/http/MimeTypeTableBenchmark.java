@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.feilong.io.MimeTypeUtil;
+
+/**
+ * {@link MimeTypeTable} 和 {@link MimeTypeUtil#getContentTypeByFileName(String)} 单次查找耗时对比.
+ * 
+ * <p>
+ * 不在 suite 里面,需要时直接运行 {@link #main(String[])}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5,time = 1)
+@Measurement(iterations = 5,time = 1)
+@Fork(1)
+public class MimeTypeTableBenchmark{
+
+    @Param({ "2016-报表.xlsx", "a.b.TXT", "readme" })
+    private String fileName;
+
+    @Benchmark
+    public String mimeTypeUtil(){
+        return MimeTypeUtil.getContentTypeByFileName(fileName);
+    }
+
+    @Benchmark
+    public String mimeTypeTable(){
+        return MimeTypeTable.getContentType(fileName);
+    }
+
+    public static void main(String[] args) throws RunnerException{
+        new Runner(new OptionsBuilder().include(MimeTypeTableBenchmark.class.getSimpleName()).build()).run();
+    }
+}
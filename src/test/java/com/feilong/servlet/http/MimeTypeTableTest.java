@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletContext;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.feilong.io.entity.MimeType;
+
+public class MimeTypeTableTest{
+
+    @After
+    public void after(){
+        MimeTypeTable.clear();
+    }
+
+    @Test
+    public void testGetContentType(){
+        assertEquals(MimeType.TXT.getMime(), MimeTypeTable.getContentType(null, "a.txt"));
+        assertEquals(MimeType.TXT.getMime(), MimeTypeTable.getContentType(null, "a.b.TxT"));
+        assertEquals(MimeType.ZIP.getMime(), MimeTypeTable.getContentType(null, "/data/2016/报表.ZIP"));
+    }
+
+    @Test
+    public void testGetContentTypeNotFound(){
+        assertNull(MimeTypeTable.getContentType(null, null));
+        assertNull(MimeTypeTable.getContentType(null, "readme"));
+        assertNull(MimeTypeTable.getContentType(null, "readme."));
+        assertNull(MimeTypeTable.getContentType(null, "a.unknown"));
+        assertNull(MimeTypeTable.getContentType(null, "a.tx"));
+    }
+
+    @Test
+    public void testServletContext(){
+        ServletContext servletContext = newServletContext("text/plain;charset=UTF-8");
+
+        //容器优先
+        assertEquals("text/plain;charset=UTF-8", MimeTypeTable.getContentType(servletContext, "a.TXT"));
+        //常用扩展名
+        assertEquals("application/pdf", MimeTypeTable.getContentType(servletContext, "a.pdf"));
+        //容器没有的, 保留
+        assertEquals(MimeType.ZIP.getMime(), MimeTypeTable.getContentType(servletContext, "a.zip"));
+        //没有 ServletContext 的不受影响
+        assertEquals(MimeType.TXT.getMime(), MimeTypeTable.getContentType(null, "a.txt"));
+    }
+
+    @Test
+    public void testServletContextIsolated(){
+        ServletContext servletContext = newServletContext("text/plain;charset=UTF-8");
+        ServletContext otherServletContext = newServletContext("text/plain;charset=GBK");
+
+        //每个应用使用自己的 mime-mapping
+        assertEquals("text/plain;charset=UTF-8", MimeTypeTable.getContentType(servletContext, "a.txt"));
+        assertEquals("text/plain;charset=GBK", MimeTypeTable.getContentType(otherServletContext, "a.txt"));
+        assertEquals("text/plain;charset=UTF-8", MimeTypeTable.getContentType(servletContext, "a.txt"));
+    }
+
+    private static ServletContext newServletContext(final String txtMimeType){
+        return (ServletContext) Proxy.newProxyInstance(
+                        ServletContext.class.getClassLoader(),
+                        new Class<?>[] { ServletContext.class },
+                        new InvocationHandler(){
+
+                            @Override
+                            public Object invoke(Object proxy,Method method,Object[] args){
+                                if ("hashCode".equals(method.getName())){
+                                    return System.identityHashCode(proxy);
+                                }
+                                if ("equals".equals(method.getName())){
+                                    return proxy == args[0];
+                                }
+                                if (!"getMimeType".equals(method.getName())){
+                                    return null;
+                                }
+                                String file = (String) args[0];
+                                if (file.endsWith(".txt")){
+                                    return txtMimeType;
+                                }
+                                return file.endsWith(".pdf") ? "application/pdf" : null;
+                            }
+                        });
+    }
+}
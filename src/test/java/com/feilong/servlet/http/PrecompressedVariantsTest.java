@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrecompressedVariantsTest{
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testGetQuality(){
+        assertEquals(1, PrecompressedVariants.getQuality("gzip, deflate, br", "br"), 0);
+        assertEquals(0.5, PrecompressedVariants.getQuality("gzip;q=0.5", "gzip"), 0);
+        assertEquals(0, PrecompressedVariants.getQuality("gzip;q=0.5", "br"), 0);
+        assertEquals(0.1, PrecompressedVariants.getQuality("*;q=0.1", "br"), 0);
+        assertEquals(0, PrecompressedVariants.getQuality("br;q=0, *", "br"), 0);
+    }
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testSelectEncoding() throws IOException{
+        File file = newFile("app.js", 1000000L);
+        newFile("app.js.gz", 1000000L);
+        newFile("app.js.br", 1000000L);
+
+        PrecompressedVariants precompressedVariants = PrecompressedVariants.of(file);
+        assertFalse(precompressedVariants.isEmpty());
+        assertEquals("br", precompressedVariants.selectEncoding("gzip, deflate, br"));
+        assertEquals("gzip", precompressedVariants.selectEncoding("gzip, br;q=0.5"));
+        assertNull(precompressedVariants.selectEncoding("identity"));
+        assertNull(precompressedVariants.selectEncoding(null));
+    }
+
+    @Test
+    public void testStaleVariantIgnored() throws IOException{
+        File file = newFile("style.css", 2000000L);
+        newFile("style.css.gz", 1000000L);
+
+        PrecompressedVariants precompressedVariants = PrecompressedVariants.of(file);
+        assertTrue(precompressedVariants.isEmpty());
+        assertNull(precompressedVariants.selectEncoding("gzip"));
+    }
+
+    @Test
+    public void testCached() throws IOException{
+        File file = newFile("index.html", 1000000L);
+        newFile("index.html.gz", 1000000L);
+
+        assertSame(PrecompressedVariants.of(file), PrecompressedVariants.of(file));
+    }
+
+    @Test
+    public void testResolve() throws IOException{
+        File file = newFile("app.css", 1000000L);
+        File variantFile = newFile("app.css.br", 1000000L);
+
+        DownloadResource downloadResource = PrecompressedVariants.resolve(file, "gzip, br");
+        assertEquals("br", downloadResource.getContentEncoding());
+        assertEquals(variantFile, downloadResource.getFile());
+        assertEquals("app.css", downloadResource.getSaveFileName());
+        assertTrue(downloadResource.getVaryAcceptEncoding());
+
+        downloadResource = PrecompressedVariants.resolve(file, "identity");
+        assertNull(downloadResource.getContentEncoding());
+        assertEquals(file, downloadResource.getFile());
+        assertTrue(downloadResource.getVaryAcceptEncoding());
+
+        File plainFile = newFile("plain.css", 1000000L);
+        assertFalse(PrecompressedVariants.resolve(plainFile, "br").getVaryAcceptEncoding());
+    }
+
+    @Test
+    public void testVariantRegenerated() throws IOException{
+        File file = newFile("main.js", 1000000L);
+        File variantFile = newFile("main.js.gz", 1000000L);
+
+        PrecompressedVariants precompressedVariants = PrecompressedVariants.of(file);
+        //原文件没有变化, 预压缩文件重新生成
+        variantFile.setLastModified(2000000L * 1000);
+
+        DownloadResource downloadResource = PrecompressedVariants.resolve(file, "gzip");
+        assertEquals(variantFile, downloadResource.getFile());
+        assertEquals(2000000L * 1000, downloadResource.getLastModified());
+        assertNotSame(precompressedVariants, PrecompressedVariants.of(file));
+    }
+
+    @Test
+    public void testVariantDeleted() throws IOException{
+        File file = newFile("vendor.js", 1000000L);
+        File variantFile = newFile("vendor.js.br", 1000000L);
+        assertEquals("br", PrecompressedVariants.resolve(file, "br").getContentEncoding());
+
+        assertTrue(variantFile.delete());
+        DownloadResource downloadResource = PrecompressedVariants.resolve(file, "br");
+        assertNull(downloadResource.getContentEncoding());
+        assertEquals(file, downloadResource.getFile());
+        assertTrue(PrecompressedVariants.of(file).isEmpty());
+    }
+
+    @Test
+    public void testLru(){
+        PrecompressedVariants.clearCache();
+        File root = temporaryFolder.getRoot();
+        File first = new File(root, "first.js");
+        File second = new File(root, "second.js");
+        PrecompressedVariants firstVariants = PrecompressedVariants.of(first);
+        PrecompressedVariants secondVariants = PrecompressedVariants.of(second);
+        //访问之后 first 比 second 新
+        PrecompressedVariants.of(first);
+
+        for (int i = 0; i < PrecompressedVariants.MAX_CACHE_SIZE - 1; ++i){
+            PrecompressedVariants.of(new File(root, i + ".js"));
+        }
+        assertEquals(PrecompressedVariants.MAX_CACHE_SIZE, PrecompressedVariants.getCacheSize());
+        assertSame(firstVariants, PrecompressedVariants.of(first));
+        assertNotSame(secondVariants, PrecompressedVariants.of(second));
+        assertEquals(PrecompressedVariants.MAX_CACHE_SIZE, PrecompressedVariants.getCacheSize());
+    }
+
+    //---------------------------------------------------------------
+
+    private File newFile(String name,long lastModified) throws IOException{
+        File file = temporaryFolder.newFile(name);
+        file.setLastModified(lastModified * 1000);
+        return file;
+    }
+}
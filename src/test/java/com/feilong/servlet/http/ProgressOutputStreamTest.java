@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProgressOutputStreamTest{
+
+    @Test
+    public void testProgress() throws IOException{
+        final List<Long> progressList = new ArrayList<>();
+        DownloadProgressListener downloadProgressListener = new DownloadProgressListener(){
+
+            @Override
+            public void onProgress(String saveFileName,long transferredBytes,long totalBytes){
+                progressList.add(transferredBytes);
+            }
+        };
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ProgressOutputStream progressOutputStream = new ProgressOutputStream(byteArrayOutputStream, "a.zip", 25, 10, downloadProgressListener);
+        for (int i = 0; i < 5; ++i){
+            progressOutputStream.write(new byte[5], 0, 5);
+        }
+        progressOutputStream.complete();
+        progressOutputStream.close();
+
+        assertEquals(25, byteArrayOutputStream.size());
+        assertEquals("[10, 20, 25]", progressList.toString());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.AsynchronousFileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReadAheadInputStreamTest{
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    //---------------------------------------------------------------
+
+    @Test
+    public void testRead() throws IOException{
+        byte[] data = newData(BufferPool.getLargeBufferSize() * 3 + 17);
+        File file = newFile(data);
+
+        try (InputStream inputStream = new ReadAheadInputStream(file)){
+            assertArrayEquals(data, readFully(inputStream));
+            assertEquals(-1, inputStream.read());
+        }
+    }
+
+    @Test
+    public void testReadEmpty() throws IOException{
+        try (InputStream inputStream = new ReadAheadInputStream(newFile(new byte[0]))){
+            assertEquals(-1, inputStream.read());
+        }
+    }
+
+    @Test
+    public void testSkip() throws IOException{
+        int bufferSize = BufferPool.getLargeBufferSize();
+        byte[] data = newData(bufferSize * 4);
+        File file = newFile(data);
+
+        try (InputStream inputStream = new ReadAheadInputStream(file)){
+            //当前缓冲区内
+            assertEquals(data[0] & 0xFF, inputStream.read());
+            assertEquals(10, inputStream.skip(10));
+            assertEquals(data[11] & 0xFF, inputStream.read());
+
+            //跨过预读的缓冲区
+            long position = 12;
+            DownloadIOUtil.skipFully(inputStream, bufferSize * 2);
+            position += bufferSize * 2;
+            assertEquals(data[(int) position] & 0xFF, inputStream.read());
+            ++position;
+
+            byte[] rest = readFully(inputStream);
+            assertArrayEquals(Arrays.copyOfRange(data, (int) position, data.length), rest);
+        }
+    }
+
+    @Test
+    public void testCloseBeforeEnd() throws IOException{
+        File file = newFile(newData(BufferPool.getLargeBufferSize() * 2));
+
+        InputStream inputStream = new ReadAheadInputStream(file);
+        inputStream.read();
+        inputStream.close();
+        inputStream.close();
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void testReadFailure() throws Exception{
+        File file = newFile(newData(BufferPool.getLargeBufferSize() * 3));
+
+        try (InputStream inputStream = new ReadAheadInputStream(file)){
+            //模拟磁盘读取失败
+            ((AsynchronousFileChannel) FieldUtils.readField(inputStream, "fileChannel", true)).close();
+            try{
+                readFully(inputStream);
+                fail();
+            }catch (IOException e){
+                //expected
+            }
+
+            //之后的读取不能返回 -1, 否则下载会被当成已经结束
+            try{
+                inputStream.read();
+                fail();
+            }catch (IOException e){
+                assertNotNull(e.getCause());
+            }
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    private static byte[] newData(int length){
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private File newFile(byte[] data) throws IOException{
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)){
+            fileOutputStream.write(data);
+        }
+        return file;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException{
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1){
+            byteArrayOutputStream.write(buffer, 0, count);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * 记录下载结果的 {@link DownloadMetricsCollector},作为 junit rule 使用,测试结束之后恢复原来的收集器.
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class RecordingMetricsCollector extends ExternalResource implements DownloadMetricsCollector{
+
+    private final List<DownloadOutcome> downloadOutcomes = new ArrayList<>();
+
+    private DownloadMetricsCollector    previous;
+
+    @Override
+    protected void before(){
+        previous = DownloadMetrics.getCollector();
+        DownloadMetrics.setCollector(this);
+    }
+
+    @Override
+    protected void after(){
+        DownloadMetrics.setCollector(previous);
+    }
+
+    @Override
+    public synchronized void collect(DownloadOutcome downloadOutcome,String saveFileName,long bytes,long durationNanos){
+        downloadOutcomes.add(downloadOutcome);
+    }
+
+    /**
+     * 获得 记录的下载结果.
+     *
+     * @return the downloadOutcomes
+     */
+    synchronized List<DownloadOutcome> getDownloadOutcomes(){
+        return new ArrayList<>(downloadOutcomes);
+    }
+}
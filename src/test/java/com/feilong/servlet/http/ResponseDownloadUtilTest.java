@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.feilong.servlet.http.entity.DownloadConfig;
+
+public class ResponseDownloadUtilTest{
+
+    private static final String             CATEGORY                  = "response-download-test";
+
+    /** 3GB, 超过 {@link Integer#MAX_VALUE}. */
+    private static final long               LARGE_LENGTH              = 3L * 1024 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder                  temporaryFolder           = new TemporaryFolder();
+
+    @Rule
+    public RecordingMetricsCollector        recordingMetricsCollector = new RecordingMetricsCollector();
+
+    private final ServletFakes.FakeResponse fakeResponse              = new ServletFakes.FakeResponse();
+
+    private final AtomicInteger             openCount                 = new AtomicInteger();
+
+    private final byte[]                    bytes                     = newBytes(100);
+
+    private File                            file;
+
+    @Before
+    public void before() throws IOException{
+        file = temporaryFolder.newFile("a.txt");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)){
+            fileOutputStream.write(bytes);
+        }
+    }
+
+    @After
+    public void after(){
+        FileContentCache.clear();
+    }
+
+    @Test
+    public void testFullContent() throws Exception{
+        ResponseDownloadUtil.download(file, new ServletFakes.FakeRequest("GET").getRequest(), fakeResponse.getResponse());
+
+        assertEquals(HttpServletResponse.SC_OK, fakeResponse.getStatus());
+        assertEquals(100, fakeResponse.getContentLength());
+        assertEquals("bytes", fakeResponse.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(ConditionalRequestUtil.toWeakETag(file.length(), file.lastModified()), fakeResponse.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(bytes, fakeResponse.getBody());
+    }
+
+    @Test
+    public void testPartialContent() throws Exception{
+        download(newRequest().setHeader(HttpHeaders.RANGE, "bytes=10-19"));
+
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, fakeResponse.getStatus());
+        assertEquals("bytes 10-19/100", fakeResponse.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(10, fakeResponse.getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(bytes, 10, 20), fakeResponse.getBody());
+    }
+
+    @Test
+    public void testSuffixRange() throws Exception{
+        download(newRequest().setHeader(HttpHeaders.RANGE, "bytes=-5"));
+
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, fakeResponse.getStatus());
+        assertEquals("bytes 95-99/100", fakeResponse.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 95, 100), fakeResponse.getBody());
+    }
+
+    @Test
+    public void testMultipartContentLength() throws Exception{
+        DownloadConfig cache = new DownloadConfig();
+        cache.setCache(true);
+        DownloadConfig zeroCopy = new DownloadConfig();
+        zeroCopy.setZeroCopy(true);
+        DownloadConfig async = new DownloadConfig();
+        async.setAsync(true);
+
+        //流, 内存, zeroCopy(multipart 不使用 sendfile), 异步输出的 multipart 响应体长度都需要和 Content-Length 一致
+        for (DownloadConfig downloadConfig : Arrays.asList(new DownloadConfig(), cache, zeroCopy, async)){
+            FileContentCache.clear();
+            ServletFakes.FakeResponse multipartResponse = new ServletFakes.FakeResponse();
+            ServletFakes.FakeRequest fakeRequest = newRequest().setHeader(HttpHeaders.RANGE, "bytes=0-9,50-59,90-");
+            ResponseDownloadUtil.download(file, downloadConfig, fakeRequest.getRequest(), multipartResponse.getResponse());
+
+            assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, multipartResponse.getStatus());
+            assertNull(multipartResponse.getHeader(HttpHeaders.CONTENT_RANGE));
+
+            String contentType = multipartResponse.getContentType();
+            assertTrue(contentType, contentType.startsWith("multipart/byteranges; boundary="));
+            String delimiter = "\r\n--" + contentType.substring(contentType.indexOf('=') + 1);
+
+            String body = new String(multipartResponse.getBody(), "ISO-8859-1");
+            assertEquals(multipartResponse.getContentLength(), body.length());
+            assertTrue(body.startsWith(delimiter + "\r\n"));
+            assertTrue(body.contains("Content-Range: bytes 0-9/100\r\n\r\n" + new String(bytes, 0, 10, "ISO-8859-1") + delimiter));
+            assertTrue(body.contains("Content-Range: bytes 50-59/100\r\n\r\n" + new String(bytes, 50, 10, "ISO-8859-1") + delimiter));
+            assertTrue(body.endsWith("Content-Range: bytes 90-99/100\r\n\r\n" + new String(bytes, 90, 10, "ISO-8859-1") + delimiter + "--\r\n"));
+        }
+    }
+
+    @Test
+    public void testSendfile() throws Exception{
+        ServletFakes.FakeRequest fakeRequest = newRequest();
+        fakeRequest.getRequest().setAttribute(RequestAttributes.SENDFILE_SUPPORTED, Boolean.TRUE);
+        ResponseDownloadUtil.download(file, newZeroCopyConfig(), fakeRequest.getRequest(), fakeResponse.getResponse());
+
+        assertEquals(HttpServletResponse.SC_OK, fakeResponse.getStatus());
+        assertEquals(100, fakeResponse.getContentLength());
+        assertEquals(file.getCanonicalPath(), fakeRequest.getAttribute(RequestAttributes.SENDFILE_FILENAME));
+        assertEquals(0L, fakeRequest.getAttribute(RequestAttributes.SENDFILE_FILE_START));
+        assertEquals(100L, fakeRequest.getAttribute(RequestAttributes.SENDFILE_FILE_END));
+        //由容器输出
+        assertEquals(0, fakeResponse.getBody().length);
+    }
+
+    @Test
+    public void testSendfileRange() throws Exception{
+        ServletFakes.FakeRequest fakeRequest = newRequest().setHeader(HttpHeaders.RANGE, "bytes=10-19");
+        fakeRequest.getRequest().setAttribute(RequestAttributes.SENDFILE_SUPPORTED, Boolean.TRUE);
+        ResponseDownloadUtil.download(file, newZeroCopyConfig(), fakeRequest.getRequest(), fakeResponse.getResponse());
+
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, fakeResponse.getStatus());
+        assertEquals("bytes 10-19/100", fakeResponse.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(10L, fakeRequest.getAttribute(RequestAttributes.SENDFILE_FILE_START));
+        assertEquals(20L, fakeRequest.getAttribute(RequestAttributes.SENDFILE_FILE_END));
+        assertEquals(0, fakeResponse.getBody().length);
+    }
+
+    @Test
+    public void testSendfileNotSupported() throws Exception{
+        ServletFakes.FakeRequest fakeRequest = newRequest().setHeader(HttpHeaders.RANGE, "bytes=10-19");
+        ResponseDownloadUtil.download(file, newZeroCopyConfig(), fakeRequest.getRequest(), fakeResponse.getResponse());
+
+        //容器不支持 sendfile, 使用流复制
+        assertNull(fakeRequest.getAttribute(RequestAttributes.SENDFILE_FILENAME));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 10, 20), fakeResponse.getBody());
+    }
+
+    @Test
+    public void testSendfileNotAllowedWhenThrottled() throws Exception{
+        ServletFakes.FakeRequest fakeRequest = newRequest();
+        fakeRequest.getRequest().setAttribute(RequestAttributes.SENDFILE_SUPPORTED, Boolean.TRUE);
+        DownloadConfig downloadConfig = newZeroCopyConfig();
+        downloadConfig.setBytesPerSecond(1024 * 1024);
+        ResponseDownloadUtil.download(file, downloadConfig, fakeRequest.getRequest(), fakeResponse.getResponse());
+
+        assertNull(fakeRequest.getAttribute(RequestAttributes.SENDFILE_FILENAME));
+        assertArrayEquals(bytes, fakeResponse.getBody());
+    }
+
+    @Test
+    public void testRangeNotSatisfiable() throws Exception{
+        download(newRequest().setHeader(HttpHeaders.RANGE, "bytes=200-300"));
+
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, fakeResponse.getStatus());
+        assertEquals("bytes */100", fakeResponse.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, fakeResponse.getBody().length);
+    }
+
+    @Test
+    public void testIfRangeETag() throws Exception{
+        //弱 ETag 不能用于 If-Range, 即使相同也返回完整内容
+        String eTag = ConditionalRequestUtil.toWeakETag(file.length(), file.lastModified());
+        download(newRequest().setHeader(HttpHeaders.RANGE, "bytes=0-9").setHeader(HttpHeaders.IF_RANGE, eTag));
+        assertEquals(HttpServletResponse.SC_OK, fakeResponse.getStatus());
+        assertArrayEquals(bytes, fakeResponse.getBody());
+
+        ServletFakes.FakeResponse strongResponse = new ServletFakes.FakeResponse();
+        ServletFakes.FakeRequest strongRequest = newRequest().setHeader(HttpHeaders.RANGE, "bytes=0-9")
+                        .setHeader(HttpHeaders.IF_RANGE, eTag.substring(2));
+        ResponseDownloadUtil.download(file, strongRequest.getRequest(), strongResponse.getResponse());
+        assertEquals(HttpServletResponse.SC_OK, strongResponse.getStatus());
+        assertArrayEquals(bytes, strongResponse.getBody());
+    }
+
+    @Test
+    public void testIfRangeDate() throws Exception{
+        download(newRequest().setHeader(HttpHeaders.RANGE, "bytes=0-9").setDateHeader(HttpHeaders.IF_RANGE, file.lastModified()));
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, fakeResponse.getStatus());
+
+        ServletFakes.FakeResponse changedResponse = new ServletFakes.FakeResponse();
+        ServletFakes.FakeRequest changedRequest = newRequest().setHeader(HttpHeaders.RANGE, "bytes=0-9")
+                        .setDateHeader(HttpHeaders.IF_RANGE, file.lastModified() - 60000);
+        ResponseDownloadUtil.download(file, changedRequest.getRequest(), changedResponse.getResponse());
+        assertEquals(HttpServletResponse.SC_OK, changedResponse.getStatus());
+        assertArrayEquals(bytes, changedResponse.getBody());
+    }
+
+    @Test
+    public void testNotModified() throws Exception{
+        String eTag = ConditionalRequestUtil.toWeakETag(file.length(), file.lastModified());
+        download(newRequest().setHeader(HttpHeaders.IF_NONE_MATCH, eTag));
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, fakeResponse.getStatus());
+        assertEquals(eTag, fakeResponse.getHeader(HttpHeaders.ETAG));
+        assertEquals(0, fakeResponse.getBody().length);
+    }
+
+    @Test
+    public void testNotModifiedStream() throws Exception{
+        DownloadConfig downloadConfig = new DownloadConfig();
+        downloadConfig.setVersionToken("v1");
+        ServletFakes.FakeRequest fakeRequest = newRequest().setHeader(HttpHeaders.IF_NONE_MATCH, "\"v1\"");
+        ResponseDownloadUtil.download("a.txt", newSupplier(), 100, downloadConfig, fakeRequest.getRequest(), fakeResponse.getResponse());
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, fakeResponse.getStatus());
+        assertEquals(0, openCount.get());
+    }
+
+    @Test
+    public void testHeadDoesNotOpenStream() throws Exception{
+        ServletFakes.FakeRequest fakeRequest = new ServletFakes.FakeRequest("HEAD");
+        ResponseDownloadUtil.download("a.txt", newSupplier(), 100, null, fakeRequest.getRequest(), fakeResponse.getResponse());
+
+        assertEquals(HttpServletResponse.SC_OK, fakeResponse.getStatus());
+        assertEquals(100, fakeResponse.getContentLength());
+        assertEquals(0, fakeResponse.getBody().length);
+        assertEquals(0, openCount.get());
+    }
+
+    @Test
+    public void testServiceUnavailable() throws Exception{
+        DownloadAdmission.configure(CATEGORY, 1, 0, 0);
+        DownloadAdmission.Permit permit = DownloadAdmission.acquire(CATEGORY);
+        try{
+            DownloadConfig downloadConfig = new DownloadConfig();
+            downloadConfig.setCategory(CATEGORY);
+            ResponseDownloadUtil.download("a.txt", newSupplier(), 100, downloadConfig, newRequest().getRequest(), fakeResponse.getResponse());
+
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, fakeResponse.getStatus());
+            assertNotNull(fakeResponse.getHeader(HttpHeaders.RETRY_AFTER));
+            assertEquals(-1, fakeResponse.getContentLength());
+            assertEquals(0, openCount.get());
+        }finally{
+            permit.release();
+            DownloadAdmission.remove(CATEGORY);
+        }
+    }
+
+    @Test
+    public void testContentLengthOverIntegerMaxValue() throws Exception{
+        ServletFakes.FakeRequest fakeRequest = new ServletFakes.FakeRequest("HEAD");
+        ResponseDownloadUtil.download("a.iso", newSupplier(), LARGE_LENGTH, null, fakeRequest.getRequest(), fakeResponse.getResponse());
+
+        assertEquals(LARGE_LENGTH, fakeResponse.getContentLength());
+    }
+
+    @Test
+    public void testContentLengthServlet30Fallback() throws Exception{
+        fakeResponse.setServlet30(true);
+        ServletFakes.FakeRequest fakeRequest = new ServletFakes.FakeRequest("HEAD");
+        ResponseDownloadUtil.download("a.iso", newSupplier(), LARGE_LENGTH, null, fakeRequest.getRequest(), fakeResponse.getResponse());
+
+        assertEquals(String.valueOf(LARGE_LENGTH), fakeResponse.getHeader(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    @Test
+    public void testRuntimeExceptionFailed() throws Exception{
+        DownloadConfig async = new DownloadConfig();
+        async.setAsync(true);
+
+        //同步以及开启异步之前的 RuntimeException 都需要记录 FAILED 并抛出
+        for (DownloadConfig downloadConfig : Arrays.asList(new DownloadConfig(), async)){
+            try{
+                ResponseDownloadUtil.download(
+                                "a.txt",
+                                newFailingSupplier(),
+                                100,
+                                downloadConfig,
+                                newRequest().getRequest(),
+                                new ServletFakes.FakeResponse().getResponse());
+                fail();
+            }catch (IllegalStateException e){
+                assertEquals("db is down", e.getMessage());
+            }
+        }
+        assertEquals(Arrays.asList(DownloadOutcome.FAILED, DownloadOutcome.FAILED), recordingMetricsCollector.getDownloadOutcomes());
+    }
+
+    @Test
+    public void testRuntimeExceptionFailedWhenGenerating() throws Exception{
+        Iterator<List<String>> rows = new Iterator<List<String>>(){
+
+            @Override
+            public boolean hasNext(){
+                return true;
+            }
+
+            @Override
+            public List<String> next(){
+                throw new IllegalStateException("db is down");
+            }
+
+            @Override
+            public void remove(){
+                throw new UnsupportedOperationException();
+            }
+        };
+        try{
+            ResponseDownloadUtil.downloadCsv("a.csv", rows, newRequest().getRequest(), fakeResponse.getResponse());
+            fail();
+        }catch (IllegalStateException e){
+            assertEquals("db is down", e.getMessage());
+        }
+        try{
+            ResponseDownloadUtil.downloadSingleFlight("a", "a.txt", newFailingSupplier(), null, newRequest().getRequest(), fakeResponse.getResponse());
+            fail();
+        }catch (IllegalStateException e){
+            assertEquals("db is down", e.getMessage());
+        }
+        assertEquals(Arrays.asList(DownloadOutcome.FAILED, DownloadOutcome.FAILED), recordingMetricsCollector.getDownloadOutcomes());
+    }
+
+    //---------------------------------------------------------------
+
+    private void download(ServletFakes.FakeRequest fakeRequest){
+        ResponseDownloadUtil.download(file, fakeRequest.getRequest(), fakeResponse.getResponse());
+    }
+
+    private static DownloadConfig newZeroCopyConfig(){
+        DownloadConfig downloadConfig = new DownloadConfig();
+        downloadConfig.setZeroCopy(true);
+        return downloadConfig;
+    }
+
+    private static ServletFakes.FakeRequest newRequest(){
+        return new ServletFakes.FakeRequest("GET");
+    }
+
+    private InputStreamSupplier newSupplier(){
+        return new InputStreamSupplier(){
+
+            @Override
+            public InputStream get(){
+                openCount.incrementAndGet();
+                return new ByteArrayInputStream(bytes);
+            }
+        };
+    }
+
+    private static InputStreamSupplier newFailingSupplier(){
+        return new InputStreamSupplier(){
+
+            @Override
+            public InputStream get(){
+                throw new IllegalStateException("db is down");
+            }
+        };
+    }
+
+    private static byte[] newBytes(int length){
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i){
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        return bytes;
+    }
+}
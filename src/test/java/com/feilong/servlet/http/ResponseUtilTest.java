@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.nio.ByteBuffer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.feilong.io.entity.MimeType;
+
+public class ResponseUtilTest{
+
+    private ServletFakes.FakeResponse fakeResponse = new ServletFakes.FakeResponse();
+
+    @Test
+    public void testWriteBytes() throws Exception{
+        ByteBuffer byteBuffer = ByteBuffer.wrap("xx飞龙".getBytes("UTF-8"), 2, 6);
+        ResponseUtil.write(fakeResponse.getResponse(), byteBuffer, MimeType.TXT.getMime());
+
+        assertEquals("飞龙", fakeResponse.getBodyAsString());
+        assertEquals(6, fakeResponse.getContentLength());
+        assertEquals(2, byteBuffer.position());
+    }
+
+    @Test
+    public void testWriteEncoded() throws Exception{
+        ResponseUtil.writeEncoded(fakeResponse.getResponse(), "{\"name\":\"飞龙\"}", MimeType.JSON.getMime(), "UTF-8");
+
+        assertEquals("{\"name\":\"飞龙\"}", fakeResponse.getBodyAsString());
+        assertEquals(fakeResponse.getBody().length, fakeResponse.getContentLength());
+    }
+
+    @Test
+    public void testWriteJsonConditional() throws Exception{
+        ResponseUtil.writeJson(newRequest("GET", null), fakeResponse.getResponse(), "{\"status\":1}");
+        String eTag = fakeResponse.getHeader(HttpHeaders.ETAG);
+
+        assertEquals("{\"status\":1}", fakeResponse.getBodyAsString());
+        assertEquals(fakeResponse.getBody().length, fakeResponse.getContentLength());
+        assertEquals(MimeType.JSON.getMime() + ";charset=UTF-8", fakeResponse.getContentType());
+
+        //未修改
+        fakeResponse = new ServletFakes.FakeResponse();
+        ResponseUtil.writeJson(newRequest("GET", "\"other\", " + eTag), fakeResponse.getResponse(), "{\"status\":1}");
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, fakeResponse.getStatus());
+        assertEquals(eTag, fakeResponse.getHeader(HttpHeaders.ETAG));
+        assertEquals(0, fakeResponse.getBody().length);
+
+        //内容变化
+        fakeResponse = new ServletFakes.FakeResponse();
+        ResponseUtil.writeJson(newRequest("GET", eTag), fakeResponse.getResponse(), "{\"status\":2}");
+        assertEquals(HttpServletResponse.SC_OK, fakeResponse.getStatus());
+        assertNotEquals(eTag, fakeResponse.getHeader(HttpHeaders.ETAG));
+        assertEquals("{\"status\":2}", fakeResponse.getBodyAsString());
+    }
+
+    @Test
+    public void testWriteTextConditionalPost() throws Exception{
+        ResponseUtil.writeText(newRequest("GET", null), fakeResponse.getResponse(), "ok");
+        String eTag = fakeResponse.getHeader(HttpHeaders.ETAG);
+
+        fakeResponse = new ServletFakes.FakeResponse();
+        ResponseUtil.writeText(newRequest("POST", eTag), fakeResponse.getResponse(), "ok");
+        assertEquals(HttpServletResponse.SC_OK, fakeResponse.getStatus());
+        assertEquals("ok", fakeResponse.getBodyAsString());
+    }
+
+    //---------------------------------------------------------------
+
+    private static HttpServletRequest newRequest(String method,String ifNoneMatch){
+        return new ServletFakes.FakeRequest(method).setHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch).getRequest();
+    }
+}
@@ -0,0 +1,669 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 测试共用的 servlet 假对象.
+ * 
+ * <p>
+ * request 以及 response 基于 {@link Proxy},只实现了测试用到的方法,其他方法返回 null(基本类型返回默认值).
+ * </p>
+ *
+ * @author <a href="http://feitianbenyue.iteye.com/">feilong</a>
+ * @since 2.1.0
+ */
+final class ServletFakes{
+
+    /** Don't let anyone instantiate this class. */
+    private ServletFakes(){
+        //AssertionError不是必须的. 但它可以避免不小心在类的内部调用构造器. 保证该类在任何情况下都不会被实例化.
+        //see 《Effective Java》 2nd
+        throw new AssertionError("No " + getClass().getName() + " instances for you!");
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 格式化 HTTP-date.
+     *
+     * @param time
+     *            the time
+     * @return the string
+     */
+    static String formatHttpDate(long time){
+        return newHttpDateFormat().format(new Date(time));
+    }
+
+    private static SimpleDateFormat newHttpDateFormat(){
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return simpleDateFormat;
+    }
+
+    private static Object defaultValue(Class<?> returnType){
+        if (boolean.class == returnType){
+            return false;
+        }
+        if (int.class == returnType){
+            return 0;
+        }
+        if (long.class == returnType){
+            return 0L;
+        }
+        return null;
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 输出到内存的 {@link ServletOutputStream},可以切换 {@link #isReady()},模拟非阻塞输出.
+     */
+    static final class FakeServletOutputStream extends ServletOutputStream{
+
+        private final ByteArrayOutputStream body  = new ByteArrayOutputStream();
+
+        private volatile boolean            ready = true;
+
+        private volatile WriteListener      writeListener;
+
+        /** 写数据时抛出的异常,比如模拟客户端中断. */
+        private volatile IOException        writeException;
+
+        private int                         flushCount;
+
+        private boolean                     closed;
+
+        @Override
+        public synchronized void write(int b) throws IOException{
+            checkWritable();
+            body.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b,int off,int len) throws IOException{
+            checkWritable();
+            body.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException{
+            checkWritable();
+            flushCount++;
+        }
+
+        @Override
+        public synchronized void close(){
+            closed = true;
+        }
+
+        @Override
+        public boolean isReady(){
+            return ready;
+        }
+
+        /**
+         * 和容器一样,设置之后如果可写,回调 {@link WriteListener#onWritePossible()}.
+         */
+        @Override
+        public void setWriteListener(WriteListener writeListener){
+            this.writeListener = writeListener;
+            if (ready){
+                fireWritePossible();
+            }
+        }
+
+        /**
+         * 设置是否可写;从不可写变成可写时,回调 {@link WriteListener#onWritePossible()}.
+         *
+         * @param ready
+         *            the ready
+         */
+        void setReady(boolean ready){
+            boolean becameReady = ready && !this.ready;
+            this.ready = ready;
+            if (becameReady && null != writeListener){
+                fireWritePossible();
+            }
+        }
+
+        void setWriteException(IOException writeException){
+            this.writeException = writeException;
+        }
+
+        private void fireWritePossible(){
+            try{
+                writeListener.onWritePossible();
+            }catch (IOException e){
+                writeListener.onError(e);
+            }
+        }
+
+        private void checkWritable() throws IOException{
+            if (null != writeException){
+                throw writeException;
+            }
+        }
+
+        synchronized byte[] toByteArray(){
+            return body.toByteArray();
+        }
+
+        synchronized String toString(String charsetName) throws UnsupportedEncodingException{
+            return body.toString(charsetName);
+        }
+
+        synchronized int size(){
+            return body.size();
+        }
+
+        synchronized void reset(){
+            body.reset();
+        }
+
+        synchronized int getFlushCount(){
+            return flushCount;
+        }
+
+        synchronized boolean isClosed(){
+            return closed;
+        }
+
+        WriteListener getWriteListener(){
+            return writeListener;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 记录 status, header 以及响应体的 {@link HttpServletResponse}.
+     */
+    static final class FakeResponse implements InvocationHandler{
+
+        private final FakeServletOutputStream outputStream      = new FakeServletOutputStream();
+
+        private final Map<String, String>     headers           = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        private final HttpServletResponse     response          = (HttpServletResponse) Proxy.newProxyInstance(
+                        HttpServletResponse.class.getClassLoader(),
+                        new Class<?>[] { HttpServletResponse.class },
+                        this);
+
+        private int                           status            = HttpServletResponse.SC_OK;
+
+        private String                        contentType;
+
+        private String                        characterEncoding = "UTF-8";
+
+        private long                          contentLength     = -1;
+
+        private boolean                       committed;
+
+        /** 模拟 Servlet 3.0 容器,没有 setContentLengthLong. */
+        private boolean                       servlet30;
+
+        private PrintWriter                   writer;
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+         */
+        @Override
+        public synchronized Object invoke(Object proxy,Method method,Object[] args) throws IOException{
+            switch (method.getName()) {
+                case "getOutputStream":
+                    return outputStream;
+                case "getWriter":
+                    if (null == writer){
+                        writer = new PrintWriter(new OutputStreamWriter(outputStream, characterEncoding));
+                    }
+                    return writer;
+                case "setContentType":
+                    contentType = (String) args[0];
+                    return null;
+                case "getContentType":
+                    return contentType;
+                case "setCharacterEncoding":
+                    characterEncoding = (String) args[0];
+                    return null;
+                case "getCharacterEncoding":
+                    return characterEncoding;
+                case "setStatus":
+                    status = (Integer) args[0];
+                    return null;
+                case "getStatus":
+                    return status;
+                case "sendError":
+                    status = (Integer) args[0];
+                    committed = true;
+                    return null;
+                case "setContentLengthLong":
+                    if (servlet30){
+                        throw new AbstractMethodError("setContentLengthLong");
+                    }
+                    setContentLength(((Number) args[0]).longValue());
+                    return null;
+                case "setContentLength":
+                    setContentLength(((Number) args[0]).longValue());
+                    return null;
+                case "setHeader":
+                case "addHeader":
+                case "setIntHeader":
+                case "addIntHeader":
+                    setHeader((String) args[0], String.valueOf(args[1]));
+                    return null;
+                case "setDateHeader":
+                case "addDateHeader":
+                    setHeader((String) args[0], formatHttpDate((Long) args[1]));
+                    return null;
+                case "getHeader":
+                    return headers.get(args[0]);
+                case "containsHeader":
+                    return headers.containsKey(args[0]);
+                case "getHeaderNames":
+                    return new ArrayList<>(headers.keySet());
+                case "reset":
+                    if (committed){
+                        throw new IllegalStateException("response is committed");
+                    }
+                    headers.clear();
+                    status = HttpServletResponse.SC_OK;
+                    contentType = null;
+                    contentLength = -1;
+                    outputStream.reset();
+                    return null;
+                case "resetBuffer":
+                    outputStream.reset();
+                    return null;
+                case "flushBuffer":
+                    committed = true;
+                    return null;
+                case "isCommitted":
+                    return committed;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private void setContentLength(long length){
+            contentLength = length;
+            headers.put(HttpHeaders.CONTENT_LENGTH, String.valueOf(length));
+        }
+
+        private void setHeader(String name,String value){
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)){
+                setContentLength(Long.parseLong(value));
+                return;
+            }
+            headers.put(name, value);
+        }
+
+        HttpServletResponse getResponse(){
+            return response;
+        }
+
+        synchronized FakeResponse setServlet30(boolean servlet30){
+            this.servlet30 = servlet30;
+            return this;
+        }
+
+        FakeServletOutputStream getOutputStream(){
+            return outputStream;
+        }
+
+        synchronized String getHeader(String name){
+            return headers.get(name);
+        }
+
+        synchronized int getStatus(){
+            return status;
+        }
+
+        synchronized void setStatus(int status){
+            this.status = status;
+        }
+
+        synchronized String getContentType(){
+            return contentType;
+        }
+
+        synchronized void setContentType(String contentType){
+            this.contentType = contentType;
+        }
+
+        /**
+         * 获得 设置的 Content-Length, 没有设置时是 -1.
+         *
+         * @return the contentLength
+         */
+        synchronized long getContentLength(){
+            return contentLength;
+        }
+
+        byte[] getBody(){
+            return outputStream.toByteArray();
+        }
+
+        String getBodyAsString() throws UnsupportedEncodingException{
+            return outputStream.toString("UTF-8");
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 可以设置 method, header, attribute 以及异步支持的 {@link HttpServletRequest}.
+     */
+    static final class FakeRequest implements InvocationHandler{
+
+        private final Map<String, String> headers        = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        private final Map<String, Object> attributes     = new HashMap<>();
+
+        private final HttpServletRequest  request        = (HttpServletRequest) Proxy.newProxyInstance(
+                        HttpServletRequest.class.getClassLoader(),
+                        new Class<?>[] { HttpServletRequest.class },
+                        this);
+
+        private final String              method;
+
+        private boolean                   asyncSupported = true;
+
+        private FakeAsyncContext          asyncContext;
+
+        private ServletContext            servletContext;
+
+        FakeRequest(String method){
+            this.method = method;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+         */
+        @Override
+        public synchronized Object invoke(Object proxy,Method invokedMethod,Object[] args){
+            switch (invokedMethod.getName()) {
+                case "getMethod":
+                    return method;
+                case "getHeader":
+                    return headers.get(args[0]);
+                case "getHeaders":
+                    String value = headers.get(args[0]);
+                    return Collections.enumeration(null == value ? Collections.<String> emptyList() : Collections.singletonList(value));
+                case "getDateHeader":
+                    return parseDateHeader((String) args[0]);
+                case "getAttribute":
+                    return attributes.get(args[0]);
+                case "setAttribute":
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                case "removeAttribute":
+                    attributes.remove(args[0]);
+                    return null;
+                case "getServletContext":
+                    return servletContext;
+                case "isAsyncSupported":
+                    return asyncSupported;
+                case "startAsync":
+                    if (!asyncSupported){
+                        throw new IllegalStateException("async not supported");
+                    }
+                    asyncContext = null == args ? new FakeAsyncContext(request, null)
+                                    : new FakeAsyncContext((ServletRequest) args[0], (ServletResponse) args[1]);
+                    return asyncContext;
+                case "isAsyncStarted":
+                    return null != asyncContext && !asyncContext.isCompleted();
+                case "getAsyncContext":
+                    if (null == asyncContext){
+                        throw new IllegalStateException("async not started");
+                    }
+                    return asyncContext;
+                default:
+                    return defaultValue(invokedMethod.getReturnType());
+            }
+        }
+
+        private long parseDateHeader(String name){
+            String value = headers.get(name);
+            if (null == value){
+                return -1;
+            }
+            try{
+                return newHttpDateFormat().parse(value).getTime();
+            }catch (ParseException e){
+                throw new IllegalArgumentException(value, e);
+            }
+        }
+
+        HttpServletRequest getRequest(){
+            return request;
+        }
+
+        synchronized FakeRequest setHeader(String name,String value){
+            headers.put(name, value);
+            return this;
+        }
+
+        synchronized FakeRequest setDateHeader(String name,long value){
+            headers.put(name, formatHttpDate(value));
+            return this;
+        }
+
+        synchronized FakeRequest setAsyncSupported(boolean asyncSupported){
+            this.asyncSupported = asyncSupported;
+            return this;
+        }
+
+        synchronized FakeRequest setServletContext(ServletContext servletContext){
+            this.servletContext = servletContext;
+            return this;
+        }
+
+        synchronized Object getAttribute(String name){
+            return attributes.get(name);
+        }
+
+        synchronized FakeAsyncContext getAsyncContext(){
+            return asyncContext;
+        }
+    }
+
+    //---------------------------------------------------------------
+
+    /**
+     * 记录 {@link #complete()} 次数,可以手动触发超时以及异常的 {@link AsyncContext}.
+     */
+    static final class FakeAsyncContext implements AsyncContext{
+
+        private final ServletRequest      request;
+
+        private final ServletResponse     response;
+
+        private final List<AsyncListener> asyncListeners = new ArrayList<>();
+
+        private long                      timeout        = 30000;
+
+        private int                       completeCount;
+
+        private FakeAsyncContext(ServletRequest request, ServletResponse response){
+            this.request = request;
+            this.response = response;
+        }
+
+        @Override
+        public ServletRequest getRequest(){
+            return request;
+        }
+
+        @Override
+        public ServletResponse getResponse(){
+            return response;
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse(){
+            return true;
+        }
+
+        @Override
+        public void dispatch(){
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatch(String path){
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatch(ServletContext context,String path){
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * 和容器一样,第一次调用时回调 {@link AsyncListener#onComplete(AsyncEvent)}.
+         */
+        @Override
+        public void complete(){
+            List<AsyncListener> listeners;
+            synchronized (this){
+                completeCount++;
+                if (completeCount > 1){
+                    return;
+                }
+                listeners = new ArrayList<>(asyncListeners);
+            }
+            for (AsyncListener asyncListener : listeners){
+                try{
+                    asyncListener.onComplete(new AsyncEvent(this, request, response));
+                }catch (IOException e){
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        /**
+         * 直接在当前线程执行.
+         */
+        @Override
+        public void start(Runnable run){
+            run.run();
+        }
+
+        @Override
+        public synchronized void addListener(AsyncListener listener){
+            asyncListeners.add(listener);
+        }
+
+        @Override
+        public synchronized void addListener(AsyncListener listener,ServletRequest servletRequest,ServletResponse servletResponse){
+            asyncListeners.add(listener);
+        }
+
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> clazz){
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void setTimeout(long timeout){
+            this.timeout = timeout;
+        }
+
+        @Override
+        public synchronized long getTimeout(){
+            return timeout;
+        }
+
+        /**
+         * 模拟容器超时: 回调 {@link AsyncListener#onTimeout(AsyncEvent)},如果没有 listener 调用 complete,容器结束异步请求.
+         *
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        void fireTimeout() throws IOException{
+            for (AsyncListener asyncListener : getAsyncListeners()){
+                asyncListener.onTimeout(new AsyncEvent(this, request, response));
+            }
+            if (0 == getCompleteCount()){
+                complete();
+            }
+        }
+
+        /**
+         * 模拟容器异常: 回调 {@link AsyncListener#onError(AsyncEvent)},之后容器结束异步请求.
+         *
+         * @param throwable
+         *            the throwable
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        void fireError(Throwable throwable) throws IOException{
+            for (AsyncListener asyncListener : getAsyncListeners()){
+                asyncListener.onError(new AsyncEvent(this, request, response, throwable));
+            }
+            if (0 == getCompleteCount()){
+                complete();
+            }
+        }
+
+        synchronized List<AsyncListener> getAsyncListeners(){
+            return new ArrayList<>(asyncListeners);
+        }
+
+        synchronized int getCompleteCount(){
+            return completeCount;
+        }
+
+        synchronized boolean isCompleted(){
+            return completeCount > 0;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest{
+
+    private static final int FOLLOWERS = 4;
+
+    @Test
+    public void testWrite() throws Exception{
+        //超过内存部分, 会使用临时文件
+        final byte[] data = new byte[SingleFlight.MEMORY_THRESHOLD * 3 + 123];
+        new Random(1).nextBytes(data);
+
+        final AtomicInteger generateCount = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final InputStreamSupplier inputStreamSupplier = new InputStreamSupplier(){
+
+            @Override
+            public InputStream get(){
+                generateCount.incrementAndGet();
+                return new BlockingInputStream(new ByteArrayInputStream(data), latch);
+            }
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(FOLLOWERS + 1);
+        try{
+            List<Future<byte[]>> futures = new ArrayList<>();
+            futures.add(executorService.submit(newTask("report", inputStreamSupplier)));
+            waitParticipantCount("report", 1);
+            for (int i = 0; i < FOLLOWERS; ++i){
+                futures.add(executorService.submit(newTask("report", inputStreamSupplier)));
+            }
+            waitParticipantCount("report", FOLLOWERS + 1);
+            latch.countDown();
+
+            for (Future<byte[]> future : futures){
+                assertArrayEquals(data, future.get(30, TimeUnit.SECONDS));
+            }
+        }finally{
+            executorService.shutdownNow();
+        }
+        assertEquals(1, generateCount.get());
+        assertEquals(0, SingleFlight.getParticipantCount("report"));
+    }
+
+    @Test
+    public void testLeaderFailed() throws Exception{
+        final CountDownLatch latch = new CountDownLatch(1);
+        final InputStreamSupplier inputStreamSupplier = new InputStreamSupplier(){
+
+            @Override
+            public InputStream get(){
+                return new BlockingInputStream(new ByteArrayInputStream(new byte[0]), latch){
+
+                    @Override
+                    public int read(byte[] b,int off,int len) throws IOException{
+                        super.read(b, off, len);
+                        throw new IOException("generate failed");
+                    }
+                };
+            }
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try{
+            Future<byte[]> leader = executorService.submit(newTask("failed", inputStreamSupplier));
+            waitParticipantCount("failed", 1);
+            Future<byte[]> follower = executorService.submit(newTask("failed", inputStreamSupplier));
+            waitParticipantCount("failed", 2);
+            latch.countDown();
+
+            assertFailed(leader);
+            assertFailed(follower);
+        }finally{
+            executorService.shutdownNow();
+        }
+        assertEquals(0, SingleFlight.getParticipantCount("failed"));
+    }
+
+    @Test
+    public void testSequential() throws IOException{
+        final AtomicInteger generateCount = new AtomicInteger();
+        InputStreamSupplier inputStreamSupplier = new InputStreamSupplier(){
+
+            @Override
+            public InputStream get(){
+                generateCount.incrementAndGet();
+                return new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+            }
+        };
+        assertTrue(SingleFlight.write("sequential", inputStreamSupplier, new ByteArrayOutputStream()));
+        assertTrue(SingleFlight.write("sequential", inputStreamSupplier, new ByteArrayOutputStream()));
+
+        //生成结束之后 key 失效
+        assertEquals(2, generateCount.get());
+    }
+
+    //---------------------------------------------------------------
+
+    private static Callable<byte[]> newTask(final String key,final InputStreamSupplier inputStreamSupplier){
+        return new Callable<byte[]>(){
+
+            @Override
+            public byte[] call() throws IOException{
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                SingleFlight.write(key, inputStreamSupplier, byteArrayOutputStream);
+                return byteArrayOutputStream.toByteArray();
+            }
+        };
+    }
+
+    private static void waitParticipantCount(String key,int count) throws InterruptedException{
+        long deadline = System.currentTimeMillis() + 10000;
+        while (SingleFlight.getParticipantCount(key) < count){
+            assertTrue("timeout waiting participants", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void assertFailed(Future<byte[]> future) throws InterruptedException{
+        try{
+            future.get(30, TimeUnit.SECONDS);
+            fail();
+        }catch (Exception e){
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * 第一次读之前等待 latch.
+     */
+    private static class BlockingInputStream extends FilterInputStream{
+
+        private final CountDownLatch latch;
+
+        private BlockingInputStream(InputStream inputStream, CountDownLatch latch){
+            super(inputStream);
+            this.latch = latch;
+        }
+
+        @Override
+        public int read(byte[] b,int off,int len) throws IOException{
+            try{
+                latch.await();
+            }catch (InterruptedException e){
+                throw new IOException(e);
+            }
+            return super.read(b, off, len);
+        }
+    }
+}
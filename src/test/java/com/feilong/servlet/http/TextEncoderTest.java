@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TextEncoderTest{
+
+    @Test
+    public void testEncode() throws CharacterCodingException{
+        assertEncode("", "UTF-8");
+        assertEncode("{\"name\":\"feilong\"}", "UTF-8");
+        assertEncode("飞龙 é \uD83D\uDE00", "UTF-8");
+        assertEncode("飞龙", "GBK");
+        assertEncode(new StringBuilder("feilong"), "ISO-8859-1");
+    }
+
+    @Test
+    public void testReplace() throws CharacterCodingException{
+        //不成对的代理项
+        assertEquals("?a", toString(TextEncoder.encode("\uD83Da", "UTF-8")));
+        //不能映射
+        assertEquals("?", toString(TextEncoder.encode("飞", "ISO-8859-1")));
+    }
+
+    @Test
+    public void testGrow() throws CharacterCodingException{
+        char[] chars = new char[BufferPool.getLargeBufferSize()];
+        Arrays.fill(chars, '飞');
+        String text = new String(chars);
+        assertEncode(text, "UTF-8");
+    }
+
+    @Test
+    public void testReuse() throws CharacterCodingException{
+        BufferPool.clear();
+        ByteBuffer first = TextEncoder.encode("feilong", "UTF-8");
+        assertEquals(BufferPool.getBufferSize(), first.capacity());
+        TextEncoder.release(first);
+        //归还之后下一次复用
+        ByteBuffer second = TextEncoder.encode("飞龙", "UTF-8");
+        assertSame(first.array(), second.array());
+        TextEncoder.release(second);
+
+        //超过大缓冲区的临时数组不进入缓冲区池
+        char[] chars = new char[BufferPool.getLargeBufferSize() + 1];
+        Arrays.fill(chars, 'a');
+        int pooledCount = BufferPool.getPooledCount();
+        ByteBuffer large = TextEncoder.encode(new String(chars), "UTF-8");
+        assertEquals(chars.length, large.remaining());
+        TextEncoder.release(large);
+        assertEquals(pooledCount, BufferPool.getPooledCount());
+    }
+
+    @Test
+    public void testReleaseOnGrow() throws CharacterCodingException{
+        BufferPool.clear();
+        //估算的长度不够,扩容时归还原来的缓冲区
+        char[] chars = new char[BufferPool.getBufferSize() / 2];
+        Arrays.fill(chars, '飞');
+        ByteBuffer byteBuffer = TextEncoder.encode(new String(chars), "UTF-8");
+        assertEquals(BufferPool.getLargeBufferSize(), byteBuffer.capacity());
+        assertEquals(1, BufferPool.getPooledCount());
+        TextEncoder.release(byteBuffer);
+        assertEquals(2, BufferPool.getPooledCount());
+    }
+
+    //---------------------------------------------------------------
+
+    private static void assertEncode(CharSequence text,String charsetName) throws CharacterCodingException{
+        ByteBuffer byteBuffer = TextEncoder.encode(text, charsetName);
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(bytes);
+        TextEncoder.release(byteBuffer);
+        assertArrayEquals(text.toString().getBytes(Charset.forName(charsetName)), bytes);
+    }
+
+    private static String toString(ByteBuffer byteBuffer){
+        return StandardCharsets.ISO_8859_1.decode(byteBuffer).toString();
+    }
+}
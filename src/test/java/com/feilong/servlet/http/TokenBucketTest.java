@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest{
+
+    @Test
+    public void testUnlimited(){
+        TokenBucket tokenBucket = new TokenBucket();
+        assertEquals(0, tokenBucket.reserve(Integer.MAX_VALUE, 0));
+        assertEquals(0, tokenBucket.reserve(Integer.MAX_VALUE, -1));
+    }
+
+    @Test
+    public void testBurstThenWait(){
+        TokenBucket tokenBucket = new TokenBucket();
+
+        //100 bytes @1000 B/s = 100ms, 在桶容量之内
+        assertTrue(tokenBucket.reserve(100, 1000) <= 0);
+
+        //再取 1000 bytes 需要等待大约 900ms
+        long waitNanos = tokenBucket.reserve(1000, 1000);
+        assertTrue(waitNanos > TimeUnit.MILLISECONDS.toNanos(800));
+        assertTrue(waitNanos <= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    @Test
+    public void testRateChangedAtRuntime(){
+        TokenBucket tokenBucket = new TokenBucket();
+        tokenBucket.reserve(1000, 1000);
+
+        //提速之后, 后续的预约成本变小
+        long waitNanos = tokenBucket.reserve(1000, 1000000);
+        assertTrue(waitNanos < TimeUnit.MILLISECONDS.toNanos(900));
+    }
+}
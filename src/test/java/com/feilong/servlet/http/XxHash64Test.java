@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class XxHash64Test{
+
+    @Test
+    public void testHash(){
+        assertEquals(0xEF46DB3751D8E999L, XxHash64.hash(new byte[0]));
+        assertEquals(0x44BC2CF5AD770999L, XxHash64.hash("abc".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0xFBCEA83C8A378BF1L, XxHash64.hash("Nobody inspects the spammish repetition".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testByteBuffer(){
+        byte[] bytes = "xxabcxx".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, 2, 3);
+        assertEquals(XxHash64.hash("abc".getBytes(StandardCharsets.UTF_8)), XxHash64.hash(byteBuffer));
+        assertEquals(2, byteBuffer.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        direct.put("abc".getBytes(StandardCharsets.UTF_8)).flip();
+        assertEquals(XxHash64.hash("abc".getBytes(StandardCharsets.UTF_8)), XxHash64.hash(direct));
+    }
+
+    @Test
+    public void testDifferent(){
+        byte[] bytes = new byte[100];
+        long hash = XxHash64.hash(bytes);
+        bytes[99] = 1;
+        assertNotEquals(hash, XxHash64.hash(bytes));
+    }
+}
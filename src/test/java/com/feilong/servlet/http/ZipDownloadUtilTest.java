@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2008 feilong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.feilong.servlet.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+public class ZipDownloadUtilTest{
+
+    @Test
+    public void testWriteInputStreams() throws IOException{
+        Map<String, InputStream> nameAndInputStreamMap = new LinkedHashMap<>();
+        nameAndInputStreamMap.put("a.txt", new ByteArrayInputStream("hello".getBytes("UTF-8")));
+        nameAndInputStreamMap.put("dir/b.png", new ByteArrayInputStream(new byte[100]));
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ZipDownloadUtil.writeInputStreams(nameAndInputStreamMap, byteArrayOutputStream);
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))){
+            ZipEntry zipEntry = zipInputStream.getNextEntry();
+            assertEquals("a.txt", zipEntry.getName());
+            assertEquals("hello", read(zipInputStream));
+
+            zipEntry = zipInputStream.getNextEntry();
+            assertEquals("dir/b.png", zipEntry.getName());
+            assertEquals(100, read(zipInputStream).length());
+
+            assertNull(zipInputStream.getNextEntry());
+        }
+    }
+
+    @Test
+    public void testToUniqueName(){
+        Set<String> entryNames = new HashSet<>();
+        assertEquals("a.txt", ZipDownloadUtil.toUniqueName("a.txt", entryNames));
+        assertEquals("a(1).txt", ZipDownloadUtil.toUniqueName("a.txt", entryNames));
+        assertEquals("a(2).txt", ZipDownloadUtil.toUniqueName("a.txt", entryNames));
+        assertEquals("dir.v1/readme", ZipDownloadUtil.toUniqueName("dir.v1/readme", entryNames));
+        assertEquals("dir.v1/readme(1)", ZipDownloadUtil.toUniqueName("dir.v1/readme", entryNames));
+    }
+
+    @Test
+    public void testIsCompressed(){
+        assertTrue(ZipDownloadUtil.isCompressed("photo.JPG"));
+        assertTrue(ZipDownloadUtil.isCompressed("report.docx"));
+        assertFalse(ZipDownloadUtil.isCompressed("report.csv"));
+        assertFalse(ZipDownloadUtil.isCompressed("README"));
+    }
+
+    //---------------------------------------------------------------
+
+    private static String read(InputStream inputStream) throws IOException{
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1){
+            byteArrayOutputStream.write(buffer, 0, read);
+        }
+        return byteArrayOutputStream.toString("UTF-8");
+    }
+}
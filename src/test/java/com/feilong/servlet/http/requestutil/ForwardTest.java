@@ -38,6 +38,7 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
 import javax.servlet.http.Part;
 
 import org.junit.Test;
@@ -234,6 +235,24 @@ public class ForwardTest{
                 return 0;
             }
 
+            @Override
+            public long getContentLengthLong(){
+
+                return 0;
+            }
+
+            @Override
+            public String changeSessionId(){
+
+                return null;
+            }
+
+            @Override
+            public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) throws IOException,ServletException{
+
+                return null;
+            }
+
             @Override
             public String getCharacterEncoding(){
 
@@ -452,6 +471,11 @@ public class ForwardTest{
 
             }
 
+            @Override
+            public void setContentLengthLong(long len){
+
+            }
+
             @Override
             public void setCharacterEncoding(String charset){
 